@@ -48,6 +48,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.prefs.Preferences;
 
 /**
@@ -63,7 +64,12 @@ public class DirectoryManager {
     private static File IGV_DIRECTORY;     // The IGV application directory
     private static File GENOME_CACHE_DIRECTORY;
     private static File GENE_LIST_DIRECTORY;
+    private static File BB_INDEX_DIRECTORY;
+    private static File FEATURE_INDEX_DIRECTORY;
     private static File BAM_CACHE_DIRECTORY;
+
+    private static final int MAX_CACHED_INDEX_FILES = 200;
+    private static final long MAX_CACHED_INDEX_AGE = 30L * 24 * 60 * 60 * 1000;    // 30 days
     final public static String IGV_DIR_USERPREF = "igvDir";
 
 
@@ -254,6 +260,78 @@ public class DirectoryManager {
         return GENE_LIST_DIRECTORY;
     }
 
+    /**
+     * @return directory for the cached indexes of remote bigWig and bigBed files
+     */
+    public static synchronized File getBBIndexDirectory() {
+        if (BB_INDEX_DIRECTORY == null) {
+            File directory = new File(getIgvDirectory(), "bbindex");
+            if (!directory.exists()) {
+                directory.mkdir();
+            }
+            if (!directory.canRead()) {
+                throw new DataLoadException("Cannot read from user directory", directory.getAbsolutePath());
+            } else if (!directory.canWrite()) {
+                throw new DataLoadException("Cannot write to user directory", directory.getAbsolutePath());
+            }
+            pruneCacheDirectory(directory, MAX_CACHED_INDEX_FILES, MAX_CACHED_INDEX_AGE);
+            BB_INDEX_DIRECTORY = directory;
+        }
+        return BB_INDEX_DIRECTORY;
+    }
+
+    /**
+     * @return directory for the cached indexes of local feature files
+     */
+    public static synchronized File getFeatureIndexDirectory() {
+        if (FEATURE_INDEX_DIRECTORY == null) {
+            File directory = new File(getIgvDirectory(), "featureindex");
+            if (!directory.exists()) {
+                directory.mkdir();
+            }
+            if (!directory.canRead()) {
+                throw new DataLoadException("Cannot read from user directory", directory.getAbsolutePath());
+            } else if (!directory.canWrite()) {
+                throw new DataLoadException("Cannot write to user directory", directory.getAbsolutePath());
+            }
+            pruneCacheDirectory(directory, MAX_CACHED_INDEX_FILES, MAX_CACHED_INDEX_AGE);
+            FEATURE_INDEX_DIRECTORY = directory;
+        }
+        return FEATURE_INDEX_DIRECTORY;
+    }
+
+    /**
+     * Delete the files of a cache directory that have not been used (modified) within {@code maxAge} milliseconds,
+     * and all but the {@code maxFiles} most recently used of the rest.  Users of the cache touch a file when it is
+     * used.
+     */
+    static void pruneCacheDirectory(File directory, int maxFiles, long maxAge) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> Long.compare(modified[i2], modified[i1]));
+        long oldest = System.currentTimeMillis() - maxAge;
+        int kept = 0;
+        for (int i : order) {
+            File file = files[i];
+            if (!file.isFile()) {
+                continue;
+            }
+            if (kept < maxFiles && modified[i] >= oldest) {
+                kept++;
+            } else if (!file.delete()) {
+                log.info("Could not delete cache file " + file.getAbsolutePath());
+            }
+        }
+    }
+
     public static synchronized File getCacheDirectory() {
         if (BAM_CACHE_DIRECTORY == null) {
             File defaultDir = getIgvDirectory();
@@ -0,0 +1,459 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+import org.broad.igv.util.stream.IGVMappedFileStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes BigWig, BigBed, and zoom level data blocks directly into primitive arrays, without creating an object per
+ * item.
+ * <p>
+ * Blocks of a query are read in batches.  Blocks adjacent in the file are fetched with a single read, and the
+ * blocks of a batch are inflated on a worker pool, then handed back in order.  A query of only a few blocks is
+ * read one block at a time into buffers reused from block to block, so an instance is not thread safe.
+ */
+class BBDataDecoder {
+
+    private static final int BED_GRAPH = 1;
+    private static final int VAR_STEP = 2;
+    private static final int FIXED_STEP = 3;
+
+    // Queries of fewer blocks than this are read sequentially
+    static final int MIN_PARALLEL_BLOCKS = 4;
+    // Compressed bytes read per batch, and per coalesced read
+    static final int MAX_BATCH_BYTES = 1 << 23;
+    // Blocks separated by at most this many bytes are fetched with one read
+    static final int MAX_GAP = 1 << 12;
+
+    private static ExecutorService executor;
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private final ByteOrder byteOrder;
+    private final int uncompressBufSize;
+
+    private byte[] compressed = new byte[0];
+    private byte[] uncompressed = new byte[0];
+
+    BBDataDecoder(boolean isLowToHigh, int uncompressBufSize) {
+        this.byteOrder = isLowToHigh ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        this.uncompressBufSize = uncompressBufSize;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "BBFile block inflater");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Receives the decompressed data blocks of a query, in file order
+     */
+    interface BlockHandler {
+        void handle(RPTreeLeafNodeItem leafItem, ByteBuffer block);
+    }
+
+    /**
+     * Read and decompress the data blocks of the leaf items, passing them to {@code handler} in order.  A block
+     * is valid only for the duration of the call to the handler.
+     */
+    void readBlocks(SeekableStream fis, List<RPTreeLeafNodeItem> leafItems, BlockHandler handler) throws IOException {
+
+        int nBlocks = leafItems.size();
+        if (nBlocks < MIN_PARALLEL_BLOCKS) {
+            for (RPTreeLeafNodeItem leafItem : leafItems) {
+                handler.handle(leafItem, readBlock(fis, leafItem));
+            }
+            return;
+        }
+
+        int from = 0;
+        while (from < nBlocks) {
+            int to = from + 1;
+            long batchBytes = leafItems.get(from).geDataSize();
+            while (to < nBlocks && batchBytes + leafItems.get(to).geDataSize() <= MAX_BATCH_BYTES) {
+                batchBytes += leafItems.get(to).geDataSize();
+                to++;
+            }
+
+            List<ByteBuffer> blocks = readCoalesced(fis, leafItems.subList(from, to));
+            if (uncompressBufSize == 0) {
+                for (int i = 0; i < blocks.size(); i++) {
+                    handler.handle(leafItems.get(from + i), blocks.get(i).order(byteOrder));
+                }
+            } else {
+                List<Future<ByteBuffer>> futures = new ArrayList<>(blocks.size());
+                for (ByteBuffer block : blocks) {
+                    futures.add(getExecutor().submit(() -> inflate(block)));
+                }
+                try {
+                    for (int i = 0; i < futures.size(); i++) {
+                        handler.handle(leafItems.get(from + i), futures.get(i).get());
+                    }
+                } catch (InterruptedException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted decompressing data blocks");
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * Read the data blocks of the leaf items, which are in file order, joining blocks that are adjacent (or
+     * nearly so) into a single read.
+     *
+     * @return the compressed blocks, one per leaf item
+     */
+    private List<ByteBuffer> readCoalesced(SeekableStream fis, List<RPTreeLeafNodeItem> leafItems) throws IOException {
+
+        List<ByteBuffer> blocks = new ArrayList<>(leafItems.size());
+        int i = 0;
+        while (i < leafItems.size()) {
+            long runStart = leafItems.get(i).getDataOffset();
+            long runEnd = runStart + leafItems.get(i).geDataSize();
+            int j = i + 1;
+            while (j < leafItems.size()) {
+                long offset = leafItems.get(j).getDataOffset();
+                long end = offset + leafItems.get(j).geDataSize();
+                if (offset < runEnd || offset - runEnd > MAX_GAP || end - runStart > MAX_BATCH_BYTES) {
+                    break;
+                }
+                runEnd = end;
+                j++;
+            }
+
+            ByteBuffer run = readRange(fis, runStart, (int) (runEnd - runStart));
+            for (int k = i; k < j; k++) {
+                int position = (int) (leafItems.get(k).getDataOffset() - runStart);
+                int limit = Math.min(run.limit(), position + (int) leafItems.get(k).geDataSize());
+                ByteBuffer block = run.duplicate();
+                block.position(Math.min(position, limit));
+                block.limit(limit);
+                blocks.add(block.slice());
+            }
+            i = j;
+        }
+        return blocks;
+    }
+
+    private static ByteBuffer readRange(SeekableStream fis, long position, int length) throws IOException {
+        if (fis instanceof IGVMappedFileStream) {
+            return ((IGVMappedFileStream) fis).slice(position, length);
+        }
+        byte[] bytes = new byte[length];
+        readFully(fis, position, bytes, length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void readFully(SeekableStream fis, long position, byte[] bytes, int length) throws IOException {
+        fis.seek(position);
+        int n = 0;
+        while (n < length) {
+            int count = fis.read(bytes, n, length - n);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of file reading data block");
+            }
+            n += count;
+        }
+    }
+
+    /**
+     * Inflate a compressed block into a new buffer.  Called on the worker pool.
+     */
+    private ByteBuffer inflate(ByteBuffer block) throws IOException {
+        byte[] input;
+        int offset;
+        int length = block.remaining();
+        if (block.hasArray()) {
+            input = block.array();
+            offset = block.arrayOffset() + block.position();
+        } else {
+            input = new byte[length];
+            block.duplicate().get(input);
+            offset = 0;
+        }
+        byte[] output = new byte[Math.max(uncompressBufSize, 2 * length)];
+        return inflate(inflaters.get(), input, offset, length, output, byteOrder);
+    }
+
+    /**
+     * Read and, if necessary, decompress the data block of a leaf item.  The returned buffer is valid until the
+     * next call.
+     */
+    ByteBuffer readBlock(SeekableStream fis, RPTreeLeafNodeItem leafItem) throws IOException {
+
+        long offset = leafItem.getDataOffset();
+        int size = (int) leafItem.geDataSize();
+
+        if (fis instanceof IGVMappedFileStream) {
+            ByteBuffer block = ((IGVMappedFileStream) fis).slice(offset, size);
+            if (uncompressBufSize == 0) {
+                return block.order(byteOrder);
+            }
+            size = block.remaining();
+            ensureCompressedCapacity(size);
+            block.get(compressed, 0, size);
+        } else {
+            ensureCompressedCapacity(size);
+            readFully(fis, offset, compressed, size);
+            if (uncompressBufSize == 0) {
+                return ByteBuffer.wrap(compressed, 0, size).order(byteOrder);
+            }
+        }
+
+        if (uncompressed.length == 0) {
+            uncompressed = new byte[Math.max(uncompressBufSize, 1024)];
+        }
+        ByteBuffer block = inflate(inflaters.get(), compressed, 0, size, uncompressed, byteOrder);
+        uncompressed = block.array();
+        return block;
+    }
+
+    private void ensureCompressedCapacity(int size) {
+        if (compressed.length < size) {
+            compressed = new byte[Math.max(size, 2 * compressed.length)];
+        }
+    }
+
+    /**
+     * Inflate {@code length} bytes of {@code input}, which may consist of more than one zlib stream, into
+     * {@code output}, growing it if necessary.
+     *
+     * @return a buffer wrapping the output array, possibly a new one, limited to the uncompressed bytes
+     */
+    private static ByteBuffer inflate(Inflater inflater, byte[] input, int offset, int length, byte[] output,
+                                      ByteOrder byteOrder) throws IOException {
+
+        inflater.reset();
+        inflater.setInput(input, offset, length);
+        int count = 0;
+        try {
+            while (true) {
+                if (count == output.length) {
+                    byte[] newOutput = new byte[Math.max(1024, 2 * output.length)];
+                    System.arraycopy(output, 0, newOutput, 0, count);
+                    output = newOutput;
+                }
+                int n = inflater.inflate(output, count, output.length - count);
+                count += n;
+                if (inflater.finished()) {
+                    int remaining = inflater.getRemaining();
+                    if (remaining == 0) {
+                        break;
+                    }
+                    inflater.reset();
+                    inflater.setInput(input, offset + length - remaining, remaining);
+                } else if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;    // Truncated block
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Error decompressing data block", e);
+        }
+        return ByteBuffer.wrap(output, 0, count).order(byteOrder);
+    }
+
+    /**
+     * Decode the wig sections of a data block, adding the items in the selection region to the lists.
+     *
+     * @return the number of items added
+     */
+    int decodeWigBlock(ByteBuffer block, RPChromosomeRegion selectionRegion, boolean contained,
+                       IntArrayList starts, IntArrayList ends, FloatArrayList values) {
+
+        int count = 0;
+        while (block.remaining() >= BigWigSectionHeader.SECTION_HEADER_SIZE) {
+
+            int chromID = block.getInt();
+            int chromStart = block.getInt();
+            int chromEnd = block.getInt();
+            int itemStep = block.getInt();
+            int itemSpan = block.getInt();
+            int type = block.get();
+            block.get();    // reserved
+            int itemCount = block.getShort() & 0xffff;
+
+            if (type != BED_GRAPH && type != VAR_STEP && type != FIXED_STEP) {
+                throw new RuntimeException("Read error on wig section, unknown item type " + type);
+            }
+
+            // Every item of a section contained in the selection is a hit
+            boolean allHits = isContained(chromID, chromStart, chromEnd, selectionRegion);
+            if (allHits) {
+                starts.ensureCapacity(starts.size() + itemCount);
+                ends.ensureCapacity(ends.size() + itemCount);
+                values.ensureCapacity(values.size() + itemCount);
+            }
+
+            for (int i = 0; i < itemCount; i++) {
+                int start;
+                int end;
+                if (type == FIXED_STEP) {
+                    start = chromStart;
+                    end = start + itemSpan;
+                    chromStart += itemStep;
+                } else if (type == VAR_STEP) {
+                    start = block.getInt();
+                    end = start + itemSpan;
+                } else {
+                    start = block.getInt();
+                    end = block.getInt();
+                }
+                float value = block.getFloat();
+
+                if (allHits || isHit(chromID, start, end, selectionRegion, contained)) {
+                    starts.add(start);
+                    ends.add(end);
+                    values.add(value);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decode the records of a zoom level data block, adding those in the selection region to {@code data}.
+     *
+     * @return the number of records added
+     */
+    int decodeZoomBlock(ByteBuffer block, RPChromosomeRegion selectionRegion, boolean contained, ZoomDataArrays data) {
+
+        int count = 0;
+        while (block.remaining() >= ZoomDataRecord.RECORD_SIZE) {
+            int chromID = block.getInt();
+            int chromStart = block.getInt();
+            int chromEnd = block.getInt();
+            int validCount = block.getInt();
+            float minVal = block.getFloat();
+            float maxVal = block.getFloat();
+            float sumData = block.getFloat();
+            float sumSquares = block.getFloat();
+
+            if (isHit(chromID, chromStart, chromEnd, selectionRegion, contained)) {
+                data.add(chromID, chromStart, chromEnd, validCount, minVal, maxVal, sumData, sumSquares);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decode the features of a BigBed data block, adding those in the selection region to {@code features}.  As in
+     * {@link BigBedDataBlock#getBedData(RPChromosomeRegion, boolean)} decoding stops at the first feature past the
+     * end of the selection.
+     *
+     * @return the number of features added
+     */
+    int decodeBedBlock(ByteBuffer block, Map<Integer, String> chromosomeMap, RPChromosomeRegion selectionRegion,
+                       boolean contained, List<BedFeature> features) {
+
+        // chromID + chromStart + chromEnd + rest 0 byte
+        final int minItemSize = 3 * 4 + 1;
+        ByteArrayOutputStream rest = new ByteArrayOutputStream(100);
+        int count = 0;
+        for (int itemNumber = 1; block.remaining() >= minItemSize; itemNumber++) {
+            int chromID = block.getInt();
+            int chromStart = block.getInt();
+            int chromEnd = block.getInt();
+            rest.reset();
+            byte b;
+            while (block.hasRemaining() && (b = block.get()) != 0) {
+                rest.write(b);
+            }
+
+            int hitValue = selectionRegion.compareRegions(chromID, chromStart, chromID, chromEnd);
+            if (hitValue == -2 || (contained && hitValue == -1)) {
+                break;
+            }
+            if (hitValue != 2 && !(contained && hitValue == 1)) {
+                String chromosome = chromosomeMap.get(chromID);
+                features.add(new BedFeature(itemNumber, chromosome, chromStart, chromEnd, new String(rest.toByteArray())));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Equivalent to {@link RPChromosomeRegion#compareRegions(RPChromosomeRegion)} for an item on a single
+     * chromosome, without creating a region for the item.
+     *
+     * @return true if the item is contained in the selection region, or intersects it and {@code contained} is false
+     */
+    static boolean isHit(int chromID, int start, int end, RPChromosomeRegion selectionRegion, boolean contained) {
+
+        if (isContained(chromID, start, end, selectionRegion)) {
+            return true;
+        }
+        if (contained) {
+            return false;
+        }
+        int selStartChromID = selectionRegion.getStartChromID();
+        int selEndChromID = selectionRegion.getEndChromID();
+        boolean disjointBelow = chromID < selStartChromID ||
+                (chromID == selStartChromID && end <= selectionRegion.getStartBase());
+        boolean disjointAbove = chromID > selEndChromID ||
+                (chromID == selEndChromID && start >= selectionRegion.getEndBase());
+        return !disjointBelow && !disjointAbove;
+    }
+
+    private static boolean isContained(int chromID, int start, int end, RPChromosomeRegion selectionRegion) {
+        int selStartChromID = selectionRegion.getStartChromID();
+        int selEndChromID = selectionRegion.getEndChromID();
+        return (chromID > selStartChromID || (chromID == selStartChromID && start >= selectionRegion.getStartBase())) &&
+                (chromID < selEndChromID || (chromID == selEndChromID && end <= selectionRegion.getEndBase()));
+    }
+}
@@ -27,6 +27,9 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+import org.broad.igv.util.stream.IGVMappedFileStream;
 import org.broad.igv.util.stream.IGVSeekableBufferedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
@@ -34,6 +37,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /*
 *   Broad Institute Interactive Genome Viewer Big Binary File (BBFile) Reader
@@ -121,12 +126,20 @@ public class BBFileReader {
     private RPTree chromosomeDataTree;     // Container for the mChromosome data R+ tree
     private String autoSql;
 
+    // Index nodes of this file, shared with other readers
+    private BBIndexCache.FileIndex fileIndex;
+
+    // Decodes data blocks into primitive arrays, reusing its buffers.  Guarded by this reader.
+    private BBDataDecoder dataDecoder;
+
 
     public BBFileReader(String path) throws IOException {
 
         log.debug("Opening BBFile source  " + path);
 
-        fis = new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path), 128000);
+        SeekableStream stream = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+        // A memory-mapped file needs no buffering, data blocks are read directly from the mapping
+        fis = stream instanceof IGVMappedFileStream ? stream : new IGVSeekableBufferedStream(stream, 128000);
 
         // read in file header
         fileOffset = BBFILE_HEADER_OFFSET;
@@ -138,6 +151,12 @@ public class BBFileReader {
             throw new RuntimeException("Error reading BBFile header for: " + path);
         }
 
+        // index nodes cached by an earlier reader of this version of the file are shared
+        byte[] headerBytes = new byte[BBFileHeader.BBFILE_HEADER_SIZE];
+        fis.seek(BBFILE_HEADER_OFFSET);
+        fis.readFully(headerBytes);
+        fileIndex = BBIndexCache.open(fis.getSource(), headerBytes);
+
         // get data characteristics
         isLowToHigh = fileHeader.isLowToHigh();
         uncompressBufSize = fileHeader.getUncompressBuffSize();
@@ -190,11 +209,15 @@ public class BBFileReader {
 
         // get number of data records indexed by the R+ chromosome data location tree
         fileOffset = fileHeader.getFullDataOffset();
+
+        BBIndexCache.save(fileIndex);
     }
 
 
 
     public void close() {
+        // save index nodes loaded on demand since opening
+        BBIndexCache.save(fileIndex);
         try {
             fis.close();
         } catch (IOException e) {
@@ -202,6 +225,10 @@ public class BBFileReader {
         }
     }
 
+    BBIndexCache.FileIndex getFileIndex() {
+        return fileIndex;
+    }
+
     /*
     *   Method returns the Big Binary File header which identifies
     *   the file type and content.
@@ -456,6 +483,140 @@ public class BBFileReader {
         return zoomIterator;
     }
 
+    /**
+     * Reads BigWig values which occupy the specified chromosome region directly into primitive arrays.  Unlike
+     * {@link #getBigWigIterator(String, int, String, int, boolean)} no object is created per value.  All data
+     * blocks for the region are read at once, so that adjacent blocks are fetched together and decompressed in
+     * parallel.
+     * <p/>
+     * Parameters are as for getBigWigIterator, the start, end, and value of each selected item are appended to
+     * {@code starts}, {@code ends}, and {@code values}.
+     * <p/>
+     * Returns:
+     * The number of values read; 0 if the region has no data, or the file is not BigWig.
+     */
+    synchronized public int readBigWigData(String startChromosome, int startBase, String endChromosome, int endBase,
+                                           boolean contained, IntArrayList starts, IntArrayList ends,
+                                           FloatArrayList values) {
+
+        if (!isBigWigFile())
+            return 0;
+
+        RPChromosomeRegion selectionRegion = getChromosomeBounds(startChromosome, startBase,
+                endChromosome, endBase);
+        if (selectionRegion == null)
+            return 0;
+
+        BBDataDecoder decoder = getDataDecoder();
+        int[] count = new int[1];
+        try {
+            decoder.readBlocks(fis, chromosomeDataTree.getChromosomeDataHits(selectionRegion, contained),
+                    (leafItem, block) -> count[0] += decoder.decodeWigBlock(block, selectionRegion, contained, starts, ends, values));
+        } catch (IOException e) {
+            log.error("Error reading Wig data blocks", e);
+            throw new RuntimeException("Error reading Wig data blocks", e);
+        }
+        return count[0];
+    }
+
+    /**
+     * Reads BigBed features which occupy the specified chromosome region.  Parameters are as for
+     * {@link #getBigBedIterator(String, int, String, int, boolean)}, but all data blocks for the region are read
+     * at once, so that adjacent blocks are fetched together and decompressed in parallel.
+     * <p/>
+     * Returns:
+     * The features in the region, in file order; an empty list if the region has no data, or the file is not BigBed.
+     */
+    synchronized public List<BedFeature> readBigBedFeatures(String startChromosome, int startBase,
+                                                            String endChromosome, int endBase, boolean contained) {
+
+        List<BedFeature> features = new ArrayList<>();
+        if (!isBigBedFile())
+            return features;
+
+        RPChromosomeRegion selectionRegion = getChromosomeBounds(startChromosome, startBase,
+                endChromosome, endBase);
+        if (selectionRegion == null)
+            return features;
+
+        BBDataDecoder decoder = getDataDecoder();
+        try {
+            decoder.readBlocks(fis, chromosomeDataTree.getChromosomeDataHits(selectionRegion, contained),
+                    (leafItem, block) -> {
+                        RPChromosomeRegion bounds = leafItem.getChromosomeBounds();
+                        Map<Integer, String> chromosomeMap = chromosomeIDTree.getChromosomeIDMap(
+                                bounds.getStartChromID(), bounds.getEndChromID());
+                        decoder.decodeBedBlock(block, chromosomeMap, selectionRegion, contained, features);
+                    });
+        } catch (IOException e) {
+            log.error("Error reading Bed data blocks", e);
+            throw new RuntimeException("Error reading Bed data blocks", e);
+        }
+        return features;
+    }
+
+    /**
+     * Reads zoom level records for the chromosome selection region directly into primitive arrays.  Parameters
+     * are as for {@link #getZoomLevelIterator(int, String, int, String, int, boolean)}, selected records are
+     * appended to {@code data}.
+     * <p/>
+     * Returns:
+     * The number of records read; 0 if the region has no data.
+     */
+    synchronized public int readZoomLevelData(int zoomLevel, String startChromosome, int startBase,
+                                              String endChromosome, int endBase, boolean contained,
+                                              ZoomDataArrays data) {
+
+        // check for valid zoom level
+        if (zoomLevel < 1 || zoomLevel > zoomLevelCount)
+            throw new RuntimeException("Error: zoom level is out of range\n");
+
+        RPChromosomeRegion selectionRegion = getChromosomeBounds(startChromosome, startBase,
+                endChromosome, endBase);
+        if (selectionRegion == null)
+            return 0;
+
+        return readZoomLevelData(zoomLevels.getZoomLevelRPTree(zoomLevel), selectionRegion, contained, data);
+    }
+
+    /**
+     * Reads zoom level records for all chromosome regions directly into primitive arrays.
+     * <p/>
+     * Returns:
+     * The number of records read.
+     */
+    synchronized public int readZoomLevelData(int zoomLevel, ZoomDataArrays data) {
+
+        // check for valid zoom level
+        if (zoomLevel < 1 || zoomLevel > zoomLevelCount)
+            throw new RuntimeException("Error: zoom level is out of range\n");
+
+        RPTree zoomDataTree = zoomLevels.getZoomLevelRPTree(zoomLevel);
+        return readZoomLevelData(zoomDataTree, zoomDataTree.getChromosomeBounds(), true, data);
+    }
+
+    private int readZoomLevelData(RPTree zoomDataTree, RPChromosomeRegion selectionRegion, boolean contained,
+                                  ZoomDataArrays data) {
+
+        BBDataDecoder decoder = getDataDecoder();
+        int[] count = new int[1];
+        try {
+            decoder.readBlocks(fis, zoomDataTree.getChromosomeDataHits(selectionRegion, contained),
+                    (leafItem, block) -> count[0] += decoder.decodeZoomBlock(block, selectionRegion, contained, data));
+        } catch (IOException e) {
+            log.error("Error reading zoom level data blocks", e);
+            throw new RuntimeException("Error reading zoom level data blocks", e);
+        }
+        return count[0];
+    }
+
+    private BBDataDecoder getDataDecoder() {
+        if (dataDecoder == null) {
+            dataDecoder = new BBDataDecoder(isLowToHigh, uncompressBufSize);
+        }
+        return dataDecoder;
+    }
+
     /*
     *   Method generates a chromosome bounds region for the supplied chromosome region name.
     *
@@ -0,0 +1,269 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.FileUtils;
+import org.broad.igv.util.collections.ConcurrentLRUCache;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.broad.igv.prefs.Constants.BB_INDEX_SIDECAR;
+
+/**
+ * Cache of the raw bytes of R+ and B+ tree index nodes, keyed by file and node offset, and shared by all readers of
+ * a file.  Nodes are cached as they are first read, so lazily loaded parts of an index are only cached once used.
+ * The cache holds the index nodes of a bounded number of files.
+ * <p>
+ * The cached nodes of a remote file are also written to a sidecar file in the user directory, and loaded when the
+ * file is next opened, so that opening a remote file again in a new session skips the index reads.  A cached index
+ * is only used if the file header is unchanged.  Sidecar files are named by, and store, a digest of the file source
+ * rather than the source itself, which may include access tokens.
+ */
+public class BBIndexCache {
+
+    private static Logger log = Logger.getLogger(BBIndexCache.class);
+
+    private static final int MAGIC = 0x42424958;     // "BBIX"
+    private static final int VERSION = 2;
+    private static final int MAX_FILES = 20;
+
+    private static final ConcurrentLRUCache<String, FileIndex> fileIndexes = new ConcurrentLRUCache<>(MAX_FILES);
+
+    /**
+     * Return the cached index of a file, creating (or for a remote file, loading) it if there is none or the file
+     * header has changed.
+     *
+     * @param source the source of the file stream, see {@link SeekableStream#getSource()}
+     * @param header the file header, which identifies the version of the file
+     */
+    static FileIndex open(String source, byte[] header) {
+
+        FileIndex index = fileIndexes.get(source);
+        if (index != null && Arrays.equals(index.header, header)) {
+            return index;
+        }
+
+        index = null;
+        if (useSidecar(source)) {
+            try {
+                index = load(getSidecarFile(source), source, header);
+            } catch (Exception e) {
+                log.error("Error locating index cache for " + source, e);
+            }
+        }
+        if (index == null) {
+            index = new FileIndex(source, header);
+        }
+        fileIndexes.put(source, index);
+        return index;
+    }
+
+    /**
+     * Read an index node at {@code offset}, from the cache if present.  A node is a 4 byte format (type, reserved,
+     * and item count) followed by its items.
+     *
+     * @param leafItemSize  item size of a leaf node (type 1)
+     * @param childItemSize item size of a child node
+     * @return the node bytes, including the format
+     */
+    static byte[] readNode(SeekableStream fis, long offset, boolean isLowToHigh, int leafItemSize, int childItemSize)
+            throws IOException {
+
+        FileIndex index = fileIndexes.get(fis.getSource());
+        byte[] node = index == null ? null : index.nodes.get(offset);
+        if (node != null) {
+            return node;
+        }
+
+        byte[] format = new byte[4];
+        fis.seek(offset);
+        fis.readFully(format);
+        ByteBuffer formatBuffer = ByteBuffer.wrap(format).order(isLowToHigh ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int itemSize = formatBuffer.get(0) == 1 ? leafItemSize : childItemSize;
+        int itemCount = formatBuffer.getShort(2) & 0xffff;
+
+        node = new byte[4 + itemCount * itemSize];
+        System.arraycopy(format, 0, node, 0, 4);
+        int n = 4;
+        while (n < node.length) {
+            int count = fis.read(node, n, node.length - n);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of file reading index node");
+            }
+            n += count;
+        }
+
+        if (index != null) {
+            index.add(offset, node);
+        }
+        return node;
+    }
+
+    /**
+     * Write the cached index of a remote file to its sidecar, if any nodes have been added since it was loaded.
+     */
+    static void save(FileIndex index) {
+        if (index.dirty && useSidecar(index.source)) {
+            try {
+                write(index, getSidecarFile(index.source));
+            } catch (Exception e) {
+                log.error("Error writing index cache for " + index.source, e);
+            }
+        }
+    }
+
+    /**
+     * Remove all cached indexes from memory.  Sidecar files are not affected.
+     */
+    public static void clear() {
+        fileIndexes.clear();
+    }
+
+    private static boolean useSidecar(String source) {
+        return FileUtils.isRemote(source) && PreferencesManager.getPreferences().getAsBoolean(BB_INDEX_SIDECAR);
+    }
+
+    private static File getSidecarFile(String source) {
+        return new File(DirectoryManager.getBBIndexDirectory(), digest(source) + ".bbi");
+    }
+
+    /**
+     * @return hex SHA-256 digest of the source
+     */
+    static String digest(String source) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = md.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder buf = new StringBuilder(2 * bytes.length);
+            for (byte b : bytes) {
+                buf.append(String.format("%02x", b & 0xff));
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static synchronized void write(FileIndex index, File file) throws IOException {
+
+        Map<Long, byte[]> nodes = index.nodes;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            index.dirty = false;
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(digest(index.source));
+            dos.writeInt(index.header.length);
+            dos.write(index.header);
+            List<Map.Entry<Long, byte[]>> entries = new ArrayList<>(nodes.entrySet());
+            dos.writeInt(entries.size());
+            for (Map.Entry<Long, byte[]> entry : entries) {
+                dos.writeLong(entry.getKey());
+                dos.writeInt(entry.getValue().length);
+                dos.write(entry.getValue());
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not write " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * @return the index stored in {@code file}, or null if there is none for this source and header
+     */
+    static FileIndex load(File file, String source, byte[] header) {
+
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION || !dis.readUTF().equals(digest(source))) {
+                return null;
+            }
+            byte[] storedHeader = new byte[dis.readInt()];
+            dis.readFully(storedHeader);
+            if (!Arrays.equals(storedHeader, header)) {
+                return null;
+            }
+            FileIndex index = new FileIndex(source, header);
+            int nodeCount = dis.readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                long offset = dis.readLong();
+                byte[] node = new byte[dis.readInt()];
+                dis.readFully(node);
+                index.nodes.put(offset, node);
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return index;
+        } catch (IOException e) {
+            log.error("Error reading index cache " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * The cached index nodes of one version of a file
+     */
+    static class FileIndex {
+
+        final String source;
+        final byte[] header;
+        final Map<Long, byte[]> nodes = new ConcurrentHashMap<>();
+        volatile boolean dirty;
+
+        FileIndex(String source, byte[] header) {
+            this.source = source;
+            this.header = header;
+        }
+
+        void add(long offset, byte[] node) {
+            nodes.put(offset, node);
+            dirty = true;
+        }
+
+        int size() {
+            return nodes.size();
+        }
+    }
+}
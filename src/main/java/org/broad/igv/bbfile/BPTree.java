@@ -284,8 +284,6 @@ public class BPTree {
         LittleEndianInputStream lbdis = null;     // low to high byte reader
         DataInputStream bdis = null;        // high to low byte reader
 
-        // set up for node format
-        byte[] buffer = new byte[BPTREE_NODE_FORMAT_SIZE];
         BPTreeNode thisNode = null;
         BPTreeNode childNode = null;
 
@@ -297,9 +295,10 @@ public class BPTree {
 
         try {
 
-            // Read node format into a buffer
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
+            // Read the node format and items, from the shared index cache if present
+            // Note: B+ tree node item size is the same for leaf and child items
+            itemSize = BPTREE_NODE_ITEM_SIZE + this.keySize;
+            byte[] buffer = BBIndexCache.readNode(fis, fileOffset, isLowToHigh, itemSize, itemSize);
 
             if (isLowToHigh)
                 lbdis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
@@ -329,17 +328,6 @@ public class BPTree {
                 itemCount = bdis.readUnsignedShort();
             }
 
-            // Note: B+ tree node item size is the same for leaf and child items
-            itemSize = BPTREE_NODE_ITEM_SIZE + this.keySize;
-            int totalSize = itemSize * itemCount;
-            byte[] itemBuffer = new byte[totalSize];
-            fis.readFully(itemBuffer);
-
-            if (isLowToHigh)
-                lbdis = new LittleEndianInputStream(new ByteArrayInputStream(itemBuffer));
-            else
-                bdis = new DataInputStream(new ByteArrayInputStream(itemBuffer));
-
             // get the node items - leaves or child nodes
             for (int item = 0; item < itemCount; ++item) {
 
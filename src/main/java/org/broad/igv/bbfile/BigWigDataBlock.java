@@ -28,9 +28,11 @@ package org.broad.igv.bbfile;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
 import org.broad.igv.util.CompressionUtils;
+import org.broad.igv.util.stream.IGVMappedFileStream;
 
 import java.util.ArrayList;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -85,12 +87,17 @@ public class BigWigDataBlock {
 
         fileOffset = this.leafHitItem.getDataOffset();
         leafDataSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) leafDataSize];
 
-        // read Wig data block into a buffer
+        // read Wig data block into a buffer, a slice of the mapping for a memory-mapped file
         try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
+            ByteBuffer block = IGVMappedFileStream.readBuffer(fis, fileOffset, (int) leafDataSize);
+            byte[] buffer;
+            if (block.hasArray()) {
+                buffer = block.array();
+            } else {
+                buffer = new byte[block.remaining()];
+                block.get(buffer);
+            }
 
             // decompress if necessary - the buffer size is 0 for uncompressed data
             // Note:  BBFile Table C specifies a decompression buffer size
@@ -552,14 +552,13 @@ public class RPTree {
         LittleEndianInputStream lbdis = null; // low o high byte stream reader
         DataInputStream bdis = null;    // high to low byte stream reader
 
-        byte[] buffer = new byte[RPTREE_NODE_FORMAT_SIZE];
         RPTreeNode thisNode = null;
 
         try {
 
-            // Read node format into a buffer
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
+            // Read the node format and items, from the shared index cache if present
+            byte[] buffer = BBIndexCache.readNode(fis, fileOffset, isLowToHigh,
+                    RPTREE_NODE_LEAF_ITEM_SIZE, RPTREE_NODE_CHILD_ITEM_SIZE);
 
             if (isLowToHigh) {
                 lbdis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
@@ -597,14 +596,6 @@ public class RPTree {
                 itemCount = bdis.readUnsignedShort();
             }
 
-            int itemBlockSize = itemCount * itemSize;
-            buffer = new byte[itemBlockSize];            // allocate buffer for item sisze
-            fis.readFully(buffer);
-            if (isLowToHigh)
-                lbdis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
-            else
-                bdis = new DataInputStream(new ByteArrayInputStream(buffer));
-
             // get the node items - leaves or child nodes
             int startChromID, endChromID;
             int startBase, endBase;
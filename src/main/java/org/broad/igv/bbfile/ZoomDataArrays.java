@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+
+/**
+ * Zoom level data records held in primitive arrays, one per field, rather than as {@link ZoomDataRecord} objects.
+ * Filled by {@link BBFileReader#readZoomLevelData(int, String, int, String, int, boolean, ZoomDataArrays)}.
+ */
+public class ZoomDataArrays {
+
+    private final IntArrayList chromIds;
+    private final IntArrayList starts;
+    private final IntArrayList ends;
+    private final IntArrayList validCounts;
+    private final FloatArrayList minVals;
+    private final FloatArrayList maxVals;
+    private final FloatArrayList sumData;
+    private final FloatArrayList sumSquares;
+
+    public ZoomDataArrays() {
+        this(1000);
+    }
+
+    public ZoomDataArrays(int initialCapacity) {
+        chromIds = new IntArrayList(initialCapacity);
+        starts = new IntArrayList(initialCapacity);
+        ends = new IntArrayList(initialCapacity);
+        validCounts = new IntArrayList(initialCapacity);
+        minVals = new FloatArrayList(initialCapacity);
+        maxVals = new FloatArrayList(initialCapacity);
+        sumData = new FloatArrayList(initialCapacity);
+        sumSquares = new FloatArrayList(initialCapacity);
+    }
+
+    void add(int chromId, int start, int end, int validCount, float minVal, float maxVal, float sum, float sumSquare) {
+        chromIds.add(chromId);
+        starts.add(start);
+        ends.add(end);
+        validCounts.add(validCount);
+        minVals.add(minVal);
+        maxVals.add(maxVal);
+        sumData.add(sum);
+        sumSquares.add(sumSquare);
+    }
+
+    public int size() {
+        return starts.size();
+    }
+
+    public boolean isEmpty() {
+        return starts.isEmpty();
+    }
+
+    public void clear() {
+        chromIds.clear();
+        starts.clear();
+        ends.clear();
+        validCounts.clear();
+        minVals.clear();
+        maxVals.clear();
+        sumData.clear();
+        sumSquares.clear();
+    }
+
+    public int getChromId(int i) {
+        return chromIds.get(i);
+    }
+
+    public int getStart(int i) {
+        return starts.get(i);
+    }
+
+    public int getEnd(int i) {
+        return ends.get(i);
+    }
+
+    public int getBasesCovered(int i) {
+        return validCounts.get(i);
+    }
+
+    public float getMinVal(int i) {
+        return minVals.get(i);
+    }
+
+    public float getMaxVal(int i) {
+        return maxVals.get(i);
+    }
+
+    public float getSumData(int i) {
+        return sumData.get(i);
+    }
+
+    public float getSumSquares(int i) {
+        return sumSquares.get(i);
+    }
+
+    /**
+     * @see ZoomDataRecord#getMeanVal()
+     */
+    public float getMeanVal(int i) {
+        int basesCovered = validCounts.get(i);
+        return basesCovered == 0 ? 0 : sumData.get(i) / basesCovered;
+    }
+}
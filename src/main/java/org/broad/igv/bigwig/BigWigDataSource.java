@@ -31,6 +31,8 @@ import org.broad.igv.bbfile.*;
 import org.broad.igv.data.AbstractDataSource;
 import org.broad.igv.data.BasicScore;
 import org.broad.igv.data.DataTile;
+import org.broad.igv.data.DecodedTileCache;
+import org.broad.igv.data.ScoreBlock;
 import org.broad.igv.feature.*;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.tribble.IGVBEDCodec;
@@ -54,11 +56,17 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
     final int screenWidth = 1000; // TODO use actual screen width
 
+    // Raw data is read in blocks aligned to a multiple of their width, a power of 2 at least as wide as the request,
+    // so requests for nearby ranges at a similar scale share cached blocks
+    static final int MIN_RAW_BLOCK_WIDTH = 1 << 14;
+    static final int MAX_RAW_BLOCK_WIDTH = 1 << 29;
+
 
     Collection<WindowFunction> availableWindowFunctions =
             Arrays.asList(WindowFunction.min, WindowFunction.mean, WindowFunction.max, WindowFunction.none);
 
     BBFileReader reader;
+    private final String path;
     private BBZoomLevels levels;
 
     // Feature visibility window (for bigBed)
@@ -69,8 +77,6 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     // Lookup table to support chromosome aliasing.
     private Map<String, String> chrNameMap = new HashMap();
 
-    private RawDataInterval currentInterval = null;
-
     private double dataMin = 0;
     private double dataMax = 100;
 
@@ -80,7 +86,11 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
         super(genome);
 
         this.reader = reader;
+        this.path = reader.getBBFileHeader().getPath();
         this.levels = reader.getZoomLevels();
+
+        // Blocks cached from an earlier load of this file might be stale
+        DecodedTileCache.getInstance().removeAll(DecodedTileCache.prefix(path, null));
         this.wholeGenomeScores = new HashMap<>();
 
         if (reader.isBigWigFile()) initMinMax();
@@ -242,14 +252,11 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
         String querySeq = tmp == null ? chr : tmp;
 
         if (reader.isBigBedFile() || bbLevel > 1 || (bbLevel == 1 && (reductionLevel / scale) < 2)) {
-            ArrayList<LocusScore> scores = new ArrayList(1000);
-            ZoomLevelIterator zlIter = reader.getZoomLevelIterator(bbLevel, querySeq, start, querySeq, end, false);
-            while (zlIter.hasNext()) {
-                ZoomDataRecord rec = zlIter.next();
-
-                float v = getValue(rec);
-                BasicScore bs = new BasicScore(rec.getChromStart(), rec.getChromEnd(), v);
-                scores.add(bs);
+            ZoomDataArrays data = new ZoomDataArrays();
+            reader.readZoomLevelData(bbLevel, querySeq, start, querySeq, end, false, data);
+            ScoreBlock scores = new ScoreBlock(data.size());
+            for (int i = 0; i < data.size(); i++) {
+                scores.add(data.getStart(i), data.getEnd(i), getValue(data, i));
             }
             return scores;
 
@@ -259,21 +266,18 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
         }
     }
 
-    private float getValue(ZoomDataRecord rec) {
+    private float getValue(ZoomDataArrays data, int i) {
 
-        if (rec == null) {
-            System.out.println();
-        }
         float v;
         switch (windowFunction) {
             case min:
-                v = rec.getMinVal();
+                v = data.getMinVal(i);
                 break;
             case max:
-                v = rec.getMaxVal();
+                v = data.getMaxVal(i);
                 break;
             default:
-                v = rec.getMeanVal();
+                v = data.getMeanVal(i);
 
         }
         return v;
@@ -287,30 +291,82 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
             return null;
         }
 
+        String chrAlias = chrNameMap.containsKey(chr) ? chrNameMap.get(chr) : chr;
+        start = Math.max(0, start);
+        long length = Math.max(1, (long) end - start);
+        if (length > MAX_RAW_BLOCK_WIDTH) {
+            return readRawData(chrAlias, start, end);
+        }
+
+        int width = Math.max(MIN_RAW_BLOCK_WIDTH, Integer.highestOneBit((int) length - 1) << 1);
+        int firstBlock = start / width;
+        int lastBlock = Math.max(firstBlock, (end - 1) / width);
+
+        DataTile tile = getRawBlock(chrAlias, width, firstBlock);
+        for (int b = firstBlock + 1; b <= lastBlock; b++) {
+            tile = append(tile, getRawBlock(chrAlias, width, b), b * width);
+        }
+        return tile;
+    }
+
+    private DataTile getRawBlock(String chr, int width, int block) {
 
-        if (currentInterval != null && currentInterval.contains(chr, start, end)) {
-            return currentInterval.tile;
+        DecodedTileCache cache = DecodedTileCache.getInstance();
+        String key = DecodedTileCache.key(path, chr + "/raw" + width, block);
+        DataTile tile = cache.get(key);
+        if (tile == null) {
+            int start = block * width;
+            int end = (int) Math.min(Integer.MAX_VALUE, (long) start + width);
+            tile = readRawData(chr, start, end);
+            tile = cache.put(key, tile, tile.getMemoryEstimate());
         }
+        return tile;
+    }
 
-        // TODO -- fetch data directly in arrays to avoid creation of multiple "WigItem" objects?
-        IntArrayList startsList = new IntArrayList(100000);
-        IntArrayList endsList = new IntArrayList(100000);
-        FloatArrayList valuesList = new FloatArrayList(100000);
+    /**
+     * Join the data of adjacent blocks.  Items overlapping the boundary are in both blocks, and are taken from the
+     * first.
+     */
+    static DataTile append(DataTile first, DataTile second, int boundary) {
 
-        String chrAlias = chrNameMap.containsKey(chr) ? chrNameMap.get(chr) : chr;
-        Iterator<WigItem> iter = reader.getBigWigIterator(chrAlias, start, chrAlias, end, false);
+        if (second.isEmpty()) {
+            return first;
+        }
+        int[] starts = second.getStartLocations();
+        int from = 0;
+        while (from < starts.length && starts[from] < boundary) {
+            from++;
+        }
+        if (first.isEmpty() && from == 0) {
+            return second;
+        }
 
-        while (iter.hasNext()) {
-            WigItem wi = iter.next();
-            startsList.add(wi.getStartBase());
-            endsList.add(wi.getEndBase());
-            valuesList.add(wi.getWigValue());
+        int n1 = first.isEmpty() ? 0 : first.getStartLocations().length;
+        int n2 = starts.length - from;
+        int[] newStarts = new int[n1 + n2];
+        int[] newEnds = new int[n1 + n2];
+        float[] newValues = new float[n1 + n2];
+        if (n1 > 0) {
+            System.arraycopy(first.getStartLocations(), 0, newStarts, 0, n1);
+            System.arraycopy(first.getEndLocations(), 0, newEnds, 0, n1);
+            System.arraycopy(first.getValues(), 0, newValues, 0, n1);
         }
+        System.arraycopy(starts, from, newStarts, n1, n2);
+        System.arraycopy(second.getEndLocations(), from, newEnds, n1, n2);
+        System.arraycopy(second.getValues(), from, newValues, n1, n2);
+        return new DataTile(newStarts, newEnds, newValues, null);
+    }
 
-        DataTile tile = new DataTile(startsList.toArray(), endsList.toArray(), valuesList.toArray(), null);
-        currentInterval = new RawDataInterval(chr, start, end, tile);
+    private DataTile readRawData(String chr, int start, int end) {
 
-        return tile;
+        // Sized as sections are decoded, from their item counts
+        IntArrayList startsList = new IntArrayList();
+        IntArrayList endsList = new IntArrayList();
+        FloatArrayList valuesList = new FloatArrayList();
+
+        reader.readBigWigData(chr, start, chr, end, false, startsList, endsList, valuesList);
+
+        return new DataTile(startsList.toArray(), endsList.toArray(), valuesList.toArray(), null);
 
     }
 
@@ -335,27 +391,28 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
                 Set<String> wgChrNames = new HashSet<>(genome.getLongChromosomeNames());
 
-                ZoomLevelIterator zlIter = reader.getZoomLevelIterator(
-                        lowestResHeader.getZoomLevel(), firstChr, 0, lastChr, Integer.MAX_VALUE, false);
-
-                while (zlIter.hasNext()) {
-                    ZoomDataRecord rec = zlIter.next();
+                ZoomDataArrays data = new ZoomDataArrays();
+                reader.readZoomLevelData(lowestResHeader.getZoomLevel(), firstChr, 0, lastChr, Integer.MAX_VALUE, false, data);
 
-                    if (rec == null) {
-                        continue;
-                    }
+                String[] chrNames = new String[maxChromId + 1];
+                for (int i = 0; i < data.size(); i++) {
 
-                    float value = getValue(rec);
+                    float value = getValue(data, i);
                     if (Float.isNaN(value) || Float.isInfinite(value)) {
                         continue;
                     }
 
-                    String chr = genome.getCanonicalChrName(rec.getChromName());
+                    int chromId = data.getChromId(i);
+                    String chr = chrNames[chromId];
+                    if (chr == null) {
+                        chr = genome.getCanonicalChrName(reader.getChromsomeFromId(chromId));
+                        chrNames[chromId] = chr;
+                    }
 
                     if (wgChrNames.contains(chr)) {
 
-                        int genomeStart = genome.getGenomeCoordinate(chr, rec.getChromStart());
-                        int genomeEnd = genome.getGenomeCoordinate(chr, rec.getChromEnd());
+                        int genomeStart = genome.getGenomeCoordinate(chr, data.getStart(i));
+                        int genomeEnd = genome.getGenomeCoordinate(chr, data.getEnd(i));
                         scores.add(new BasicScore(genomeStart, genomeEnd, value));
                     }
                 }
@@ -373,6 +430,7 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     @Override
     public void dispose() {
         super.dispose();
+        DecodedTileCache.getInstance().removeAll(DecodedTileCache.prefix(path, null));
         if (reader != null) {
             reader.close();
         }
@@ -384,8 +442,8 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
         String tmp = chrNameMap.get(chr);
         String querySeq = tmp == null ? chr : tmp;
-        BigBedIterator bedIterator = reader.getBigBedIterator(querySeq, start, chr, end, false);
-        return new WrappedIterator(bedIterator);
+        List<BedFeature> features = reader.readBigBedFeatures(querySeq, start, querySeq, end, false);
+        return new WrappedIterator(features.iterator());
     }
 
     public List<LocusScore> getCoverageScores(String chr, int start, int end, int zoom) {
@@ -408,9 +466,9 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
     public class WrappedIterator implements Iterator<Feature> {
 
-        BigBedIterator bedIterator;
+        Iterator<BedFeature> bedIterator;
 
-        public WrappedIterator(BigBedIterator bedIterator) {
+        public WrappedIterator(Iterator<BedFeature> bedIterator) {
             this.bedIterator = bedIterator;
         }
 
@@ -440,23 +498,4 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
     //  End FeatureSource interface ----------------------------------------------------------------------
 
-    static class RawDataInterval {
-        String chr;
-        int start;
-        int end;
-        DataTile tile;
-
-        RawDataInterval(String chr, int start, int end, DataTile tile) {
-            this.chr = chr;
-            this.start = start;
-            this.end = end;
-            this.tile = tile;
-        }
-
-        public boolean contains(String chr, int start, int end) {
-            return chr.equals(this.chr) && start >= this.start && end <= this.end;
-        }
-    }
-
-
 }
@@ -148,14 +148,19 @@ public abstract class AbstractDataSource implements DataSource {
 
         List<SummaryTile> tiles = getSummaryTilesForRange(chr, startLocation, endLocation, zoom);
 
-        scores = new ArrayList(tiles.size() * 700);
+        if (tiles.size() == 1) {
+            // Read-only view of the (possibly cached) tile
+            ScoreBlock tileScores = tiles.get(0).getScores();
+            return tileScores.subList(0, tileScores.size());
+        }
 
+        ScoreBlock block = new ScoreBlock(tiles.size() * 700, true);
         for (SummaryTile tile : tiles) {
-            scores.addAll(tile.getScores());
-
+            ScoreBlock tileScores = tile.getScores();
+            block.addAll(tileScores, 0, tileScores.size());
         }
         //FeatureUtils.sortFeatureList(summaryScores);
-        return scores;
+        return block;
 
     }
 
@@ -254,15 +259,13 @@ public abstract class AbstractDataSource implements DataSource {
                     String probeName = features == null ? null : features[i];
                     float v = values[i];
 
-                    BasicScore score = new NamedScore(s, e, v, probeName);
-                    tile.addScore(score);
+                    tile.addScore(s, e, v, probeName == null ? null : new NamedScore(s, e, v, probeName));
 
                 }
 
 
             } else {
                 float normalizationFactor = 1.0f;
-                List<LocusScore> scores = new ArrayList(nBins);
                 double scale = (double) (endLocation - startLocation) / nBins;
 
                 Accumulator accumulator = new Accumulator(windowFunction, 5);
@@ -298,13 +301,13 @@ public abstract class AbstractDataSource implements DataSource {
                     // If this feature spans multiple bins, or extends beyond last end bin, record
                     if (endBin > lastEndBin || endBin > startBin) {
                         if (accumulator.hasData()) {
-                            scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
+                            addCompositeScore(tile, accumulator, accumulatedStart, accumulatedEnd);
                             accumulator = new Accumulator(windowFunction, 5);
                         }
                     }
 
                     if (endBin > startBin) {
-                        scores.add(new NamedScore(s, e, v, probeName));
+                        tile.addScore(s, e, v, probeName == null ? null : new NamedScore(s, e, v, probeName));
                     } else {
                         if (!accumulator.hasData()) accumulatedStart = s;
                         accumulatedEnd = e;
@@ -316,10 +319,8 @@ public abstract class AbstractDataSource implements DataSource {
 
                 // Cleanup
                 if (accumulator.hasData()) {
-                    scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
+                    addCompositeScore(tile, accumulator, accumulatedStart, accumulatedEnd);
                 }
-
-                tile.addAllScores(scores);
             }
 
         }
@@ -328,17 +329,17 @@ public abstract class AbstractDataSource implements DataSource {
         return tile;
     }
 
-    private LocusScore getCompositeScore(Accumulator accumulator, int accumulatedStart, int accumulatedEnd) {
-        LocusScore ls;
+    private void addCompositeScore(SummaryTile tile, Accumulator accumulator, int accumulatedStart, int accumulatedEnd) {
         if (accumulator.getNpts() == 1) {
-            ls = new NamedScore(accumulatedStart, accumulatedEnd, accumulator.getRepData()[0], accumulator.getRepProbes()[0]);
+            float value = accumulator.getRepData()[0];
+            String probeName = accumulator.getRepProbes()[0];
+            tile.addScore(accumulatedStart, accumulatedEnd, value,
+                    probeName == null ? null : new NamedScore(accumulatedStart, accumulatedEnd, value, probeName));
         } else {
             float value = accumulator.getValue();
-            ls = new CompositeScore(accumulatedStart, accumulatedEnd, value, accumulator.getRepData(),
-                    accumulator.getRepProbes(), windowFunction);
+            tile.addScore(accumulatedStart, accumulatedEnd, value, new CompositeScore(accumulatedStart, accumulatedEnd,
+                    value, accumulator.getRepData(), accumulator.getRepProbes(), windowFunction));
         }
-        return ls;
-
     }
 
 
@@ -68,4 +68,12 @@ public class DataTile {
     public String[] getFeatureNames() {
         return featureNames;
     }
+
+    /**
+     * @return the approximate heap size of this tile, in bytes
+     */
+    public long getMemoryEstimate() {
+        int size = startLocations == null ? 0 : startLocations.length;
+        return 64 + 12L * size + (featureNames == null ? 0 : 48L * size);
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data;
+
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.collections.WeightedLRUCache;
+
+import static org.broad.igv.prefs.Constants.CHART_TILE_CACHE_MB;
+
+/**
+ * A process-wide cache of decoded data tiles (TDF tiles, bigWig raw data, summary scores), keyed by file, dataset,
+ * and tile number.  The cache is bounded by a byte budget rather than an entry count, as tiles vary in size by orders
+ * of magnitude, and evicts least recently used tiles first.  The budget is set by the {@code CHART.TILE_CACHE_MB}
+ * preference, 0 meaning an eighth of the maximum heap.
+ * <p>
+ * Tiles are loaded outside the cache lock, so two threads can occasionally load the same tile.  Callers use the value
+ * returned by {@link #put(String, Object, long)} so they agree on a single instance.
+ */
+public class DecodedTileCache {
+
+    private static final char SEPARATOR = '|';
+
+    private static DecodedTileCache instance;
+
+    private final WeightedLRUCache<String, Object> cache;
+
+    public static synchronized DecodedTileCache getInstance() {
+        if (instance == null) {
+            instance = new DecodedTileCache(0);
+        }
+        return instance;
+    }
+
+    /**
+     * @param budget maximum size in bytes, or 0 to take the budget from the preferences
+     */
+    public DecodedTileCache(long budget) {
+        this.cache = new WeightedLRUCache<>(() -> budget > 0 ? budget : preferenceBudget());
+    }
+
+    private static long preferenceBudget() {
+        long mb = PreferencesManager.getPreferences().getAsInt(CHART_TILE_CACHE_MB);
+        return mb > 0 ? mb * 1000000 : Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * @return the cache key for tile {@code tileNumber} of {@code dataset} in {@code file}
+     */
+    public static String key(String file, String dataset, long tileNumber) {
+        return prefix(file, dataset) + tileNumber;
+    }
+
+    /**
+     * @return the prefix common to the keys of all tiles in {@code dataset}, or all datasets if it is null
+     */
+    public static String prefix(String file, String dataset) {
+        return dataset == null ? file + SEPARATOR : file + SEPARATOR + dataset + SEPARATOR;
+    }
+
+    public long getBudget() {
+        return cache.getBudget();
+    }
+
+    /**
+     * @return the tile cached for {@code key}, or null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        return (T) cache.get(key);
+    }
+
+    /**
+     * Cache a tile, unless a tile is already cached for the key or the tile alone would exceed the budget.
+     *
+     * @param bytes estimated size of the tile
+     * @return the tile now cached for {@code key}, which is {@code value} unless another was already cached
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T put(String key, T value, long bytes) {
+        return (T) cache.putIfAbsent(key, value, bytes);
+    }
+
+    /**
+     * Remove all tiles whose key starts with {@code prefix}, for example all tiles of a file or dataset.
+     *
+     * @see #prefix(String, String)
+     */
+    public void removeAll(String prefix) {
+        cache.removeAll(key -> key.startsWith(prefix));
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getBytes() {
+        return cache.getBytes();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedTileCache" + cache;
+    }
+}
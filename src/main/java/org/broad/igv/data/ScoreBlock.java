@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.data;
+
+import org.broad.igv.feature.LocusScore;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of scores held as parallel arrays of starts, ends, and values.  Renderers iterate the arrays directly,
+ * avoiding an object and an interface call per score.  Scores that carry more than a position and value, such as
+ * composite scores and scores with probe names, are also kept as objects so that popup text is unchanged.  Other
+ * scores are created on demand by {@link #get(int)}.
+ * <p>
+ * Blocks are appended to while being built, and should not be modified once published.  Sub lists are read-only
+ * views sharing the arrays of this block.
+ */
+public class ScoreBlock extends AbstractList<LocusScore> implements RandomAccess {
+
+    private int[] starts;
+    private int[] ends;
+    private float[] values;
+    private LocusScore[] details;    // Allocated when the first detail score is added
+    private final int offset;
+    private int size;
+    private final boolean named;
+    private final boolean view;
+
+    public ScoreBlock(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * @param named if true scores without a detail object are returned as {@link NamedScore}s with no probe name,
+     *              otherwise as {@link BasicScore}s
+     */
+    public ScoreBlock(int capacity, boolean named) {
+        capacity = Math.max(capacity, 10);
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.values = new float[capacity];
+        this.offset = 0;
+        this.named = named;
+        this.view = false;
+    }
+
+    private ScoreBlock(ScoreBlock block, int from, int to) {
+        this.starts = block.starts;
+        this.ends = block.ends;
+        this.values = block.values;
+        this.details = block.details;
+        this.offset = block.offset + from;
+        this.size = to - from;
+        this.named = block.named;
+        this.view = true;
+    }
+
+    /**
+     * @return {@code scores} if it is a score block, otherwise a block with the same scores
+     */
+    public static ScoreBlock of(List<LocusScore> scores) {
+        if (scores instanceof ScoreBlock) {
+            return (ScoreBlock) scores;
+        }
+        ScoreBlock block = new ScoreBlock(scores.size());
+        for (LocusScore score : scores) {
+            block.add(score);
+        }
+        return block;
+    }
+
+    public void add(int start, int end, float value) {
+        add(start, end, value, null);
+    }
+
+    /**
+     * @param detail the score object to return from {@link #get(int)}, or null to create one on demand
+     */
+    public void add(int start, int end, float value, LocusScore detail) {
+        if (view) {
+            throw new UnsupportedOperationException("Score block views are read-only");
+        }
+        if (size == starts.length) {
+            int capacity = size + (size >> 1);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (details != null) {
+                details = Arrays.copyOf(details, capacity);
+            }
+        }
+        starts[size] = start;
+        ends[size] = end;
+        values[size] = value;
+        if (detail != null) {
+            if (details == null) {
+                details = new LocusScore[starts.length];
+            }
+            details[size] = detail;
+        }
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public boolean add(LocusScore score) {
+        add(score.getStart(), score.getEnd(), score.getScore(),
+                !named && score.getClass() == BasicScore.class ? null : score);
+        return true;
+    }
+
+    /**
+     * Append scores {@code from} (inclusive) to {@code to} (exclusive) of {@code block}
+     */
+    public void addAll(ScoreBlock block, int from, int to) {
+        for (int i = from; i < to; i++) {
+            LocusScore detail = block.getDetail(i);
+            if (detail == null && block.named != named) {
+                detail = block.get(i);
+            }
+            add(block.getStart(i), block.getEnd(i), block.getValue(i), detail);
+        }
+    }
+
+    /**
+     * @return true if scores without a detail object are returned as {@link NamedScore}s
+     */
+    public boolean isNamed() {
+        return named;
+    }
+
+    public int getStart(int i) {
+        return starts[offset + i];
+    }
+
+    public int getEnd(int i) {
+        return ends[offset + i];
+    }
+
+    public float getValue(int i) {
+        return values[offset + i];
+    }
+
+    private LocusScore getDetail(int i) {
+        return details == null ? null : details[offset + i];
+    }
+
+    @Override
+    public LocusScore get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        LocusScore detail = getDetail(i);
+        if (detail != null) {
+            return detail;
+        }
+        int idx = offset + i;
+        return named ?
+                new NamedScore(starts[idx], ends[idx], values[idx], null) :
+                new BasicScore(starts[idx], ends[idx], values[idx]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public ScoreBlock subList(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", size: " + size);
+        }
+        return new ScoreBlock(this, from, to);
+    }
+
+    /**
+     * @return the approximate heap size of this block, in bytes
+     */
+    public long getMemoryEstimate() {
+        int capacity = starts.length;
+        long bytes = 64 + 12L * capacity;
+        if (details != null) {
+            bytes += 8L * capacity;
+            for (int i = 0; i < size; i++) {
+                if (details[offset + i] != null) {
+                    bytes += 40;
+                }
+            }
+        }
+        return bytes;
+    }
+}
@@ -30,7 +30,6 @@ package org.broad.igv.data;
 
 import org.broad.igv.feature.LocusScore;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -44,28 +43,35 @@ public class SummaryTile {
 
      private int startLocation;
 
-    List<LocusScore> summaryScores;
+    ScoreBlock summaryScores;
 
 
     public SummaryTile() {
-        summaryScores = new ArrayList(1000);
+        summaryScores = new ScoreBlock(1000, true);
     }
 
     public SummaryTile(List<LocusScore> summaryScores) {
-        this.summaryScores = summaryScores;
+        this.summaryScores = ScoreBlock.of(summaryScores);
     }
 
     public void addScore(LocusScore score) {
         summaryScores.add(score);
     }
 
+    /**
+     * @param detail the score object, or null if the score has no probe name
+     */
+    public void addScore(int start, int end, float value, LocusScore detail) {
+        summaryScores.add(start, end, value, detail);
+    }
+
 
     public void addAllScores(Collection<? extends LocusScore> scores) {
         summaryScores.addAll(scores);
     }
 
 
-    public List<LocusScore> getScores() {
+    public ScoreBlock getScores() {
         return summaryScores;
     }
 
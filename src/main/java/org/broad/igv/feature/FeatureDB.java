@@ -32,11 +32,14 @@ import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.feature.tribble.CompactFeatureStore;
 import org.broad.igv.track.SequenceTrack;
 import org.broad.igv.util.collections.MultiMap;
 import htsjdk.tribble.Feature;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * This is a placeholder class for a true "feature database" wrapper.  Its purpose
@@ -55,29 +58,76 @@ public class FeatureDB {
     private static final int MAX_DUPLICATE_COUNT = 20;
 
     public static void addFeature(NamedFeature feature, Genome genome) {
+        addFeature(feature, null, genome);
+    }
 
+    /**
+     * Add a feature under its name, identifier, and attribute values.  If {@code handle} is not null it is added
+     * in place of the feature, and a handle to each exon in place of the exon.
+     */
+    public static void addFeature(NamedFeature feature, CompactFeatureStore.FeatureHandle handle, Genome genome) {
+
+        final NamedFeature featureEntry = handle == null ? feature : handle;
         final String name = feature.getName();
         if (name != null && name.length() > 0 && !name.equals(".")) {
-            put(name, feature, genome);
+            put(name, featureEntry, genome);
         }
         if (feature instanceof IGVFeature) {
             final IGVFeature igvFeature = (IGVFeature) feature;
             final String id = igvFeature.getIdentifier();
             if (id != null && id.length() > 0) {
-                put(id, feature, genome);
+                put(id, featureEntry, genome);
             }
 
-            addByAttributes(igvFeature, genome);
+            addByAttributes(igvFeature, featureEntry, genome);
 
             List<Exon> exons = igvFeature.getExons();
             if (exons != null) {
                 for (Exon exon : exons) {
-                    addByAttributes(exon, genome);
+                    addByAttributes(exon, handle == null ? exon : handle.getExonHandle(exon), genome);
                 }
             }
         }
     }
 
+    /**
+     * @return true if {@link #addFeature(NamedFeature, Genome)} would add the feature under any key
+     */
+    public static boolean isSearchable(NamedFeature feature) {
+        final String name = feature.getName();
+        if (name != null && name.length() > 0 && !name.equals(".")) {
+            return true;
+        }
+        if (feature instanceof IGVFeature) {
+            final IGVFeature igvFeature = (IGVFeature) feature;
+            final String id = igvFeature.getIdentifier();
+            if ((id != null && id.length() > 0) || hasSearchableAttributes(igvFeature)) {
+                return true;
+            }
+            List<Exon> exons = igvFeature.getExons();
+            if (exons != null) {
+                for (Exon exon : exons) {
+                    if (hasSearchableAttributes(exon)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasSearchableAttributes(IGVFeature igvFeature) {
+        MultiMap<String, String> attributes = igvFeature.getAttributes();
+        if (attributes != null) {
+            for (String value : attributes.values()) {
+                if (value.length() < 20) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public static void removeFeature(NamedFeature feature, Genome genome) {
 
         final String name = feature.getName();
@@ -102,12 +152,32 @@ public class FeatureDB {
         }
     }
 
-    private static void addByAttributes(IGVFeature igvFeature, Genome genome) {
+    private static void addByAttributes(IGVFeature igvFeature, NamedFeature entry, Genome genome) {
         MultiMap<String, String> attributes = igvFeature.getAttributes();
         if (attributes != null) {
             for (String value : attributes.values()) {
                 if (value.length() < 20) {
-                    put(value, igvFeature, genome);
+                    put(value, entry, genome);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all entries matching the predicate
+     */
+    public static void removeFeatures(Predicate<NamedFeature> predicate) {
+        synchronized (featureMap) {
+            Iterator<List<NamedFeature>> iter = featureMap.values().iterator();
+            while (iter.hasNext()) {
+                List<NamedFeature> features = iter.next();
+                for (int i = features.size() - 1; i >= 0; i--) {
+                    if (predicate.test(features.get(i))) {
+                        features.remove(i);
+                    }
+                }
+                if (features.isEmpty()) {
+                    iter.remove();
                 }
             }
         }
@@ -330,27 +400,30 @@ public class FeatureDB {
         List<NamedFeature> possibles = featureMap.get(nm);
 
         if (possibles != null) {
+            // Features in a compact store are decoded from the file, which is not done holding the lock
             synchronized (featureMap) {
-                for (NamedFeature f : possibles) {
-                    if (!(f instanceof BasicFeature)) {
-                        continue;
-                    }
+                possibles = new ArrayList<>(possibles);
+            }
+            for (NamedFeature f : possibles) {
+                f = getFeature(f);
+                if (!(f instanceof BasicFeature)) {
+                    continue;
+                }
 
-                    BasicFeature bf = (BasicFeature) f;
-                    Codon c = bf.getCodon(currentGenome, proteinPosition);
-                    if (c == null) {
-                        continue;
-                    }
-                    if (c.getAminoAcid().equalsByName(refAA)) {
-                        Set<String> snps = AminoAcidManager.getInstance().getMappingSNPs(c.getSequence(),
-                                AminoAcidManager.getAminoAcidByName(mutAA));
-                        if (snps.size() >= 1) {
-                            results.put(c.getGenomePositions()[0], bf);
-                        }
+                BasicFeature bf = (BasicFeature) f;
+                Codon c = bf.getCodon(currentGenome, proteinPosition);
+                if (c == null) {
+                    continue;
+                }
+                if (c.getAminoAcid().equalsByName(refAA)) {
+                    Set<String> snps = AminoAcidManager.getInstance().getMappingSNPs(c.getSequence(),
+                            AminoAcidManager.getAminoAcidByName(mutAA));
+                    if (snps.size() >= 1) {
+                        results.put(c.getGenomePositions()[0], bf);
                     }
                 }
-
             }
+
         }
 
         return results;
@@ -381,38 +454,57 @@ public class FeatureDB {
         String brefNT = refNT.toUpperCase();
 
         if (possibles != null) {
+            // Features in a compact store are decoded from the file, which is not done holding the lock
             synchronized (featureMap) {
-                for (NamedFeature f : possibles) {
-                    if (!(f instanceof BasicFeature)) {
-                        continue;
-                    }
-
-                    BasicFeature bf = (BasicFeature) f;
+                possibles = new ArrayList<>(possibles);
+            }
+            for (NamedFeature f : possibles) {
+                f = getFeature(f);
+                if (!(f instanceof BasicFeature)) {
+                    continue;
+                }
 
-                    int genomePosition = bf.featureToGenomePosition(new int[]{startPosition - 1})[0];
-                    if (genomePosition < 0) {
-                        continue;
-                    }
-                    final byte[] nuclSequence = currentGenome.getSequence(bf.getChr(), genomePosition, genomePosition + 1);
-                    if (nuclSequence == null) {
-                        continue;
-                    }
-                    tempNT = new String(nuclSequence);
-                    if (bf.getStrand() == Strand.NEGATIVE) {
-                        tempNT = SequenceTrack.getReverseComplement(tempNT);
-                    }
+                BasicFeature bf = (BasicFeature) f;
 
-                    if (tempNT.toUpperCase().equals(brefNT)) {
-                        results.put(genomePosition, bf);
-                    }
+                int genomePosition = bf.featureToGenomePosition(new int[]{startPosition - 1})[0];
+                if (genomePosition < 0) {
+                    continue;
+                }
+                final byte[] nuclSequence = currentGenome.getSequence(bf.getChr(), genomePosition, genomePosition + 1);
+                if (nuclSequence == null) {
+                    continue;
+                }
+                tempNT = new String(nuclSequence);
+                if (bf.getStrand() == Strand.NEGATIVE) {
+                    tempNT = SequenceTrack.getReverseComplement(tempNT);
                 }
 
+                if (tempNT.toUpperCase().equals(brefNT)) {
+                    results.put(genomePosition, bf);
+                }
             }
+
         }
 
         return results;
     }
 
+    /**
+     * @return the feature for an entry, decoding it if the entry is a handle to a feature in a compact store
+     */
+    private static NamedFeature getFeature(NamedFeature entry) {
+        if (entry instanceof CompactFeatureStore.FeatureHandle) {
+            try {
+                Feature f = ((CompactFeatureStore.FeatureHandle) entry).getFeature();
+                return f instanceof NamedFeature ? (NamedFeature) f : null;
+            } catch (IOException e) {
+                log.error("Error reading feature " + entry.getName(), e);
+                return null;
+            }
+        }
+        return entry;
+    }
+
     /**
      * Doubleton class. Can sort forward or descending, at most 2 instances.
      */
@@ -0,0 +1,243 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.genome;
+
+import org.broad.igv.util.collections.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * A stretch of reference sequence packed 2 bits per base, as in the UCSC ".2bit" format.  Bases other than
+ * A, C, G, and T (N's, IUPAC codes, and anything else) are held as runs of identical bytes, and lower case
+ * (soft masked) A, C, G, and T as mask runs, so a packed sequence unpacks to exactly the bytes it was packed from.
+ * <p>
+ * Unpacking decodes 4 bases per packed byte with a lookup table, then overlays the runs and mask, which are
+ * typically few.
+ */
+public class PackedSequence {
+
+    private static final byte[] CODE_TO_BASE = {'T', 'C', 'A', 'G'};    // The .2bit encoding
+
+    // Bases for each packed byte value, 4 per value, first base in the high order bits
+    private static final byte[] UNPACK = new byte[256 * 4];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            for (int j = 0; j < 4; j++) {
+                UNPACK[4 * i + j] = CODE_TO_BASE[(i >> (6 - 2 * j)) & 3];
+            }
+        }
+    }
+
+    private final int length;
+    private final byte[] packed;
+
+    // Runs of bases that are not A, C, G, or T, start inclusive and end exclusive
+    private final int[] runStarts;
+    private final int[] runEnds;
+    private final byte[] runValues;
+
+    // Runs of lower case a, c, g, and t
+    private final int[] maskStarts;
+    private final int[] maskEnds;
+
+    private PackedSequence(int length, byte[] packed, int[] runStarts, int[] runEnds, byte[] runValues,
+                           int[] maskStarts, int[] maskEnds) {
+        this.length = length;
+        this.packed = packed;
+        this.runStarts = runStarts;
+        this.runEnds = runEnds;
+        this.runValues = runValues;
+        this.maskStarts = maskStarts;
+        this.maskEnds = maskEnds;
+    }
+
+    public static PackedSequence pack(byte[] bases) {
+        return pack(bases, 0, bases.length);
+    }
+
+    public static PackedSequence pack(byte[] bases, int offset, int length) {
+
+        byte[] packed = new byte[(length + 3) / 4];
+
+        IntArrayList runStarts = new IntArrayList();
+        IntArrayList runEnds = new IntArrayList();
+        IntArrayList runValues = new IntArrayList();
+        IntArrayList maskStarts = new IntArrayList();
+        IntArrayList maskEnds = new IntArrayList();
+
+        for (int i = 0; i < length; i++) {
+            byte b = bases[offset + i];
+            int code;
+            switch (b) {
+                case 'A':
+                case 'a':
+                    code = 2;
+                    break;
+                case 'C':
+                case 'c':
+                    code = 1;
+                    break;
+                case 'G':
+                case 'g':
+                    code = 3;
+                    break;
+                case 'T':
+                case 't':
+                    code = 0;
+                    break;
+                default:
+                    code = -1;
+            }
+
+            if (code < 0) {
+                int n = runEnds.size();
+                if (n > 0 && runEnds.get(n - 1) == i && runValues.get(n - 1) == b) {
+                    runEnds.set(n - 1, i + 1);
+                } else {
+                    runStarts.add(i);
+                    runEnds.add(i + 1);
+                    runValues.add(b);
+                }
+                continue;
+            }
+
+            packed[i >> 2] |= code << (6 - 2 * (i & 3));
+            if (b >= 'a') {
+                int n = maskEnds.size();
+                if (n > 0 && maskEnds.get(n - 1) == i) {
+                    maskEnds.set(n - 1, i + 1);
+                } else {
+                    maskStarts.add(i);
+                    maskEnds.add(i + 1);
+                }
+            }
+        }
+
+        byte[] values = new byte[runValues.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (byte) runValues.get(i);
+        }
+        return new PackedSequence(length, packed, runStarts.toArray(), runEnds.toArray(), values,
+                maskStarts.toArray(), maskEnds.toArray());
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public byte getBase(int position) {
+        int r = findRun(runStarts, runEnds, position);
+        if (r < runStarts.length && runStarts[r] <= position) {
+            return runValues[r];
+        }
+        byte b = UNPACK[4 * (packed[position >> 2] & 0xFF) + (position & 3)];
+        int m = findRun(maskStarts, maskEnds, position);
+        if (m < maskStarts.length && maskStarts[m] <= position) {
+            b += 32;
+        }
+        return b;
+    }
+
+    /**
+     * @return the bases from {@code start} (inclusive) to {@code end} (exclusive)
+     */
+    public byte[] getBases(int start, int end) {
+        byte[] bases = new byte[end - start];
+        unpack(start, end, bases, 0, false);
+        return bases;
+    }
+
+    /**
+     * Unpack the bases from {@code start} (inclusive) to {@code end} (exclusive) into {@code dest}.
+     *
+     * @param upperCase if true lower case bases are unpacked as upper case, as required for example by CRAM
+     */
+    public void unpack(int start, int end, byte[] dest, int destOffset, boolean upperCase) {
+
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " of sequence of length " + length);
+        }
+
+        // Bases up to the first packed byte boundary, whole packed bytes, then the remainder
+        int i = start;
+        int d = destOffset;
+        while (i < end && (i & 3) != 0) {
+            dest[d++] = UNPACK[4 * (packed[i >> 2] & 0xFF) + (i & 3)];
+            i++;
+        }
+        int wholeEnd = end & ~3;
+        for (int p = i >> 2; i < wholeEnd; p++, i += 4, d += 4) {
+            System.arraycopy(UNPACK, 4 * (packed[p] & 0xFF), dest, d, 4);
+        }
+        while (i < end) {
+            dest[d++] = UNPACK[4 * (packed[i >> 2] & 0xFF) + (i & 3)];
+            i++;
+        }
+
+        int shift = destOffset - start;
+        if (!upperCase) {
+            for (int m = findRun(maskStarts, maskEnds, start); m < maskStarts.length && maskStarts[m] < end; m++) {
+                int to = Math.min(end, maskEnds[m]) + shift;
+                for (int j = Math.max(start, maskStarts[m]) + shift; j < to; j++) {
+                    dest[j] += 32;
+                }
+            }
+        }
+        for (int r = findRun(runStarts, runEnds, start); r < runStarts.length && runStarts[r] < end; r++) {
+            byte b = runValues[r];
+            if (upperCase && b >= 'a' && b <= 'z') {
+                b -= 32;
+            }
+            Arrays.fill(dest, Math.max(start, runStarts[r]) + shift, Math.min(end, runEnds[r]) + shift, b);
+        }
+    }
+
+    /**
+     * @return the index of the first run ending after {@code position}
+     */
+    private static int findRun(int[] starts, int[] ends, int position) {
+        int lo = 0;
+        int hi = ends.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the approximate size of this sequence in bytes
+     */
+    public long getMemoryEstimate() {
+        return 64 + packed.length + 9L * runStarts.length + 8L * maskStarts.length;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.genome;
+
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.collections.WeightedLRUCache;
+
+import static org.broad.igv.prefs.Constants.SEQUENCE_CACHE_MB;
+
+/**
+ * A process-wide cache of packed reference sequence, shared by sequence tracks, alignment rendering, and CRAM
+ * decoding.  The cache is bounded by a byte budget, set by the {@code SEQUENCE.CACHE_MB} preference (0 meaning a
+ * sixteenth of the maximum heap), and evicts least recently used sequence first.
+ */
+public class SequenceCache {
+
+    private static SequenceCache instance;
+
+    private final WeightedLRUCache<String, PackedSequence> cache;
+
+    public static synchronized SequenceCache getInstance() {
+        if (instance == null) {
+            instance = new SequenceCache(0);
+        }
+        return instance;
+    }
+
+    /**
+     * @param budget maximum size in bytes, or 0 to take the budget from the preferences
+     */
+    public SequenceCache(long budget) {
+        this.cache = new WeightedLRUCache<>(() -> budget > 0 ? budget : preferenceBudget());
+    }
+
+    private static long preferenceBudget() {
+        long mb = PreferencesManager.getPreferences().getAsInt(SEQUENCE_CACHE_MB);
+        return mb > 0 ? mb * 1000000 : Runtime.getRuntime().maxMemory() / 16;
+    }
+
+    public long getBudget() {
+        return cache.getBudget();
+    }
+
+    public PackedSequence get(String key) {
+        return cache.get(key);
+    }
+
+    public boolean containsKey(String key) {
+        return cache.containsKey(key);
+    }
+
+    /**
+     * Cache a sequence, replacing any cached for the key.  The sequence just added is never evicted, so a sequence
+     * larger than the budget is held until the next put.
+     */
+    public void put(String key, PackedSequence sequence) {
+        cache.put(key, sequence, sequence.getMemoryEstimate());
+    }
+
+    /**
+     * Remove all sequence whose key starts with {@code prefix}
+     */
+    public void removeAll(String prefix) {
+        cache.removeAll(key -> key.startsWith(prefix));
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public long getBytes() {
+        return cache.getBytes();
+    }
+}
@@ -31,13 +31,14 @@ package org.broad.igv.feature.genome;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.ui.panel.ReferenceFrame;
-import org.broad.igv.util.ObjectCache;
 
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A wrapper class that provides caching for on-disk, queried, and web-service Sequence implementations.
+ * Tiles of sequence are held packed, 2 bits per base, in the shared {@link SequenceCache}.
  *
  * @author jrobinso
  */
@@ -46,12 +47,17 @@ public class SequenceWrapper implements Sequence  {
     private static Logger log = Logger.getLogger(SequenceWrapper.class);
     private static boolean cacheSequences = true;
     private static int tileSize = 1000000;
+    private static final int MAX_TILES_PER_LOAD = 16;
+    private static AtomicInteger nextId = new AtomicInteger();
 
     private Sequence sequence;
-    private ObjectCache<String, SequenceTile> sequenceCache = new ObjectCache<String, SequenceTile>(50);
+
+    // Distinguishes the tiles of this sequence in the shared cache
+    private final String keyPrefix;
 
     public SequenceWrapper(Sequence sequence) {
         this.sequence = sequence;
+        this.keyPrefix = nextId.getAndIncrement() + "|";
     }
 
 
@@ -61,12 +67,12 @@ public class SequenceWrapper implements Sequence  {
 
             // Get first chunk
             SequenceTile tile = getSequenceTile(chr, tileNo);
-            int offset = position - tile.getStart();
-            byte[] bytes = tile.bytes;
-            if (bytes == null) {
+            if (tile == null) {
                 return 0;
-            } else if (offset > 0 && offset < bytes.length) {
-                return bytes[offset];
+            }
+            int offset = position - tile.getStart();
+            if (offset > 0 && offset < tile.getSize()) {
+                return tile.bases.getBase(offset);
             } else {
                 return 0;
             }
@@ -95,8 +101,7 @@ public class SequenceWrapper implements Sequence  {
         int endTile = (int) frame.getEnd() / tileSize;
         String chr = frame.getChrName();
         for (int i = startTile; i <= endTile; i++) {
-            String key = getKey(chr, i);
-            if (!sequenceCache.containsKey(key)) return false;
+            if (!SequenceCache.getInstance().containsKey(keyPrefix + getKey(chr, i))) return false;
 
         }
         return true;
@@ -137,8 +142,7 @@ public class SequenceWrapper implements Sequence  {
                 return null;   // Can this ever happen?
             }
 
-            byte[] tileBytes = tile.getBytes();
-            if (tileBytes == null) {
+            if (tile.bases == null) {
                 return null;
             }
 
@@ -154,17 +158,17 @@ public class SequenceWrapper implements Sequence  {
             }
 
             // # of bytes to copy.  Note that only one of fromOffset or toOffset is non-zero.
-            int nBytes = Math.min(tileBytes.length - Math.abs(fromOffset), seqbytes.length - Math.abs(toOffset));
+            int nBytes = Math.min(tile.getSize() - Math.abs(fromOffset), seqbytes.length - Math.abs(toOffset));
 
             // Copy first chunk
-            System.arraycopy(tileBytes, fromOffset, seqbytes, toOffset, nBytes);
+            tile.bases.unpack(fromOffset, fromOffset + nBytes, seqbytes, toOffset, false);
 
             // If multiple chunks ...
             for (int t = startTile + 1; t <= endTile; t++) {
                 tile = tiles[t - startTile];
                 int nNext = Math.min(seqbytes.length - nBytes, tile.getSize());
 
-                System.arraycopy(tile.getBytes(), 0, seqbytes, nBytes, nNext);
+                tile.bases.unpack(0, nNext, seqbytes, nBytes, false);
                 nBytes += nNext;
             }
 
@@ -175,9 +179,13 @@ public class SequenceWrapper implements Sequence  {
     }
 
 
+    private SequenceTile getCachedTile(String chr, int tileNo) {
+        PackedSequence bases = SequenceCache.getInstance().get(keyPrefix + getKey(chr, tileNo));
+        return bases == null ? null : new SequenceTile(tileNo * tileSize, bases);
+    }
+
     private SequenceTile getSequenceTile(String chr, int tileNo) {
-        String key = getKey(chr, tileNo);
-        SequenceTile tile = sequenceCache.get(key);
+        SequenceTile tile = getCachedTile(chr, tileNo);
 
         if (tile == null) {
             int start = tileNo * tileSize;
@@ -188,8 +196,11 @@ public class SequenceWrapper implements Sequence  {
             }
 
             byte[] seq = sequence.getSequence(chr, start, end, true);
-            tile = new SequenceTile(start, seq);
-            sequenceCache.put(key, tile);
+            if (seq == null) {
+                return new SequenceTile(start, null);
+            }
+            tile = new SequenceTile(start, PackedSequence.pack(seq));
+            SequenceCache.getInstance().put(keyPrefix + getKey(chr, tileNo), tile.bases);
         }
 
         return tile;
@@ -203,8 +214,7 @@ public class SequenceWrapper implements Sequence  {
         TileRange toLoad = null;
         for (int tileNo = startTile; tileNo <= endTile; tileNo++) {
 
-            String key = getKey(chr, tileNo);
-            SequenceTile tile = sequenceCache.get(key);
+            SequenceTile tile = getCachedTile(chr, tileNo);
 
             if (tile == null) {
 
@@ -233,27 +243,28 @@ public class SequenceWrapper implements Sequence  {
     }
 
     private void loadTiles(String chr, int startTile, SequenceTile[] tiles, TileRange toLoad) {
-        int start = toLoad.startTile * tileSize;
-        int end = (toLoad.endTile + 1) * tileSize;
-        byte[] seq = sequence.getSequence(chr, start, end, true);
+        // Load in batches, so a long range (e.g. a whole chromosome) is never held unpacked at once
+        for (int first = toLoad.startTile; first <= toLoad.endTile; first += MAX_TILES_PER_LOAD) {
+            int last = Math.min(toLoad.endTile, first + MAX_TILES_PER_LOAD - 1);
+            int start = first * tileSize;
+            int end = (last + 1) * tileSize;
+            byte[] seq = sequence.getSequence(chr, start, end, true);
 
-        if(seq == null) {
-            log.warn("Null sequence for " + chr + ":" + start + "-" + end);
-            seq = new byte[end-start];
-        }
+            if (seq == null) {
+                log.warn("Null sequence for " + chr + ":" + start + "-" + end);
+                seq = new byte[end - start];
+            }
+
+            int offset = 0;
+            for (int t = first; t <= last; t++) {
 
-        int offset = 0;
-        for (int t = toLoad.startTile; t <= toLoad.endTile; t++) {
-
-            int nBytes = Math.min(tileSize, seq.length - offset);
-            byte[] tileSeq = new byte[nBytes];
-            int tileStart = t * tileSize;
-            System.arraycopy(seq, offset, tileSeq, 0, nBytes);
-            SequenceTile t2 = new SequenceTile(tileStart, tileSeq);
-            String k = getKey(chr, t);
-            sequenceCache.put(k, t2);
-            tiles[t - startTile] = t2;
-            offset += tileSize;
+                int nBytes = Math.max(0, Math.min(tileSize, seq.length - offset));
+                int tileStart = t * tileSize;
+                SequenceTile t2 = new SequenceTile(tileStart, PackedSequence.pack(seq, Math.min(offset, seq.length), nBytes));
+                SequenceCache.getInstance().put(keyPrefix + getKey(chr, t), t2.bases);
+                tiles[t - startTile] = t2;
+                offset += tileSize;
+            }
         }
     }
 
@@ -299,17 +310,17 @@ public class SequenceWrapper implements Sequence  {
     }
 
     public void clearCache() {
-        sequenceCache.clear();
+        SequenceCache.getInstance().removeAll(keyPrefix);
     }
 
     static class SequenceTile {
 
         private int start;
-        private byte[] bytes;
+        private PackedSequence bases;
 
-        SequenceTile(int start, byte[] bytes) {
+        SequenceTile(int start, PackedSequence bases) {
             this.start = start;
-            this.bytes = bytes;
+            this.bases = bases;
         }
 
         public int getStart() {
@@ -317,11 +328,7 @@ public class SequenceWrapper implements Sequence  {
         }
 
         public int getSize() {
-            return bytes == null ? 0 : bytes.length;
-        }
-
-        public byte[] getBytes() {
-            return bytes;
+            return bases == null ? 0 : bases.getLength();
         }
     }
 
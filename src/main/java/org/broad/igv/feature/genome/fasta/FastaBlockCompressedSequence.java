@@ -11,6 +11,7 @@ import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Created by jrobinso on 6/23/17.
@@ -34,6 +35,11 @@ public class FastaBlockCompressedSequence extends FastaIndexedSequence {
         readGziMappings(indexPath);
     }
 
+    @Override
+    protected ByteBuffer readBuffer(long posStart, long posEnd) throws IOException {
+        return ByteBuffer.wrap(readBytes(posStart, posEnd));
+    }
+
     @Override
     /**
      * Read the bytes between VIRTUAL file position posStart and posEnd
@@ -30,11 +30,13 @@ import org.apache.log4j.Logger;
 import org.broad.igv.feature.genome.Sequence;
 import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ParsingUtils;
+import org.broad.igv.util.stream.IGVMappedFileStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -128,28 +130,33 @@ public class FastaIndexedSequence implements Sequence {
             }
 
             // Read all the bytes in the range.  This will include endline characters
-            byte[] allBytes = readBytes(startByte, endByte);
+            ByteBuffer allBytes = readBuffer(startByte, endByte);
 
-            // Create the array for the sequence -- this will be "allBytes" without the endline characters.
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(end - start);
+            // Copy the sequence, "allBytes" without the endline characters, directly into the result
+            byte[] sequence = new byte[end - start];
+            int n = 0;
 
             int srcPos = 0;
 
             // Copy first line
-            final int allBytesLength = allBytes.length;
+            final int allBytesLength = allBytes.limit();
             if (offset > 0) {
                 int nBases = Math.min(end - start, basesPerLine - offset);
-                bos.write(allBytes, srcPos, nBases);
+                allBytes.position(srcPos);
+                allBytes.get(sequence, n, nBases);
+                n += nBases;
                 srcPos += (nBases + nEndBytes);
             }
 
-            while (srcPos < allBytesLength) {
-                int nBases = Math.min(basesPerLine, allBytesLength - srcPos);
-                bos.write(allBytes, srcPos, nBases);
+            while (srcPos < allBytesLength && n < sequence.length) {
+                int nBases = Math.min(Math.min(basesPerLine, allBytesLength - srcPos), sequence.length - n);
+                allBytes.position(srcPos);
+                allBytes.get(sequence, n, nBases);
+                n += nBases;
                 srcPos += (nBases + nEndBytes);
             }
 
-            return bos.toByteArray();
+            return n == sequence.length ? sequence : Arrays.copyOf(sequence, n);
 
         } catch (IOException e) {
             log.error("Error loading sequence " + chr + ":" + qstart + "-" + qend, e);
@@ -164,6 +171,25 @@ public class FastaIndexedSequence implements Sequence {
     }
 
 
+    /**
+     * Return the bytes between file position posStart and posEnd.  For a memory-mapped local file this is a view of
+     * the mapping, nothing is copied.
+     *
+     * @throws IOException
+     */
+    protected ByteBuffer readBuffer(long posStart, long posEnd) throws IOException {
+
+        SeekableStream ss = null;
+        try {
+            ss = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+            return IGVMappedFileStream.readBuffer(ss, posStart, (int) (posEnd - posStart));
+        } finally {
+            if (ss != null) {
+                ss.close();
+            }
+        }
+    }
+
     /**
      * Read the bytes between file position posStart and posEnd
      *
@@ -0,0 +1,475 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.tribble;
+
+import htsjdk.tribble.AsciiFeatureCodec;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.FeatureCodec;
+import org.broad.igv.exceptions.DataLoadException;
+import org.broad.igv.feature.BasicFeature;
+import org.broad.igv.feature.Exon;
+import org.broad.igv.feature.IGVFeature;
+import org.broad.igv.feature.NamedFeature;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.ResourceLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.broad.igv.prefs.Constants.FEATURE_COMPACT_STORE;
+
+/**
+ * In-memory store for the features of a large local feature file.  Only the coordinates and name of each feature,
+ * and the offset and length of the line it was decoded from, are held, in primitive arrays per chromosome.  Features
+ * are decoded again from the file when they are queried, so only those in view are held as objects.
+ * <p>
+ * Features are added in file order, see {@link ParallelFeatureReader}, and sorted by start when the store is
+ * finished.
+ */
+public class CompactFeatureStore {
+
+    // Lines closer than this are read together
+    private static final int MAX_GAP = 65536;
+    private static final int MAX_READ = 1000000;
+
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    private final File file;
+    private final long fileLength;
+    private final long lastModified;
+    private final AsciiFeatureCodec codec;
+    private final Map<String, ChrFeatures> chrFeatures = new LinkedHashMap<>();
+    private Map<String, String> nameTable = new HashMap<>();
+
+    private CompactFeatureStore(File file, AsciiFeatureCodec codec) {
+        this.file = file;
+        this.fileLength = file.length();
+        this.lastModified = file.lastModified();
+        this.codec = codec;
+    }
+
+    /**
+     * Create a store for the file, if it can be read by {@link ParallelFeatureReader} and its codec decodes
+     * features without side effects.
+     *
+     * @return the store, or null if the features of this file must be held as objects
+     */
+    public static CompactFeatureStore create(ResourceLocator locator, FeatureCodec codec, Genome genome) throws IOException {
+
+        if (!PreferencesManager.getPreferences().getAsBoolean(FEATURE_COMPACT_STORE) ||
+                !ParallelFeatureReader.isSupported(locator, codec)) {
+            return null;
+        }
+
+        File file = new File(locator.getPath());
+        AsciiFeatureCodec storeCodec = (AsciiFeatureCodec) CodecFactory.getCodec(locator, genome);
+        ParallelFeatureReader.readHeader(storeCodec, file);
+
+        // These codecs register features for search as they are decoded, which must only be done once
+        if ((storeCodec instanceof UCSCCodec && ((UCSCCodec) storeCodec).isGffTags()) ||
+                (storeCodec instanceof GFFCodec && ((GFFCodec) storeCodec).hasHiddenFeatures())) {
+            return null;
+        }
+        return new CompactFeatureStore(file, storeCodec);
+    }
+
+    /**
+     * Add a feature, with the offset and length of the line it was decoded from
+     */
+    public void add(String chr, Feature feature, long position, int length) {
+        ChrFeatures features = chrFeatures.get(chr);
+        if (features == null) {
+            features = new ChrFeatures();
+            chrFeatures.put(chr, features);
+        }
+        String name = null;
+        if (feature instanceof NamedFeature) {
+            name = ((NamedFeature) feature).getName();
+            if (name != null) {
+                String interned = nameTable.putIfAbsent(name, name);
+                if (interned != null) name = interned;
+            }
+        }
+        int thickStart = feature.getStart();
+        int thickEnd = feature.getEnd();
+        if (feature instanceof BasicFeature) {
+            thickStart = ((BasicFeature) feature).getThickStart();
+            thickEnd = ((BasicFeature) feature).getThickEnd();
+        }
+        features.add(feature.getStart(), feature.getEnd(), thickStart, thickEnd, name, position, length);
+    }
+
+    /**
+     * Sort the features of each chromosome by start.  The sort is stable, features with equal starts stay in file
+     * order.
+     */
+    public void finish() {
+        for (ChrFeatures features : chrFeatures.values()) {
+            features.finish();
+        }
+        nameTable = null;
+    }
+
+    public Set<String> getChromosomeNames() {
+        return chrFeatures.keySet();
+    }
+
+    /**
+     * @return the features of the chromosome, or null if there are none
+     */
+    public ChrFeatures getFeatures(String chr) {
+        return chrFeatures.get(chr);
+    }
+
+    /**
+     * @return the features overlapping the interval, sorted by start
+     */
+    public List<Feature> getFeatures(String chr, int start, int end) throws IOException {
+        ChrFeatures features = chrFeatures.get(chr);
+        if (features == null) {
+            return Collections.emptyList();
+        }
+        return decode(features, features.getOverlapping(start, end));
+    }
+
+    /**
+     * Decode the features at the given indices from the file.  Lines that are close together in the file are
+     * read together.
+     */
+    private synchronized List<Feature> decode(ChrFeatures features, int[] indices) throws IOException {
+
+        if (indices.length == 0) {
+            return Collections.emptyList();
+        }
+        if (file.length() != fileLength || file.lastModified() != lastModified) {
+            throw new DataLoadException("File has changed since it was loaded", file.getAbsolutePath());
+        }
+
+        int[] order = fileOrder(features, indices);
+
+        Feature[] decoded = new Feature[indices.length];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[0];
+            int k = 0;
+            while (k < order.length) {
+                // Extend the read over following lines while the gaps are small
+                int first = indices[order[k]];
+                long readStart = features.positions[first];
+                long readEnd = readStart + features.lengths[first];
+                int last = k + 1;
+                while (last < order.length) {
+                    int idx = indices[order[last]];
+                    long lineEnd = features.positions[idx] + features.lengths[idx];
+                    if (features.positions[idx] - readEnd > MAX_GAP || lineEnd - readStart > MAX_READ) break;
+                    readEnd = Math.max(readEnd, lineEnd);
+                    last++;
+                }
+
+                int readLength = (int) (readEnd - readStart);
+                if (buffer.length < readLength) {
+                    buffer = new byte[readLength];
+                }
+                raf.seek(readStart);
+                raf.readFully(buffer, 0, readLength);
+
+                for (; k < last; k++) {
+                    int i = order[k];
+                    int idx = indices[i];
+                    String line = new String(buffer, (int) (features.positions[idx] - readStart), features.lengths[idx],
+                            StandardCharsets.ISO_8859_1);
+                    decoded[i] = codec.decode(line);
+                }
+            }
+        }
+        return Arrays.asList(decoded);
+    }
+
+    /**
+     * @return positions in {@code indices}, ordered by the file offset of their features
+     */
+    static int[] fileOrder(ChrFeatures features, int[] indices) {
+
+        int[] order = new int[indices.length];
+        if (indices.length > INDEX_MASK) {
+            // Too many to pack the position into a sort key
+            Integer[] boxed = new Integer[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, Comparator.comparingLong(i -> features.positions[indices[i]]));
+            for (int i = 0; i < indices.length; i++) {
+                order[i] = boxed[i];
+            }
+            return order;
+        }
+
+        // The low bits of each key hold the position in indices
+        long[] keys = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            keys[i] = (features.positions[indices[i]] << INDEX_BITS) | i;
+        }
+        boolean inFileOrder = true;
+        for (int i = 1; i < keys.length && inFileOrder; i++) {
+            inFileOrder = keys[i] > keys[i - 1];
+        }
+        if (!inFileOrder) {
+            Arrays.sort(keys);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) (keys[i] & INDEX_MASK);
+        }
+        return order;
+    }
+
+    /**
+     * The features of a chromosome.  Until the store is finished they are in file order.
+     */
+    public static class ChrFeatures {
+
+        private int size;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] thickStarts = new int[16];
+        private int[] thickEnds = new int[16];
+        private String[] names = new String[16];
+        private long[] positions = new long[16];
+        private int[] lengths = new int[16];
+        private int maxLength;
+
+        private void add(int start, int end, int thickStart, int thickEnd, String name, long position, int length) {
+            if (size == starts.length) {
+                resize(2 * size);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            thickStarts[size] = thickStart;
+            thickEnds[size] = thickEnd;
+            names[size] = name;
+            positions[size] = position;
+            lengths[size] = length;
+            maxLength = Math.max(maxLength, end - start);
+            size++;
+        }
+
+        private void resize(int capacity) {
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            thickStarts = Arrays.copyOf(thickStarts, capacity);
+            thickEnds = Arrays.copyOf(thickEnds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+
+        private void finish() {
+
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) {
+                sorted = starts[i] >= starts[i - 1];
+            }
+            if (!sorted) {
+                // Stable sort on start, ties are broken by file order
+                long[] keys = new long[size];
+                for (int i = 0; i < size; i++) {
+                    keys[i] = ((long) starts[i] << 32) | i;
+                }
+                Arrays.sort(keys);
+                int[] order = new int[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = (int) keys[i];
+                }
+                starts = permute(starts, order);
+                ends = permute(ends, order);
+                thickStarts = permute(thickStarts, order);
+                thickEnds = permute(thickEnds, order);
+                String[] n = new String[size];
+                long[] p = new long[size];
+                int[] l = new int[size];
+                for (int i = 0; i < size; i++) {
+                    n[i] = names[order[i]];
+                    p[i] = positions[order[i]];
+                    l[i] = lengths[order[i]];
+                }
+                names = n;
+                positions = p;
+                lengths = l;
+            } else {
+                resize(size);
+            }
+        }
+
+        private int[] permute(int[] values, int[] order) {
+            int[] result = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                result[i] = values[order[i]];
+            }
+            return result;
+        }
+
+        /**
+         * @return the indices of the features with start <= end and end > start, in order
+         */
+        private int[] getOverlapping(int start, int end) {
+            // Features sorted by start, none longer than maxLength
+            int lo = 0;
+            int hi = size;
+            long minStart = (long) start - maxLength;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < minStart) lo = mid + 1;
+                else hi = mid;
+            }
+            int[] result = new int[16];
+            int n = 0;
+            for (int i = lo; i < size && starts[i] <= end; i++) {
+                if (ends[i] > start) {
+                    if (n == result.length) result = Arrays.copyOf(result, 2 * n);
+                    result[n++] = i;
+                }
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getStart(int i) {
+            return starts[i];
+        }
+
+        public int getEnd(int i) {
+            return ends[i];
+        }
+
+        public int getThickStart(int i) {
+            return thickStarts[i];
+        }
+
+        public int getThickEnd(int i) {
+            return thickEnds[i];
+        }
+
+        public String getName(int i) {
+            return names[i];
+        }
+    }
+
+    /**
+     * Stands in for a feature of the store, or for an exon of one, in the {@link org.broad.igv.feature.FeatureDB}, so
+     * the feature itself need not be held for search.  An exon handle reports the coordinates of the exon.
+     */
+    public static class FeatureHandle implements NamedFeature {
+
+        private final CompactFeatureStore store;
+        private final String chr;
+        private final int start;
+        private final int end;
+        private final String name;
+
+        // The feature decoded from the store, the parent feature for an exon handle
+        private final FeatureHandle parent;
+
+        public FeatureHandle(CompactFeatureStore store, String chr, NamedFeature feature) {
+            this(store, chr, feature, null);
+        }
+
+        private FeatureHandle(CompactFeatureStore store, String chr, NamedFeature feature, FeatureHandle parent) {
+            this.store = store;
+            this.chr = chr;
+            this.start = feature.getStart();
+            this.end = feature.getEnd();
+            this.name = feature.getName();
+            this.parent = parent;
+        }
+
+        /**
+         * @return a handle to an exon of this handle's feature
+         */
+        public FeatureHandle getExonHandle(Exon exon) {
+            return new FeatureHandle(store, chr, exon, this);
+        }
+
+        public CompactFeatureStore getStore() {
+            return store;
+        }
+
+        /**
+         * @return the feature, decoded from the file
+         */
+        public Feature getFeature() throws IOException {
+            if (parent != null) {
+                Feature feature = parent.getFeature();
+                if (feature instanceof IGVFeature && ((IGVFeature) feature).getExons() != null) {
+                    for (Exon exon : ((IGVFeature) feature).getExons()) {
+                        if (exon.getStart() == start && exon.getEnd() == end) {
+                            return exon;
+                        }
+                    }
+                }
+                return null;
+            }
+            for (Feature f : store.getFeatures(chr, start, end)) {
+                if (f.getStart() == start && f.getEnd() == end && f instanceof NamedFeature &&
+                        Objects.equals(name, ((NamedFeature) f).getName())) {
+                    return f;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getChr() {
+            return chr;
+        }
+
+        @Override
+        public String getContig() {
+            return chr;
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return end;
+        }
+    }
+}
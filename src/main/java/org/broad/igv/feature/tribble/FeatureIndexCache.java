@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.tribble;
+
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.index.linear.LinearIndexCreator;
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.feature.FeatureDB;
+import org.broad.igv.feature.NamedFeature;
+import org.broad.igv.prefs.PreferencesManager;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.broad.igv.prefs.Constants.FEATURE_INDEX_CACHE;
+
+/**
+ * Tribble indexes for local feature files that have no index of their own.  Indexes are built while the file is
+ * loaded, see {@link Builder}, and kept in the IGV directory rather than next to the file, so subsequent loads of
+ * the file can be indexed.  An index is discarded when the size or modification time of its file changes, and
+ * indexes that are not used for a while are pruned, see {@link DirectoryManager#getFeatureIndexDirectory()}.
+ * <p>
+ * Files with features that can be searched by name are not indexed.  Features of an indexed file are only loaded
+ * for the region in view, so their names would not be registered in the {@link FeatureDB}.
+ */
+public class FeatureIndexCache {
+
+    private static Logger log = Logger.getLogger(FeatureIndexCache.class);
+
+    private static final String FILE_SIZE_PROPERTY = "IGV_FILE_SIZE";
+    private static final String FILE_TIMESTAMP_PROPERTY = "IGV_FILE_TIMESTAMP";
+
+    public static boolean isEnabled() {
+        return PreferencesManager.getPreferences().getAsBoolean(FEATURE_INDEX_CACHE);
+    }
+
+    static File getIndexFile(String path) {
+        File file = new File(path).getAbsoluteFile();
+        String name = Integer.toHexString(file.getPath().hashCode()) + "_" + file.getName() + ".idx";
+        return new File(DirectoryManager.getFeatureIndexDirectory(), name);
+    }
+
+    /**
+     * @return the cached index for the file at {@code path}, or null if there is none or it is out of date
+     */
+    public static Index getIndex(String path) {
+
+        if (!isEnabled()) {
+            return null;
+        }
+
+        File indexFile;
+        try {
+            indexFile = getIndexFile(path);
+        } catch (Exception e) {
+            log.error("Error locating feature index directory", e);
+            return null;
+        }
+        if (!indexFile.exists()) {
+            return null;
+        }
+
+        try {
+            Index index = IndexFactory.loadIndex(indexFile.getAbsolutePath());
+            File file = new File(path);
+            Map<String, String> properties = index.getProperties();
+            if (properties != null &&
+                    String.valueOf(file.length()).equals(properties.get(FILE_SIZE_PROPERTY)) &&
+                    String.valueOf(file.lastModified()).equals(properties.get(FILE_TIMESTAMP_PROPERTY))) {
+                indexFile.setLastModified(System.currentTimeMillis());
+                return index;
+            }
+            log.info("Discarding out of date index for " + path);
+        } catch (Exception e) {
+            log.error("Error reading cached index for " + path, e);
+        }
+        indexFile.delete();
+        return null;
+    }
+
+    /**
+     * Store an index built by a {@link Builder}.  Errors are logged, a missing index only costs a slower load.
+     */
+    public static void putIndex(String path, Index index) {
+        try {
+            File indexFile = getIndexFile(path);
+            File tmpFile = new File(indexFile.getPath() + ".tmp");
+            index.write(tmpFile.toPath());
+            if (!tmpFile.renameTo(indexFile)) {
+                tmpFile.delete();
+            }
+        } catch (Exception e) {
+            log.error("Error caching index for " + path, e);
+        }
+    }
+
+    /**
+     * Builds a linear index from features presented in file order, with the file offset of each.  Features must be
+     * grouped by chromosome and sorted by start within a chromosome, otherwise no index is built.
+     */
+    public static class Builder {
+
+        private final File file;
+        private LinearIndexCreator indexCreator;
+        private final Set<String> chromosomes = new HashSet<>();
+        private String lastChr;
+        private int lastStart;
+
+        public Builder(File file) {
+            this.file = file;
+            this.indexCreator = new LinearIndexCreator(file);
+        }
+
+        public void addFeature(Feature feature, long position) {
+            if (indexCreator == null) {
+                return;
+            }
+            if (feature instanceof NamedFeature && FeatureDB.isSearchable((NamedFeature) feature)) {
+                log.info(file.getName() + " has features that can be searched by name, it will not be indexed");
+                indexCreator = null;
+                return;
+            }
+            String chr = feature.getContig();
+            if (!chr.equals(lastChr)) {
+                if (!chromosomes.add(chr)) {
+                    unsorted();
+                    return;
+                }
+                lastChr = chr;
+            } else if (feature.getStart() < lastStart) {
+                unsorted();
+                return;
+            }
+            lastStart = feature.getStart();
+            indexCreator.addFeature(feature, position);
+        }
+
+        private void unsorted() {
+            log.info(file.getName() + " is not sorted, it will not be indexed");
+            indexCreator = null;
+        }
+
+        /**
+         * @return the index, or null if the features were not sorted
+         */
+        public Index finish() {
+            if (indexCreator == null || chromosomes.isEmpty()) {
+                return null;
+            }
+            indexCreator.addProperty(FILE_SIZE_PROPERTY, String.valueOf(file.length()));
+            indexCreator.addProperty(FILE_TIMESTAMP_PROPERTY, String.valueOf(file.lastModified()));
+            return indexCreator.finalizeIndex(file.length());
+        }
+    }
+}
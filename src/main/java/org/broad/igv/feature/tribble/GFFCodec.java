@@ -138,6 +138,20 @@ public class GFFCodec extends AsciiFeatureCodec<Feature> {
         }
     }
 
+    /**
+     * @return true if the header hides any feature types
+     */
+    public boolean hasHiddenFeatures() {
+        return !featuresToHide.isEmpty();
+    }
+
+    /**
+     * @return true if a ##FASTA line has been decoded, the rest of the file is sequence
+     */
+    public boolean isFastaSection() {
+        return fastaSection;
+    }
+
     public Object readActualHeader(LineIterator reader) {
 
         if (header == null) {
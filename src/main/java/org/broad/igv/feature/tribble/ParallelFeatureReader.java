@@ -0,0 +1,321 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.tribble;
+
+import htsjdk.tribble.AsciiFeatureCodec;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.FeatureCodec;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.tribble.readers.PositionalBufferedStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.feature.FeatureUtils;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.util.ResourceLocator;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads all features of a large, local, uncompressed feature file by splitting it into byte ranges at line
+ * boundaries and decoding the ranges in parallel.  Each range is decoded by its own codec, initialized from the
+ * file header.  Features are handed to the caller in file order, a range at a time, with the file offset of each,
+ * so the caller can build an index as it goes.  Ranges are decoded at most a few ahead of the caller, so only a
+ * bounded part of the file is held as decoded ranges at any time.
+ * <p>
+ * Only codecs that decode each line independently of the lines before it are supported.  The one exception is the
+ * ##FASTA line of a GFF file, which ends the features; ranges after it are discarded.
+ */
+public class ParallelFeatureReader {
+
+    private static Logger log = Logger.getLogger(ParallelFeatureReader.class);
+
+    // Files smaller than this are read sequentially
+    static long minSize = 50000000;
+
+    private static final long MIN_CHUNK_SIZE = 1000000;
+    private static final long MAX_CHUNK_SIZE = 8000000;
+
+    private static ExecutorService executor;
+
+    private final ResourceLocator locator;
+    private final Genome genome;
+    private final long chunkSize;
+    private final int maxChunksAhead;
+
+    public ParallelFeatureReader(ResourceLocator locator, Genome genome) {
+        this(locator, genome, Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE,
+                new File(locator.getPath()).length() / (4 * Runtime.getRuntime().availableProcessors()))));
+    }
+
+    ParallelFeatureReader(ResourceLocator locator, Genome genome, long chunkSize) {
+        this(locator, genome, chunkSize, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    ParallelFeatureReader(ResourceLocator locator, Genome genome, long chunkSize, int maxChunksAhead) {
+        this.locator = locator;
+        this.genome = genome;
+        this.chunkSize = chunkSize;
+        this.maxChunksAhead = maxChunksAhead;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "Feature file reader");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * @return true if the file can, and is large enough to, be read in parallel with this codec
+     */
+    public static boolean isSupported(ResourceLocator locator, FeatureCodec codec) {
+        if (!locator.isLocal()) {
+            return false;
+        }
+        String path = locator.getPath().toLowerCase();
+        if (path.endsWith(".gz") || path.endsWith(".bgz")) {
+            return false;
+        }
+        boolean stateless = codec instanceof IGVBEDCodec || codec instanceof PSLCodec || codec instanceof GFFCodec;
+        return stateless && new File(locator.getPath()).length() >= minSize;
+    }
+
+    /**
+     * Read all features of the file.  Each range is passed to the handler, in file order, as soon as it and the
+     * ranges before it are decoded, and is not referenced by the reader afterwards.
+     */
+    public void read(ChunkHandler handler) throws IOException {
+
+        File file = new File(locator.getPath());
+        long headerEnd = readHeader(newCodec(), file);
+        long[] boundaries = getBoundaries(file, headerEnd);
+        int chunkCount = boundaries.length - 1;
+
+        Deque<Future<Chunk>> pending = new ArrayDeque<>(maxChunksAhead);
+        int next = 0;
+        try {
+            while (next < chunkCount || !pending.isEmpty()) {
+                while (next < chunkCount && pending.size() < maxChunksAhead) {
+                    long start = boundaries[next];
+                    long end = boundaries[next + 1];
+                    pending.add(getExecutor().submit(() -> readChunk(file, start, end)));
+                    next++;
+                }
+                Chunk chunk = pending.poll().get();
+                handler.handle(chunk);
+                if (chunk.endOfFeatures) {
+                    break;
+                }
+            }
+            log.debug("Read " + locator.getPath() + " in " + chunkCount + " ranges");
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted reading " + locator.getPath());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+        }
+    }
+
+    /**
+     * Sort each list of features by start, in parallel.  The sort is stable.
+     */
+    public static void sortFeatureLists(Collection<List<Feature>> featureLists) throws IOException {
+        List<Future<?>> futures = new ArrayList<>(featureLists.size());
+        for (List<Feature> featureList : featureLists) {
+            futures.add(getExecutor().submit(() -> FeatureUtils.sortFeatureList(featureList)));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted sorting features");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private AsciiFeatureCodec newCodec() {
+        return (AsciiFeatureCodec) CodecFactory.getCodec(locator, genome);
+    }
+
+    /**
+     * Read the header with the codec, initializing it for decoding
+     *
+     * @return the file offset of the first line following the header
+     */
+    static long readHeader(AsciiFeatureCodec codec, File file) throws IOException {
+        try (AsciiLineReaderIterator iter = new AsciiLineReaderIterator(
+                AsciiLineReader.from(new PositionalBufferedStream(new FileInputStream(file))))) {
+            codec.readActualHeader(iter);
+            return iter.getPosition();
+        }
+    }
+
+    /**
+     * Split the file, from {@code start}, into ranges of roughly {@code chunkSize} bytes that start at line
+     * boundaries.
+     *
+     * @return the range boundaries, from {@code start} to the file length
+     */
+    private long[] getBoundaries(File file, long start) throws IOException {
+
+        long length = file.length();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(start);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[8192];
+            long next = start + chunkSize;
+            while (next < length) {
+                // The range starts after the first line terminator at or after next - 1
+                long position = next - 1;
+                long lineStart = -1;
+                raf.seek(position);
+                int n;
+                while (lineStart < 0 && (n = raf.read(buffer)) > 0) {
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '\n') {
+                            lineStart = position + i + 1;
+                            break;
+                        }
+                    }
+                    position += n;
+                }
+                if (lineStart < 0 || lineStart >= length) {
+                    break;
+                }
+                boundaries.add(lineStart);
+                next = lineStart + chunkSize;
+            }
+        }
+        boundaries.add(length);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private Chunk readChunk(File file, long start, long end) throws IOException {
+
+        AsciiFeatureCodec codec = newCodec();
+        readHeader(codec, file);
+
+        Chunk chunk = new Chunk((int) ((end - start) / 100));
+        try (FileInputStream fis = new FileInputStream(file)) {
+            fis.getChannel().position(start);
+            AsciiLineReader reader = AsciiLineReader.from(new PositionalBufferedStream(fis));
+            long position = start;
+            String line;
+            while (position < end && (line = reader.readLine()) != null) {
+                Feature f = codec.decode(line);
+                long next = start + reader.getPosition();
+                if (f != null) {
+                    chunk.add(f, position, (int) (next - position) - reader.getLineTerminatorLength());
+                } else if (codec instanceof GFFCodec && ((GFFCodec) codec).isFastaSection()) {
+                    chunk.endOfFeatures = true;
+                    break;
+                }
+                position = next;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Receives the decoded ranges of a file, see {@link #read(ChunkHandler)}
+     */
+    public interface ChunkHandler {
+        void handle(Chunk chunk) throws IOException;
+    }
+
+    /**
+     * The features decoded from a byte range of the file, in file order, with the file offset and length,
+     * excluding the line terminator, of the line each was decoded from.
+     */
+    public static class Chunk {
+
+        private final List<Feature> features;
+        private long[] positions;
+        private int[] lengths;
+
+        // True if the features of the file end in this range
+        private boolean endOfFeatures;
+
+        Chunk(int expectedSize) {
+            features = new ArrayList<>(Math.max(16, expectedSize));
+            positions = new long[Math.max(16, expectedSize)];
+            lengths = new int[positions.length];
+        }
+
+        private void add(Feature feature, long position, int length) {
+            int n = features.size();
+            if (n == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * n);
+                lengths = Arrays.copyOf(lengths, 2 * n);
+            }
+            positions[n] = position;
+            lengths[n] = length;
+            features.add(feature);
+        }
+
+        public int size() {
+            return features.size();
+        }
+
+        public Feature getFeature(int i) {
+            return features.get(i);
+        }
+
+        public long getPosition(int i) {
+            return positions[i];
+        }
+
+        public int getLength(int i) {
+            return lengths[i];
+        }
+    }
+}
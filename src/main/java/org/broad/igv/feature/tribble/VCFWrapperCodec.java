@@ -27,14 +27,23 @@ package org.broad.igv.feature.tribble;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.variant.Variant;
+import org.broad.igv.variant.vcf.PackedGenotypes;
 import org.broad.igv.variant.vcf.VCFVariant;
 import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.Feature;
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.broad.igv.prefs.Constants.VCF_LAZY_GENOTYPES;
 
 /**
  * @author Jim Robinson
@@ -47,6 +56,9 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
     AsciiFeatureCodec wrappedCodec;
     Genome genome;
 
+    // Column index of each sample, shared by all variants
+    Map<String, Integer> sampleIndices;
+
     public VCFWrapperCodec(AsciiFeatureCodec wrappedCodec, Genome genome) {
         super(VCFVariant.class);
         this.wrappedCodec = wrappedCodec;
@@ -55,7 +67,9 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
 
     @Override
     public Feature decodeLoc(LineIterator iterator) throws IOException{
-        return wrappedCodec.decodeLoc(iterator);
+        synchronized (wrappedCodec) {
+            return wrappedCodec.decodeLoc(iterator);
+        }
     }
 
     @Override
@@ -65,17 +79,25 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
         // IGV is much more permissive.
 
         VariantContext vc = null;
-        try {
-            vc = (VariantContext) wrappedCodec.decode(line);
-            //The genotype fields are loaded lazily, we force parsing here to
-            //catch the exception if necessary
-            if (vc != null) vc.getSampleNames();
-        } catch (NumberFormatException e) {
-            String msg = String.format("NumberFormatException on line: %s \n Attempting to reformat by replacing ,., with ,0,", line);
-            log.warn(msg);
-            String refLine = line.replaceAll(",\\.", ",0");
-            refLine = refLine.replaceAll("\\.,", "0,");
-            vc = (VariantContext) wrappedCodec.decode(refLine);
+        byte[] genotypeTypes = null;
+        // Variants decoding their genotypes lazily use the wrapped codec, see VCFVariant.getDecodedGenotype
+        synchronized (wrappedCodec) {
+            try {
+                vc = (VariantContext) wrappedCodec.decode(line);
+                // The genotype fields are loaded lazily.  Unless only the genotype types are needed up front, which
+                // are parsed from the line, we force parsing here to catch the exception if necessary
+                if (vc != null) {
+                    genotypeTypes = parseGenotypeTypes(line);
+                    if (genotypeTypes == null) vc.getSampleNames();
+                }
+            } catch (NumberFormatException e) {
+                String msg = String.format("NumberFormatException on line: %s \n Attempting to reformat by replacing ,., with ,0,", line);
+                log.warn(msg);
+                String refLine = line.replaceAll(",\\.", ",0");
+                refLine = refLine.replaceAll("\\.,", "0,");
+                vc = (VariantContext) wrappedCodec.decode(refLine);
+                genotypeTypes = vc == null ? null : parseGenotypeTypes(refLine);
+            }
         }
 
 
@@ -83,13 +105,54 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
             return null;
         }
         String chr = genome == null ? vc.getChr() : genome.getCanonicalChrName(vc.getChr());
-        return new VCFVariant(vc, chr);
+        return genotypeTypes == null ? new VCFVariant(vc, chr) : new VCFVariant(vc, chr, sampleIndices, genotypeTypes, wrappedCodec);
+    }
+
+    /**
+     * @return the genotype types of the line, or null if the genotypes should be decoded in full
+     */
+    private byte[] parseGenotypeTypes(String line) {
+        if (sampleIndices == null || sampleIndices.isEmpty() ||
+                !PreferencesManager.getPreferences().getAsBoolean(VCF_LAZY_GENOTYPES) || hasMissingElements(line)) {
+            return null;
+        }
+        return PackedGenotypes.parse(line, sampleIndices.size());
+
+    }
 
+    /**
+     * @return true if a genotype field of the line may have a missing element within a list, e.g. "63,127,0,.,.,.".
+     * Such lines are decoded eagerly so a parse error is repaired by {@link #decode(String)}.
+     */
+    static boolean hasMissingElements(String line) {
+        int tabs = 0;
+        int i = 0;
+        while (i < line.length() && tabs < 9) {
+            if (line.charAt(i++) == '\t') tabs++;
+        }
+        for (; i < line.length() - 1; i++) {
+            char c = line.charAt(i);
+            char next = line.charAt(i + 1);
+            if ((c == ',' && next == '.') || (c == '.' && next == ',')) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public Object readActualHeader(LineIterator reader) {
-        return wrappedCodec.readActualHeader(reader);
+        Object header = wrappedCodec.readActualHeader(reader);
+        if (header instanceof VCFHeader) {
+            List<String> samples = ((VCFHeader) header).getGenotypeSamples();
+            Map<String, Integer> indices = new LinkedHashMap<>();
+            for (String sample : samples) {
+                indices.put(sample, indices.size());
+            }
+            // Duplicate sample names are left to the codec
+            sampleIndices = indices.size() == samples.size() ? Collections.unmodifiableMap(indices) : null;
+        }
+        return header;
     }
 
     /**
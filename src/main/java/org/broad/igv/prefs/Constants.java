@@ -44,6 +44,12 @@ final public class Constants {
     public static final String DEFAULT_GENOME = "DEFAULT_GENOME_KEY";
     public static final String AUTO_UPDATE_GENOMES = "AUTO_UPDATE_GENOMES";
     public static final String FRAME_BOUNDS_KEY = "IGV.Bounds";
+    public static final String MEMORY_MAPPED_FILES = "MEMORY_MAPPED_FILES";
+    public static final String BB_INDEX_SIDECAR = "BB.INDEX_SIDECAR";
+    public static final String SEQUENCE_CACHE_MB = "SEQUENCE.CACHE_MB";
+    public static final String FEATURE_INDEX_CACHE = "FEATURE.INDEX_CACHE";
+    public static final String FEATURE_COMPACT_STORE = "FEATURE.COMPACT_STORE";
+    public static final String VCF_LAZY_GENOTYPES = "VCF.LAZY_GENOTYPES";
 
 
     public static final String GENOMES_SERVER_URL = "IGV.genome.sequence.dir";
@@ -86,6 +92,7 @@ final public class Constants {
     public static final String CHART_COLOR_TRACK_NAME = "CHART.COLOR_TRACK_NAME";
     public static final String CHART_AUTOSCALE = "CHART.AUTOSCALE";
     public static final String CHART_SHOW_DATA_RANGE = "CHART.SHOW_DATA_RANGE";
+    public static final String CHART_TILE_CACHE_MB = "CHART.TILE_CACHE_MB";
 
     // Alignment options
     public static final String SAM_ALLELE_THRESHOLD = "SAM.ALLELE_THRESHOLD";
@@ -144,6 +151,11 @@ final public class Constants {
     public static final String SAM_SHOW_GROUP_SEPARATOR = "SAM.SHOW_GROUP_SEPARATOR";
     public static final String SAM_COMPLETE_READS_ONLY = "SAM.COMPLETE_READS_ONLY";
     public static final String SAM_REDUCED_MEMORY_MODE = "SAM.REDUCED_MEMORY_MODE";
+    public static final String SAM_LOAD_THREADS = "SAM.LOAD_THREADS";
+    public static final String SAM_COLUMNAR_STORE = "SAM.COLUMNAR_STORE";
+    public static final String SAM_COLUMNAR_STORE_MAX_MB = "SAM.COLUMNAR_STORE_MAX_MB";
+    public static final String SAM_PREFETCH = "SAM.PREFETCH";
+    public static final String SAM_INTERVAL_CACHE_MB = "SAM.INTERVAL_CACHE_MB";
     public static final String SAM_HIDE_SMALL_INDEL = "SAM.HIDE_SMALL_INDEL";
     public static final String SAM_SMALL_INDEL_BP_THRESHOLD = "SAM.SMALL_INDEL_BP_THRESHOLD";
     public static final String SAM_LINK_READS = "SAM.LINK_READS";
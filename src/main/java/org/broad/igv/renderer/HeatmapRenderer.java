@@ -25,6 +25,7 @@
 
 package org.broad.igv.renderer;
 
+import org.broad.igv.data.ScoreBlock;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.track.RenderContext;
@@ -33,6 +34,7 @@ import org.broad.igv.track.TrackType;
 
 import java.awt.*;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -78,15 +80,23 @@ public class HeatmapRenderer extends DataRenderer {
         int lastPStart = 0;
         int lastW = 0;
 
-        for (LocusScore score : scores) {
+        // Read score blocks by column, other lists by score
+        ScoreBlock block = scores instanceof ScoreBlock ? (ScoreBlock) scores : null;
+        Iterator<LocusScore> iter = block == null ? scores.iterator() : null;
+        int size = scores.size();
+        for (int i = 0; i < size; i++) {
             if (lastPStart > maxX) {
                 break;
             }
 
+            LocusScore score = iter == null ? null : iter.next();
+            int start = score == null ? block.getStart(i) : score.getStart();
+            int end = score == null ? block.getEnd(i) : score.getEnd();
+
             // Note -- don't cast these to an int until the range is checked,
             // otherwise could get an overflow.
-            float fStart = (float) ((score.getStart() - origin) / locScale);
-            float fEnd = (float) ((score.getEnd() - origin) / locScale);
+            float fStart = (float) ((start - origin) / locScale);
+            float fEnd = (float) ((end - origin) / locScale);
             // float fw = fEnd - fStart;
             int pStart = (int) fStart;
             int pEnd = (int) fEnd;
@@ -100,7 +110,7 @@ public class HeatmapRenderer extends DataRenderer {
 
             int w = Math.max(min, pEnd - pStart);
 
-            float dataY = track.logScaleData(score.getScore());
+            float dataY = track.logScaleData(score == null ? block.getValue(i) : score.getScore());
             Color graphColor = colorScale.getColor(dataY);
 
             if ((pStart + w) >= 0 && (lastPStart <= maxX)) {
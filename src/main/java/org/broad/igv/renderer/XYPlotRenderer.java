@@ -33,6 +33,7 @@ package org.broad.igv.renderer;
 //~--- non-JDK imports --------------------------------------------------------
 
 import org.broad.igv.Globals;
+import org.broad.igv.data.ScoreBlock;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
@@ -43,6 +44,7 @@ import org.broad.igv.ui.UIConstants;
 
 import java.awt.*;
 import java.text.DecimalFormat;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.broad.igv.prefs.Constants.*;
@@ -108,19 +110,27 @@ public abstract class XYPlotRenderer extends DataRenderer {
             baseY = adjustedRect.y + adjustedRect.height;
         }
 
-        for (LocusScore score : locusScores) {
+        // Read score blocks by column, other lists by score
+        ScoreBlock block = locusScores instanceof ScoreBlock ? (ScoreBlock) locusScores : null;
+        Iterator<LocusScore> iter = block == null ? locusScores.iterator() : null;
+        int size = locusScores.size();
+        for (int i = 0; i < size; i++) {
+
+            LocusScore score = iter == null ? null : iter.next();
+            int start = score == null ? block.getStart(i) : score.getStart();
+            int end = score == null ? block.getEnd(i) : score.getEnd();
 
             // Note -- don't cast these to an int until the range is checked.
             // could get an overflow.
-            double pX = ((score.getStart() - origin) / locScale);
-            double dx = Math.ceil((Math.max(1, score.getEnd() - score.getStart())) / locScale) + 1;
+            double pX = ((start - origin) / locScale);
+            double dx = Math.ceil((Math.max(1, end - start)) / locScale) + 1;
             if ((pX + dx < 0)) {
                 continue;
             } else if (pX > adjustedRect.getMaxX()) {
                 break;
             }
 
-            float dataY = score.getScore();
+            float dataY = score == null ? block.getValue(i) : score.getScore();
             if (isLog && dataY <= 0) {
                 continue;
             }
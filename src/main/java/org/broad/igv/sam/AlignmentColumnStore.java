@@ -0,0 +1,603 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.BinaryCodec;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.collections.LRUCache;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.List;
+
+import static org.broad.igv.prefs.Constants.SAM_COLUMNAR_STORE_MAX_MB;
+
+/**
+ * Columnar storage for the alignments of a loaded interval.  Fixed width fields (coordinates, flags, mapping
+ * quality, ...) are held in int columns, and variable length data (read name, cigar, bases, qualities, and
+ * tags) in a byte arena.  Both are backed by direct buffers, so a loaded interval costs a few small
+ * {@link ColumnarAlignment} handles on the heap rather than a full SAMRecord graph per read.
+ * <p>
+ * Direct buffers are not counted against -Xmx and are only freed when their store is garbage collected, so the
+ * direct memory held by all stores is capped by the SAM.COLUMNAR_STORE_MAX_MB preference.  Chunks allocated
+ * past the cap are put on the heap.
+ * <p>
+ * Alignment blocks are decoded on demand and the most recently used are cached, as the renderer and popup
+ * text need the same blocks repeatedly.
+ */
+public class AlignmentColumnStore {
+
+    private static final int INT_CHUNK_BITS = 12;
+    private static final int INT_CHUNK_SIZE = 1 << INT_CHUNK_BITS;     // Entries per int column chunk
+    private static final int INT_CHUNK_MASK = INT_CHUNK_SIZE - 1;
+    private static final int BYTE_CHUNK_SIZE = 1 << 18;              // Bytes per arena chunk
+    private static final int DECODED_CACHE_SIZE = 5000;
+
+    // Direct memory held by stores that have not yet been collected
+    private static final ReferenceQueue<AlignmentColumnStore> collectedStores = new ReferenceQueue<>();
+    private static final Set<DirectMemory> liveStores = new HashSet<>();
+    private static long directBytes = 0;
+
+    private final DirectMemory directMemory = new DirectMemory(this);
+
+    // Fixed width columns, one entry per alignment
+    private final IntColumn starts = new IntColumn();
+    private final IntColumn ends = new IntColumn();
+    private final IntColumn alignmentStarts = new IntColumn();
+    private final IntColumn alignmentEnds = new IntColumn();
+    private final IntColumn flags = new IntColumn();
+    private final IntColumn mappingQualities = new IntColumn();
+    private final IntColumn insertSizes = new IntColumn();
+    private final IntColumn mateStarts = new IntColumn();
+    private final IntColumn chrs = new IntColumn();
+    private final IntColumn referenceNames = new IntColumn();
+    private final IntColumn mateChrs = new IntColumn();
+    private final IntColumn mateReferenceNames = new IntColumn();
+    private final IntColumn pairOrientations = new IntColumn();
+    private final IntColumn pairStrands = new IntColumn();
+    private final IntColumn colors = new IntColumn();
+    private final IntColumn readGroups = new IntColumn();
+    private final IntColumn headers = new IntColumn();
+
+    // Location and layout of the variable length data:  name, cigar, bases, qualities, tags
+    private final IntColumn dataChunks = new IntColumn();
+    private final IntColumn dataOffsets = new IntColumn();
+    private final IntColumn nameLengths = new IntColumn();
+    private final IntColumn cigarLengths = new IntColumn();
+    private final IntColumn baseLengths = new IntColumn();
+    private final IntColumn qualityLengths = new IntColumn();
+    private final IntColumn tagLengths = new IntColumn();
+    private final ByteArena arena = new ByteArena();
+
+    // Shared objects, referenced from the columns by index
+    private final List<String> stringTable = new ArrayList<>();
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+    private final List<Color> colorTable = new ArrayList<>();
+    private final Map<Color, Integer> colorIndices = new HashMap<>();
+    private final List<SAMReadGroupRecord> readGroupTable = new ArrayList<>();
+    private final List<SAMFileHeader> headerTable = new ArrayList<>();
+
+    private final ByteArrayOutputStream tagBuffer = new ByteArrayOutputStream();
+    private final BinaryTagCodec tagCodec = new BinaryTagCodec(new BinaryCodec(tagBuffer));
+
+    private final LRUCache<Integer, ColumnarAlignment.DecodedBlocks> decodedBlocks = new LRUCache<>(DECODED_CACHE_SIZE);
+
+    private int size = 0;
+
+    /**
+     * Add an alignment to the store.
+     *
+     * @return a columnar handle replacing the alignment, or the alignment itself if it is not a type that
+     * can be stored.
+     */
+    public Alignment add(Alignment alignment) {
+
+        if (!(alignment instanceof PicardAlignment)) {
+            return alignment;
+        }
+
+        PicardAlignment picardAlignment = (PicardAlignment) alignment;
+        SAMRecord record = picardAlignment.getRecord();
+        int index = size;
+
+        starts.set(index, picardAlignment.getStart());
+        ends.set(index, picardAlignment.getEnd());
+        alignmentStarts.set(index, picardAlignment.getAlignmentStart());
+        alignmentEnds.set(index, picardAlignment.getAlignmentEnd());
+        flags.set(index, record.getFlags());
+        mappingQualities.set(index, record.getMappingQuality());
+        insertSizes.set(index, record.getInferredInsertSize());
+        mateStarts.set(index, record.getMateAlignmentStart());
+        chrs.set(index, intern(picardAlignment.getChr()));
+        referenceNames.set(index, intern(record.getReferenceName()));
+        ReadMate mate = picardAlignment.getMate();
+        mateChrs.set(index, intern(mate == null ? null : mate.getChr()));
+        mateReferenceNames.set(index, intern(record.getMateReferenceName()));
+        pairOrientations.set(index, intern(picardAlignment.getPairOrientation()));
+        pairStrands.set(index, encodeStrands(picardAlignment.getFirstOfPairStrand(), picardAlignment.getSecondOfPairStrand()));
+        colors.set(index, colorIndex(picardAlignment.getYcColor()));
+        readGroups.set(index, readGroupIndex(record));
+        headers.set(index, headerIndex(record.getHeader()));
+
+        byte[] name = record.getReadName() == null ? new byte[0] : record.getReadName().getBytes();
+        List<CigarElement> cigar = record.getCigar().getCigarElements();
+        byte[] bases = record.getReadBases();
+        byte[] qualities = record.getBaseQualities();
+        byte[] tags = encodeTags(record);
+
+        int length = name.length + 4 * cigar.size() + bases.length + qualities.length + tags.length;
+        int chunk = arena.reserve(length);
+        dataChunks.set(index, chunk);
+        dataOffsets.set(index, arena.position());
+        nameLengths.set(index, name.length);
+        cigarLengths.set(index, cigar.size());
+        baseLengths.set(index, bases.length);
+        qualityLengths.set(index, qualities.length);
+        tagLengths.set(index, tags.length);
+
+        arena.put(name);
+        for (CigarElement element : cigar) {
+            arena.putInt(element.getLength() << 4 | CigarOperator.enumToBinary(element.getOperator()));
+        }
+        arena.put(bases);
+        arena.put(qualities);
+        arena.put(tags);
+
+        size++;
+
+        ColumnarAlignment columnarAlignment = new ColumnarAlignment(this, index);
+        columnarAlignment.mateSequence = picardAlignment.mateSequence;
+        return columnarAlignment;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int intern(String s) {
+        if (s == null) {
+            return -1;
+        }
+        Integer idx = stringIndices.get(s);
+        if (idx == null) {
+            idx = stringTable.size();
+            stringTable.add(s);
+            stringIndices.put(s, idx);
+        }
+        return idx;
+    }
+
+    private int colorIndex(Color color) {
+        if (color == null) {
+            return -1;
+        }
+        Integer idx = colorIndices.get(color);
+        if (idx == null) {
+            idx = colorTable.size();
+            colorTable.add(color);
+            colorIndices.put(color, idx);
+        }
+        return idx;
+    }
+
+    private int readGroupIndex(SAMRecord record) {
+        SAMFileHeader header = record.getHeader();
+        String readGroup = header == null ? null : (String) record.getAttribute("RG");
+        SAMReadGroupRecord readGroupRecord = readGroup == null ? null : header.getReadGroup(readGroup);
+        if (readGroupRecord == null) {
+            return -1;
+        }
+        int idx = indexOfIdentical(readGroupTable, readGroupRecord);
+        if (idx < 0) {
+            idx = readGroupTable.size();
+            readGroupTable.add(readGroupRecord);
+        }
+        return idx;
+    }
+
+    private int headerIndex(SAMFileHeader header) {
+        if (header == null) {
+            return -1;
+        }
+        int idx = indexOfIdentical(headerTable, header);
+        if (idx < 0) {
+            idx = headerTable.size();
+            headerTable.add(header);
+        }
+        return idx;
+    }
+
+    private static <T> int indexOfIdentical(List<T> list, T object) {
+        // These lists hold a handful of entries, and the entries are shared by all records from a file
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i) == object) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int encodeStrands(Strand firstOfPairStrand, Strand secondOfPairStrand) {
+        return (firstOfPairStrand == null ? 3 : firstOfPairStrand.ordinal()) |
+                (secondOfPairStrand == null ? 3 : secondOfPairStrand.ordinal()) << 2;
+    }
+
+    private static Strand decodeStrand(int code) {
+        return code == 3 ? null : Strand.values()[code];
+    }
+
+    private byte[] encodeTags(SAMRecord record) {
+        List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
+        if (attributes.isEmpty()) {
+            return new byte[0];
+        }
+        tagBuffer.reset();
+        SAMTagUtil tagUtil = SAMTagUtil.getSingleton();
+        for (SAMRecord.SAMTagAndValue attribute : attributes) {
+            tagCodec.writeTag(tagUtil.makeBinaryTag(attribute.tag), attribute.value, false);
+        }
+        return tagBuffer.toByteArray();
+    }
+
+    // Field accessors, used by ColumnarAlignment
+
+    int getStart(int index) {
+        return starts.get(index);
+    }
+
+    int getEnd(int index) {
+        return ends.get(index);
+    }
+
+    int getAlignmentStart(int index) {
+        return alignmentStarts.get(index);
+    }
+
+    int getAlignmentEnd(int index) {
+        return alignmentEnds.get(index);
+    }
+
+    int getFlags(int index) {
+        return flags.get(index);
+    }
+
+    int getMappingQuality(int index) {
+        return mappingQualities.get(index);
+    }
+
+    int getInferredInsertSize(int index) {
+        return insertSizes.get(index);
+    }
+
+    /**
+     * @return the 1-based mate alignment start, as reported by the SAMRecord
+     */
+    int getMateAlignmentStart(int index) {
+        return mateStarts.get(index);
+    }
+
+    String getChr(int index) {
+        return getString(chrs.get(index));
+    }
+
+    String getReferenceName(int index) {
+        return getString(referenceNames.get(index));
+    }
+
+    String getMateChr(int index) {
+        return getString(mateChrs.get(index));
+    }
+
+    String getMateReferenceName(int index) {
+        return getString(mateReferenceNames.get(index));
+    }
+
+    String getPairOrientation(int index) {
+        return getString(pairOrientations.get(index));
+    }
+
+    Strand getFirstOfPairStrand(int index) {
+        return decodeStrand(pairStrands.get(index) & 3);
+    }
+
+    Strand getSecondOfPairStrand(int index) {
+        return decodeStrand((pairStrands.get(index) >> 2) & 3);
+    }
+
+    Color getYcColor(int index) {
+        int idx = colors.get(index);
+        return idx < 0 ? null : colorTable.get(idx);
+    }
+
+    SAMReadGroupRecord getReadGroupRecord(int index) {
+        int idx = readGroups.get(index);
+        return idx < 0 ? null : readGroupTable.get(idx);
+    }
+
+    SAMFileHeader getHeader(int index) {
+        int idx = headers.get(index);
+        return idx < 0 ? null : headerTable.get(idx);
+    }
+
+    private String getString(int idx) {
+        return idx < 0 ? null : stringTable.get(idx);
+    }
+
+    String getReadName(int index) {
+        int length = nameLengths.get(index);
+        byte[] bytes = new byte[length];
+        arena.get(dataChunks.get(index), dataOffsets.get(index), bytes, length);
+        return length == 0 ? null : new String(bytes);
+    }
+
+    String getCigarString(int index) {
+        int nOperators = cigarLengths.get(index);
+        if (nOperators == 0) {
+            return SAMRecord.NO_ALIGNMENT_CIGAR;
+        }
+        int offset = dataOffsets.get(index) + nameLengths.get(index);
+        int[] operators = arena.getInts(dataChunks.get(index), offset, nOperators);
+        StringBuilder buf = new StringBuilder(4 * nOperators);
+        for (int op : operators) {
+            buf.append(op >>> 4).append((char) CigarOperator.enumToCharacter(CigarOperator.binaryToEnum(op & 0xf)));
+        }
+        return buf.toString();
+    }
+
+    Cigar getCigar(int index) {
+        int nOperators = cigarLengths.get(index);
+        int offset = dataOffsets.get(index) + nameLengths.get(index);
+        int[] operators = arena.getInts(dataChunks.get(index), offset, nOperators);
+        List<CigarElement> elements = new ArrayList<>(nOperators);
+        for (int op : operators) {
+            elements.add(new CigarElement(op >>> 4, CigarOperator.binaryToEnum(op & 0xf)));
+        }
+        return new Cigar(elements);
+    }
+
+    int getBaseCount(int index) {
+        return baseLengths.get(index);
+    }
+
+    byte[] getReadBases(int index) {
+        int offset = dataOffsets.get(index) + nameLengths.get(index) + 4 * cigarLengths.get(index);
+        int length = baseLengths.get(index);
+        byte[] bases = new byte[length];
+        arena.get(dataChunks.get(index), offset, bases, length);
+        return bases;
+    }
+
+    byte[] getBaseQualities(int index) {
+        int offset = dataOffsets.get(index) + nameLengths.get(index) + 4 * cigarLengths.get(index) +
+                baseLengths.get(index);
+        int length = qualityLengths.get(index);
+        byte[] qualities = new byte[length];
+        arena.get(dataChunks.get(index), offset, qualities, length);
+        return qualities;
+    }
+
+    private byte[] getTagBytes(int index) {
+        int offset = dataOffsets.get(index) + nameLengths.get(index) + 4 * cigarLengths.get(index) +
+                baseLengths.get(index) + qualityLengths.get(index);
+        int length = tagLengths.get(index);
+        byte[] tags = new byte[length];
+        arena.get(dataChunks.get(index), offset, tags, length);
+        return tags;
+    }
+
+    /**
+     * @return all tags of the alignment, as a linked list, or null if there are none
+     */
+    SAMBinaryTagAndValue getTags(int index) {
+        byte[] tags = getTagBytes(index);
+        return tags.length == 0 ? null : BinaryTagCodec.readTags(tags, 0, tags.length, ValidationStringency.SILENT);
+    }
+
+    /**
+     * Decode the value of a single tag, skipping over the others without decoding them.
+     */
+    Object getAttribute(int index, String key) {
+        byte[] tags = getTagBytes(index);
+        short binaryTag = SAMTagUtil.getSingleton().makeBinaryTag(key);
+        int pos = 0;
+        while (pos + 3 <= tags.length) {
+            short tag = (short) ((tags[pos] & 0xff) | (tags[pos + 1] & 0xff) << 8);
+            int length = 3 + valueLength(tags, pos + 2);
+            if (tag == binaryTag) {
+                SAMBinaryTagAndValue tv = BinaryTagCodec.readTags(tags, pos, length, ValidationStringency.SILENT);
+                return tv == null ? null : tv.value;
+            }
+            pos += length;
+        }
+        return null;
+    }
+
+    /**
+     * Length of an encoded tag value, following the type byte at {@code typePos}
+     */
+    private static int valueLength(byte[] tags, int typePos) {
+        char type = (char) tags[typePos];
+        int pos = typePos + 1;
+        switch (type) {
+            case 'Z':
+            case 'H':
+                int end = pos;
+                while (end < tags.length && tags[end] != 0) end++;
+                return end - pos + 1;
+            case 'B':
+                int count = (tags[pos + 1] & 0xff) | (tags[pos + 2] & 0xff) << 8 |
+                        (tags[pos + 3] & 0xff) << 16 | (tags[pos + 4] & 0xff) << 24;
+                return 5 + count * typeLength((char) tags[pos]);
+            default:
+                return typeLength(type);
+        }
+    }
+
+    private static int typeLength(char type) {
+        switch (type) {
+            case 'A':
+            case 'c':
+            case 'C':
+                return 1;
+            case 's':
+            case 'S':
+                return 2;
+            case 'i':
+            case 'I':
+            case 'f':
+                return 4;
+            default:
+                throw new SAMFormatException("Unrecognized tag type: " + type);
+        }
+    }
+
+    /**
+     * Return the alignment blocks, insertions, and gaps of an alignment, decoding them if they are not cached.
+     */
+    ColumnarAlignment.DecodedBlocks getDecodedBlocks(int index) {
+        synchronized (decodedBlocks) {
+            ColumnarAlignment.DecodedBlocks blocks = decodedBlocks.get(index);
+            if (blocks == null) {
+                blocks = new ColumnarAlignment(this, index).decodeBlocks();
+                decodedBlocks.put(index, blocks);
+            }
+            return blocks;
+        }
+    }
+
+    /**
+     * Allocate a chunk off heap, or on the heap if that would take the direct memory held by all stores past
+     * the SAM.COLUMNAR_STORE_MAX_MB preference.
+     */
+    private ByteBuffer allocate(int capacity) {
+        synchronized (liveStores) {
+            Reference<? extends AlignmentColumnStore> ref;
+            while ((ref = collectedStores.poll()) != null) {
+                if (liveStores.remove(ref)) {
+                    directBytes -= ((DirectMemory) ref).bytes;
+                }
+            }
+            long maxBytes = PreferencesManager.getPreferences().getAsInt(SAM_COLUMNAR_STORE_MAX_MB) * 1024L * 1024L;
+            if (directBytes + capacity > maxBytes) {
+                return ByteBuffer.allocate(capacity);
+            }
+            liveStores.add(directMemory);
+            directMemory.bytes += capacity;
+            directBytes += capacity;
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * The direct memory held by a store, released from the total once the store is collected.
+     */
+    private static class DirectMemory extends WeakReference<AlignmentColumnStore> {
+
+        long bytes = 0;
+
+        DirectMemory(AlignmentColumnStore store) {
+            super(store, collectedStores);
+        }
+    }
+
+    /**
+     * A column of ints, allocated off heap in fixed size chunks as entries are added.
+     */
+    private class IntColumn {
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+
+        void set(int index, int value) {
+            int chunk = index >>> INT_CHUNK_BITS;
+            while (chunk >= chunks.size()) {
+                chunks.add(allocate(4 * INT_CHUNK_SIZE));
+            }
+            chunks.get(chunk).putInt((index & INT_CHUNK_MASK) << 2, value);
+        }
+
+        int get(int index) {
+            return chunks.get(index >>> INT_CHUNK_BITS).getInt((index & INT_CHUNK_MASK) << 2);
+        }
+    }
+
+    /**
+     * Variable length data, appended to off heap chunks.  A record never spans chunks.
+     */
+    private class ByteArena {
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer current;
+
+        /**
+         * Ensure {@code length} contiguous bytes are available for writing
+         *
+         * @return the index of the chunk the bytes will be written to
+         */
+        int reserve(int length) {
+            if (current == null || current.remaining() < length) {
+                current = allocate(Math.max(BYTE_CHUNK_SIZE, length));
+                chunks.add(current);
+            }
+            return chunks.size() - 1;
+        }
+
+        int position() {
+            return current.position();
+        }
+
+        void put(byte[] bytes) {
+            current.put(bytes);
+        }
+
+        void putInt(int value) {
+            current.putInt(value);
+        }
+
+        void get(int chunk, int offset, byte[] dest, int length) {
+            if (length > 0) {
+                ByteBuffer buffer = chunks.get(chunk).duplicate();
+                buffer.position(offset);
+                buffer.get(dest, 0, length);
+            }
+        }
+
+        int[] getInts(int chunk, int offset, int count) {
+            ByteBuffer buffer = chunks.get(chunk);
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = buffer.getInt(offset + 4 * i);
+            }
+            return values;
+        }
+    }
+}
@@ -42,10 +42,12 @@ import org.broad.igv.track.Track;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.RuntimeUtils;
 import org.broad.igv.util.collections.IntArrayList;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 
 import static org.broad.igv.prefs.Constants.*;
 
@@ -58,8 +60,11 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     private static Logger log = Logger.getLogger(AlignmentDataManager.class);
 
+    // Out-of-view intervals are released before loading if the available fraction of memory is below this
+    private static final double LOW_MEMORY_FRACTION = 0.3;
 
-    private List<AlignmentInterval> intervalCache;
+
+    private IntervalCache intervalCache;
     private ResourceLocator locator;
     private HashMap<String, String> chrMappings = new HashMap();
     private Set<Range> isLoading = new HashSet<>();
@@ -70,15 +75,17 @@ public class AlignmentDataManager implements IGVEventObserver {
     private Object loadLock = new Object();
     private AlignmentTrack.ExperimentType inferredExperimentType;
     private Set<Track> subscribedTracks;
+    private AlignmentPrefetcher prefetcher;
 
     public AlignmentDataManager(ResourceLocator locator, Genome genome) throws IOException {
         this.locator = locator;
-        reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator));
+        reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator), locator);
         peStats = new HashMap();
         initLoadOptions();
         initChrMap(genome);
-        intervalCache = Collections.synchronizedList(new ArrayList<>());
+        intervalCache = new IntervalCache(getCacheBudget());
         subscribedTracks = Collections.synchronizedSet(new HashSet<>());
+        prefetcher = new AlignmentPrefetcher(this);
 
         IGVEventBus.getInstance().subscribe(FrameManager.ChangeEvent.class, this);
         IGVEventBus.getInstance().subscribe(RefreshEvent.class, this);
@@ -102,6 +109,7 @@ public class AlignmentDataManager implements IGVEventObserver {
     public void unsubscribe(Track track) {
         subscribedTracks.remove(track);
         if (subscribedTracks.isEmpty()) {
+            prefetcher.cancel();
             dumpAlignments();
             IGVEventBus.getInstance().unsubscribe(this);
         }
@@ -240,14 +248,11 @@ public class AlignmentDataManager implements IGVEventObserver {
 
 
     public AlignmentInterval getLoadedInterval(ReferenceFrame frame) {
+        return getLoadedInterval(frame.getCurrentRange());
+    }
 
-        for (AlignmentInterval interval : intervalCache) {
-            if (interval.contains(frame.getCurrentRange())) {
-                return interval;
-            }
-        }
-
-        return null;
+    AlignmentInterval getLoadedInterval(Range range) {
+        return intervalCache.peek(range, getLoadSettings());
     }
 
     /**
@@ -287,14 +292,19 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     /**
      * Repack currently loaded alignments across frames
-     * All relevant intervals must be loaded
+     * All relevant intervals must be loaded.  Cached intervals that are out of view are repacked when next viewed.
      *
      * @param renderOptions
      * @return Whether repacking was performed
      */
     void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
-        for (AlignmentInterval interval : intervalCache) {
-            interval.packAlignments(renderOptions);
+        List<Range> inView = getRangesInView();
+        for (AlignmentInterval interval : intervalCache.values()) {
+            if (IntervalCache.inView(interval, inView)) {
+                interval.packAlignments(renderOptions);
+            } else {
+                interval.clearPackedAlignments();
+            }
         }
     }
 
@@ -317,11 +327,27 @@ public class AlignmentDataManager implements IGVEventObserver {
                      AlignmentTrack.RenderOptions renderOptions,
                      boolean expandEnds) {
 
-        if (isLoaded(referenceFrame)) return;  // Already loaded
+        prefetcher.frameMoved(referenceFrame, renderOptions);
+
+        AlignmentInterval cached = intervalCache.get(referenceFrame.getCurrentRange(), getLoadSettings());
+        if (cached != null) {
+            // Already loaded.  Intervals revisited from the cache might need repacking.
+            if (cached.getPackedAlignments() == null) {
+                cached.packAlignments(renderOptions);
+            }
+            return;
+        }
 
         if (isLoading(referenceFrame)) return;   // Already oading
 
+        // Don't wait behind a speculative load of some other range
+        prefetcher.foregroundLoad(referenceFrame.getCurrentRange());
+
         synchronized (loadLock) {
+
+            // A prefetch might have loaded this range while we waited for the lock
+            if (isLoaded(referenceFrame)) return;
+
             Range range = referenceFrame.getCurrentRange();
 
             isLoading.add(range);
@@ -333,10 +359,8 @@ public class AlignmentDataManager implements IGVEventObserver {
             int adjustedStart = start;
             int adjustedEnd = end;
 
-            // Expand the interval by the lesser of  +/- a 2 screens, or max visible range
-            int windowSize = Math.min(4 * (end - start), PreferencesManager.getPreferences().getAsInt(SAM_MAX_VISIBLE_RANGE) * 1000);
             int center = (end + start) / 2;
-            int expand = Math.max(end - start, windowSize / 2);
+            int expand = getExpansion(start, end);
 
             if (expandEnds) {
                 adjustedStart = Math.max(0, Math.min(start, center - expand));
@@ -347,11 +371,18 @@ public class AlignmentDataManager implements IGVEventObserver {
             log.debug("Loading alignments: " + chr + ":" + adjustedStart + "-" + adjustedEnd + " for " + AlignmentDataManager.this);
 
 
-            AlignmentInterval loadedInterval = loadInterval(chr, adjustedStart, adjustedEnd, renderOptions);
+            // Make room before loading.  The loader gives up if memory runs low.
+            if (RuntimeUtils.getAvailableMemoryFraction() < LOW_MEMORY_FRACTION) {
+                intervalCache.evict(getRangesInView(), 0);
+            }
 
-            trimCache();
+            long t0 = System.currentTimeMillis();
+            String settings = getLoadSettings();
+            AlignmentInterval loadedInterval = loadInterval(chr, adjustedStart, adjustedEnd, renderOptions);
+            prefetcher.recordLoadTime(System.currentTimeMillis() - t0);
 
-            intervalCache.add(loadedInterval);
+            intervalCache.add(loadedInterval, settings, getRangesInView());
+            log.debug(intervalCache);
 
             packAlignments(renderOptions);
             isLoading.remove(range);
@@ -363,33 +394,103 @@ public class AlignmentDataManager implements IGVEventObserver {
 
 
     /**
-     * Remove out-of-view intervals from the cache.  This is O(N) where N = #frames X #intervals.   It is assumed
-     * that N is small
+     * Load the given range in the background, ahead of the view, unless it is already loaded.  The interval is
+     * discarded if {@code canceled} returns true before it is cached.
      */
-    private synchronized void trimCache() {
+    void prefetch(Range range, AlignmentTrack.RenderOptions renderOptions, BooleanSupplier canceled) {
 
-        Iterator<AlignmentInterval> iter = intervalCache.iterator();
-        while (iter.hasNext()) {
-            AlignmentInterval interval = iter.next();
-            if (!intervalInView(interval)) {
-                iter.remove();
-            }
+        synchronized (loadLock) {
+
+            if (canceled.getAsBoolean() || getLoadedInterval(range) != null) return;
+
+            log.debug("Prefetching alignments: " + range.getChr() + ":" + range.getStart() + "-" + range.getEnd() + " for " + AlignmentDataManager.this);
+
+            long t0 = System.currentTimeMillis();
+            String settings = getLoadSettings();
+            AlignmentInterval loadedInterval = loadInterval(range.getChr(), range.getStart(), range.getEnd(), renderOptions, canceled);
+            if (canceled.getAsBoolean()) return;   // Possibly incomplete
+            prefetcher.recordLoadTime(System.currentTimeMillis() - t0);
+
+            loadedInterval.packAlignments(renderOptions);
+            intervalCache.add(loadedInterval, settings, getRangesInView());
         }
     }
 
+    AlignmentPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Half the width of the interval loaded for a view of {@code start - end}:  the lesser of +/- 2 screens, or
+     * the max visible range, but at least +/- 1 screen.
+     */
+    int getExpansion(int start, int end) {
+        int windowSize = Math.min(4 * (end - start), PreferencesManager.getPreferences().getAsInt(SAM_MAX_VISIBLE_RANGE) * 1000);
+        return Math.max(end - start, windowSize / 2);
+    }
 
-    private boolean intervalInView(AlignmentInterval interval) {
+    /**
+     * Evict out-of-view intervals from the cache, least recently used first, until it is within its memory budget.
+     * Intervals in view are never evicted.
+     */
+    private void trimCache() {
+        intervalCache.setBudget(getCacheBudget());
+        intervalCache.evict(getRangesInView());
+    }
 
+    private static List<Range> getRangesInView() {
+        List<Range> ranges = new ArrayList<>();
         for (ReferenceFrame frame : FrameManager.getFrames()) {
-            if (interval.contains(frame.getCurrentRange())) {
-                return true;
-            }
+            ranges.add(frame.getCurrentRange());
         }
-        return false;
+        return ranges;
     }
 
+    /**
+     * The cache budget in bytes, from the SAM.INTERVAL_CACHE_MB preference.  Zero or less means a quarter of the
+     * maximum heap.
+     */
+    private static long getCacheBudget() {
+        long mb = PreferencesManager.getPreferences().getAsInt(SAM_INTERVAL_CACHE_MB);
+        return mb > 0 ? mb * 1000000 : Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * The preferences that determine which alignments are loaded, combined into a key.  An interval is only reused
+     * for the settings it was loaded with.
+     */
+    private static String getLoadSettings() {
+        IGVPreferences prefs = PreferencesManager.getPreferences();
+        StringBuilder buffer = new StringBuilder();
+        for (String key : LOAD_SETTINGS_KEYS) {
+            buffer.append(prefs.get(key)).append('|');
+        }
+        return buffer.toString();
+    }
+
+    private static final String[] LOAD_SETTINGS_KEYS = {
+            SAM_QUALITY_THRESHOLD,
+            SAM_FILTER_ALIGNMENTS,
+            SAM_FILTER_URL,
+            SAM_SHOW_DUPLICATES,
+            SAM_FILTER_DUPLICATES,
+            SAM_SHOW_SOFT_CLIPPED,
+            SAM_FILTER_FAILED_READS,
+            SAM_FILTER_SECONDARY_ALIGNMENTS,
+            SAM_FILTER_SUPPLEMENTARY_ALIGNMENTS,
+            SAM_DOWNSAMPLE_READS,
+            SAM_SAMPLING_COUNT,
+            SAM_SAMPLING_WINDOW,
+            SAM_REDUCED_MEMORY_MODE,
+            SAM_COLUMNAR_STORE
+    };
 
     AlignmentInterval loadInterval(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions) {
+        return loadInterval(chr, start, end, renderOptions, null);
+    }
+
+    private AlignmentInterval loadInterval(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions,
+                                           BooleanSupplier canceled) {
 
         String sequence = chrMappings.containsKey(chr) ? chrMappings.get(chr) : chr;
 
@@ -400,12 +501,13 @@ public class AlignmentDataManager implements IGVEventObserver {
 
         SpliceJunctionHelper spliceJunctionHelper = new SpliceJunctionHelper(this.loadOptions);
 
-        ReadStats readStats = new ReadStats();
+        // Read statistics are only needed until the experiment type is known
+        ReadStats readStats = inferredExperimentType == null ? new ReadStats() : null;
 
         AlignmentTileLoader.AlignmentTile t = reader.loadTile(sequence, start, end, spliceJunctionHelper,
-                downsampleOptions, readStats, peStats, bisulfiteContext);
+                downsampleOptions, readStats, peStats, bisulfiteContext, canceled);
 //
-        if (inferredExperimentType == null && !Globals.VERSION.contains("2.4")) {
+        if (readStats != null && inferredExperimentType == null && !Globals.VERSION.contains("2.4")) {
             readStats.compute();
             inferType(readStats);
         }
@@ -445,11 +547,12 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
     public void clear() {
+        prefetcher.cancel();
         intervalCache.clear();
     }
 
     public void dumpAlignments() {
-        for (AlignmentInterval interval : intervalCache) {
+        for (AlignmentInterval interval : intervalCache.values()) {
             interval.dumpAlignments();
         }
     }
@@ -483,7 +586,7 @@ public class AlignmentDataManager implements IGVEventObserver {
     public int getNLevels() {
         int nLevels = 0;
 
-        for (AlignmentInterval interval : intervalCache) {
+        for (AlignmentInterval interval : intervalCache.inView(getRangesInView())) {
             PackedAlignments packedAlignments = interval.getPackedAlignments();
             if (packedAlignments != null) {
                 int intervalNLevels = packedAlignments.getNLevels();
@@ -494,13 +597,13 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
     /**
-     * Get the maximum group count among all the loaded intervals.  Normally there is one interval, but there
+     * Get the maximum group count among the loaded intervals in view.  Normally there is one interval, but there
      * can be multiple if viewing split screen.
      */
     public int getMaxGroupCount() {
         int groupCount = 0;
 
-        for (AlignmentInterval interval : intervalCache) {
+        for (AlignmentInterval interval : intervalCache.inView(getRangesInView())) {
             if (interval != null) {  // Not sure how this happens but it does
                 PackedAlignments packedAlignments = interval.getPackedAlignments();
                 if (packedAlignments != null) {
@@ -538,7 +641,7 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     public void setMinJunctionCoverage(int minJunctionCoverage) {
         this.loadOptions = new SpliceJunctionHelper.LoadOptions(minJunctionCoverage, this.loadOptions.minReadFlankingWidth);
-        for (AlignmentInterval interval : intervalCache) {
+        for (AlignmentInterval interval : intervalCache.values()) {
             interval.getSpliceJunctionHelper().setLoadOptions(this.loadOptions);
         }
     }
@@ -559,8 +662,11 @@ public class AlignmentDataManager implements IGVEventObserver {
         return reader.isMoleculo();
     }
 
+    /**
+     * @return the loaded intervals in view.  Out-of-view intervals held in the cache are not included.
+     */
     public Collection<AlignmentInterval> getLoadedIntervals() {
-        return intervalCache;
+        return intervalCache.inView(getRangesInView());
     }
 
 
@@ -600,71 +706,168 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     }
 
+    /**
+     * Loaded intervals, keyed by range and the settings they were loaded with, in order of use.  Intervals in view
+     * are always kept.  Others are kept for revisits until the estimated memory of all intervals exceeds the budget,
+     * then evicted least recently used first.
+     */
     static class IntervalCache {
 
-        private int maxSize;
-        ArrayList<AlignmentInterval> intervals;
-
-        public IntervalCache() {
-            this(1);
-        }
-
-        public IntervalCache(int ms) {
-            this.maxSize = Math.max(1, ms);
-            intervals = new ArrayList<>(maxSize);
-        }
-
-        void setMaxSize(int ms, List<ReferenceFrame> frames) {
-            this.maxSize = Math.max(1, ms);
-            if (intervals.size() > maxSize) {
-                // Reduce size.  Try to keep intervals that cover frame ranges.  This involves a linear search
-                // of potentially (intervals.size X frames.size) elements.  Don't attempt if this number is too large
-                if (frames.size() * intervals.size() < 25) {
-                    ArrayList<AlignmentInterval> tmp = new ArrayList<>(maxSize);
-                    for (AlignmentInterval interval : intervals) {
-                        if (tmp.size() == maxSize) break;
-                        for (ReferenceFrame frame : frames) {
-                            Range range = frame.getCurrentRange();
-                            if (interval.contains(range.getChr(), range.getStart(), range.getEnd())) {
-                                tmp.add(interval);
-                                break;
-                            }
-                        }
-                    }
-                    intervals = tmp;
-                } else {
-                    intervals = new ArrayList(intervals.subList(0, maxSize));
-                    intervals.trimToSize();
+        private final ArrayList<Entry> entries = new ArrayList<>();
+        private long budget;
+        private long totalBytes = 0;
+
+        private long hitCount = 0;
+        private long missCount = 0;
+        private long evictionCount = 0;
+
+        IntervalCache(long budget) {
+            this.budget = budget;
+        }
+
+        synchronized void setBudget(long budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * Find an interval containing {@code range} loaded with {@code settings}, and mark it as recently used.
+         * Counts towards the hit and miss statistics.
+         */
+        synchronized AlignmentInterval get(Range range, String settings) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                Entry entry = entries.get(i);
+                if (entry.matches(range, settings)) {
+                    entries.remove(i);
+                    entries.add(entry);
+                    hitCount++;
+                    return entry.interval;
                 }
             }
+            missCount++;
+            return null;
         }
 
-        public void add(AlignmentInterval interval) {
-            if (intervals.size() >= maxSize) {
-                intervals.remove(0);
+        /**
+         * Find an interval containing {@code range} loaded with {@code settings}, without affecting eviction order
+         * or statistics.
+         */
+        synchronized AlignmentInterval peek(Range range, String settings) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                Entry entry = entries.get(i);
+                if (entry.matches(range, settings)) {
+                    return entry.interval;
+                }
             }
-            intervals.add(interval);
+            return null;
         }
 
-        public AlignmentInterval getIntervalForRange(Range range) {
+        synchronized void add(AlignmentInterval interval, String settings, List<Range> inView) {
+            Entry entry = new Entry(interval, settings);
+            entries.add(entry);
+            totalBytes += entry.bytes;
+            evict(inView);
+        }
+
+        synchronized void evict(List<Range> inView) {
+            evict(inView, budget);
+        }
 
-            for (AlignmentInterval interval : intervals) {
-                if (interval.contains(range.getChr(), range.getStart(), range.getEnd())) {
-                    return interval;
+        /**
+         * Evict out-of-view intervals, least recently used first, until the total is within {@code budget}
+         */
+        synchronized void evict(List<Range> inView, long budget) {
+            Iterator<Entry> iter = entries.iterator();
+            while (totalBytes > budget && iter.hasNext()) {
+                Entry entry = iter.next();
+                if (!inView(entry.interval, inView)) {
+                    iter.remove();
+                    totalBytes -= entry.bytes;
+                    evictionCount++;
+                    log.debug("Evicted " + entry.interval.toString() + ".  " + this);
                 }
             }
+        }
 
-            return null;
+        static boolean inView(AlignmentInterval interval, List<Range> inView) {
+            for (Range range : inView) {
+                if (interval.contains(range)) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
+        /**
+         * @return the cached intervals containing any of the given ranges
+         */
+        synchronized List<AlignmentInterval> inView(List<Range> inView) {
+            List<AlignmentInterval> intervals = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (inView(entry.interval, inView)) {
+                    intervals.add(entry.interval);
+                }
+            }
+            return intervals;
         }
 
-        public Collection<AlignmentInterval> values() {
+        /**
+         * @return a snapshot of the cached intervals, least recently used first
+         */
+        synchronized List<AlignmentInterval> values() {
+            List<AlignmentInterval> intervals = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                intervals.add(entry.interval);
+            }
             return intervals;
         }
 
-        public void clear() {
-            intervals.clear();
+        synchronized void clear() {
+            entries.clear();
+            totalBytes = 0;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long getTotalBytes() {
+            return totalBytes;
+        }
+
+        synchronized long getHitCount() {
+            return hitCount;
+        }
+
+        synchronized long getMissCount() {
+            return missCount;
+        }
+
+        synchronized long getEvictionCount() {
+            return evictionCount;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Interval cache: " + entries.size() + " intervals, " + (totalBytes / 1000000) + " of " +
+                    (budget / 1000000) + " MB, " + hitCount + " hits, " + missCount + " misses, " +
+                    evictionCount + " evictions";
+        }
+
+        private static class Entry {
+
+            final AlignmentInterval interval;
+            final String settings;
+            final long bytes;
+
+            Entry(AlignmentInterval interval, String settings) {
+                this.interval = interval;
+                this.settings = settings;
+                this.bytes = interval.getMemoryEstimate();
+            }
+
+            boolean matches(Range range, String settings) {
+                return this.settings.equals(settings) && interval.contains(range);
+            }
         }
     }
 }
-
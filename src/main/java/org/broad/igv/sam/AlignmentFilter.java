@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import org.broad.igv.prefs.IGVPreferences;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.sam.reader.ReadGroupFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.broad.igv.prefs.Constants.*;
+
+/**
+ * The alignment filters in effect for a load, built once from the preferences.  Only active filters are tested,
+ * cheapest and most often failed first.
+ * <p>
+ * Filters that depend only on the SAM flags and mapping quality are also available as a prefilter, which readers
+ * can apply to the fixed fields of a record before decoding the rest of it.
+ */
+public class AlignmentFilter {
+
+    private static final int READ_UNMAPPED_FLAG = 0x4;
+    private static final int NOT_PRIMARY_ALIGNMENT_FLAG = 0x100;
+    private static final int READ_FAILS_VENDOR_QUALITY_CHECK_FLAG = 0x200;
+    private static final int DUPLICATE_READ_FLAG = 0x400;
+    private static final int SUPPLEMENTARY_ALIGNMENT_FLAG = 0x800;
+
+    private final int filterFlags;
+    private final int qualityThreshold;
+    private final Predicate<Alignment>[] predicates;
+
+    public AlignmentFilter(boolean showDuplicates,
+                           boolean filterFailedReads,
+                           boolean filterSecondaryAlignments,
+                           boolean filterSupplementaryAlignments,
+                           int qualityThreshold,
+                           ReadGroupFilter readGroupFilter) {
+
+        int flags = 0;
+        List<Predicate<Alignment>> predicates = new ArrayList<>();
+        predicates.add(alignment -> !alignment.isMapped());
+        if (!showDuplicates) {
+            flags |= DUPLICATE_READ_FLAG;
+            predicates.add(Alignment::isDuplicate);
+        }
+        if (qualityThreshold > 0) {
+            predicates.add(alignment -> alignment.getMappingQuality() < qualityThreshold);
+        }
+        if (filterSecondaryAlignments) {
+            flags |= NOT_PRIMARY_ALIGNMENT_FLAG;
+            predicates.add(alignment -> !alignment.isPrimary());
+        }
+        if (filterSupplementaryAlignments) {
+            flags |= SUPPLEMENTARY_ALIGNMENT_FLAG;
+            predicates.add(Alignment::isSupplementary);
+        }
+        if (filterFailedReads) {
+            flags |= READ_FAILS_VENDOR_QUALITY_CHECK_FLAG;
+            predicates.add(Alignment::isVendorFailedRead);
+        }
+        // Requires decoding the RG tag, so last
+        if (readGroupFilter != null) {
+            predicates.add(readGroupFilter::filterAlignment);
+        }
+
+        this.filterFlags = flags;
+        this.qualityThreshold = qualityThreshold;
+        this.predicates = predicates.toArray(new Predicate[predicates.size()]);
+    }
+
+    /**
+     * @return the filter for the current alignment preferences
+     */
+    public static AlignmentFilter fromPreferences() {
+        IGVPreferences prefs = PreferencesManager.getPreferences();
+        return new AlignmentFilter(
+                prefs.getAsBoolean(SAM_SHOW_DUPLICATES) || !prefs.getAsBoolean(SAM_FILTER_DUPLICATES),
+                prefs.getAsBoolean(SAM_FILTER_FAILED_READS),
+                prefs.getAsBoolean(SAM_FILTER_SECONDARY_ALIGNMENTS),
+                prefs.getAsBoolean(SAM_FILTER_SUPPLEMENTARY_ALIGNMENTS),
+                prefs.getAsInt(SAM_QUALITY_THRESHOLD),
+                ReadGroupFilter.getFilter());
+    }
+
+    /**
+     * @return true if the alignment should be filtered (excluded).  Unmapped alignments are always filtered.
+     */
+    public boolean filterAlignment(Alignment alignment) {
+        for (Predicate<Alignment> predicate : predicates) {
+            if (predicate.test(alignment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prefilter a record given only its SAM flags and mapping quality.  Unmapped records are not filtered, as they
+     * are needed to supply the sequence of mapped mates.  Records that pass must still be tested with
+     * {@link #filterAlignment(Alignment)}.
+     *
+     * @return true if the record would be filtered by {@link #filterAlignment(Alignment)}
+     */
+    public boolean filterRecord(int flags, int mappingQuality) {
+        return (flags & READ_UNMAPPED_FLAG) == 0 &&
+                ((flags & filterFlags) != 0 || mappingQuality < qualityThreshold);
+    }
+
+    /**
+     * @return true if {@link #filterRecord(int, int)} can filter any record
+     */
+    public boolean hasRecordFilter() {
+        return filterFlags != 0 || qualityThreshold > 0;
+    }
+}
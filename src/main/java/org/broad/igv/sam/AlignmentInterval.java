@@ -40,12 +40,18 @@ public class AlignmentInterval extends Locus {
 
     private static Logger log = Logger.getLogger(AlignmentInterval.class);
 
+    private static final int ALIGNMENT_BYTES = 300;
+    private static final int ALIGNMENT_BYTES_PER_BP = 3;
+    private static final int COUNTS_BYTES_PER_BP = 52;
+
     Genome genome;
     private AlignmentCounts counts;
     private List<Alignment> alignments;
     private SpliceJunctionHelper spliceJunctionHelper;
     private List<DownsampledInterval> downsampledIntervals;
     private PackedAlignments packedAlignments;
+    private AlignmentPacker alignmentPacker;
+    private long memoryEstimate = -1;
 
     public AlignmentInterval(String chr, int start, int end,
                              List<Alignment> alignments,
@@ -144,6 +150,23 @@ public class AlignmentInterval extends Locus {
         return 0;
     }
 
+    /**
+     * Rough estimate of the heap used by this interval, in bytes, for sizing the interval cache.  Assumes a fixed
+     * cost per alignment plus bases, qualities, and blocks for each aligned base, and dense counts.
+     */
+    public long getMemoryEstimate() {
+        if (memoryEstimate < 0) {
+            long bytes = (long) COUNTS_BYTES_PER_BP * (getEnd() - getStart());
+            if (alignments != null) {
+                for (Alignment al : alignments) {
+                    bytes += ALIGNMENT_BYTES + ALIGNMENT_BYTES_PER_BP * (al.getEnd() - al.getStart());
+                }
+            }
+            memoryEstimate = bytes;
+        }
+        return memoryEstimate;
+    }
+
     public List<Alignment> getAlignments() {
         return alignments == null ? Collections.<Alignment>emptyList() : Collections.unmodifiableList(alignments);
     }
@@ -166,7 +189,10 @@ public class AlignmentInterval extends Locus {
 
     public void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
 
-        final AlignmentPacker alignmentPacker = new AlignmentPacker();
+        // The packer is kept so its row index can be reused when the interval is repacked
+        if (alignmentPacker == null) {
+            alignmentPacker = new AlignmentPacker();
+        }
         this.packedAlignments = alignmentPacker.packAlignments(this, renderOptions);
     }
 
@@ -174,9 +200,18 @@ public class AlignmentInterval extends Locus {
         return packedAlignments;
     }
 
+    /**
+     * Discard the packed alignments, for example if they are out of date.  They are rebuilt by the next call to
+     * packAlignments.
+     */
+    void clearPackedAlignments() {
+        this.packedAlignments = null;
+    }
+
     public void dumpAlignments() {
         if (this.alignments != null) this.alignments.clear();
         this.packedAlignments = null;
+        this.alignmentPacker = null;
     }
 
 
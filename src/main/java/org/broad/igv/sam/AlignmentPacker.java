@@ -49,16 +49,17 @@ public class AlignmentPacker {
      * Minimum gap between the end of one alignment and start of another.
      */
     public static final int MIN_ALIGNMENT_SPACING = 2;
-    private static final Comparator<Alignment> lengthComparator = new Comparator<Alignment>() {
-        public int compare(Alignment row1, Alignment row2) {
-            return (row2.getEnd() - row2.getStart()) -
-                    (row1.getEnd() - row2.getStart());
-
+    private static final Comparator<Alignment> packComparator = new Comparator<Alignment>() {
+        public int compare(Alignment a1, Alignment a2) {
+            int c = Integer.compare(a1.getStart(), a2.getStart());
+            return c != 0 ? c : Integer.compare(a2.getEnd(), a1.getEnd());
         }
     };
 
     private static final String NULL_GROUP_VALUE = "";
-    public static final int tenMB = 10000000;
+
+    private final RowIndex rowIndex = new RowIndex();
+    private final List<Alignment> sortBuffer = new ArrayList<>();
 
     /**
      * Allocates each alignment to row such that there is no overlap.
@@ -120,136 +121,87 @@ public class AlignmentPacker {
 
     private void pack(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
 
-        Map<String, PairedAlignment> pairs = null;
-
-        boolean isPairedAlignments = renderOptions.isViewPairs();
-        String linkByTag = renderOptions.getLinkByTag();
-
-        if (isPairedAlignments) {
-            pairs = new HashMap<>(1000);
-        }
-
-
-        // Allocate alignemnts to buckets for each range.
-        // We use priority queues to keep the buckets sorted by alignment length.  However this  is probably a needless
-        // complication,  any collection type would do.
-
-        int totalCount = 0;
-
-
         if (alList == null || alList.size() == 0) return;
 
-        Range curRange = getAlignmentListRange(alList);
+        long t0 = System.currentTimeMillis();
 
-        BucketCollection bucketCollection;
+        List<Alignment> packList = renderOptions.isViewPairs() ? pairAlignments(alList) : alList;
 
-        // Use dense buckets for < 10,000,000 bp windows sparse otherwise
-        int bpLength = curRange.getLength();
+        // Alignments are allocated in order of start position, longest first among those with equal starts.
+        // Loaded alignments are already sorted by start so the sort only has to reorder short runs of ties.
+        if (!isSorted(packList)) {
+            sortBuffer.clear();
+            sortBuffer.addAll(packList);
+            sortBuffer.sort(packComparator);
+            packList = sortBuffer;
+        }
 
-        if (bpLength < tenMB) {
-            bucketCollection = new DenseBucketCollection(bpLength, curRange);
-        } else {
-            bucketCollection = new SparseBucketCollection(curRange);
+        // Allocate each alignment to the first row with room for it.  This is equivalent to filling one row at a
+        // time from left to right, taking the first alignment that fits at each step.
+        rowIndex.clear();
+        for (Alignment alignment : packList) {
+            if (!alignment.isMapped()) {
+                continue;
+            }
+            int rowNumber = rowIndex.findRow(alignment.getStart() - MIN_ALIGNMENT_SPACING);
+            Row row;
+            if (rowNumber < 0) {
+                rowIndex.addRow(alignment.getEnd());
+                row = new Row();
+                alignmentRows.add(row);
+            } else {
+                rowIndex.setEnd(rowNumber, alignment.getEnd());
+                row = alignmentRows.get(rowNumber);
+            }
+            row.addAlignment(alignment);
         }
+        sortBuffer.clear();
 
-        int curRangeStart = curRange.getStart();
-        for (Alignment al : alList) {
+        if (log.isDebugEnabled()) {
+            long dt = System.currentTimeMillis() - t0;
+            log.debug("Packed alignments in " + dt);
+        }
+    }
 
-            if (al.isMapped()) {
-                Alignment alignment = al;
+    /**
+     * Combine mapped, pairable alignments with their mates.  Unmapped alignments are dropped.
+     */
+    private List<Alignment> pairAlignments(List<Alignment> alList) {
 
+        List<Alignment> pairedList = new ArrayList<>(alList.size());
+        Map<String, PairedAlignment> pairs = new HashMap<>(1000);
+        for (Alignment al : alList) {
+            if (al.isMapped()) {
                 // Pair alignments -- do not pair secondaryalignments
-                if (isPairedAlignments && isPairable(al)) {
+                if (isPairable(al)) {
                     String readName = al.getReadName();
                     PairedAlignment pair = pairs.get(readName);
                     if (pair == null) {
                         pair = new PairedAlignment(al);
                         pairs.put(readName, pair);
-                        alignment = pair;
+                        pairedList.add(pair);
                     } else {
                         // Add second alignment to pair.
                         pair.setSecondAlignment(al);
                         pairs.remove(readName);
-                        continue;
-
                     }
-                }
-
-                // Allocate to bucket.
-                // Negative "bucketNumbers" can arise with soft clips at the left edge of the chromosome. Allocate
-                // these alignments to the first bucket.
-                int bucketNumber = Math.max(0, al.getStart() - curRangeStart);
-                if (bucketNumber < bucketCollection.getBucketCount()) {
-                    PriorityQueue<Alignment> bucket = bucketCollection.get(bucketNumber);
-                    if (bucket == null) {
-                        bucket = new PriorityQueue<Alignment>(5, lengthComparator);
-                        bucketCollection.set(bucketNumber, bucket);
-                    }
-                    bucket.add(alignment);
-                    totalCount++;
                 } else {
-                    log.debug("Alignment out of bounds. name: " + alignment.getReadName() + " startPos:" + alignment.getStart());
+                    pairedList.add(al);
                 }
             }
         }
-        bucketCollection.finishedAdding();
-
-
-        // Now allocate alignments to rows.
-        long t0 = System.currentTimeMillis();
-        int allocatedCount = 0;
-        Row currentRow = new Row();
-
-        while (allocatedCount < totalCount) {
-
-            curRange = bucketCollection.getRange();
-
-            curRangeStart = curRange.getStart();
-            int nextStart = curRangeStart;
-            List<Integer> emptyBuckets = new ArrayList<Integer>(100);
-
-            while (true) {
-                int bucketNumber = nextStart - curRangeStart;
-                PriorityQueue<Alignment> bucket = bucketCollection.getNextBucket(bucketNumber, emptyBuckets);
-
-                // Pull the next alignment out of the bucket and add to the current row
-                if (bucket != null) {
-                    Alignment alignment = bucket.remove();
-                    currentRow.addAlignment(alignment);
-                    allocatedCount++;
-
-                    nextStart = alignment.getEnd() + MIN_ALIGNMENT_SPACING;
-
-                }
-
-                //Reached the end of this range, move to the next
-                if (bucket == null || nextStart > curRange.getEnd()) {
-                    //Remove empty buckets.  This has no affect on the dense implementation,
-                    //they are removed on the fly, but is needed for the sparse implementation
-                    bucketCollection.removeBuckets(emptyBuckets);
-                    emptyBuckets.clear();
-                    break;
-                }
-            }
-
+        return pairedList;
+    }
 
-            // We've reached the end of the interval,  start a new row
-            if (currentRow.alignments.size() > 0) {
-                alignmentRows.add(currentRow);
+    private static boolean isSorted(List<Alignment> alList) {
+        Alignment last = null;
+        for (Alignment al : alList) {
+            if (last != null && packComparator.compare(last, al) > 0) {
+                return false;
             }
-            currentRow = new Row();
-        }
-        if (log.isDebugEnabled()) {
-            long dt = System.currentTimeMillis() - t0;
-            log.debug("Packed alignments in " + dt);
+            last = al;
         }
-
-        // Add the last row
-        if (currentRow != null && currentRow.alignments.size() > 0) {
-            alignmentRows.add(currentRow);
-        }
-
-
+        return true;
     }
 
     private boolean isPairable(Alignment al) {
@@ -318,25 +270,6 @@ public class AlignmentPacker {
     }
 
 
-    /**
-     * Gets the range over which alignmentsList spans. Asssumes all on same chr, and sorted
-     *
-     * @param alignmentsList
-     * @return
-     */
-    private Range getAlignmentListRange(List<Alignment> alignmentsList) {
-        if (alignmentsList == null || alignmentsList.size() == 0) return null;
-        Alignment firstAlignment = alignmentsList.get(0);
-
-        int minStart = firstAlignment.getStart();
-        int maxEnd = firstAlignment.getEnd();
-        for (Alignment alignment : alignmentsList) {
-            maxEnd = Math.max(maxEnd, alignment.getEnd());
-        }
-        return new Range(firstAlignment.getChr(), minStart,
-                maxEnd);
-    }
-
     private Comparator<Object> getGroupComparator(AlignmentTrack.GroupOption groupByOption) {
         switch (groupByOption) {
             case PAIR_ORIENTATION:
@@ -474,189 +407,68 @@ public class AlignmentPacker {
         return null;
     }
 
-    interface BucketCollection {
-
-        Range getRange();
-
-        void set(int idx, PriorityQueue<Alignment> bucket);
-
-        PriorityQueue<Alignment> get(int idx);
-
-        PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets);
-
-        void removeBuckets(Collection<Integer> emptyBuckets);
-
-        void finishedAdding();
-
-        int getBucketCount();
-    }
-
     /**
-     * Dense array implementation of BucketCollection.  Assumption is all or nearly all the genome region is covered
-     * with reads.
+     * The end of the last alignment in each row, held in a tree of minimum ends so the first row an alignment
+     * fits in is found in time logarithmic in the number of rows.  The tree is reused between packings.
      */
-    static class DenseBucketCollection implements BucketCollection {
+    static class RowIndex {
 
-        Range range;
-        int lastBucketNumber = -1;
-        final PriorityQueue[] bucketArray;
+        private int capacity = 0;
+        private int nRows = 0;
 
-        DenseBucketCollection(int bucketCount, Range range) {
-            this.bucketArray = new PriorityQueue[bucketCount];
-            this.range = range;
-        }
+        // Node i has children 2i and 2i + 1.  Leaves, one per row, start at index capacity.
+        private int[] tree = new int[0];
 
-        public void set(int idx, PriorityQueue<Alignment> bucket) {
-            bucketArray[idx] = bucket;
+        void clear() {
+            Arrays.fill(tree, Integer.MAX_VALUE);
+            nRows = 0;
         }
 
-        public PriorityQueue<Alignment> get(int idx) {
-            return bucketArray[idx];
-        }
-
-        public int getBucketCount() {
-            return this.bucketArray.length;
-        }
-
-        public Range getRange() {
-            return range;
+        int getRowCount() {
+            return nRows;
         }
 
         /**
-         * Return the next occupied bucket after bucketNumber
-         *
-         * @param bucketNumber
-         * @param emptyBuckets ignored
-         * @return
+         * @return the first row whose last alignment ends at or before {@code maxEnd}, or -1 if there is none
          */
-        public PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets) {
-
-            if (bucketNumber == lastBucketNumber) {
-                // TODO -- detect inf loop here
-            }
-
-            PriorityQueue<Alignment> bucket = null;
-            while (bucketNumber < bucketArray.length) {
-
-                if (bucketNumber < 0) {
-                    log.info("Negative bucket number: " + bucketNumber);
-                }
-
-                bucket = bucketArray[bucketNumber];
-                if (bucket != null) {
-                    if (bucket.isEmpty()) {
-                        bucketArray[bucketNumber] = null;
-                    } else {
-                        return bucket;
-                    }
-                }
-                bucketNumber++;
+        int findRow(int maxEnd) {
+            if (nRows == 0 || tree[1] > maxEnd) {
+                return -1;
             }
-            return null;
-        }
-
-        public void removeBuckets(Collection<Integer> emptyBuckets) {
-            // Nothing to do, empty buckets are removed "on the fly"
-        }
-
-        public void finishedAdding() {
-            // nothing to do
-        }
-    }
-
-
-    /**
-     * "Sparse" implementation of an alignment BucketCollection.  Assumption is there are small clusters of alignments
-     * along the genome, with mostly "white space".
-     */
-    static class SparseBucketCollection implements BucketCollection {
-
-        Range range;
-        boolean finished = false;
-        List<Integer> keys;
-        final HashMap<Integer, PriorityQueue<Alignment>> buckets;
-
-        SparseBucketCollection(Range range) {
-            this.range = range;
-            this.buckets = new HashMap(1000);
-        }
-
-        public void set(int idx, PriorityQueue<Alignment> bucket) {
-            if (finished) {
-                log.error("Error: bucket added after finishAdding() called");
+            int node = 1;
+            while (node < capacity) {
+                node = tree[2 * node] <= maxEnd ? 2 * node : 2 * node + 1;
             }
-            buckets.put(idx, bucket);
-        }
-
-        public PriorityQueue<Alignment> get(int idx) {
-            return buckets.get(idx);
+            return node - capacity;
         }
 
-        public Range getRange() {
-            return range;
-        }
-
-        /**
-         * Return the next occupied bucket at or after after bucketNumber.
-         *
-         * @param bucketNumber -- the hash bucket index for the alignments, essential the position relative to the start
-         *                     of this packing interval
-         * @return the next occupied bucket at or after bucketNumber, or null if there are none.
-         */
-        public PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets) {
-
-            PriorityQueue<Alignment> bucket = null;
-            int min = 0;
-            int max = keys.size() - 1;
-
-            // Get close to the right index, rather than scan from the beginning
-            while ((max - min) > 5) {
-                int mid = (max + min) / 2;
-                Integer key = keys.get(mid);
-                if (key > bucketNumber) {
-                    max = mid;
-                } else {
-                    min = mid;
-                }
-            }
-
-            // Now march from min to max until we cross bucketNumber
-            for (int i = min; i < keys.size(); i++) {
-                Integer key = keys.get(i);
-                if (key >= bucketNumber) {
-                    bucket = buckets.get(key);
-                    if (bucket.isEmpty()) {
-                        emptyBuckets.add(key);
-                        bucket = null;
-                    } else {
-                        return bucket;
-                    }
-                }
+        void setEnd(int row, int end) {
+            int node = row + capacity;
+            tree[node] = end;
+            for (node >>= 1; node > 0; node >>= 1) {
+                tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
             }
-            return null;     // No bucket found
         }
 
-        public void removeBuckets(Collection<Integer> emptyBuckets) {
-
-            if (emptyBuckets.isEmpty()) {
-                return;
+        int addRow(int end) {
+            if (nRows == capacity) {
+                grow();
             }
-
-            for (Integer i : emptyBuckets) {
-                buckets.remove(i);
+            int row = nRows++;
+            setEnd(row, end);
+            return row;
+        }
+
+        private void grow() {
+            int newCapacity = Math.max(64, 2 * capacity);
+            int[] newTree = new int[2 * newCapacity];
+            Arrays.fill(newTree, Integer.MAX_VALUE);
+            System.arraycopy(tree, capacity, newTree, newCapacity, nRows);
+            for (int node = newCapacity - 1; node > 0; node--) {
+                newTree[node] = Math.min(newTree[2 * node], newTree[2 * node + 1]);
             }
-            keys = new ArrayList<Integer>(buckets.keySet());
-            Collections.sort(keys);
-        }
-
-        public void finishedAdding() {
-            finished = true;
-            keys = new ArrayList<Integer>(buckets.keySet());
-            Collections.sort(keys);
-        }
-
-        public int getBucketCount() {
-            return Integer.MAX_VALUE;
+            tree = newTree;
+            capacity = newCapacity;
         }
     }
 
@@ -0,0 +1,237 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Range;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.ui.panel.ReferenceFrame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.broad.igv.prefs.Constants.SAM_PREFETCH;
+
+/**
+ * Watches the movement of reference frames as they are rendered and, when a frame is panning towards the edge of
+ * the loaded interval, loads the next interval in the direction of travel on a background thread.  A prefetch is
+ * canceled if the frame jumps elsewhere (another chromosome, a zoom, or a move of more than a few screens), or if
+ * a foreground load of a range it does not cover arrives.
+ */
+class AlignmentPrefetcher {
+
+    private static Logger log = Logger.getLogger(AlignmentPrefetcher.class);
+
+    // A move of more than this many screen widths is treated as a jump rather than a pan
+    private static final int MAX_PAN_SCREENS = 2;
+
+    private static ExecutorService executor;
+
+    private final AlignmentDataManager dataManager;
+    private final Map<String, FrameMotion> motions = new HashMap<>();
+
+    private Future<?> pending;
+    private Range pendingRange;
+    private AtomicBoolean pendingCanceled;
+
+    // Smoothed time to load an interval, in milliseconds
+    private double loadTime = 500;
+
+    AlignmentPrefetcher(AlignmentDataManager dataManager) {
+        this.dataManager = dataManager;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "Alignment prefetch");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    synchronized void recordLoadTime(long millis) {
+        loadTime = 0.5 * loadTime + 0.5 * millis;
+    }
+
+    void frameMoved(ReferenceFrame frame, AlignmentTrack.RenderOptions renderOptions) {
+        frameMoved(frame, renderOptions, System.currentTimeMillis());
+    }
+
+    synchronized void frameMoved(ReferenceFrame frame, AlignmentTrack.RenderOptions renderOptions, long time) {
+
+        if (!PreferencesManager.getPreferences().getAsBoolean(SAM_PREFETCH)) {
+            return;
+        }
+
+        Range view = frame.getCurrentRange();
+        if (view == null || Globals.CHR_ALL.equals(view.getChr())) {
+            return;
+        }
+
+        FrameMotion motion = motions.get(frame.getName());
+        if (motion == null) {
+            motions.put(frame.getName(), new FrameMotion(view, time));
+            return;
+        }
+
+        if (!motion.update(view, time)) {
+            // A jump, not a pan.  Anything loading for the old position is of no use.
+            if (pendingRange != null && !pendingRange.overlaps(view)) {
+                cancel();
+            }
+            return;
+        }
+
+        if (motion.velocity == 0 || (pending != null && !pending.isDone())) {
+            return;
+        }
+
+        AlignmentInterval loaded = dataManager.getLoadedInterval(view);
+        if (loaded == null) {
+            return;    // The view will be loaded synchronously
+        }
+
+        // Prefetch if the view is expected to reach the edge of the loaded interval within the time it takes to
+        // load, or is within a screen of it
+        int width = view.getLength();
+        double lookAhead = Math.max(width, Math.abs(motion.velocity) * loadTime);
+        int span = 2 * dataManager.getExpansion(view.getStart(), view.getEnd());
+        Range next;
+        if (motion.velocity > 0) {
+            if (loaded.getEnd() - view.getEnd() > lookAhead) return;
+            next = new Range(view.getChr(), view.getStart(), view.getStart() + span);
+            if (next.getEnd() <= loaded.getEnd()) return;
+        } else {
+            if (view.getStart() - loaded.getStart() > lookAhead) return;
+            next = new Range(view.getChr(), Math.max(0, view.getEnd() - span), view.getEnd());
+            if (next.getStart() >= loaded.getStart()) return;
+        }
+
+        submit(next, renderOptions);
+    }
+
+    private void submit(Range range, AlignmentTrack.RenderOptions renderOptions) {
+        log.debug("Prefetch " + range.printString());
+        AtomicBoolean canceled = new AtomicBoolean(false);
+        pendingRange = range;
+        pendingCanceled = canceled;
+        pending = getExecutor().submit(() -> {
+            try {
+                dataManager.prefetch(range, renderOptions, canceled::get);
+            } catch (Exception e) {
+                log.error("Error prefetching alignments", e);
+            }
+        });
+    }
+
+    /**
+     * Called before a foreground load of {@code range}.  A prefetch holds the load lock while loading, so unless it
+     * is loading the range it is canceled rather than keeping the foreground load waiting.
+     */
+    synchronized void foregroundLoad(Range range) {
+        if (pending != null && !pending.isDone() && !pendingRange.contains(range)) {
+            log.debug("Canceling prefetch of " + pendingRange.printString());
+            cancel();
+        }
+    }
+
+    /**
+     * @return the pending prefetch, or null if there is none
+     */
+    synchronized Future<?> getPending() {
+        return pending;
+    }
+
+    /**
+     * Cancel any pending prefetch, stopping it early if it is loading
+     */
+    synchronized void cancel() {
+        if (pending != null) {
+            pendingCanceled.set(true);
+            pending.cancel(false);
+            pending = null;
+            pendingRange = null;
+            pendingCanceled = null;
+        }
+    }
+
+    /**
+     * Position and velocity, in bp per millisecond, of a reference frame
+     */
+    private static class FrameMotion {
+
+        String chr;
+        int start;
+        int width;
+        long time;
+        double velocity;
+
+        FrameMotion(Range view, long time) {
+            reset(view, time);
+        }
+
+        private void reset(Range view, long time) {
+            this.chr = view.getChr();
+            this.start = view.getStart();
+            this.width = view.getLength();
+            this.time = time;
+            this.velocity = 0;
+        }
+
+        /**
+         * @return false if the frame jumped (changed chromosome or zoom, or moved more than a few screens),
+         * true if it panned or did not move
+         */
+        boolean update(Range view, long time) {
+
+            int shift = view.getStart() - start;
+            if (!view.getChr().equals(chr) || view.getLength() != width || Math.abs(shift) > MAX_PAN_SCREENS * width) {
+                reset(view, time);
+                return false;
+            }
+            if (shift == 0) {
+                return true;
+            }
+
+            long dt = Math.max(1, time - this.time);
+            double v = (double) shift / dt;
+            // Smooth successive moves in the same direction, a reversal is taken at face value
+            velocity = (velocity != 0 && Math.signum(v) == Math.signum(velocity)) ? 0.5 * velocity + 0.5 * v : v;
+            this.start = view.getStart();
+            this.time = time;
+            return true;
+        }
+    }
+}
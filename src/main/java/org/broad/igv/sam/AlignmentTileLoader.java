@@ -25,26 +25,33 @@
 
 package org.broad.igv.sam;
 
+import htsjdk.samtools.BAMRecord;
 import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.reader.AlignmentReader;
-import org.broad.igv.sam.reader.ReadGroupFilter;
+import org.broad.igv.sam.reader.AlignmentReaderPool;
+import org.broad.igv.sam.reader.ShardedQueryIterator;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.event.IGVEventBus;
 import org.broad.igv.event.IGVEventObserver;
 import org.broad.igv.event.StopEvent;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.util.ObjectCache;
+import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.RuntimeUtils;
 
 import javax.swing.*;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
 
 import static org.broad.igv.prefs.Constants.*;
 
@@ -59,12 +66,19 @@ public class AlignmentTileLoader implements IGVEventObserver {
 
     private static Set<WeakReference<AlignmentTileLoader>> activeLoaders = Collections.synchronizedSet(new HashSet());
 
+    private static ExecutorService shardExecutor;
+
+    // Target length of a query shard.  Shards are small relative to a typical load so that few are held in memory.
+    private static final int SHARD_LENGTH = 4 * ShardedQueryIterator.INDEX_WINDOW;
+
     /**
      * Flag to mark a corrupt index.  Without this attempted reads will continue in an infinite loop
      */
     private boolean corruptIndex = false;
 
     private AlignmentReader reader;
+    private ResourceLocator shardLocator;
+    private AlignmentReaderPool readerPool;
     private boolean cancel = false;
     private boolean pairedEnd = false;
     private boolean tenX = false;
@@ -85,14 +99,54 @@ public class AlignmentTileLoader implements IGVEventObserver {
 
 
     public AlignmentTileLoader(AlignmentReader reader) {
+        this(reader, null);
+    }
+
+    /**
+     * @param reader
+     * @param locator locator for {@code reader}.  If non-null, and the file is indexed, additional readers are
+     *                opened as needed to load tiles in parallel shards (see SAM.LOAD_THREADS).
+     */
+    public AlignmentTileLoader(AlignmentReader reader, ResourceLocator locator) {
         this.reader = reader;
 
+        if (AlignmentReaderPool.supportsSharding(locator, reader)) {
+            this.shardLocator = locator;
+        }
+
         Set<String> platforms = this.reader.getPlatforms();
         moleculo = platforms != null && platforms.contains("MOLECULO");
     }
 
     public void close() throws IOException {
         reader.close();
+        synchronized (this) {
+            if (readerPool != null) {
+                readerPool.close();
+            }
+        }
+    }
+
+    /**
+     * @return the pool of readers for sharded queries, created on first use.  Null if the file does not support
+     * sharding.
+     */
+    private synchronized AlignmentReaderPool getReaderPool() {
+        if (readerPool == null && shardLocator != null) {
+            readerPool = new AlignmentReaderPool(shardLocator);
+        }
+        return readerPool;
+    }
+
+    private static synchronized ExecutorService getShardExecutor() {
+        if (shardExecutor == null) {
+            shardExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "Alignment shard loader");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return shardExecutor;
     }
 
     public SAMFileHeader getFileHeader() {
@@ -115,6 +169,116 @@ public class AlignmentTileLoader implements IGVEventObserver {
         return ycTags;
     }
 
+    static final int YC_TAG = 1;
+    static final int BX_TAG = 2;
+    static final int HP_TAG = 4;
+
+    /**
+     * Look for the YC, BX, and HP tags on a record.  Tags of a BAM record are scanned in their binary form, as
+     * getAttribute() would decode every tag of every record.  Tags of other records are already decoded.
+     */
+    private void probeTags(Alignment record) {
+        int tags = 0;
+        SAMRecord samRecord = record instanceof PicardAlignment ? ((PicardAlignment) record).getRecord() : null;
+        byte[] data = samRecord instanceof BAMRecord ? ((BAMRecord) samRecord).getVariableBinaryRepresentation() : null;
+        if (data != null) {
+            tags = scanTags(data, data.length - ((BAMRecord) samRecord).getAttributesBinarySize());
+        } else {
+            if (!ycTags && record.getAttribute("YC") != null) tags |= YC_TAG;
+            if (!tenX && record.getAttribute("BX") != null) tags |= BX_TAG;
+            if (!phased && record.getAttribute("HP") != null) tags |= HP_TAG;
+        }
+
+        if ((tags & YC_TAG) != 0) {
+            ycTags = true;
+        }
+        // TODO -- this is not reliable tests for TenX.  Other platforms might use BX
+        if ((tags & BX_TAG) != 0) {
+            tenX = true;
+        }
+        if (tenX && (tags & HP_TAG) != 0) {
+            phased = true;
+        }
+    }
+
+    /**
+     * Scan the binary tags of a BAM record, starting at {@code offset}, for the YC, BX, and HP tags.
+     *
+     * @return the tags found, a combination of {@link #YC_TAG}, {@link #BX_TAG}, and {@link #HP_TAG}
+     */
+    static int scanTags(byte[] data, int offset) {
+        int tags = 0;
+        int p = offset;
+        while (p >= 0 && p + 3 <= data.length) {
+            byte t0 = data[p];
+            byte t1 = data[p + 1];
+            if (t0 == 'Y' && t1 == 'C') {
+                tags |= YC_TAG;
+            } else if (t0 == 'B' && t1 == 'X') {
+                tags |= BX_TAG;
+            } else if (t0 == 'H' && t1 == 'P') {
+                tags |= HP_TAG;
+            }
+            byte type = data[p + 2];
+            p += 3;
+            switch (type) {
+                case 'A':
+                case 'c':
+                case 'C':
+                    p += 1;
+                    break;
+                case 's':
+                case 'S':
+                    p += 2;
+                    break;
+                case 'i':
+                case 'I':
+                case 'f':
+                    p += 4;
+                    break;
+                case 'Z':
+                case 'H':
+                    while (p < data.length && data[p] != 0) p++;
+                    p++;
+                    break;
+                case 'B':
+                    if (p + 5 > data.length) {
+                        return tags;
+                    }
+                    int elementSize = tagElementSize(data[p]);
+                    int count = (data[p + 1] & 0xff) | (data[p + 2] & 0xff) << 8 |
+                            (data[p + 3] & 0xff) << 16 | (data[p + 4] & 0xff) << 24;
+                    long next = p + 5 + (long) count * elementSize;
+                    if (elementSize == 0 || count < 0 || next > data.length) {
+                        return tags;
+                    }
+                    p = (int) next;
+                    break;
+                default:
+                    // Unknown type, the rest of the tags cannot be parsed
+                    return tags;
+            }
+        }
+        return tags;
+    }
+
+    private static int tagElementSize(byte type) {
+        switch (type) {
+            case 'c':
+            case 'C':
+                return 1;
+            case 's':
+            case 'S':
+                return 2;
+            case 'i':
+            case 'I':
+            case 'f':
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
     AlignmentTile loadTile(String chr,
                            int start,
                            int end,
@@ -122,16 +286,27 @@ public class AlignmentTileLoader implements IGVEventObserver {
                            AlignmentDataManager.DownsampleOptions downsampleOptions,
                            ReadStats readStats, Map<String, PEStats> peStats,
                            AlignmentTrack.BisulfiteContext bisulfiteContext) {
+        return loadTile(chr, start, end, spliceJunctionHelper, downsampleOptions, readStats, peStats, bisulfiteContext, null);
+    }
+
+    /**
+     * @param canceled if non-null, polled while reading.  The load stops early, returning a partial tile, when it
+     *                 returns true.  Unlike the stop button this cancels only this load.
+     */
+    AlignmentTile loadTile(String chr,
+                           int start,
+                           int end,
+                           SpliceJunctionHelper spliceJunctionHelper,
+                           AlignmentDataManager.DownsampleOptions downsampleOptions,
+                           ReadStats readStats, Map<String, PEStats> peStats,
+                           AlignmentTrack.BisulfiteContext bisulfiteContext,
+                           BooleanSupplier canceled) {
 
         final IGVPreferences prefMgr = PreferencesManager.getPreferences();
-        boolean filterFailedReads = prefMgr.getAsBoolean(SAM_FILTER_FAILED_READS);
-        boolean filterSecondaryAlignments = prefMgr.getAsBoolean(SAM_FILTER_SECONDARY_ALIGNMENTS);
-        boolean filterSupplementaryAlignments = prefMgr.getAsBoolean(SAM_FILTER_SUPPLEMENTARY_ALIGNMENTS);
-        ReadGroupFilter filter = ReadGroupFilter.getFilter();
-        boolean showDuplicates = prefMgr.getAsBoolean(SAM_SHOW_DUPLICATES) || !prefMgr.getAsBoolean(SAM_FILTER_DUPLICATES);
-        int qualityThreshold = prefMgr.getAsInt(SAM_QUALITY_THRESHOLD);
+        AlignmentFilter filter = AlignmentFilter.fromPreferences();
 
         boolean reducedMemory = prefMgr.getAsBoolean(SAM_REDUCED_MEMORY_MODE);
+        int loadThreads = prefMgr.getAsInt(SAM_LOAD_THREADS);
 
         AlignmentTile t = new AlignmentTile(start, end, spliceJunctionHelper, downsampleOptions, bisulfiteContext, reducedMemory);
 
@@ -158,11 +333,23 @@ public class AlignmentTileLoader implements IGVEventObserver {
                 IGV.getInstance().enableStopButton(true);
             }
 
-            iter = reader.query(chr, start, end, false);
+            // Sharded queries return records in the same order as a single query, so everything downstream
+            // (counts, junctions, downsampling, mate fix-up) is identical to the serial path.
+            // At most loadThreads shards are in flight, bounding memory before downsampling.
+            // Read statistics are computed over every record, so records are only prefiltered when they are not
+            // collected.
+            AlignmentFilter prefilter = readStats == null ? filter : null;
+            AlignmentReaderPool pool = loadThreads > 1 ? getReaderPool() : null;
+            if (pool != null) {
+                int nShards = Math.max(loadThreads, (int) (((long) end - start + SHARD_LENGTH - 1) / SHARD_LENGTH));
+                iter = new ShardedQueryIterator(pool, getShardExecutor(), chr, start, end, nShards, loadThreads, prefilter);
+            } else {
+                iter = reader.query(chr, start, end, false, prefilter);
+            }
 
             while (iter != null && iter.hasNext()) {
 
-                if (cancel) {
+                if (cancel || (canceled != null && canceled.getAsBoolean())) {
                     break;
                 }
 
@@ -204,28 +391,19 @@ public class AlignmentTileLoader implements IGVEventObserver {
                     }
                 }
 
-                if (!ycTags && record.getAttribute("YC") != null) {
-                    ycTags = true;
-                }
-
-                // TODO -- this is not reliable tests for TenX.  Other platforms might use BX
-                if (!tenX && record.getAttribute("BX") != null) {
-                    tenX = true;
-                }
-                if (tenX && !phased && record.getAttribute("HP") != null) {
-                    phased = true;
+                if (!(ycTags && tenX && phased)) {
+                    probeTags(record);
                 }
 
-                if (!record.isMapped() || (!showDuplicates && record.isDuplicate()) ||
-                        (filterFailedReads && record.isVendorFailedRead()) ||
-                        (filterSecondaryAlignments && !record.isPrimary()) ||
-                        (filterSupplementaryAlignments && record.isSupplementary()) ||
-                        record.getMappingQuality() < qualityThreshold ||
-                        (filter != null && filter.filterAlignment(record))) {
+                if (filter.filterAlignment(record)) {
                     continue;
                 }
 
-                t.addRecord(record, reducedMemory);
+                Alignment stored = t.addRecord(record, reducedMemory);
+                if (stored != record && mappedMates.get(readName) == record) {
+                    // The mate sequence, if found later, must be set on the stored alignment
+                    mappedMates.put(readName, stored);
+                }
 
                 alignmentCount++;
                 int interval = Globals.isTesting() ? 100000 : 1000;
@@ -391,6 +569,7 @@ public class AlignmentTileLoader implements IGVEventObserver {
         private List<Alignment> alignments;
         private List<DownsampledInterval> downsampledIntervals;
         private SpliceJunctionHelper spliceJunctionHelper;
+        private AlignmentColumnStore columnStore;
 
         private static final Random RAND = new Random();
 
@@ -426,6 +605,11 @@ public class AlignmentTileLoader implements IGVEventObserver {
 
             this.indelLimit = PreferencesManager.getPreferences().getAsInt(SAM_SMALL_INDEL_BP_THRESHOLD);
 
+            // Reduced memory alignments are already compact, the column store is only used for full alignments
+            if (!reducedMemory && PreferencesManager.getPreferences().getAsBoolean(SAM_COLUMNAR_STORE)) {
+                this.columnStore = new AlignmentColumnStore();
+            }
+
             long seed = System.currentTimeMillis();
             //System.out.println("seed: " + seed);
             RAND.setSeed(seed);
@@ -472,8 +656,10 @@ public class AlignmentTileLoader implements IGVEventObserver {
          * Add an alignment record to this tile.  This record is not necessarily retained after down-sampling.
          * <p/>
          * // * @param alignment
+         *
+         * @return the alignment as retained by this tile, which might be a compact replacement of the record
          */
-        public void addRecord(Alignment alignment, boolean reducedMemory) {
+        public Alignment addRecord(Alignment alignment, boolean reducedMemory) {
 
             if (reducedMemory) {
                 alignment = new ReducedMemoryAlignment(alignment, this.indelLimit);
@@ -495,10 +681,14 @@ public class AlignmentTileLoader implements IGVEventObserver {
                 attemptAddRecordDownsampled(alignment);
 
             } else {
+                if (columnStore != null) {
+                    alignment = columnStore.add(alignment);
+                }
                 alignments.add(alignment);
             }
 
             alignment.finish();
+            return alignment;
         }
 
         /**
@@ -645,6 +835,12 @@ public class AlignmentTileLoader implements IGVEventObserver {
             //If we downsampled,  we need to sort
             if (downsample) {
                 sortFilterDownsampled();
+                // Downsampled records are stored once sampling is complete, so rejected records are never copied
+                if (columnStore != null) {
+                    for (ListIterator<Alignment> iter = alignments.listIterator(); iter.hasNext(); ) {
+                        iter.set(columnStore.add(iter.next()));
+                    }
+                }
             }
             finalizeSpliceJunctions();
             counts.finish();
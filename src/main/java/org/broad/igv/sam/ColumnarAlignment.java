@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.SAMBinaryTagAndValue;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTagUtil;
+import org.broad.igv.feature.Strand;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * A handle to an alignment held in an {@link AlignmentColumnStore}.  Only the chromosome, start, and end, which
+ * are needed to pack and render every alignment, are held as fields; everything else is read from the store.
+ * Insertions are also held once requested, as they carry the pixel state set while rendering.
+ */
+public class ColumnarAlignment extends SAMAlignment {
+
+    private static final int READ_PAIRED_FLAG = 0x1;
+    private static final int PROPER_PAIR_FLAG = 0x2;
+    private static final int READ_UNMAPPED_FLAG = 0x4;
+    private static final int MATE_UNMAPPED_FLAG = 0x8;
+    private static final int READ_STRAND_FLAG = 0x10;
+    private static final int MATE_STRAND_FLAG = 0x20;
+    private static final int FIRST_OF_PAIR_FLAG = 0x40;
+    private static final int SECOND_OF_PAIR_FLAG = 0x80;
+    private static final int NOT_PRIMARY_ALIGNMENT_FLAG = 0x100;
+    private static final int READ_FAILS_VENDOR_QUALITY_CHECK_FLAG = 0x200;
+    private static final int DUPLICATE_READ_FLAG = 0x400;
+    private static final int SUPPLEMENTARY_ALIGNMENT_FLAG = 0x800;
+    private static final AlignmentBlockImpl[] NO_INSERTIONS = new AlignmentBlockImpl[0];
+
+    private final AlignmentColumnStore store;
+    private final int index;
+
+    ColumnarAlignment(AlignmentColumnStore store, int index) {
+        this.store = store;
+        this.index = index;
+        this.chr = store.getChr(index);
+        this.start = store.getStart(index);
+        this.end = store.getEnd(index);
+        this.pairOrientation = store.getPairOrientation(index);
+    }
+
+    /**
+     * Decode the alignment blocks from the stored cigar, bases, and qualities.  Decoding resets the start and end
+     * of this alignment, so it should only be called on a scratch instance.
+     */
+    DecodedBlocks decodeBlocks() {
+        this.start = store.getAlignmentStart(index);
+        this.end = store.getAlignmentEnd(index);
+        createAlignmentBlocks(getCigarString(), store.getReadBases(index), store.getBaseQualities(index));
+        return new DecodedBlocks(alignmentBlocks, insertions, gaps);
+    }
+
+    /**
+     * Rebuild the SAMRecord this alignment was created from.
+     */
+    public SAMRecord getRecord() {
+        SAMRecord record = new SAMRecord(store.getHeader(index));
+        record.setReadName(getReadName());
+        record.setFlags(getFlags());
+        record.setReferenceName(store.getReferenceName(index));
+        record.setAlignmentStart(getAlignmentStart() + 1);
+        record.setMappingQuality(getMappingQuality());
+        record.setCigar(store.getCigar(index));
+        record.setMateReferenceName(store.getMateReferenceName(index));
+        record.setMateAlignmentStart(store.getMateAlignmentStart(index));
+        record.setInferredInsertSize(getInferredInsertSize());
+        record.setReadBases(store.getReadBases(index));
+        record.setBaseQualities(store.getBaseQualities(index));
+        SAMTagUtil tagUtil = SAMTagUtil.getSingleton();
+        for (SAMBinaryTagAndValue tag = store.getTags(index); tag != null; tag = tag.getNext()) {
+            record.setAttribute(tagUtil.makeStringTag(tag.tag), tag.value);
+        }
+        return record;
+    }
+
+    private int getFlags() {
+        return store.getFlags(index);
+    }
+
+    @Override
+    public AlignmentBlock[] getAlignmentBlocks() {
+        return store.getDecodedBlocks(index).alignmentBlocks;
+    }
+
+    @Override
+    public AlignmentBlockImpl[] getInsertions() {
+        // The renderer records the pixel range of each insertion for popup text and clicks, so the blocks are
+        // held once handed out.  Blocks decoded again after eviction from the store's cache would have lost it.
+        if (insertions == null) {
+            AlignmentBlockImpl[] decoded = store.getDecodedBlocks(index).insertions;
+            insertions = decoded.length == 0 ? NO_INSERTIONS : decoded;
+        }
+        return insertions;
+    }
+
+    @Override
+    public List<Gap> getGaps() {
+        return store.getDecodedBlocks(index).gaps;
+    }
+
+    @Override
+    public ReadMate getMate() {
+        if (!isPaired()) {
+            return null;
+        }
+        int flags = getFlags();
+        return new ReadMate(store.getMateChr(index),
+                store.getMateAlignmentStart(index) - 1,
+                (flags & MATE_STRAND_FLAG) != 0,
+                (flags & MATE_UNMAPPED_FLAG) != 0);
+    }
+
+    @Override
+    public Color getYcColor() {
+        return store.getYcColor(index);
+    }
+
+    @Override
+    public Strand getFirstOfPairStrand() {
+        return store.getFirstOfPairStrand(index);
+    }
+
+    @Override
+    public Strand getSecondOfPairStrand() {
+        return store.getSecondOfPairStrand(index);
+    }
+
+    public Object getAttribute(String key) {
+        // SAM alignment tag keys must be of length 2
+        return key.length() == 2 ? store.getAttribute(index, key) :
+                (key.equals("TEMPLATE_ORIENTATION") ? pairOrientation : null);
+    }
+
+    protected String getAttributeString(boolean truncate) {
+        return PicardAlignment.getAttributeString(getRecord(), truncate);
+    }
+
+    public boolean isFirstOfPair() {
+        return isPaired() && (getFlags() & FIRST_OF_PAIR_FLAG) != 0;
+    }
+
+    public boolean isSecondOfPair() {
+        return isPaired() && (getFlags() & SECOND_OF_PAIR_FLAG) != 0;
+    }
+
+    public boolean isDuplicate() {
+        return (getFlags() & DUPLICATE_READ_FLAG) != 0;
+    }
+
+    public boolean isMapped() {
+        return (getFlags() & READ_UNMAPPED_FLAG) == 0;
+    }
+
+    public boolean isPaired() {
+        return (getFlags() & READ_PAIRED_FLAG) != 0;
+    }
+
+    public boolean isProperPair() {
+        int flags = getFlags();
+        return ((flags & READ_PAIRED_FLAG) != 0) && ((flags & PROPER_PAIR_FLAG) != 0);
+    }
+
+    public boolean isNegativeStrand() {
+        return (getFlags() & READ_STRAND_FLAG) != 0;
+    }
+
+    @Override
+    public boolean isSupplementary() {
+        return (getFlags() & SUPPLEMENTARY_ALIGNMENT_FLAG) != 0;
+    }
+
+    public boolean isVendorFailedRead() {
+        return (getFlags() & READ_FAILS_VENDOR_QUALITY_CHECK_FLAG) != 0;
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return (getFlags() & NOT_PRIMARY_ALIGNMENT_FLAG) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return getRecord().getSAMString();
+    }
+
+    @Override
+    public String getReadName() {
+        return store.getReadName(index);
+    }
+
+    @Override
+    public int getMappingQuality() {
+        return store.getMappingQuality(index);
+    }
+
+    @Override
+    public int getInferredInsertSize() {
+        return store.getInferredInsertSize(index);
+    }
+
+    @Override
+    public String getCigarString() {
+        return store.getCigarString(index);
+    }
+
+    @Override
+    public int getReadLength() {
+        // A missing sequence is reported as "*"
+        int length = store.getBaseCount(index);
+        return length == 0 ? 1 : length;
+    }
+
+    @Override
+    public String getReadSequence() {
+        return store.getBaseCount(index) == 0 ? SAMRecord.NULL_SEQUENCE_STRING : new String(store.getReadBases(index));
+    }
+
+    @Override
+    public int getAlignmentStart() {
+        return store.getAlignmentStart(index);
+    }
+
+    @Override
+    public int getAlignmentEnd() {
+        return store.getAlignmentEnd(index);
+    }
+
+    public String getSample() {
+        SAMReadGroupRecord readGroupRecord = store.getReadGroupRecord(index);
+        return readGroupRecord == null ? null : readGroupRecord.getSample();
+    }
+
+    public String getReadGroup() {
+        SAMReadGroupRecord readGroupRecord = store.getReadGroupRecord(index);
+        return readGroupRecord == null ? null : readGroupRecord.getId();
+    }
+
+    public String getLibrary() {
+        SAMReadGroupRecord readGroupRecord = store.getReadGroupRecord(index);
+        return readGroupRecord == null ? null : readGroupRecord.getLibrary();
+    }
+
+    /**
+     * The decoded alignment blocks of a columnar alignment
+     */
+    static class DecodedBlocks {
+
+        final AlignmentBlockImpl[] alignmentBlocks;
+        final AlignmentBlockImpl[] insertions;
+        final List<Gap> gaps;
+
+        DecodedBlocks(AlignmentBlockImpl[] alignmentBlocks, AlignmentBlockImpl[] insertions, List<Gap> gaps) {
+            this.alignmentBlocks = alignmentBlocks;
+            this.insertions = insertions;
+            this.gaps = gaps;
+        }
+    }
+}
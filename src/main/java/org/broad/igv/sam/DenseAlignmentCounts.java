@@ -27,7 +27,16 @@ package org.broad.igv.sam;
 
 import org.apache.log4j.Logger;
 
+import java.util.Arrays;
+
 /**
+ * Alignment counts for every position of an interval.
+ * <p>
+ * Counts are stored compactly.  Base counts for both strands are interleaved by position, and held as chars
+ * until enough alignments have been counted that a count might overflow, at which point they are promoted to
+ * ints.  Quality sums are interleaved by position.  Totals, deletions, and insertions are held in their own
+ * arrays so a whole block can be counted with simple loops over contiguous data.
+ *
  * @author jrobinso
  * @date Feb 23, 2011
  */
@@ -35,28 +44,40 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
 
     private static Logger log = Logger.getLogger(DenseAlignmentCounts.class);
 
+    private static final int N_BASES = 5;                   // a, c, g, t, n
+    private static final int N_BASE_COLUMNS = 2 * N_BASES;  // bases by strand, positive strand first
+
+    /**
+     * Column of a read base.  Everything other than a, c, g, or t is counted as "n".
+     */
+    private static final byte[] BASE_COLUMN = new byte[256];
+
+    /**
+     * Column of a queried base, or -1 if the base is not a nucleotide
+     */
+    private static final byte[] QUERY_COLUMN = new byte[256];
+
+    static {
+        Arrays.fill(BASE_COLUMN, (byte) 4);
+        Arrays.fill(QUERY_COLUMN, (byte) -1);
+        String nucleotides = "acgtn";
+        for (int i = 0; i < nucleotides.length(); i++) {
+            char c = nucleotides.charAt(i);
+            BASE_COLUMN[c] = BASE_COLUMN[Character.toUpperCase(c)] = (byte) i;
+            QUERY_COLUMN[c] = QUERY_COLUMN[Character.toUpperCase(c)] = (byte) i;
+        }
+    }
+
+    private final int nPts;
+
     // counts
-    int[] posA;
-    int[] posT;
-    int[] posC;
-    int[] posG;
-    int[] posN;
-    int[] negA;
-    int[] negT;
-    int[] negC;
-    int[] negG;
-    int[] negN;
-    int[] qA;
-    int[] qT;
-    int[] qC;
-    int[] qG;
-    int[] qN;
-    int[] posTotal;
-    int[] negTotal;
+    private char[] baseCounts;
+    private int[] wideBaseCounts;
+    private int alignmentCount = 0;
+    private int[] qualities;
+    int[] total;
     int[] del;
     int[] ins;
-    private int[] totalQ;
-    private int maxCount = 0;
 
     /**
      * We store the maximum number of counts over intervals
@@ -68,27 +89,12 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
     public DenseAlignmentCounts(int start, int end, AlignmentTrack.BisulfiteContext bisulfiteContext) {
         super(start, end, bisulfiteContext);
 
-        int nPts = end - start;
-        posA = new int[nPts];
-        posT = new int[nPts];
-        posC = new int[nPts];
-        posG = new int[nPts];
-        posN = new int[nPts];
-        posTotal = new int[nPts];
-        negA = new int[nPts];
-        negT = new int[nPts];
-        negC = new int[nPts];
-        negG = new int[nPts];
-        negN = new int[nPts];
-        negTotal = new int[nPts];
-        qA = new int[nPts];
-        qT = new int[nPts];
-        qC = new int[nPts];
-        qG = new int[nPts];
-        qN = new int[nPts];
+        nPts = end - start;
+        baseCounts = new char[nPts * N_BASE_COLUMNS];
+        qualities = new int[nPts * N_BASES];
+        total = new int[nPts];
         del = new int[nPts];
         ins = new int[nPts];
-        totalQ = new int[nPts];
 
         maxCounts = new int[(nPts / MAX_COUNT_INTERVAL) + 1];
         log.debug("nPts: " + nPts + " maxCounts.length: " + maxCounts.length);
@@ -125,185 +131,110 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
         // Noop
     }
 
-    public int getTotalCount(int pos) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
+    /**
+     * Increment the counts for this alignment.  An alignment increments each base count by at most one, so the
+     * char counts are promoted before the number of alignments could overflow them.
+     */
+    @Override
+    public void incCounts(Alignment alignment) {
+        if (wideBaseCounts == null && ++alignmentCount >= Character.MAX_VALUE) {
+            wideBaseCounts = new int[baseCounts.length];
+            for (int i = 0; i < baseCounts.length; i++) {
+                wideBaseCounts[i] = baseCounts[i];
             }
-            return 0;
-        } else {
-            return posTotal[offset] + negTotal[offset];
-
+            baseCounts = null;
         }
+        super.incCounts(alignment);
     }
 
-    public int getTotalQuality(int pos) {
+    private int getOffset(int pos) {
         int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
+        if (offset < 0 || offset >= nPts) {
             if (log.isDebugEnabled()) {
                 log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
             }
-            return 0;
-        } else {
-            return totalQ[offset];
-
+            return -1;
         }
+        return offset;
     }
 
-    public int getCount(int pos, byte b) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return posA[offset] + negA[offset];
-                case 't':
-                case 'T':
-                    return posT[offset] + negT[offset];
-                case 'c':
-                case 'C':
-                    return posC[offset] + negC[offset];
-                case 'g':
-                case 'G':
-                    return posG[offset] + negG[offset];
-                case 'n':
-                case 'N':
-                    return posN[offset] + negN[offset];
-            }
+    private int getBaseCount(int offset, int column) {
+        int idx = offset * N_BASE_COLUMNS + column;
+        return wideBaseCounts == null ? baseCounts[idx] : wideBaseCounts[idx];
+    }
+
+    private static int getQueryColumn(byte b) {
+        int column = QUERY_COLUMN[b & 0xff];
+        if (column < 0) {
             log.debug("Unknown nucleotide: " + b);
-            return 0;
         }
+        return column;
     }
 
-    public int getNegCount(int pos, byte b) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return negA[offset];
-                case 't':
-                case 'T':
-                    return negT[offset];
-                case 'c':
-                case 'C':
-                    return negC[offset];
-                case 'g':
-                case 'G':
-                    return negG[offset];
-                case 'n':
-                case 'N':
-                    return negN[offset];
-            }
-            log.error("Unknown nucleotide: " + b);
+    public int getTotalCount(int pos) {
+        int offset = getOffset(pos);
+        return offset < 0 ? 0 : total[offset];
+    }
+
+    public int getTotalQuality(int pos) {
+        int offset = getOffset(pos);
+        if (offset < 0) {
             return 0;
         }
+        int idx = offset * N_BASES;
+        int sum = 0;
+        for (int i = 0; i < N_BASES; i++) {
+            sum += qualities[idx + i];
+        }
+        return sum;
+    }
+
+    public int getCount(int pos, byte b) {
+        int offset = getOffset(pos);
+        int column = getQueryColumn(b);
+        return offset < 0 || column < 0 ? 0 : getBaseCount(offset, column) + getBaseCount(offset, N_BASES + column);
+    }
+
+    public int getNegCount(int pos, byte b) {
+        int offset = getOffset(pos);
+        int column = getQueryColumn(b);
+        return offset < 0 || column < 0 ? 0 : getBaseCount(offset, N_BASES + column);
     }
 
     public int getPosCount(int pos, byte b) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return posA[offset];
-                case 't':
-                case 'T':
-                    return posT[offset];
-                case 'c':
-                case 'C':
-                    return posC[offset];
-                case 'g':
-                case 'G':
-                    return posG[offset];
-                case 'n':
-                case 'N':
-                    return posN[offset];
-            }
-            log.error("Unknown nucleotide: " + b);
-            return 0;
-        }
+        int offset = getOffset(pos);
+        int column = getQueryColumn(b);
+        return offset < 0 || column < 0 ? 0 : getBaseCount(offset, column);
     }
 
     public int getDelCount(int pos) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        }
-        return del[offset];
+        int offset = getOffset(pos);
+        return offset < 0 ? 0 : del[offset];
     }
 
 
     public int getInsCount(int pos) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        }
-        return ins[offset];
+        int offset = getOffset(pos);
+        return offset < 0 ? 0 : ins[offset];
     }
 
     public int getQuality(int pos, byte b) {
         int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
+        if (offset < 0 || offset >= nPts) {
             log.error("Position out of range: " + pos + " (valid range - " + start + "-" + end);
             return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return qA[offset];
-                case 't':
-                case 'T':
-                    return qT[offset];
-                case 'c':
-                case 'C':
-                    return qC[offset];
-                case 'g':
-                case 'G':
-                    return qG[offset];
-                case 'n':
-                case 'N':
-                    return qN[offset];
-            }
-            log.error("Unknown nucleotide: " + posN);
-            return 0;
         }
+        int column = getQueryColumn(b);
+        return column < 0 ? 0 : qualities[offset * N_BASES + column];
     }
 
 
     protected void incrementDeletion(int pos, boolean negativeStrand) {
         int offset = pos - start;
-        if (offset >= 0 && offset < del.length) {
-            del[offset] = del[offset] + 1;
-
+        if (offset >= 0 && offset < nPts) {
+            del[offset]++;
             if (countDeletedBasesCovered) {
-                if (negativeStrand) {
-                    negTotal[offset] = negTotal[offset] + 1;
-                } else {
-                    posTotal[offset] = posTotal[offset] + 1;
-                }
+                total[offset]++;
             }
         }
     }
@@ -312,91 +243,83 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
         int pos = insBlock.getStart();
         int offset = pos - start;
         // Insertions are between bases.  increment count at position just before insertion
-        if (offset >= 0 && offset < ins.length) {
-           ins[offset] = ins[offset] + 1;
+        if (offset >= 0 && offset < nPts) {
+           ins[offset]++;
         }
     }
 
 
     protected void incBlockCounts(AlignmentBlock block, boolean isNegativeStrand) {
-        int start = block.getStart();
         byte[] bases = block.getBases();
-        if (bases != null) {
-            for (int i = 0; i < bases.length; i++) {
-                int pos = start + i;
-                // NOTE:  the direct access block.qualities is intentional,  profiling reveals this to be a critical bottleneck
-                byte q = ((AlignmentBlockImpl) block).qualities[i];
-                // TODO -- handle "=" in cigar string with no read bases
-                byte n = bases[i];
-                incPositionCount(pos, n, q, isNegativeStrand);
+        if (bases == null) {
+            return;
+        }
+        // NOTE:  the direct access block.qualities is intentional,  profiling reveals this to be a critical bottleneck
+        byte[] quals = ((AlignmentBlockImpl) block).qualities;
+
+        // Clip the block to this interval once, rather than checking every base
+        int blockOffset = block.getStart() - start;
+        int from = Math.max(0, -blockOffset);
+        int to = Math.min(bases.length, nPts - blockOffset);
+        if (from >= to) {
+            return;
+        }
+
+        // TODO -- handle "=" in cigar string with no read bases
+        int strandColumn = isNegativeStrand ? N_BASES : 0;
+        if (wideBaseCounts == null) {
+            char[] counts = baseCounts;
+            for (int i = from; i < to; i++) {
+                int offset = blockOffset + i;
+                int column = BASE_COLUMN[bases[i] & 0xff];
+                counts[offset * N_BASE_COLUMNS + strandColumn + column]++;
+                qualities[offset * N_BASES + column] += quals[i];
+            }
+        } else {
+            int[] counts = wideBaseCounts;
+            for (int i = from; i < to; i++) {
+                int offset = blockOffset + i;
+                int column = BASE_COLUMN[bases[i] & 0xff];
+                counts[offset * N_BASE_COLUMNS + strandColumn + column]++;
+                qualities[offset * N_BASES + column] += quals[i];
             }
         }
+        incrementTotals(blockOffset + from, blockOffset + to);
     }
 
     protected void incPositionCount(int pos, byte b, byte q, boolean isNegativeStrand) {
 
         int offset = pos - start;
-        if (offset >= 0 && offset < posA.length) {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    if (isNegativeStrand) {
-                        negA[offset] = negA[offset] + 1;
-                    } else {
-                        posA[offset] = posA[offset] + 1;
-                    }
-                    qA[offset] = qA[offset] + q;
-                    break;
-                case 't':
-                case 'T':
-                    if (isNegativeStrand) {
-                        negT[offset] = negT[offset] + 1;
-                    } else {
-                        posT[offset] = posT[offset] + 1;
-                    }
-                    qT[offset] = qT[offset] + q;
-                    break;
-                case 'c':
-                case 'C':
-                    if (isNegativeStrand) {
-                        negC[offset] = negC[offset] + 1;
-                    } else {
-                        posC[offset] = posC[offset] + 1;
-                    }
-                    qC[offset] = qC[offset] + q;
-                    break;
-                case 'g':
-                case 'G':
-                    if (isNegativeStrand) {
-                        negG[offset] = negG[offset] + 1;
-                    } else {
-                        posG[offset] = posG[offset] + 1;
-                    }
-                    qG[offset] = qG[offset] + q;
-                    break;
-                // Everything else is counted as "N".  This might be an actual "N",  or an ambiguity code
-                default:
-                    if (isNegativeStrand) {
-                        negN[offset] = negN[offset] + 1;
-                    } else {
-                        posN[offset] = posN[offset] + 1;
-                    }
-                    qN[offset] = qN[offset] + q;
-
-            }
-            if (isNegativeStrand) {
-                negTotal[offset] = negTotal[offset] + 1;
+        if (offset >= 0 && offset < nPts) {
+            int column = BASE_COLUMN[b & 0xff];
+            int idx = offset * N_BASE_COLUMNS + (isNegativeStrand ? N_BASES : 0) + column;
+            if (wideBaseCounts == null) {
+                baseCounts[idx]++;
             } else {
-                posTotal[offset] = posTotal[offset] + 1;
+                wideBaseCounts[idx]++;
             }
-            totalQ[offset] = totalQ[offset] + q;
+            qualities[offset * N_BASES + column] += q;
+            incrementTotals(offset, offset + 1);
+        }
+    }
 
-            int tmp = posTotal[offset] + negTotal[offset];
-            int maxCountInt = offset / MAX_COUNT_INTERVAL;
-            if(tmp > maxCounts[maxCountInt]){
-                maxCounts[maxCountInt] = tmp;
+    /**
+     * Increment the totals over the offset range [from, to), and update the maximum counts.  The range is
+     * processed one max count interval at a time, so each step is a simple loop over contiguous data.
+     */
+    private void incrementTotals(int from, int to) {
+        int intervalStart = from;
+        while (intervalStart < to) {
+            int interval = intervalStart / MAX_COUNT_INTERVAL;
+            int intervalEnd = Math.min(to, (interval + 1) * MAX_COUNT_INTERVAL);
+            int max = maxCounts[interval];
+            for (int offset = intervalStart; offset < intervalEnd; offset++) {
+                int t = total[offset] + 1;
+                total[offset] = t;
+                max = Math.max(max, t);
             }
+            maxCounts[interval] = max;
+            intervalStart = intervalEnd;
         }
     }
-
 }
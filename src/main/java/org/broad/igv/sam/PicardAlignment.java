@@ -230,6 +230,10 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
     }
 
     protected String getAttributeString(boolean truncate) {
+        return getAttributeString(getRecord(), truncate);
+    }
+
+    static String getAttributeString(SAMRecord record, boolean truncate) {
         // List of tags to skip.  Some tags, like MD and SA, are both quite verbose and not easily
         // interpreted by a human reader.  It is best to just hide these tags.  The list of tags
         // to hide is set through the SAM_HIDDEN_TAGS preference.
@@ -244,7 +248,6 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
         }
 
         StringBuffer buf = new StringBuffer();
-        SAMRecord record = getRecord();
         List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
         if (attributes != null && !attributes.isEmpty()) {
 
@@ -162,7 +162,7 @@ public abstract class SAMAlignment implements Alignment {
 
     public byte getBase(double position) {
         int basePosition = (int) position;
-        for (AlignmentBlock block : this.alignmentBlocks) {
+        for (AlignmentBlock block : getAlignmentBlocks()) {
             if (block.contains(basePosition)) {
                 int offset = basePosition - block.getStart();
                 byte base = block.getBase(offset);
@@ -174,7 +174,7 @@ public abstract class SAMAlignment implements Alignment {
 
     public byte getPhred(double position) {
         int basePosition = (int) position;
-        for (AlignmentBlock block : this.alignmentBlocks) {
+        for (AlignmentBlock block : getAlignmentBlocks()) {
             if (block.contains(basePosition)) {
                 int offset = basePosition - block.getStart();
                 byte qual = block.getQuality(offset);
@@ -473,8 +473,9 @@ public abstract class SAMAlignment implements Alignment {
 
 
         // First check insertions.  Position is zero based, block coords 1 based
-        if (this.insertions != null) {
-            for (AlignmentBlock block : this.insertions) {
+        AlignmentBlock[] insertions = getInsertions();
+        if (insertions != null) {
+            for (AlignmentBlock block : insertions) {
 
                 if (block.containsPixel(mouseX)) {
 
@@ -620,7 +621,7 @@ public abstract class SAMAlignment implements Alignment {
 
         // Specific base
 
-        for (AlignmentBlock block : this.alignmentBlocks) {
+        for (AlignmentBlock block : getAlignmentBlocks()) {
             if (block.contains(basePosition)) {
 
                 buf.append("<hr>");
@@ -733,7 +734,7 @@ public abstract class SAMAlignment implements Alignment {
 
     @Override
     public AlignmentBlock getInsertionAt(int position) {
-        for (AlignmentBlock block : insertions) {
+        for (AlignmentBlock block : getInsertions()) {
             if (block.getStart() == position) return block;
             if (block.getStart() > position) return null;  // Blocks increase lineraly
         }
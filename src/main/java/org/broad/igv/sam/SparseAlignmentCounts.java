@@ -26,14 +26,14 @@
 package org.broad.igv.sam;
 
 import org.apache.log4j.Logger;
-import org.broad.igv.util.collections.IntArrayList;
+import org.broad.igv.util.collections.IntIntHashMap;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * Alignment counts for large, sparsely covered regions.  Counts are stored compactly for covered positions only,
+ * indexed by the order in which positions are first seen.
+ *
  * @author Jim Robinson
  * @date 11/22/11
  */
@@ -41,34 +41,38 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
 
     private static Logger log = Logger.getLogger(SparseAlignmentCounts.class);
     private int maxCount = 0;
-    List<Integer> indices;
 
+    /**
+     * Sorted genomic positions, available after {@link #finish()}
+     */
+    int[] indices;
 
     /**
      * Map of genomic position -> index of count arrays
      */
-    HashMap<Integer, Integer> indexMap;
-
-    IntArrayList posA;
-    IntArrayList posT;
-    IntArrayList posC;
-    IntArrayList posG;
-    IntArrayList posN;
-    IntArrayList negA;
-    IntArrayList negT;
-    IntArrayList negC;
-    IntArrayList negG;
-    IntArrayList negN;
-    IntArrayList qA;
-    IntArrayList qT;
-    IntArrayList qC;
-    IntArrayList qG;
-    IntArrayList qN;
-    IntArrayList posTotal;
-    IntArrayList negTotal;
-    IntArrayList del;
-    IntArrayList ins;
-    private IntArrayList totalQ;
+    IntIntHashMap indexMap;
+    private int nPoints = 0;
+
+    int[] posA;
+    int[] posT;
+    int[] posC;
+    int[] posG;
+    int[] posN;
+    int[] negA;
+    int[] negT;
+    int[] negC;
+    int[] negG;
+    int[] negN;
+    int[] qA;
+    int[] qT;
+    int[] qC;
+    int[] qG;
+    int[] qN;
+    int[] posTotal;
+    int[] negTotal;
+    int[] del;
+    int[] ins;
+    private int[] totalQ;
 
 
     public SparseAlignmentCounts(int start, int end, AlignmentTrack.BisulfiteContext bisulfiteContext) {
@@ -78,27 +82,27 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
     public SparseAlignmentCounts(int start, int end, AlignmentTrack.BisulfiteContext bisulfiteContext, int initSize) {
         super(start, end, bisulfiteContext);
 
-        indexMap = new HashMap<Integer, Integer>(initSize);
-        posA = new IntArrayList(initSize);
-        posT = new IntArrayList(initSize);
-        posC = new IntArrayList(initSize);
-        posG = new IntArrayList(initSize);
-        posN = new IntArrayList(initSize);
-        posTotal = new IntArrayList(initSize);
-        negA = new IntArrayList(initSize);
-        negT = new IntArrayList(initSize);
-        negC = new IntArrayList(initSize);
-        negG = new IntArrayList(initSize);
-        negN = new IntArrayList(initSize);
-        negTotal = new IntArrayList(initSize);
-        qA = new IntArrayList(initSize);
-        qT = new IntArrayList(initSize);
-        qC = new IntArrayList(initSize);
-        qG = new IntArrayList(initSize);
-        qN = new IntArrayList(initSize);
-        del = new IntArrayList(initSize);
-        ins = new IntArrayList(initSize);
-        totalQ = new IntArrayList(initSize);
+        indexMap = new IntIntHashMap(initSize);
+        posA = new int[initSize];
+        posT = new int[initSize];
+        posC = new int[initSize];
+        posG = new int[initSize];
+        posN = new int[initSize];
+        posTotal = new int[initSize];
+        negA = new int[initSize];
+        negT = new int[initSize];
+        negC = new int[initSize];
+        negG = new int[initSize];
+        negN = new int[initSize];
+        negTotal = new int[initSize];
+        qA = new int[initSize];
+        qT = new int[initSize];
+        qC = new int[initSize];
+        qG = new int[initSize];
+        qN = new int[initSize];
+        del = new int[initSize];
+        ins = new int[initSize];
+        totalQ = new int[initSize];
     }
 
     public int getStart() {
@@ -110,11 +114,11 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
     }
 
     public int getNumberOfPoints() {
-        return indices == null ? 0 : indices.size();
+        return indices == null ? 0 : indices.length;
     }
 
     public int getPosition(int idx) {
-        return indices.get(idx);
+        return indices[idx];
     }
 
     /**
@@ -131,203 +135,161 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
         return maxCount;
     }
 
-    public int getTotalCount(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(posTotal, idx) + getCountFromList(negTotal, idx);
-
+    /**
+     * @return the index of the counts for {@code pos}, or -1 if the position is not covered
+     */
+    private int lookupIndex(int pos) {
+        int idx = indexMap.get(pos, -1);
+        if (idx < 0 && log.isDebugEnabled()) {
+            log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
         }
+        return idx;
     }
 
+    public int getTotalCount(int pos) {
+        int idx = lookupIndex(pos);
+        return idx < 0 ? 0 : posTotal[idx] + negTotal[idx];
+    }
 
-    public int getTotalQuality(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(totalQ, idx);
 
-        }
+    public int getTotalQuality(int pos) {
+        int idx = lookupIndex(pos);
+        return idx < 0 ? 0 : totalQ[idx];
     }
 
     public int getCount(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(posA, idx) + getCountFromList(negA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(posT, idx) + getCountFromList(negT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(posC, idx) + getCountFromList(negC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(posG, idx) + getCountFromList(negG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(posN, idx) + getCountFromList(negN, idx);
-            }
-            log.debug("Unknown nucleotide: " + b);
+        int idx = lookupIndex(pos);
+        if (idx < 0) {
             return 0;
         }
-    }
-
-    private int getCountFromList(IntArrayList list, int idx) {
-        return idx < list.size() ? list.get(idx) : 0;
+        switch (b) {
+            case 'a':
+            case 'A':
+                return posA[idx] + negA[idx];
+            case 't':
+            case 'T':
+                return posT[idx] + negT[idx];
+            case 'c':
+            case 'C':
+                return posC[idx] + negC[idx];
+            case 'g':
+            case 'G':
+                return posG[idx] + negG[idx];
+            case 'n':
+            case 'N':
+                return posN[idx] + negN[idx];
+        }
+        log.debug("Unknown nucleotide: " + b);
+        return 0;
     }
 
     public int getNegCount(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(negA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(negT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(negC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(negG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(negN, idx);
-            }
-            log.error("Unknown nucleotide: " + b);
+        int idx = lookupIndex(pos);
+        if (idx < 0) {
             return 0;
         }
+        switch (b) {
+            case 'a':
+            case 'A':
+                return negA[idx];
+            case 't':
+            case 'T':
+                return negT[idx];
+            case 'c':
+            case 'C':
+                return negC[idx];
+            case 'g':
+            case 'G':
+                return negG[idx];
+            case 'n':
+            case 'N':
+                return negN[idx];
+        }
+        log.error("Unknown nucleotide: " + b);
+        return 0;
     }
 
     public int getPosCount(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(posA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(posT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(posC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(posG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(posN, idx);
-            }
-            log.error("Unknown nucleotide: " + b);
+        int idx = lookupIndex(pos);
+        if (idx < 0) {
             return 0;
         }
+        switch (b) {
+            case 'a':
+            case 'A':
+                return posA[idx];
+            case 't':
+            case 'T':
+                return posT[idx];
+            case 'c':
+            case 'C':
+                return posC[idx];
+            case 'g':
+            case 'G':
+                return posG[idx];
+            case 'n':
+            case 'N':
+                return posN[idx];
+        }
+        log.error("Unknown nucleotide: " + b);
+        return 0;
     }
 
     public int getDelCount(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(del, idx);
-        }
+        int idx = lookupIndex(pos);
+        return idx < 0 ? 0 : del[idx];
     }
 
 
     public int getInsCount(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(ins, idx);
-        }
+        int idx = lookupIndex(pos);
+        return idx < 0 ? 0 : ins[idx];
     }
 
     public int getQuality(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(qA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(qT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(qC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(qG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(qN, idx);
-            }
-            log.error("Unknown nucleotide: " + posN);
+        int idx = lookupIndex(pos);
+        if (idx < 0) {
             return 0;
         }
-
+        switch (b) {
+            case 'a':
+            case 'A':
+                return qA[idx];
+            case 't':
+            case 'T':
+                return qT[idx];
+            case 'c':
+            case 'C':
+                return qC[idx];
+            case 'g':
+            case 'G':
+                return qG[idx];
+            case 'n':
+            case 'N':
+                return qN[idx];
+        }
+        log.error("Unknown nucleotide: " + b);
+        return 0;
     }
 
     protected void incrementDeletion(int pos, boolean negativeStrand) {
         int idx = getIndex(pos);
-        increment(del, idx, 1);
+        del[idx]++;
         if (countDeletedBasesCovered) {
             if (negativeStrand) {
-                increment(negTotal, idx, 1);
+                negTotal[idx]++;
             } else {
-                increment(posTotal, idx, 1);
+                posTotal[idx]++;
             }
         }
     }
 
     protected void incrementInsertion(AlignmentBlock insBlock) {
         int pos = insBlock.getStart();
-        int idx1 = getIndex(pos);
         // Insertions are between bases.  increment count on either side
-        increment(ins, idx1, 1);
+        ins[getIndex(pos)]++;
         if (pos > 0) {
-            int idx2 = getIndex(pos - 1);
-            increment(ins, idx2, 1);
+            ins[getIndex(pos - 1)]++;
         }
     }
 
@@ -335,144 +297,123 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
         int start = block.getStart();
         byte[] bases = block.getBases();
         if (bases != null) {
+            // NOTE:  the direct access block.qualities is intentional,  profiling reveals this to be a critical bottleneck
+            byte[] qualities = ((AlignmentBlockImpl) block).qualities;
+            ensureCapacity(nPoints + bases.length);
             for (int i = 0; i < bases.length; i++) {
-                int pos = start + i;
-                // NOTE:  the direct access block.qualities is intentional,  profiling reveals this to be a critical bottleneck
-                byte q = ((AlignmentBlockImpl) block).qualities[i];
                 // TODO -- handle "=" in cigar string with no read bases
-                byte n = bases[i];
-                incPositionCount(pos, n, q, isNegativeStrand);
+                incIndexCount(getIndex(start + i), bases[i], qualities[i], isNegativeStrand);
             }
         }
     }
 
 
     protected void incPositionCount(int pos, byte b, byte q, boolean isNegativeStrand) {
+        incIndexCount(getIndex(pos), b, q, isNegativeStrand);
+    }
+
+    private void incIndexCount(int idx, byte b, byte q, boolean isNegativeStrand) {
 
-        int idx = getIndex(pos);
         switch (b) {
             case 'a':
             case 'A':
                 if (isNegativeStrand) {
-                    increment(negA, idx, 1);
+                    negA[idx]++;
                 } else {
-                    increment(posA, idx, 1);
+                    posA[idx]++;
                 }
-                increment(qA, idx, q);
+                qA[idx] += q;
                 break;
             case 't':
             case 'T':
                 if (isNegativeStrand) {
-                    increment(negT, idx, 1);
+                    negT[idx]++;
                 } else {
-                    increment(posT, idx, 1);
+                    posT[idx]++;
                 }
-                increment(qT, idx, q);
+                qT[idx] += q;
                 break;
             case 'c':
             case 'C':
                 if (isNegativeStrand) {
-                    increment(negC, idx, 1);
+                    negC[idx]++;
                 } else {
-                    increment(posC, idx, 1);
+                    posC[idx]++;
                 }
-                increment(qC, idx, q);
+                qC[idx] += q;
                 break;
             case 'g':
             case 'G':
                 if (isNegativeStrand) {
-                    increment(negG, idx, 1);
+                    negG[idx]++;
                 } else {
-                    increment(posG, idx, 1);
+                    posG[idx]++;
                 }
-                increment(qG, idx, q);
+                qG[idx] += q;
                 break;
             // Everything else is counted as "N".  This might be an actual "N",  or an ambiguity code
             default:
                 if (isNegativeStrand) {
-                    increment(negN, idx, 1);
+                    negN[idx]++;
                 } else {
-                    increment(posN, idx, 1);
+                    posN[idx]++;
                 }
-                increment(qN, idx, q);
+                qN[idx] += q;
 
         }
 
         if (isNegativeStrand) {
-            increment(negTotal, idx, 1);
+            negTotal[idx]++;
         } else {
-            increment(posTotal, idx, 1);
+            posTotal[idx]++;
         }
-        increment(totalQ, idx, q);
+        totalQ[idx] += q;
 
-        int pt = idx < posTotal.size() ? posTotal.get(idx) : 0;
-        int nt = idx < negTotal.size() ? negTotal.get(idx) : 0;
-        maxCount = Math.max(pt + nt, maxCount);
+        maxCount = Math.max(posTotal[idx] + negTotal[idx], maxCount);
 
     }
 
+    /**
+     * Return the index of the counts for {@code pos}, allocating a new index if the position has not been seen.
+     */
     private int getIndex(int pos) {
-        Integer index = indexMap.get(pos);
-        if (index == null) {
-            index = new Integer(indexMap.size());
-            indexMap.put(pos, index);
+        int idx = indexMap.putIfAbsent(pos, nPoints);
+        if (idx == nPoints) {
+            nPoints++;
+            ensureCapacity(nPoints);
         }
-        return index.intValue();
+        return idx;
     }
 
-
-    private void increment(IntArrayList list, int idx, int delta) {
-        if (idx < list.size()) {
-            list.set(idx, list.get(idx) + delta);
-        } else {
-            list.set(idx, delta);
+    private void ensureCapacity(int capacity) {
+        if (capacity > posTotal.length) {
+            int newCapacity = Math.max(capacity, 2 * posTotal.length);
+            posA = Arrays.copyOf(posA, newCapacity);
+            posT = Arrays.copyOf(posT, newCapacity);
+            posC = Arrays.copyOf(posC, newCapacity);
+            posG = Arrays.copyOf(posG, newCapacity);
+            posN = Arrays.copyOf(posN, newCapacity);
+            posTotal = Arrays.copyOf(posTotal, newCapacity);
+            negA = Arrays.copyOf(negA, newCapacity);
+            negT = Arrays.copyOf(negT, newCapacity);
+            negC = Arrays.copyOf(negC, newCapacity);
+            negG = Arrays.copyOf(negG, newCapacity);
+            negN = Arrays.copyOf(negN, newCapacity);
+            negTotal = Arrays.copyOf(negTotal, newCapacity);
+            qA = Arrays.copyOf(qA, newCapacity);
+            qT = Arrays.copyOf(qT, newCapacity);
+            qC = Arrays.copyOf(qC, newCapacity);
+            qG = Arrays.copyOf(qG, newCapacity);
+            qN = Arrays.copyOf(qN, newCapacity);
+            del = Arrays.copyOf(del, newCapacity);
+            ins = Arrays.copyOf(ins, newCapacity);
+            totalQ = Arrays.copyOf(totalQ, newCapacity);
         }
     }
 
     public void finish() {
-        indices = new ArrayList<Integer>(indexMap.keySet());
-        Collections.sort(indices);
-    }
-
-    /**
-     * Take raw data from input and place it into result. Indexing is
-     * consistent within {@code result}, which may not be the same as input.
-     * Previous data is not overwritten
-     *
-     * @param result
-     * @param input
-     */
-    private static void addRawCounts(SparseAlignmentCounts result, SparseAlignmentCounts input) {
-
-        IntArrayList[] inputArrs = getCountArrs(input);
-        IntArrayList[] destArrs = getCountArrs(result);
-        IntArrayList destArr;
-
-        for (int arrayPos = 0; arrayPos < input.getNumberOfPoints(); arrayPos++) {
-            int genomePos = input.indices.get(arrayPos);
-            if (!result.indexMap.containsKey(genomePos)) {
-                for (int arnum = 0; arnum < destArrs.length; arnum++) {
-                    destArr = destArrs[arnum];
-                    destArr.add(inputArrs[arnum].get(arrayPos));
-                }
-                result.getIndex(genomePos);
-            }
-        }
-    }
-
-    /**
-     * Create an array of the arrays we use to keep track of data
-     *
-     * @param counts
-     * @return
-     */
-    private static IntArrayList[] getCountArrs(SparseAlignmentCounts counts) {
-
-        IntArrayList[] result = {counts.posA, counts.posT, counts.posC, counts.posG, counts.posN,
-                counts.negA, counts.negT, counts.negC, counts.negG, counts.negN,
-                counts.qA, counts.qT, counts.qC, counts.qG, counts.qN, counts.posTotal, counts.negTotal,
-                counts.del, counts.ins, counts.totalQ};
-        return result;
+        indices = indexMap.keys();
+        Arrays.sort(indices);
     }
 
 }
@@ -55,13 +55,27 @@ public class IGVReferenceSource implements CRAMReferenceSource {
 
     private static Logger log = Logger.getLogger(IGVReferenceSource.class);
 
-    static ObjectCache<String, byte[]> cachedSequences = new ObjectCache<String, byte[]>(2);
+    /**
+     * Only the most recent chromosome is held unpacked.  Sequence is loaded through the genome's sequence cache,
+     * which holds it packed and is shared with sequence tracks, so switching between chromosomes does not reload it.
+     */
+    static ObjectCache<String, byte[]> cachedSequences = new ObjectCache<String, byte[]>(1);
 
     static GenomeChangeListener genomeChangeListener;
 
+    /**
+     * Synchronized on the class, rather than the instance, as the sequence cache is shared by all readers.
+     * Sharded alignment loads open several readers on the same file and would otherwise load the
+     * same chromosome concurrently.
+     */
     @Override
+    public byte[] getReferenceBases(SAMSequenceRecord record, boolean tryNameVariants) {
+        synchronized (IGVReferenceSource.class) {
+            return getReferenceBasesInternal(record);
+        }
+    }
 
-    public synchronized byte[] getReferenceBases(SAMSequenceRecord record, boolean tryNameVariants) {
+    private byte[] getReferenceBasesInternal(SAMSequenceRecord record) {
 
 
         final String name = record.getSequenceName();
@@ -95,7 +109,7 @@ public class IGVReferenceSource implements CRAMReferenceSource {
                     if (IGV.hasInstance()) IGV.getInstance().setStatusBarMessage("Loading sequence");
 
 
-                    bases = currentGenome.getSequence(chrName, 0, chromosome.getLength(), false);
+                    bases = currentGenome.getSequence(chrName, 0, chromosome.getLength(), true);
 
                     // CRAM spec requires upper case
                     for (int i = 0; i < bases.length; i++) {
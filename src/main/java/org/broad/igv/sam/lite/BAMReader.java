@@ -133,7 +133,12 @@ public class BAMReader implements AlignmentReader<Alignment> {
 
     @Override
     public CloseableIterator<Alignment> query(String chr, int start, int end, boolean contained) throws IOException {
-        return new CIterator(chr, start, end);
+        return new CIterator(chr, start, end, null);
+    }
+
+    @Override
+    public CloseableIterator<Alignment> query(String chr, int start, int end, boolean contained, AlignmentFilter prefilter) throws IOException {
+        return new CIterator(chr, start, end, prefilter);
     }
 
 
@@ -146,11 +151,13 @@ public class BAMReader implements AlignmentReader<Alignment> {
         Iterator<BAMIndex.Chunk> chunks;
         Iterator<Alignment> currentChunkAlignments;
         Alignment nextAlignment;
+        AlignmentFilter prefilter;
 
-        public CIterator(String chr, int start, int end) {
+        public CIterator(String chr, int start, int end, AlignmentFilter prefilter) {
             this.chr = chr;
             this.start = start;
             this.end = end;
+            this.prefilter = prefilter;
             init();
         }
 
@@ -196,7 +203,7 @@ public class BAMReader implements AlignmentReader<Alignment> {
                     } else {
                         if (chunks.hasNext()) {
                             BAMIndex.Chunk c = chunks.next();
-                            currentChunkAlignments = readAlignments(c, chrId, start, end).iterator();
+                            currentChunkAlignments = readAlignments(c, chrId, start, end, prefilter).iterator();
                         }
                         else {
                             break;
@@ -211,6 +218,10 @@ public class BAMReader implements AlignmentReader<Alignment> {
     }
 
     public List<Alignment> readAlignments(BAMIndex.Chunk c, int chrId, int start, int end) throws IOException {
+        return readAlignments(c, chrId, start, end, null);
+    }
+
+    List<Alignment> readAlignments(BAMIndex.Chunk c, int chrId, int start, int end, AlignmentFilter prefilter) throws IOException {
 
         List<Alignment> alignmentContainer = new ArrayList<>(10000);
 
@@ -231,7 +242,7 @@ public class BAMReader implements AlignmentReader<Alignment> {
 
         byte[] unc = BGUnzip.blockUnzip(buffer);
 
-        decodeBamRecords(unc, c.start.offset, alignmentContainer, start, end, chrId); //, self.filter);
+        decodeBamRecords(unc, c.start.offset, alignmentContainer, start, end, chrId, prefilter);
 
 
         return alignmentContainer;
@@ -279,7 +290,7 @@ public class BAMReader implements AlignmentReader<Alignment> {
 
                 byte[] unc = BGUnzip.blockUnzip(buffer);
 
-                decodeBamRecords(unc, c.start.offset, alignmentContainer, bpStart, bpEnd, chrId); //, self.filter);
+                decodeBamRecords(unc, c.start.offset, alignmentContainer, bpStart, bpEnd, chrId, null);
 
 
             }
@@ -287,7 +298,12 @@ public class BAMReader implements AlignmentReader<Alignment> {
         }
     }
 
-    void decodeBamRecords(byte[] ba, int offset, List<Alignment> alignmentContainer, int min, int max, int chrId) {  //, filter){
+    /**
+     * @param prefilter if non-null, records rejected by {@link AlignmentFilter#filterRecord(int, int)} are skipped
+     *                  before their name, cigar, bases, and qualities are decoded
+     */
+    void decodeBamRecords(byte[] ba, int offset, List<Alignment> alignmentContainer, int min, int max, int chrId,
+                          AlignmentFilter prefilter) {
 
 
         while (true) {
@@ -323,6 +339,10 @@ public class BAMReader implements AlignmentReader<Alignment> {
             int flag = (flag_nc & 0xffff0000) >> 16;
             int nc = flag_nc & 0xffff;
 
+            if (prefilter != null && prefilter.filterRecord(flag, mq)) {
+                offset = blockEnd;
+                continue;
+            }
 
             int lseq = readInt(ba, offset + 20);
 
@@ -390,7 +410,7 @@ public class BAMReader implements AlignmentReader<Alignment> {
             byte[] tagBytes = Arrays.copyOfRange(ba, p, blockEnd);
 
 
-            if (pos + lengthOnRef >= min && pos <= max) {   // && pass filter
+            if (pos + lengthOnRef >= min && pos <= max) {
 
                 BAMAlignment alignment = new BAMAlignment();
                 alignment.start = pos;
@@ -33,6 +33,7 @@ package org.broad.igv.sam.reader;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.util.CloseableIterator;
 import org.broad.igv.sam.Alignment;
+import org.broad.igv.sam.AlignmentFilter;
 
 import java.io.IOException;
 import java.util.List;
@@ -84,6 +85,18 @@ public interface AlignmentReader<T extends Alignment> {
      */
     CloseableIterator<T> query(final String sequence, final int start, final int end, final boolean contained) throws IOException;
 
+    /**
+     * Query alignments over a given range, optionally skipping records rejected by
+     * {@link AlignmentFilter#filterRecord(int, int)} before they are fully decoded.  Prefiltering is an
+     * optimization only, callers must still filter the alignments returned.  The default does not prefilter.
+     *
+     * @param prefilter may be null
+     */
+    default CloseableIterator<T> query(final String sequence, final int start, final int end, final boolean contained,
+                                       final AlignmentFilter prefilter) throws IOException {
+        return query(sequence, start, end, contained);
+    }
+
     default void cancelQuery() {};
 
     boolean hasIndex();
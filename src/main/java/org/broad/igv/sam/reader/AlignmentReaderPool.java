@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam.reader;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.util.ResourceLocator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of independent readers for a single indexed alignment file.  htsjdk readers are not thread safe, so
+ * concurrent queries against one file each need their own reader.  Readers are retained between queries
+ * so the index is only loaded once per reader.
+ */
+public class AlignmentReaderPool {
+
+    private static Logger log = Logger.getLogger(AlignmentReaderPool.class);
+
+    private final ResourceLocator locator;
+    private final Deque<AlignmentReader> idle = new ArrayDeque<>();
+    private boolean closed = false;
+
+    public AlignmentReaderPool(ResourceLocator locator) {
+        this.locator = locator;
+    }
+
+    /**
+     * Return true if queries against the file can be split across multiple readers.  This requires an indexed
+     * BAM or CRAM file.
+     */
+    public static boolean supportsSharding(ResourceLocator locator, AlignmentReader reader) {
+        if (locator == null || reader == null || !reader.hasIndex()) {
+            return false;
+        }
+        String typeString = locator.getTypeString();
+        return typeString.endsWith(".bam") || typeString.endsWith(".cram");
+    }
+
+    public AlignmentReader acquire() throws IOException {
+        synchronized (idle) {
+            if (closed) {
+                throw new IOException("Reader pool is closed: " + locator.getPath());
+            }
+            AlignmentReader reader = idle.poll();
+            if (reader != null) {
+                return reader;
+            }
+        }
+        return AlignmentReaderFactory.getReader(locator);
+    }
+
+    public void release(AlignmentReader reader) {
+        synchronized (idle) {
+            if (!closed) {
+                idle.push(reader);
+                return;
+            }
+        }
+        closeQuietly(reader);
+    }
+
+    public void close() {
+        synchronized (idle) {
+            closed = true;
+            for (AlignmentReader reader : idle) {
+                closeQuietly(reader);
+            }
+            idle.clear();
+        }
+    }
+
+    private static void closeQuietly(AlignmentReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            log.error("Error closing alignment reader", e);
+        }
+    }
+}
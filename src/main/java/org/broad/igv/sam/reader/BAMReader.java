@@ -32,6 +32,7 @@ import org.apache.log4j.Logger;
 import org.broad.igv.exceptions.DataLoadException;
 import org.broad.igv.ga4gh.GoogleUtils;
 import org.broad.igv.sam.EmptyAlignmentIterator;
+import org.broad.igv.sam.AlignmentFilter;
 import org.broad.igv.sam.PicardAlignment;
 import org.broad.igv.sam.cram.IGVReferenceSource;
 import org.broad.igv.ui.util.MessageUtils;
@@ -181,6 +182,16 @@ public class BAMReader implements AlignmentReader<PicardAlignment> {
     }
 
     public CloseableIterator<PicardAlignment> query(String sequence, int start, int end, boolean contained) {
+        return query(sequence, start, end, contained, null);
+    }
+
+    /**
+     * The flags and mapping quality of a BAM record are decoded with the record, its name, cigar, bases, and
+     * tags only when first accessed.  Prefiltered records are skipped without decoding these.
+     */
+    @Override
+    public CloseableIterator<PicardAlignment> query(String sequence, int start, int end, boolean contained,
+                                                    AlignmentFilter prefilter) {
         CloseableIterator<SAMRecord> iter = null;
         try {
             synchronized (reader) {
@@ -190,7 +201,7 @@ public class BAMReader implements AlignmentReader<PicardAlignment> {
             log.error("Error querying for sequence: " + sequence, e);
             return new EmptyAlignmentIterator();
         }
-        return new WrappedIterator(iter);
+        return new WrappedIterator(iter, prefilter == null || !prefilter.hasRecordFilter() ? null : prefilter);
     }
 
 
@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.sam.Alignment;
+import org.broad.igv.sam.AlignmentFilter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An alignment query split into sub-ranges ("shards") that are fetched and decoded concurrently.  Each shard
+ * owns the alignments whose start falls within its range, so the concatenation of the shards in order is
+ * identical, record for record, to the result of a single query over the whole range.  Consumers therefore
+ * see exactly what the serial iterator would return, but the BGZF inflate and record decoding for later
+ * shards overlaps with consumption of earlier ones.
+ * <p>
+ * Shard boundaries are aligned to BAI / CSI linear index windows so that each shard seeks to its own chunks.
+ * At most {@code maxInFlight} shards are loading or loaded but not yet consumed at any time, so memory is bounded
+ * by the size of the shards rather than of the whole range.  Each shard is handed to the consumer as soon as it,
+ * and the shards before it, are complete.
+ */
+public class ShardedQueryIterator implements CloseableIterator<Alignment> {
+
+    /**
+     * Size of a BAI linear index window (and the default CSI min_shift of 14)
+     */
+    public static final int INDEX_WINDOW = 1 << 14;
+
+    private final AlignmentReaderPool pool;
+    private final ExecutorService executor;
+    private final String chr;
+    private final AlignmentFilter prefilter;
+    private final int[] bounds;
+    private final int maxInFlight;
+
+    // Shards submitted but not yet consumed, in order
+    private final Deque<Future<List<Alignment>>> pending = new ArrayDeque<>();
+    private int nextShard = 0;
+    private volatile boolean canceled = false;
+    private Iterator<Alignment> current = Collections.emptyIterator();
+
+    public ShardedQueryIterator(AlignmentReaderPool pool,
+                                ExecutorService executor,
+                                String chr,
+                                int start,
+                                int end,
+                                int nShards,
+                                int maxInFlight) {
+        this(pool, executor, chr, start, end, nShards, maxInFlight, null);
+    }
+
+    /**
+     * @param maxInFlight maximum number of shards loading, or loaded and waiting to be consumed
+     * @param prefilter   passed to each shard query, see {@link AlignmentReader#query(String, int, int, boolean, AlignmentFilter)}
+     */
+    public ShardedQueryIterator(AlignmentReaderPool pool,
+                                ExecutorService executor,
+                                String chr,
+                                int start,
+                                int end,
+                                int nShards,
+                                int maxInFlight,
+                                AlignmentFilter prefilter) {
+
+        this.pool = pool;
+        this.executor = executor;
+        this.chr = chr;
+        this.prefilter = prefilter;
+        this.bounds = computeBoundaries(start, end, nShards);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        submitShards();
+    }
+
+    /**
+     * Submit shards, in order, until {@code maxInFlight} are pending
+     */
+    private void submitShards() {
+        int last = bounds.length - 2;
+        while (!canceled && pending.size() < maxInFlight && nextShard <= last) {
+            final int i = nextShard++;
+            final int queryStart = bounds[i];
+            final int queryEnd = bounds[i + 1];
+            // The first shard also owns alignments that start upstream of the range but overlap it.
+            final int ownedStart = i == 0 ? Integer.MIN_VALUE : queryStart;
+            final int ownedEnd = i == last ? Integer.MAX_VALUE : queryEnd;
+            pending.add(executor.submit(() -> loadShard(pool, chr, queryStart, queryEnd, ownedStart, ownedEnd, prefilter)));
+        }
+    }
+
+    /**
+     * Split [start, end) into at most {@code nShards} contiguous ranges whose interior boundaries fall on
+     * {@link #INDEX_WINDOW} multiples.
+     *
+     * @return shard boundaries, the first element is {@code start} and the last {@code end}
+     */
+    static int[] computeBoundaries(int start, int end, int nShards) {
+
+        if (end <= start) {
+            return new int[]{start, end};
+        }
+
+        int firstWindow = start / INDEX_WINDOW;
+        int lastWindow = (end - 1) / INDEX_WINDOW;
+        int nWindows = lastWindow - firstWindow + 1;
+        int n = Math.max(1, Math.min(nShards, nWindows));
+
+        int[] bounds = new int[n + 1];
+        bounds[0] = start;
+        for (int i = 1; i < n; i++) {
+            bounds[i] = (int) ((firstWindow + ((long) i * nWindows) / n) * INDEX_WINDOW);
+        }
+        bounds[n] = end;
+        return bounds;
+    }
+
+    private List<Alignment> loadShard(AlignmentReaderPool pool,
+                                      String chr,
+                                      int queryStart,
+                                      int queryEnd,
+                                      int ownedStart,
+                                      int ownedEnd,
+                                      AlignmentFilter prefilter) throws IOException {
+
+        List<Alignment> records = new ArrayList<>();
+        if (canceled) {
+            return records;
+        }
+
+        AlignmentReader reader = pool.acquire();
+        CloseableIterator<Alignment> iter = null;
+        try {
+            iter = reader.query(chr, queryStart, queryEnd, false, prefilter);
+            while (!canceled && iter.hasNext()) {
+                Alignment alignment = iter.next();
+                int alignmentStart = alignment.getAlignmentStart();
+                if (alignmentStart >= ownedStart && alignmentStart < ownedEnd) {
+                    records.add(alignment);
+                }
+            }
+        } finally {
+            if (iter != null) {
+                iter.close();
+            }
+            pool.release(reader);
+        }
+        return records;
+    }
+
+    public boolean hasNext() {
+        while (!current.hasNext() && !pending.isEmpty() && !canceled) {
+            Future<List<Alignment>> future = pending.poll();
+            // Start the next shard before waiting on this one
+            submitShards();
+            current = getShard(future).iterator();
+        }
+        return !canceled && current.hasNext();
+    }
+
+    public Alignment next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Remove is not supported");
+    }
+
+    /**
+     * Cancel any outstanding shards.  Running shards are not interrupted, as interrupting NIO channel reads
+     * would close the underlying (pooled) reader; they stop at the next record instead.
+     */
+    public void close() {
+        canceled = true;
+        for (Future<List<Alignment>> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        current = Collections.emptyIterator();
+    }
+
+    private static List<Alignment> getShard(Future<List<Alignment>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -27,8 +27,11 @@ package org.broad.igv.sam.reader;
 
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.sam.AlignmentFilter;
 import org.broad.igv.sam.PicardAlignment;
 
+import java.util.NoSuchElementException;
+
 /**
  * @author jrobinso
  * @since Sep 22, 2009
@@ -36,9 +39,19 @@ import org.broad.igv.sam.PicardAlignment;
 public class WrappedIterator implements CloseableIterator<PicardAlignment> {
 
     CloseableIterator<SAMRecord> iter;
+    AlignmentFilter prefilter;
+    SAMRecord nextRecord;
 
     public WrappedIterator(CloseableIterator<SAMRecord> iter) {
+        this(iter, null);
+    }
+
+    /**
+     * @param prefilter if non-null, records rejected by {@link AlignmentFilter#filterRecord(int, int)} are skipped
+     */
+    public WrappedIterator(CloseableIterator<SAMRecord> iter, AlignmentFilter prefilter) {
         this.iter = iter;
+        this.prefilter = prefilter;
     }
 
     public void close() {
@@ -46,11 +59,28 @@ public class WrappedIterator implements CloseableIterator<PicardAlignment> {
     }
 
     public boolean hasNext() {
-        return iter.hasNext();
+        if (prefilter == null) {
+            return iter.hasNext();
+        }
+        while (nextRecord == null && iter.hasNext()) {
+            SAMRecord record = iter.next();
+            if (!prefilter.filterRecord(record.getFlags(), record.getMappingQuality())) {
+                nextRecord = record;
+            }
+        }
+        return nextRecord != null;
     }
 
     public PicardAlignment next() {
-        return new PicardAlignment(iter.next());
+        if (prefilter == null) {
+            return new PicardAlignment(iter.next());
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SAMRecord record = nextRecord;
+        nextRecord = null;
+        return new PicardAlignment(record);
     }
 
     public void remove() {
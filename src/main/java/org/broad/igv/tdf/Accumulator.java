@@ -29,10 +29,9 @@
  */
 package org.broad.igv.tdf;
 
-import org.apache.commons.math.stat.StatUtils;
 import org.apache.log4j.Logger;
 import org.broad.igv.track.WindowFunction;
-import org.broad.igv.util.collections.DownsampledDoubleArrayList;
+import org.broad.igv.util.stats.QuantileSketch;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -40,7 +39,7 @@ import java.util.Set;
 /**
  * Accumulator for a single window function.
  * <p/>
- * Estimating percentiles -- weighted average of multiple estimates
+ * Percentiles are estimated from a {@link QuantileSketch} of the values, in bounded memory
  *
  * @author jrobinso
  */
@@ -48,8 +47,6 @@ public class Accumulator {
 
     private static Logger log = Logger.getLogger(Accumulator.class);
 
-    private static int MAX_VALUE_COUNT = 100000;
-
     boolean isFinished = false;
     WindowFunction windowFunction;
     float sum = 0.0f;
@@ -57,7 +54,7 @@ public class Accumulator {
     int nPts = 0;
     float value = Float.NaN;
 
-    DownsampledDoubleArrayList valueList;  // List used to accumulate values for percentile calculations
+    QuantileSketch sketch;  // Sketch of values for percentile calculations
 
 
     // Optional -- keep some representative data and probe names for popup text
@@ -78,7 +75,7 @@ public class Accumulator {
     public Accumulator(WindowFunction windowFunction) {
         this.windowFunction = windowFunction;
         if (PERCENTILE_WINDOW_FUNCTIONS.contains(windowFunction)) {
-            valueList = new DownsampledDoubleArrayList(100, MAX_VALUE_COUNT);
+            sketch = new QuantileSketch();
         }
     }
 
@@ -113,8 +110,8 @@ public class Accumulator {
                     sum += nBases * v;
                     break;
                 default:
-                    if (valueList != null) {
-                        valueList.add(v);
+                    if (sketch != null) {
+                        sketch.add(v);
                     }
             }
             nPts++;
@@ -131,24 +128,12 @@ public class Accumulator {
 
         if (windowFunction == WindowFunction.mean) {
             value = Float.isNaN(sum) ? Float.NaN : sum / basesCovered;
-        } else if (valueList != null) {
-            if (valueList.size() == 0) {
-                value = Float.NaN;
-            } else if (valueList.size() == 1) {
-                value = (float) valueList.get(0);
-            } else {
-                double[] valueArray = valueList.toArray();
-                double p = this.getPercentile(windowFunction);
-                if (p > 0) {
-                    value = (float) StatUtils.percentile(valueArray, p);
-                } else {
-                    value = Float.NaN;
-                }
-            }
-
+        } else if (sketch != null) {
+            double p = this.getPercentile(windowFunction);
+            value = p > 0 ? (float) sketch.getPercentile(p) : Float.NaN;
         }
 
-        valueList = null;
+        sketch = null;
         isFinished = true;
 
     }
@@ -190,16 +175,6 @@ public class Accumulator {
     }
 
 
-    class PercentileValue {
-        int nPoints;
-        double value;
-
-        PercentileValue(int nPoints, double value) {
-            this.nPoints = nPoints;
-            this.value = value;
-        }
-    }
-
     static Set<WindowFunction> PERCENTILE_WINDOW_FUNCTIONS = new HashSet();
 
     static {
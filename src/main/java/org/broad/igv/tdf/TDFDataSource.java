@@ -31,10 +31,11 @@ package org.broad.igv.tdf;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
-import org.broad.igv.data.BasicScore;
 import org.broad.igv.data.CompositeScore;
 import org.broad.igv.data.CoverageDataSource;
+import org.broad.igv.data.DecodedTileCache;
 import org.broad.igv.data.NamedScore;
+import org.broad.igv.data.ScoreBlock;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
@@ -44,6 +45,7 @@ import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author jrobinso
@@ -52,11 +54,14 @@ public class TDFDataSource implements CoverageDataSource {
 
     private static Logger log = Logger.getLogger(TDFDataSource.class);
 
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+
     TDFReader reader;
     int maxPrecomputedZoom = 6;
     private int trackNumber = 0;
     String trackName;
-    Map<String, List<LocusScore>> summaryScoreCache = Collections.synchronizedMap(new HashMap<>());
+    // Summary scores are cached in the shared tile cache, under a key unique to this source
+    private final String summaryScoreKey;
     Genome genome;
     WindowFunction windowFunction = WindowFunction.mean;
     List<WindowFunction> availableFunctions;
@@ -73,6 +78,7 @@ public class TDFDataSource implements CoverageDataSource {
         this.trackNumber = trackNumber;
         this.trackName = trackName;
         this.reader = reader;
+        this.summaryScoreKey = reader.getPath() + "#scores" + instanceCount.incrementAndGet();
         init();
 
 
@@ -163,19 +169,23 @@ public class TDFDataSource implements CoverageDataSource {
         return reader.getLowerLimit() * normalizationFactor;
     }
 
-    private List<LocusScore> getCachedSummaryScores(String querySeq, int zoom, int tileNumber, double tileWidth) {
+    private ScoreBlock getCachedSummaryScores(String querySeq, int zoom, int tileNumber, double tileWidth) {
 
-        String key = querySeq + "_" + zoom + "_" + tileNumber + "_" + windowFunction;
+        DecodedTileCache cache = DecodedTileCache.getInstance();
+        String key = DecodedTileCache.key(summaryScoreKey, querySeq + "_" + zoom + "_" + windowFunction, tileNumber);
 
-        List<LocusScore> scores = summaryScoreCache.get(key);
+        ScoreBlock scores = cache.get(key);
         if (scores == null) {
 
             int startLocation = (int) (tileNumber * tileWidth);
             int endLocation = (int) ((tileNumber + 1) * tileWidth);
 
-            scores = getSummaryScores(querySeq, startLocation, endLocation, zoom);
+            List<LocusScore> tileScores = getSummaryScores(querySeq, startLocation, endLocation, zoom);
 
-            summaryScoreCache.put(key, scores);
+            if (tileScores != null) {
+                scores = ScoreBlock.of(tileScores);
+                scores = cache.put(key, scores, scores.getMemoryEstimate());
+            }
         }
 
         return scores;
@@ -205,7 +215,7 @@ public class TDFDataSource implements CoverageDataSource {
                 }
             }
 
-            scores = new ArrayList(1000);
+            ScoreBlock block = new ScoreBlock(1000);
             if (tiles != null && tiles.size() > 0) {
                 for (TDFTile tile : tiles) {
 
@@ -214,12 +224,13 @@ public class TDFDataSource implements CoverageDataSource {
                             float v = tile.getValue(trackNumber, i);
                             if (!Float.isNaN(v)) {
                                 v *= normalizationFactor;
-                                scores.add(new BasicScore(tile.getStartPosition(i), tile.getEndPosition(i), v));
+                                block.add(tile.getStartPosition(i), tile.getEndPosition(i), v);
                             }
                         }
                     }
                 }
             }
+            scores = block;
 
         } else {
 
@@ -262,7 +273,7 @@ public class TDFDataSource implements CoverageDataSource {
 
     private List<LocusScore> getWGRawScores() {
 
-        List<LocusScore> scores = new ArrayList(10000);
+        ScoreBlock scores = new ScoreBlock(10000);
 
         for (String chr : genome.getAllChromosomeNames()) {
             Chromosome c = genome.getChromosome(chr);
@@ -283,7 +294,7 @@ public class TDFDataSource implements CoverageDataSource {
                                 if (!Float.isNaN(v)) {
                                     v *= normalizationFactor;
                                 }
-                                scores.add(new BasicScore(s, e, v));
+                                scores.add(s, e, v);
                             }
                         }
                     }
@@ -296,7 +307,7 @@ public class TDFDataSource implements CoverageDataSource {
 
     private List<LocusScore> computeSummaryScores(String chr, int startLocation, int endLocation, double scale) {
 
-        List<LocusScore> scores = new ArrayList(1000);
+        ScoreBlock scores = new ScoreBlock(1000, windowFunction != WindowFunction.none);
 
         String dsName = "/" + chr + "/raw";
 
@@ -323,7 +334,7 @@ public class TDFDataSource implements CoverageDataSource {
                                 if (!Float.isNaN(v)) {
                                     v *= normalizationFactor;
                                 }
-                                scores.add(new BasicScore(s, e, v));
+                                scores.add(s, e, v);
                             }
                         }
                     }
@@ -371,13 +382,13 @@ public class TDFDataSource implements CoverageDataSource {
                                 // If this feature spans multiple bins, or extends beyond last end bin, record
                                 if (endBin > lastEndBin || endBin > startBin) {
                                     if (accumulator.hasData()) {
-                                        scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
+                                        addCompositeScore(scores, accumulator, accumulatedStart, accumulatedEnd);
                                         accumulator = new Accumulator(windowFunction, 5);
                                     }
                                 }
 
                                 if (endBin > startBin) {
-                                    scores.add(new NamedScore(s, e, v, probeName));
+                                    scores.add(s, e, v, probeName == null ? null : new NamedScore(s, e, v, probeName));
                                 } else {
                                     if (!accumulator.hasData()) {
                                         accumulatedStart = s;
@@ -392,7 +403,7 @@ public class TDFDataSource implements CoverageDataSource {
 
                             // End of loop cleanup
                             if (accumulator.hasData()) {
-                                scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
+                                addCompositeScore(scores, accumulator, accumulatedStart, accumulatedEnd);
                             }
                         }
                     }
@@ -403,17 +414,17 @@ public class TDFDataSource implements CoverageDataSource {
     }
 
 
-    private LocusScore getCompositeScore(Accumulator accumulator, int accumulatedStart, int accumulatedEnd) {
-        LocusScore ls;
+    private void addCompositeScore(ScoreBlock scores, Accumulator accumulator, int accumulatedStart, int accumulatedEnd) {
         if (accumulator.getNpts() == 1) {
-            ls = new NamedScore(accumulatedStart, accumulatedEnd, accumulator.getRepData()[0], accumulator.getRepProbes()[0]);
+            float value = accumulator.getRepData()[0];
+            String probeName = accumulator.getRepProbes()[0];
+            scores.add(accumulatedStart, accumulatedEnd, value,
+                    probeName == null ? null : new NamedScore(accumulatedStart, accumulatedEnd, value, probeName));
         } else {
             float value = accumulator.getValue();
-            ls = new CompositeScore(accumulatedStart, accumulatedEnd, value, accumulator.getRepData(),
-                    accumulator.getRepProbes(), windowFunction);
+            scores.add(accumulatedStart, accumulatedEnd, value, new CompositeScore(accumulatedStart, accumulatedEnd,
+                    value, accumulator.getRepData(), accumulator.getRepProbes(), windowFunction));
         }
-        return ls;
-
     }
 
 
@@ -428,7 +439,7 @@ public class TDFDataSource implements CoverageDataSource {
         String tmp = chrNameMap.get(chr);
         String querySeq = tmp == null ? chr : tmp;
 
-        ArrayList scores = new ArrayList();
+        ScoreBlock scores = null;
 
         // TODO -- this whole section could be computed once and stored,  it is only a function of the genome, chr, and zoom level.
         int tileWidth = 0;
@@ -447,19 +458,20 @@ public class TDFDataSource implements CoverageDataSource {
         int endTile = ((endLocation - 1) / tileWidth);
 
         for (int t = startTile; t <= endTile; t++) {
-            List<LocusScore> cachedScores = getCachedSummaryScores(querySeq, zoom, t, tileWidth);
+            ScoreBlock cachedScores = getCachedSummaryScores(querySeq, zoom, t, tileWidth);
             if (cachedScores != null) {
-                for (LocusScore s : cachedScores) {
-                    if (s.getEnd() >= startLocation) {
-                        scores.add(s);
-                    } else if (s.getStart() > endLocation) {
-                        break;
+                if (scores == null) {
+                    scores = new ScoreBlock(cachedScores.size() * (endTile - t + 1), cachedScores.isNamed());
+                }
+                for (int i = 0; i < cachedScores.size(); i++) {
+                    if (cachedScores.getEnd(i) >= startLocation) {
+                        scores.addAll(cachedScores, i, i + 1);
                     }
                 }
             }
         }
 
-        return scores;
+        return scores == null ? new ScoreBlock(0) : scores;
 
     }
 
@@ -490,7 +502,7 @@ public class TDFDataSource implements CoverageDataSource {
 
     @Override
     public void dispose() {
-
+        DecodedTileCache.getInstance().removeAll(DecodedTileCache.prefix(summaryScoreKey, null));
     }
 
     /**
@@ -29,8 +29,8 @@
  */
 package org.broad.igv.tdf;
 
+import org.broad.igv.data.DecodedTileCache;
 import org.broad.igv.util.StringUtils;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -55,7 +55,6 @@ public class TDFDataset extends TDFEntity {
     long[] tilePositions;  // File position in TDF file
     int[] tileSizes;       // Tile size in bytes
     int nTiles;
-    LRUCache<String, TDFTile> cache = new LRUCache(20);
     // TODO -- refactor this dependency out
     TDFReader reader;
 
@@ -147,21 +146,31 @@ public class TDFDataset extends TDFEntity {
     }
 
     // TDFTile computeTile(TDFDataset ds, int t, List<LocusScore> scores, String chr)
-    synchronized TDFTile getTile(int t) {
-        String key = getName() + "_" + t;
+    TDFTile getTile(int t) {
 
-        TDFTile tile = null;
-        if (!cache.containsKey(key)) {
+        DecodedTileCache cache = DecodedTileCache.getInstance();
+        String key = DecodedTileCache.key(reader.getPath(), getName(), t);
+        TDFTile tile = cache.get(key);
+        if (tile == null) {
+            // Empty tiles are null, and are not cached as no data is read for them
             tile = reader.readTile(this, t);
-            cache.put(key, tile);
-        } else {
-            tile = cache.get(key);
+            if (tile != null) {
+                tile = cache.put(key, tile, estimateBytes(tile, reader.getTrackNames().length));
+            }
         }
         return tile;
     }
 
+    /**
+     * @return the approximate heap size of a decoded tile:  start and end positions, a value per track, and names
+     */
+    static long estimateBytes(TDFTile tile, int nTracks) {
+        int size = tile.getSize();
+        return 64 + (long) size * (8 + 4 * nTracks) + (tile.getNames() == null ? 0 : 48L * size);
+    }
+
     public void clearCache() {
-        cache.clear();
+        DecodedTileCache.getInstance().removeAll(DecodedTileCache.prefix(reader.getPath(), getName()));
     }
 
 
@@ -169,6 +178,10 @@ public class TDFDataset extends TDFEntity {
         return dataType;
     }
 
+    public int getNTiles() {
+        return nTiles;
+    }
+
     public int getTileWidth() {
         return tileWidth;
     }
@@ -32,6 +32,7 @@ package org.broad.igv.tdf;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.data.DecodedTileCache;
 import org.broad.igv.exceptions.DataLoadException;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackType;
@@ -39,16 +40,24 @@ import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.StringUtils;
-import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.collections.ConcurrentLRUCache;
+import org.broad.igv.util.stream.IGVMappedFileStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * Reader for TDF files.  A reader is shared by all tracks loaded from a file, and may be used from several threads
+ * at once.  Reads are positional, from a memory mapping for local files or from a pool of streams otherwise, so
+ * tiles are read and decompressed in parallel rather than one at a time.  Uncompressed tiles and index entries are
+ * parsed directly from the mapping.
+ *
  * @author jrobinso
  */
 public class TDFReader {
@@ -56,7 +65,12 @@ public class TDFReader {
     static final Logger log = Logger.getLogger(TDFReader.class);
     public static final int GZIP_FLAG = 0x1;
 
-    private SeekableStream seekableStream = null;
+    // Tiles are loaded by the DataPanel thread pool, streams beyond its size are closed after use
+    private static final int MAX_POOLED_STREAMS = 5;
+
+    // Local files are read from a shared memory mapping, other files with a stream per concurrent read
+    private IGVMappedFileStream mappedStream;
+    private final Queue<SeekableStream> streamPool = new ConcurrentLinkedQueue<>();
     private int version;
     private Map<String, IndexEntry> datasetIndex;
     private Map<String, IndexEntry> groupIndex;
@@ -64,18 +78,20 @@ public class TDFReader {
     private String trackLine;
     private String[] trackNames;
     private String genomeId;
-    LRUCache<String, TDFGroup> groupCache = new LRUCache(20);
-    LRUCache<String, TDFDataset> datasetCache = new LRUCache(20);
-    TDFTile wgTile;
+    ConcurrentLRUCache<String, TDFGroup> groupCache = new ConcurrentLRUCache<>(20);
+    ConcurrentLRUCache<String, TDFDataset> datasetCache = new ConcurrentLRUCache<>(20);
+    volatile TDFTile wgTile;
 
-    Map<WindowFunction, Double> valueCache = new HashMap();
+    Map<WindowFunction, Double> valueCache = Collections.synchronizedMap(new HashMap<>());
     private List<WindowFunction> windowFunctions;
     ResourceLocator locator;
 
     boolean compressed = false;
 
     Set<String> chrNames;
-    private final CompressionUtils compressionUtils;
+
+    // CompressionUtils is synchronized, one per thread lets tiles be decompressed in parallel
+    private static final ThreadLocal<CompressionUtils> compressionUtils = ThreadLocal.withInitial(CompressionUtils::new);
 
     //private String path;
 
@@ -92,7 +108,15 @@ public class TDFReader {
         this.locator = locator;
         try {
             log.debug("Getting stream");
-            seekableStream = IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath());
+            String path = locator.getPath();
+            SeekableStream stream = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+            if (stream instanceof IGVMappedFileStream) {
+                mappedStream = (IGVMappedFileStream) stream;
+            } else {
+                streamPool.add(stream);
+            }
+            // Tiles cached from an earlier load of this file might be stale
+            DecodedTileCache.getInstance().removeAll(DecodedTileCache.prefix(path, null));
             log.debug("Reading header");
             readHeader();
             log.debug("Done reading header");
@@ -101,12 +125,17 @@ public class TDFReader {
             log.error("Error loading file: " + locator.getPath(), ex);
             throw new DataLoadException("Error loading file: " + ex.toString(), locator.getPath());
         }
-        compressionUtils = new CompressionUtils();
     }
 
     public void close() {
         try {
-            seekableStream.close();
+            if (mappedStream != null) {
+                mappedStream.close();
+            }
+            SeekableStream stream;
+            while ((stream = streamPool.poll()) != null) {
+                stream.close();
+            }
         } catch (IOException e) {
             log.error("Error closing reader for: " + getPath(), e);
         }
@@ -122,14 +151,10 @@ public class TDFReader {
         // byte count + header byte count  (4 + 4 + 8 + 4 + 4)
         //byte[] buffer = new byte[24];
         //readFully(buffer);
-        byte[] buffer = readBytes(0, 24);
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-        int magicNumber = byteBuffer.getInt();
+        ByteBuffer byteBuffer = readBuffer(0, 24);
 
         byte[] magicBytes = new byte[4];
-        System.arraycopy(buffer, 0, magicBytes, 0, 4);
+        byteBuffer.get(magicBytes);
         String magicString = new String(magicBytes);
 
         if (!(magicString.startsWith("TDF") || magicString.startsWith("IBF"))) {
@@ -142,9 +167,7 @@ public class TDFReader {
         int idxByteCount = byteBuffer.getInt();
         int nHeaderBytes = byteBuffer.getInt();
 
-        byte[] bytes = readBytes(24, nHeaderBytes);
-        byteBuffer = ByteBuffer.wrap(bytes);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        byteBuffer = readBuffer(24, nHeaderBytes);
 
         if (version >= 2) {
             int nWFs = byteBuffer.getInt();
@@ -201,9 +224,7 @@ public class TDFReader {
 //fis.seek(idxPosition);
             //byte[] bytes = new byte[nBytes];
             //readFully(bytes);
-            byte[] bytes = readBytes(idxPosition, nBytes);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer byteBuffer = readBuffer(idxPosition, nBytes);
 
             int nDatasets = byteBuffer.getInt();
 
@@ -243,32 +264,26 @@ public class TDFReader {
         return ds;
     }
 
-    public synchronized TDFDataset getDataset(String name) {
+    public TDFDataset getDataset(String name) {
 
-        if (datasetCache.containsKey(name)) {
-            return datasetCache.get(name);
+        TDFDataset cached = datasetCache.get(name);
+        if (cached != null) {
+            return cached;
         }
 
         try {
-            if (datasetIndex.containsKey(name)) {
-                IndexEntry ie = datasetIndex.get(name);
-                long position = ie.position;
-                int nBytes = ie.nBytes;
-
-                //fis.seek(position);
-                //byte[] buffer = new byte[nBytes];
-                //readFully(buffer);
-                byte[] buffer = readBytes(position, nBytes);
-                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-                byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-                TDFDataset ds = new TDFDataset(name, byteBuffer, this);
-                datasetCache.put(name, ds);
-                return ds;
-            } else {
-                datasetCache.put(name, null);
+            IndexEntry ie = datasetIndex.get(name);
+            if (ie == null) {
                 return null;
             }
+            long position = ie.position;
+            int nBytes = ie.nBytes;
+
+            ByteBuffer byteBuffer = readBuffer(position, nBytes);
+
+            // Another thread might have read the same dataset meanwhile, use whichever was cached first
+            TDFDataset ds = new TDFDataset(name, byteBuffer, this);
+            return datasetCache.putIfAbsent(name, ds);
 
         } catch (IOException ex) {
             log.error("Error reading dataset: " + getPath() + " (" + name + ")", ex);
@@ -284,9 +299,11 @@ public class TDFReader {
         return groupIndex.keySet();
     }
 
-    public synchronized TDFGroup getGroup(String name) {
-        if (groupCache.containsKey(name)) {
-            return groupCache.get(name);
+    public TDFGroup getGroup(String name) {
+
+        TDFGroup cached = groupCache.get(name);
+        if (cached != null) {
+            return cached;
         }
 
         try {
@@ -297,15 +314,10 @@ public class TDFReader {
             //fis.seek(position);
             //byte[] buffer = new byte[nBytes];
             //readFully(buffer);
-            byte[] buffer = readBytes(position, nBytes);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer byteBuffer = readBuffer(position, nBytes);
 
             TDFGroup group = new TDFGroup(name, byteBuffer);
-
-            groupCache.put(name, group);
-
-            return group;
+            return groupCache.putIfAbsent(name, group);
 
         } catch (IOException ex) {
             log.error("Error reading group: " + name, ex);
@@ -335,13 +347,12 @@ public class TDFReader {
             //fis.seek(position);
             //byte[] buffer = new byte[nBytes];
             //readFully(buffer);
-            byte[] buffer = readBytes(position, nBytes);
             if (compressed) {
-                buffer = compressionUtils.decompress(buffer);
-
+                byte[] buffer = compressionUtils.get().decompress(readBytes(position, nBytes));
+                return TileFactory.createTile(buffer, trackNames.length);
+            } else {
+                return TileFactory.createTile(readBuffer(position, nBytes), trackNames.length);
             }
-
-            return TileFactory.createTile(buffer, trackNames.length);
         } catch (IOException ex) {
             String tileName = ds.getName() + "[" + tileNumber + "]";
             log.error("Error reading data tile: " + tileName, ex);
@@ -432,13 +443,67 @@ public class TDFReader {
     }
 
 
-    public synchronized byte[] readBytes(long position, int nBytes) throws IOException {
-        seekableStream.seek(position);
+    /**
+     * Return {@code nBytes} starting at {@code position} as a little-endian buffer.  For local files this is a view
+     * of the memory mapping, nothing is copied.  Safe to call from several threads at once.
+     */
+    ByteBuffer readBuffer(long position, int nBytes) throws IOException {
+        ByteBuffer byteBuffer = mappedStream != null ?
+                mappedStream.slice(position, nBytes) :
+                ByteBuffer.wrap(readBytes(position, nBytes));
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        return byteBuffer;
+    }
+
+    /**
+     * Read {@code nBytes} starting at {@code position}.  Safe to call from several threads at once.
+     *
+     * @throws EOFException if the file ends first
+     */
+    public byte[] readBytes(long position, int nBytes) throws IOException {
+
         byte[] buffer = new byte[nBytes];
-        int read = seekableStream.read(buffer, 0, nBytes);
+
+        if (mappedStream != null) {
+            mappedStream.slice(position, nBytes).get(buffer);
+        } else {
+            SeekableStream stream = streamPool.poll();
+            if (stream == null) {
+                stream = IGVSeekableStreamFactory.getInstance().getStreamFor(getPath());
+            }
+            try {
+                stream.seek(position);
+                int n = 0;
+                while (n < nBytes) {
+                    int count = stream.read(buffer, n, nBytes - n);
+                    if (count < 0) {
+                        throw new EOFException("Unexpected end of file reading " + nBytes + " bytes at " + position +
+                                ": " + getPath());
+                    }
+                    n += count;
+                }
+            } catch (IOException | RuntimeException e) {
+                // The position of a stream that failed is unknown, don't reuse it
+                closeQuietly(stream);
+                throw e;
+            }
+            if (streamPool.size() < MAX_POOLED_STREAMS) {
+                streamPool.add(stream);
+            } else {
+                closeQuietly(stream);
+            }
+        }
         return buffer;
     }
 
+    private void closeQuietly(SeekableStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.error("Error closing stream for: " + getPath(), e);
+        }
+    }
+
     /**
      * @return the windowFunctions
      */
@@ -238,6 +238,29 @@ public class TDFWriter {
     // Tile layout
 
     public void writeTile(String dsId, int tileNumber, TDFTile tile) throws IOException {
+        writeTileBytes(dsId, tileNumber, encodeTile(tile, compressed ? compressionUtils : null));
+    }
+
+    /**
+     * Encode a tile as it is stored in the file.  This is separated from writing so that tiles can be encoded
+     * and compressed concurrently, then written in order with {@link #writeTileBytes}.
+     *
+     * @param tile
+     * @param compressionUtils compressor, or null if the file is not compressed
+     * @return the encoded tile
+     * @throws IOException
+     */
+    public static byte[] encodeTile(TDFTile tile, CompressionUtils compressionUtils) throws IOException {
+        BufferedByteWriter buffer = new BufferedByteWriter();
+        tile.writeTo(buffer);
+        byte[] bytes = buffer.getBytes();
+        return compressionUtils == null ? bytes : compressionUtils.compress(bytes);
+    }
+
+    /**
+     * Write a tile previously encoded with {@link #encodeTile}
+     */
+    public void writeTileBytes(String dsId, int tileNumber, byte[] bytes) throws IOException {
 
         TDFDataset dataset = datasetCache.get(dsId);
         if (dataset == null) {
@@ -248,22 +271,8 @@ public class TDFWriter {
 
         if (tileNumber < dataset.tilePositions.length) {
             dataset.tilePositions[tileNumber] = pos;
-
-            // Write the tile contents to a byte buffer first,  so we can optionally gzip it
-
-
-            BufferedByteWriter buffer = new BufferedByteWriter();
-            tile.writeTo(buffer);
-
-            byte[] bytes = buffer.getBytes();
-            if (compressed) {
-                bytes = compressionUtils.compress(bytes);
-            }
-
             write(bytes);
-            int nBytes = bytes.length;
-
-            dataset.tileSizes[tileNumber] = nBytes;
+            dataset.tileSizes[tileNumber] = bytes.length;
         } else {
             // The occasional tile number == tile array size is expected, but tile
             // numbers larger than that are not
@@ -34,6 +34,7 @@ import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.sam.*;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.sam.reader.AlignmentReaderPool;
 import org.broad.igv.tools.parsers.DataConsumer;
 
 import java.io.*;
@@ -152,19 +153,29 @@ public class CoverageCounter {
      */
     private float[] buffer;
 
-    private final static Set<Byte> nucleotidesKeep = new HashSet<Byte>();
     public static final byte DEL = 126;
     public static final byte INS = 127;
     private final static byte[] nucleotides = new byte[]{'A', 'C', 'G', 'T', 'N', DEL, INS};
 
+    /**
+     * Lookup table of byte value -> index in {@code nucleotides}, or -1 for bases which are not counted
+     */
+    private final static int[] NUCLEOTIDE_INDEX = new int[256];
+
     /**
      * Whether to write wig data to standard out (stdout)
      */
     private boolean writeStdOut;
 
+    /**
+     * Number of threads used to count chromosomes concurrently, see {@link #setThreads(int)}
+     */
+    private int nThreads = 1;
+
     static {
-        for (byte b : nucleotides) {
-            nucleotidesKeep.add(b);
+        Arrays.fill(NUCLEOTIDE_INDEX, -1);
+        for (int i = 0; i < nucleotides.length; i++) {
+            NUCLEOTIDE_INDEX[nucleotides[i] & 0xFF] = i;
         }
     }
 
@@ -205,6 +216,30 @@ public class CoverageCounter {
         buffer = new float[datacols];
     }
 
+    /**
+     * Create a counter with the options of {@code template}, writing to {@code consumer} and (optionally)
+     * {@code wigFile}.  Used to count chromosomes concurrently, see {@link ParallelCoverageCounter}.
+     */
+    CoverageCounter(CoverageCounter template, DataConsumer consumer, File wigFile) {
+        this.alignmentFile = template.alignmentFile;
+        this.consumer = consumer;
+        this.windowSize = template.windowSize;
+        this.minMappingQuality = template.minMappingQuality;
+        this.outputSeparate = template.outputSeparate;
+        this.firstInPair = template.firstInPair;
+        this.secondInPair = template.secondInPair;
+        this.outputBases = template.outputBases;
+        this.extFactor = template.extFactor;
+        this.preExtFactor = template.preExtFactor;
+        this.postExtFactor = template.postExtFactor;
+        this.includeDuplicates = template.includeDuplicates;
+        this.pairedCoverage = template.pairedCoverage;
+        this.genome = template.genome;
+        this.queryInterval = template.queryInterval;
+        this.wigFile = wigFile;
+        this.buffer = new float[template.buffer.length];
+    }
+
     public void setPreExtFactor(int preExtFactor) {
         this.preExtFactor = preExtFactor;
     }
@@ -278,21 +313,22 @@ public class CoverageCounter {
      */
     public synchronized void parse() throws IOException {
 
-        int maxExtFactor = Math.max(extFactor, Math.max(preExtFactor, postExtFactor));
-
-        int tolerance = (int) (windowSize * (Math.floor(maxExtFactor / windowSize) + 2));
+        int tolerance = getSortTolerance();
         consumer.setSortTolerance(tolerance);
 
+        if (nThreads > 1 && queryInterval == null && genome != null && consumer instanceof Preprocessor) {
+            AlignmentReaderPool readerPool = ParallelCoverageCounter.createReaderPool(alignmentFile);
+            if (readerPool != null) {
+                (new ParallelCoverageCounter(this, (Preprocessor) consumer, readerPool, nThreads)).parse();
+                return;
+            }
+            log.info("Counting on a single thread.  Multiple threads require an indexed BAM or CRAM file.");
+        }
+
         AlignmentReader reader = null;
         CloseableIterator<Alignment> iter = null;
 
-        String lastChr = "";
-        ReadCounter counter = null;
-
-        WigWriter wigWriter = null;
-        if (wigFile != null || writeStdOut) {
-            wigWriter = new WigWriter(wigFile, windowSize);
-        }
+        WigWriter wigWriter = createWigWriter();
 
         try {
 
@@ -304,6 +340,76 @@ public class CoverageCounter {
                 iter = reader.query(queryInterval.getChr(), queryInterval.getStart() - 1, queryInterval.getEnd(), false);
             }
 
+            countAlignments(iter, tolerance, wigWriter);
+
+            consumer.setAttribute("totalCount", String.valueOf(totalCount));
+            consumer.parsingComplete();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+
+            if (iter != null) {
+                iter.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+            if (wigWriter != null) {
+                wigWriter.close();
+            }
+
+        }
+    }
+
+    /**
+     * Count the alignments of a single chromosome, passing counts to the consumer and wig file of this counter.
+     * Used by {@link ParallelCoverageCounter}, each chromosome is counted by a separate instance.
+     */
+    void countChromosome(AlignmentReader reader, String chr, int chrLength) throws IOException {
+
+        WigWriter wigWriter = wigFile == null ? null : new WigWriter(wigFile, windowSize, false);
+        CloseableIterator<Alignment> iter = reader.query(chr, 0, chrLength, false);
+        try {
+            countAlignments(iter, getSortTolerance(), wigWriter);
+        } finally {
+            iter.close();
+            if (wigWriter != null) {
+                wigWriter.close();
+            }
+        }
+    }
+
+    private int getSortTolerance() {
+        int maxExtFactor = Math.max(extFactor, Math.max(preExtFactor, postExtFactor));
+        return (int) (windowSize * (Math.floor(maxExtFactor / windowSize) + 2));
+    }
+
+    /**
+     * Return a writer for the wig output of this counter, or null if no wig output was requested.  The track
+     * header is written with the first data.
+     */
+    WigWriter createWigWriter() throws IOException {
+        if (wigFile != null || writeStdOut) {
+            return new WigWriter(wigFile, windowSize, true);
+        }
+        return null;
+    }
+
+    int getTotalCount() {
+        return totalCount;
+    }
+
+    Genome getGenome() {
+        return genome;
+    }
+
+    private void countAlignments(CloseableIterator<Alignment> iter, int tolerance, WigWriter wigWriter) {
+
+        String lastChr = "";
+        ReadCounter counter = null;
+
+        try {
             while (iter != null && iter.hasNext()) {
                 Alignment alignment = iter.next();
                 if (passFilter(alignment)) {
@@ -456,26 +562,10 @@ public class CoverageCounter {
                 }
 
             }
-            consumer.setAttribute("totalCount", String.valueOf(totalCount));
-            consumer.parsingComplete();
-
-        } catch (Exception e) {
-            e.printStackTrace();
         } finally {
-
             if (counter != null) {
                 counter.closeBucketsBefore(Integer.MAX_VALUE, wigWriter);
             }
-            if (iter != null) {
-                iter.close();
-            }
-            if (reader != null) {
-                reader.close();
-            }
-            if (wigWriter != null) {
-                wigWriter.close();
-            }
-
         }
     }
 
@@ -520,16 +610,75 @@ public class CoverageCounter {
         this.writeStdOut = writeStdOut;
     }
 
+    /**
+     * Set the number of threads used to count.  Chromosomes of an indexed BAM or CRAM file are counted
+     * concurrently when this is greater than 1 and no query interval is set, otherwise the file is counted
+     * on the calling thread.  Output is written in the order chromosomes appear in the file header.
+     */
+    public void setThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Accumulates counts for the windows of a single chromosome.  Open windows are held in a ring buffer indexed by
+     * window number, with flat primitive arrays for the totals, strand counts, and per-strand base counts.  The ring
+     * grows as needed to span all open windows, and closing windows is a sweep from the lowest open window.
+     * Only windows that have been visited are output, in ascending order.
+     */
     class ReadCounter {
 
         String chr;
+
+        int chrLength = -1;
+
         /**
-         * Map of window index -> counter
+         * Ring capacity (a power of 2) and mask.   Window index w is stored in slot (w & mask).
          */
-        TreeMap<Integer, Counter> counts = new TreeMap<Integer, Counter>();
+        int capacity;
+        int mask;
+
+        /**
+         * Range of window indices [lo, hi) currently held.  All visited windows fall within this range.
+         */
+        int lo;
+        int hi;
+        boolean empty = true;
+
+        boolean[] visited;
+        int[] totalCounts;
+
+        /**
+         * Strand counts, indexed by strand.  Null unless counting strands separately.
+         */
+        int[][] strandCounts;
+
+        /**
+         * Base counts, indexed by strand * nucleotides.length + nucleotide index.  Null unless counting bases.
+         */
+        int[][] baseCounts;
 
         ReadCounter(String chr) {
             this.chr = chr;
+            if (genome != null) {
+                Chromosome chromosome = genome.getChromosome(chr);
+                if (chromosome != null) {
+                    chrLength = chromosome.getLength();
+                }
+            }
+            allocate(1024);
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            visited = new boolean[capacity];
+            totalCounts = new int[capacity];
+            if (outputSeparate) {
+                strandCounts = new int[NUM_STRANDS][capacity];
+            }
+            if (outputBases) {
+                baseCounts = new int[NUM_STRANDS * nucleotides.length][capacity];
+            }
         }
 
         /**
@@ -538,40 +687,106 @@ public class CoverageCounter {
          * @param strand   - which strand to increment count. Should be POSITIVE or NEGATIVE
          */
         void incrementCount(int position, byte base, Strand strand) {
-            final Counter counter = getCounterForPosition(position);
+            final int slot = getSlotForPosition(position);
             int strandNum = strand.equals(Strand.POSITIVE) ? 0 : 1;
-            counter.increment(base, strandNum);
+            if (outputBases) {
+                incrementNucleotide(slot, base, strandNum);
+            }
+            if (outputSeparate) {
+                strandCounts[strandNum][slot]++;
+            }
+            totalCounts[slot]++;
         }
 
         void incrementDeletion(int position, Strand strand) {
-            final Counter counter = getCounterForPosition(position);
+            final int slot = getSlotForPosition(position);
             int strandNum = strand.equals(Strand.POSITIVE) ? 0 : 1;
             if (outputBases) {
-                counter.incrementNucleotide(DEL, strandNum);
+                incrementNucleotide(slot, DEL, strandNum);
             }
         }
 
         void incrementInsertion(int position, Strand strand) {
             // Insertions are between 2 bases, we increment the counter for the position preceding the insertion
-            final Counter counter = getCounterForPosition(position-1);
+            final int slot = getSlotForPosition(position - 1);
             int strandNum = strand.equals(Strand.POSITIVE) ? 0 : 1;
             if (outputBases) {
-                counter.incrementNucleotide(INS, strandNum);
+                incrementNucleotide(slot, INS, strandNum);
             }
+        }
 
+        /**
+         * Increment the nucleotide counts.  Bases other than A, C, G, T, N, deletion, and insertion are not
+         * output, and are ignored.
+         */
+        private void incrementNucleotide(int slot, byte base, int strand) {
+            int baseIdx = NUCLEOTIDE_INDEX[base & 0xFF];
+            if (baseIdx >= 0) {
+                baseCounts[strand * nucleotides.length + baseIdx][slot]++;
+            }
         }
 
+        /**
+         * Return the ring slot for the window containing {@code position}, marking the window as visited.
+         */
+        private int getSlotForPosition(int position) {
+            final int idx = position / windowSize;
+            if (empty) {
+                lo = idx;
+                hi = idx + 1;
+                empty = false;
+            } else if (idx < lo) {
+                ensureCapacity(hi - idx);
+                lo = idx;
+            } else if (idx >= hi) {
+                ensureCapacity(idx + 1 - lo);
+                hi = idx + 1;
+            }
+            final int slot = idx & mask;
+            visited[slot] = true;
+            return slot;
+        }
 
-        private Counter getCounterForPosition(int position) {
-            int idx = position / windowSize;
-            return getCounter(idx);
+        private void ensureCapacity(int span) {
+            if (span <= capacity) {
+                return;
+            }
+            int newCapacity = capacity;
+            while (newCapacity < span) {
+                newCapacity <<= 1;
+            }
+
+            boolean[] oldVisited = visited;
+            int[] oldTotals = totalCounts;
+            int[][] oldStrands = strandCounts;
+            int[][] oldBases = baseCounts;
+            int oldMask = mask;
+
+            allocate(newCapacity);
+            for (int w = lo; w < hi; w++) {
+                int from = w & oldMask;
+                if (!oldVisited[from]) continue;
+                int to = w & mask;
+                visited[to] = true;
+                totalCounts[to] = oldTotals[from];
+                if (oldStrands != null) {
+                    for (int i = 0; i < oldStrands.length; i++) strandCounts[i][to] = oldStrands[i][from];
+                }
+                if (oldBases != null) {
+                    for (int i = 0; i < oldBases.length; i++) baseCounts[i][to] = oldBases[i][from];
+                }
+            }
         }
 
-        private Counter getCounter(int idx) {
-            if (!counts.containsKey(idx)) {
-                counts.put(idx, new Counter());
+        private void clearSlot(int slot) {
+            visited[slot] = false;
+            totalCounts[slot] = 0;
+            if (strandCounts != null) {
+                for (int[] counts : strandCounts) counts[slot] = 0;
+            }
+            if (baseCounts != null) {
+                for (int[] counts : baseCounts) counts[slot] = 0;
             }
-            return counts.get(idx);
         }
 
 
@@ -582,177 +797,81 @@ public class CoverageCounter {
          * @param position - genomic position
          */
         void closeBucketsBefore(int position, WigWriter wigWriter) {
-            List<Integer> bucketsToClose = new ArrayList<Integer>();
 
-            int bucket = position / windowSize;
-            for (Map.Entry<Integer, Counter> entry : counts.entrySet()) {
-                if (entry.getKey() < bucket) {
-
-                    // Divide total count by window size.  This is the average count per
-                    // base over the window,  so for example 30x coverage remains 30x irrespective of window size.
-                    int bucketStartPosition = entry.getKey() * windowSize;
-                    int bucketEndPosition = bucketStartPosition + windowSize;
-
-                    if (genome != null) {
-                        Chromosome chromosome = genome.getChromosome(chr);
-                        if (chromosome != null) {
-                            bucketEndPosition = Math.min(bucketEndPosition, chromosome.getLength());
-                        }
-                    }
-                    int bucketSize = bucketEndPosition - bucketStartPosition;
-
-                    final Counter counter = entry.getValue();
+            if (empty) {
+                return;
+            }
 
-                    int col = 0;
+            int bucket = position / windowSize;
+            int closeEnd = Math.min(hi, bucket);
+            for (int w = lo; w < closeEnd; w++) {
+
+                final int slot = w & mask;
+                if (!visited[slot]) continue;
+
+                // Divide total count by window size.  This is the average count per
+                // base over the window,  so for example 30x coverage remains 30x irrespective of window size.
+                int bucketStartPosition = w * windowSize;
+                int bucketEndPosition = bucketStartPosition + windowSize;
+                if (chrLength >= 0) {
+                    bucketEndPosition = Math.min(bucketEndPosition, chrLength);
+                }
+                int bucketSize = bucketEndPosition - bucketStartPosition;
 
-                    //Not outputting base info, just totals
-                    if (!outputBases) {
-                        if (outputSeparate) {
-                            //Output strand specific information, if applicable
-                            for (int strandNum : output_strands) {
-                                buffer[col] = ((float) counter.getCount(strandNum)) / bucketSize;
-                                col++;
-                            }
+                int col = 0;
 
-                        } else {
-                            buffer[col] = ((float) counter.getTotalCounts()) / bucketSize;
+                //Not outputting base info, just totals
+                if (!outputBases) {
+                    if (outputSeparate) {
+                        //Output strand specific information, if applicable
+                        for (int strandNum : output_strands) {
+                            buffer[col] = ((float) strandCounts[strandNum][slot]) / bucketSize;
                             col++;
                         }
 
-                        //Output counts of each base
                     } else {
-                        if (outputSeparate) {
-                            for (int strandNum : output_strands) {
-                                for (byte base : nucleotides) {
-                                    buffer[col] = ((float) counter.getBaseCount(base, strandNum)) / bucketSize;
-                                    col++;
-                                }
-                            }
-                        } else {
-                            for (byte base : nucleotides) {
-                                buffer[col] = ((float) counter.getBaseCount(base)) / bucketSize;
+                        buffer[col] = ((float) totalCounts[slot]) / bucketSize;
+                        col++;
+                    }
+
+                    //Output counts of each base
+                } else {
+                    if (outputSeparate) {
+                        for (int strandNum : output_strands) {
+                            for (int b = 0; b < nucleotides.length; b++) {
+                                buffer[col] = ((float) baseCounts[strandNum * nucleotides.length + b][slot]) / bucketSize;
                                 col++;
                             }
                         }
+                    } else {
+                        for (int b = 0; b < nucleotides.length; b++) {
+                            int count = 0;
+                            for (int strandNum = 0; strandNum < NUM_STRANDS; strandNum++) {
+                                count += baseCounts[strandNum * nucleotides.length + b][slot];
+                            }
+                            buffer[col] = ((float) count) / bucketSize;
+                            col++;
+                        }
                     }
-
-
-                    consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
-
-                    if (wigWriter != null) {
-                        wigWriter.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
-                    }
-
-
-                    bucketsToClose.add(entry.getKey());
                 }
-            }
-
-            for (Integer key : bucketsToClose) {
-                counts.remove(key);
-            }
-
-
-        }
-
-    }
 
 
-    /**
-     * Class for counting nucleotides and strands over an interval.
-     */
-
-    class Counter {
-        /**
-         * The total number of counts on this Counter. Will
-         * be the sum of baseCount over the second index.
-         */
-        int[] strandCount;
-        int totalCount = 0;
-        //int qualityCount = 0;
-
-        //String chr;
-        //int start;
-        //int end;
-        //byte[] ref;
-        /**
-         * The number of times a particular base has been encountered (ie # of reads of that base)
-         */
-        //int[][] baseCount = new int[NUM_STRANDS][];
+                consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
 
-        private Map<Byte, Integer>[] baseTypeCounts;
-
-        Counter() {
-            //this.chr = chr;
-            //this.start = start;
-            //this.end = end;
-
-            if (outputBases) {
-                baseTypeCounts = new HashMap[NUM_STRANDS];
-                for (int ii = 0; ii < NUM_STRANDS; ii++) {
-                    baseTypeCounts[ii] = new HashMap<Byte, Integer>();
+                if (wigWriter != null) {
+                    wigWriter.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
                 }
-            }
-
-            if (outputSeparate) {
-                strandCount = new int[NUM_STRANDS];
-            }
-        }
-
-
-        int getCount(int strand) {
-            return strandCount[strand];
-        }
-
-        public int getTotalCounts() {
-            return totalCount;
-        }
 
-        void increment(byte base, int strand) {
-
-            if (outputBases) {
-                incrementNucleotide(base, strand);
-            }
-
-            if (outputSeparate) {
-                this.strandCount[strand]++;
-            }
-
-            this.totalCount++;
-        }
-
-        /**
-         * Increment the nucleotide counts.
-         *
-         * @param base   65, 67, 71, 84, 78, 126, 127
-         *               aka A, C, G, T, N, deletion, insertion.
-         *               Anything else is stored as 0
-         * @param strand index of strand, 0 for positive and 1 for negative
-         */
-        private void incrementNucleotide(byte base, int strand) {
-            Map<Byte, Integer> btc = baseTypeCounts[strand];
-            if (!nucleotidesKeep.contains(base)) {
-                base = 0;
+                clearSlot(slot);
             }
 
-            int orig = 0;
-            if (btc.containsKey(base)) {
-                orig = btc.get(base);
+            if (closeEnd >= hi) {
+                empty = true;
+            } else if (closeEnd > lo) {
+                lo = closeEnd;
             }
-            btc.put(base, orig + 1);
-        }
-
-        public int getBaseCount(byte base, int strand) {
-            return baseTypeCounts[strand].containsKey(base) ? baseTypeCounts[strand].get(base) : 0;
         }
 
-        public int getBaseCount(byte base) {
-            int count = 0;
-            for (int strand = 0; strand < NUM_STRANDS; strand++) {
-                count += getBaseCount(base, strand);
-            }
-            return count;
-        }
     }
 
 
@@ -766,11 +885,17 @@ public class CoverageCounter {
         int lastPosition = 0;
         int step;
         int span;
+        boolean headerWritten;
         PrintWriter pw;
 
-        WigWriter(File file, int step) throws IOException {
+        /**
+         * @param writeHeader if false the track and column headers are omitted, as for chromosome
+         *                    chunks that will be appended to another writer
+         */
+        WigWriter(File file, int step, boolean writeHeader) throws IOException {
             this.step = step;
             this.span = step;
+            this.headerWritten = !writeHeader;
             Writer writer;
             if (file != null) {
                 writer = new FileWriter(file);
@@ -798,8 +923,9 @@ public class CoverageCounter {
             int dataSpan = end - start;
 
             //Start of file
-            if (lastChr == null) {
+            if (!headerWritten) {
                 outputHeader(chr);
+                headerWritten = true;
             }
 
             if (!chr.equals(lastChr) || dataSpan != span) {
@@ -819,7 +945,26 @@ public class CoverageCounter {
 
         }
 
-        private void close() {
+        /**
+         * Append the contents of a chunk written without headers
+         */
+        void append(File chunk) throws IOException {
+            if (chunk.length() == 0) {
+                return;
+            }
+            if (!headerWritten) {
+                outputHeader(null);
+                headerWritten = true;
+            }
+            try (BufferedReader reader = new BufferedReader(new FileReader(chunk))) {
+                String nextLine;
+                while ((nextLine = reader.readLine()) != null) {
+                    pw.println(nextLine);
+                }
+            }
+        }
+
+        void close() {
             pw.close();
 
         }
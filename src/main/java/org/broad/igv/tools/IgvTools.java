@@ -163,6 +163,7 @@ public class IgvTools {
 
     // options for gct files
     private static CmdLineParser.Option probeFileOption = null;
+    private static CmdLineParser.Option pyramidOption = null;
 
     // options for coverage
     private static CmdLineParser.Option windowSizeOption = null;
@@ -177,6 +178,7 @@ public class IgvTools {
     private static CmdLineParser.Option minMapQualityOpt = null;
     private static CmdLineParser.Option includeDupsOpt = null;
     private static CmdLineParser.Option pairedCoverageOpt = null;
+    private static CmdLineParser.Option threadsOpt = null;
 
     // options for index
     private static CmdLineParser.Option indexTypeOption = null;
@@ -369,12 +371,15 @@ public class IgvTools {
                     int minMapQuality = (Integer) parser.getOptionValue(minMapQualityOpt, 0);
 
                     int windowSizeValue = (Integer) parser.getOptionValue(windowSizeOption, WINDOW_SIZE);
+                    int nThreads = (Integer) parser.getOptionValue(threadsOpt, 1);
                     doCount(ifile, ofile, genomeId, maxZoomValue, wfList, windowSizeValue, extFactorValue,
                             preFactorValue, posFactorValue,
-                            trackLine, queryString, minMapQuality, countFlags);
+                            trackLine, queryString, minMapQuality, countFlags, nThreads);
                 } else {
                     String probeFile = (String) parser.getOptionValue(probeFileOption, PROBE_FILE);
-                    toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, wfList, tmpDirName, maxRecords);
+                    boolean pyramid = (Boolean) parser.getOptionValue(pyramidOption, false);
+                    toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, wfList, tmpDirName, maxRecords,
+                            pyramid);
                 }
 
             } else if (command.equals(CMD_SORT)) {
@@ -591,6 +596,7 @@ public class IgvTools {
                 minMapQualityOpt = parser.addIntegerOption("minMapQuality");
                 includeDupsOpt = parser.addBooleanOption("includeDuplicates");
                 pairedCoverageOpt = parser.addBooleanOption("pairs");
+                threadsOpt = parser.addIntegerOption("threads");
 
                 // Trackline
                 colorOption = parser.addStringOption("color");
@@ -598,6 +604,7 @@ public class IgvTools {
             } else {
                 probeFileOption = parser.addStringOption('p', "probeFile");
                 typeOption = parser.addStringOption("fileType");
+                pyramidOption = parser.addBooleanOption("pyramid");
             }
         }
 
@@ -668,11 +675,23 @@ public class IgvTools {
     public void toTDF(String typeString, String ifile, String ofile, String probeFile, String genomeId, int maxZoomValue,
                       Collection<WindowFunction> windowFunctions, String tmpDirName, int maxRecords)
             throws IOException, PreprocessingException {
+        toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, windowFunctions, tmpDirName, maxRecords, false);
+    }
+
+    /**
+     * @param pyramid if true build coarser zoom levels by merging bins of finer ones, see {@link Preprocessor#setPyramid(boolean)}
+     */
+    public void toTDF(String typeString, String ifile, String ofile, String probeFile, String genomeId, int maxZoomValue,
+                      Collection<WindowFunction> windowFunctions, String tmpDirName, int maxRecords, boolean pyramid)
+            throws IOException, PreprocessingException {
 
         if (!ifile.endsWith(".affective.csv")) validateIsTilable(typeString);
 
         log.info("toTDF.  File = " + ifile);
         log.info("Max zoom = " + maxZoomValue);
+        if (pyramid) {
+            log.info("Pyramid zoom levels");
+        }
         if (probeFile != null && probeFile.trim().length() > 0) {
             log.info("Probe file = " + probeFile);
         }
@@ -723,6 +742,7 @@ public class IgvTools {
         File outputFile = new File(ofile);
         try {
             Preprocessor p = new Preprocessor(outputFile, genome, windowFunctions, nLines, null);
+            p.setPyramid(pyramid);
             if (inputFileOrDir.isDirectory() || inputFileOrDir.getName().endsWith(".list")) {
                 p.setSizeEstimate(0);
                 List<File> files = getFilesFromDirOrList(inputFileOrDir);
@@ -833,6 +853,19 @@ public class IgvTools {
                         Collection<WindowFunction> windowFunctions, int windowSizeValue,
                         int extFactorValue, int preExtFactorValue, int postExtFactorValue,
                         String trackLine, String queryString, int minMapQuality, int countFlags) throws IOException {
+        doCount(ifile, ofile, genomeId, maxZoomValue, windowFunctions, windowSizeValue, extFactorValue,
+                preExtFactorValue, postExtFactorValue, trackLine, queryString, minMapQuality, countFlags, 1);
+    }
+
+    /**
+     * Compute coverage, counting chromosomes concurrently on {@code nThreads} threads.  Threads are only used
+     * for indexed BAM and CRAM files, see {@link CoverageCounter#setThreads(int)}.
+     */
+    public void doCount(String ifile, String ofile, String genomeId, int maxZoomValue,
+                        Collection<WindowFunction> windowFunctions, int windowSizeValue,
+                        int extFactorValue, int preExtFactorValue, int postExtFactorValue,
+                        String trackLine, String queryString, int minMapQuality, int countFlags,
+                        int nThreads) throws IOException {
 
 
         log.info("Computing coverage.  File = " + ifile);
@@ -882,6 +915,7 @@ public class IgvTools {
             counter.setWriteStdOut(wigStdOut);
             counter.setPreExtFactor(preExtFactorValue);
             counter.setPosExtFactor(postExtFactorValue);
+            counter.setThreads(nThreads);
 
             String prefix = FilenameUtils.getName(ifile);
             String[] tracknames = counter.getTrackNames(prefix + " ");
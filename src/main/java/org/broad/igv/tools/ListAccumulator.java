@@ -29,22 +29,21 @@
  */
 package org.broad.igv.tools;
 
-import org.broad.igv.util.collections.DoubleArrayList;
-import org.apache.commons.math.stat.StatUtils;
 import org.apache.log4j.Logger;
 import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.stats.QuantileSketch;
 
 import java.util.*;
 
 /**
- * Estimating percentiles -- weighted average of multiple estimates
+ * Accumulator for a list of window functions.  Percentiles are estimated from a {@link QuantileSketch} of the
+ * values, so memory per accumulator is bounded and accumulators for fine bins can be merged into coarser ones.
  *
  * @author jrobinso
  */
 public class ListAccumulator {
 
     static Set<WindowFunction> PERCENTILE_WINDOW_FUNCTIONS = new HashSet();
-    public static int MAX_VALUE_COUNT = 100000;
     private static Logger log = Logger.getLogger(ListAccumulator.class);
 
     static {
@@ -60,8 +59,7 @@ public class ListAccumulator {
 
     List<WindowFunction> windowFunctions;
     List<WindowFunction> quantileFunctions;
-    Map<WindowFunction, List<PercentileValue>> percentiles = new HashMap();
-    DoubleArrayList values = null;
+    QuantileSketch sketch = null;
     float sum = 0.0f;
     int basesCovered = 0;
     int nPts = 0;
@@ -82,8 +80,8 @@ public class ListAccumulator {
         for (WindowFunction wf : windowFunctions) {
             if (PERCENTILE_WINDOW_FUNCTIONS.contains(wf)) {
                 quantileFunctions.add(wf);
-                if (values == null) {
-                    values = new DoubleArrayList();
+                if (sketch == null) {
+                    sketch = new QuantileSketch();
                 }
             }
         }
@@ -96,17 +94,31 @@ public class ListAccumulator {
             sum += w*v;
             basesCovered +=w;
             nPts++;
-            if (values != null) {
-                values.add(v);
-                if (values.size() > MAX_VALUE_COUNT) {
-                    computePercentiles();
-                    values.clear();
-                }
+            if (sketch != null) {
+                sketch.add(v);
             }
         }
     }
 
 
+    /**
+     * Add the points of an unfinished accumulator, with the same window functions, to this one.
+     */
+    public void merge(ListAccumulator other) {
+        if (other.nPts == 0) {
+            return;
+        }
+        min = Float.isNaN(min) ? other.min : Math.min(min, other.min);
+        max = Float.isNaN(max) ? other.max : Math.max(max, other.max);
+        sum += other.sum;
+        basesCovered += other.basesCovered;
+        nPts += other.nPts;
+        if (sketch != null && other.sketch != null) {
+            sketch.merge(other.sketch);
+        }
+    }
+
+
     public void finish() {
 
         if (isFinished) {
@@ -115,63 +127,31 @@ public class ListAccumulator {
 
         mean = Float.isNaN(sum) ? Float.NaN : sum / basesCovered;
 
-        if (values != null) {
+        if (sketch != null) {
             if (nPts == 1) {
                 for (WindowFunction wf : quantileFunctions) {
                     setValue(wf, mean);
                 }
             } else {
-                if (values.size() > 1) {
-                    computePercentiles();
-                }
                 for (WindowFunction wf : quantileFunctions) {
-
-                    List<PercentileValue> pList = percentiles.get(wf);
                     float v = Float.NaN; // <= Default,
-                    if (pList != null && pList.size() > 0) {
-                        double weightedSum = 0;
-                        double sumOfWeights = 0;
-                        for (PercentileValue pv : pList) {
-                            double weight = (double) pv.nPoints / nPts;
-                            sumOfWeights += weight;
-                            weightedSum += weight * pv.value;
+                    double p = this.getPercentile(wf);
+                    if (p > 0 && sketch.getCount() > 0) {
+                        v = (float) sketch.getPercentile(p);
+                        if (Float.isInfinite(v)) {
+                            log.error("Infinite percentile (" + wf + ")");
+                            v = Float.NaN;
                         }
-                        v = (float) (weightedSum / sumOfWeights);
                     }
                     setValue(wf, v);
-
                 }
-
             }
         }
-        values = null;
+        sketch = null;
         isFinished = true;
 
     }
 
-    private void computePercentiles() {
-        if (values != null) {
-            double[] valueArray = values.toArray();
-            for (WindowFunction wf : quantileFunctions) {
-                double p = this.getPercentile(wf);
-                if (p > 0) {
-                    float v = (float) StatUtils.percentile(valueArray, p);
-                    if (Float.isInfinite(v)) {
-                        log.error("Infinite percentile (" + wf + ")");
-                    } else {
-                        List<PercentileValue> pList = percentiles.get(wf);
-                        if (pList == null) {
-                            pList = new ArrayList();
-                            percentiles.put(wf, pList);
-                        }
-                        pList.add(new PercentileValue(valueArray.length, v));
-                    }
-                }
-            }
-        }
-
-    }
-
     private void setValue(WindowFunction wf, float value) {
         switch (wf) {
             case mean:
@@ -252,15 +232,4 @@ public class ListAccumulator {
         }
     }
 
-
-    class PercentileValue {
-        int nPoints;
-        double value;
-
-        PercentileValue(int nPoints, double value) {
-            this.nPoints = nPoints;
-            this.value = value;
-        }
-    }
-
 }
@@ -0,0 +1,206 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tools;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderPool;
+import org.broad.igv.util.ResourceLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the chromosomes of an indexed alignment file concurrently.  Each chromosome is a unit of work, counted
+ * by its own {@link CoverageCounter} into a chromosome worker {@link Preprocessor} and, if requested, a temporary
+ * wig file.  Chromosomes are counted and merged in file header order, and at most one chromosome per thread is
+ * in flight, so the results held in memory waiting to be merged are bounded.  The output is therefore identical
+ * to a single threaded count, with the exception of the whole genome view and data statistics, which are
+ * accumulated per chromosome and merged.
+ */
+class ParallelCoverageCounter {
+
+    private static Logger log = Logger.getLogger(ParallelCoverageCounter.class);
+
+    private final CoverageCounter counter;
+    private final Preprocessor preprocessor;
+    private final AlignmentReaderPool readerPool;
+    private final int nThreads;
+
+    ParallelCoverageCounter(CoverageCounter counter, Preprocessor preprocessor, AlignmentReaderPool readerPool, int nThreads) {
+        this.counter = counter;
+        this.preprocessor = preprocessor;
+        this.readerPool = readerPool;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Return a reader pool for the alignment file if it supports concurrent queries by chromosome, otherwise null.
+     */
+    static AlignmentReaderPool createReaderPool(String alignmentFile) {
+        ResourceLocator locator = new ResourceLocator(alignmentFile);
+        String typeString = locator.getTypeString();
+        if (!(typeString.endsWith(".bam") || typeString.endsWith(".cram"))) {
+            return null;
+        }
+        AlignmentReaderPool pool = new AlignmentReaderPool(locator);
+        try {
+            AlignmentReader reader = pool.acquire();
+            boolean supported = AlignmentReaderPool.supportsSharding(locator, reader);
+            pool.release(reader);
+            if (supported) {
+                return pool;
+            }
+        } catch (Exception e) {
+            log.info("Index not found for " + alignmentFile);
+        }
+        pool.close();
+        return null;
+    }
+
+    void parse() throws IOException {
+
+        if (counter.getGenome() == null) {
+            readerPool.close();
+            throw new PreprocessingException("A genome is required to count chromosomes concurrently");
+        }
+
+        List<String> sequenceNames;
+        Map<String, Long> sequenceLengths;
+        AlignmentReader reader = readerPool.acquire();
+        try {
+            sequenceNames = new ArrayList<>(reader.getSequenceNames());
+            sequenceLengths = reader.getSequenceDictionary();
+        } finally {
+            readerPool.release(reader);
+        }
+
+        // Genome caches chromosome offsets lazily, populate the cache before it is shared by workers.
+        Genome genome = counter.getGenome();
+        for (String chr : sequenceNames) {
+            if (genome.getChromosome(chr) != null) {
+                genome.getCumulativeOffset(chr);
+                genome.getCumulativeOffset(genome.getCanonicalChrName(chr));
+            }
+        }
+
+        CoverageCounter.WigWriter wigWriter = counter.createWigWriter();
+        boolean writeWig = wigWriter != null;
+        ForkJoinPool executor = new ForkJoinPool(nThreads);
+        Deque<Future<ChromosomeCount>> futures = new ArrayDeque<>(nThreads);
+        Iterator<String> chromosomes = sequenceNames.iterator();
+        int totalCount = 0;
+        try {
+            while (chromosomes.hasNext() || !futures.isEmpty()) {
+
+                // The next chromosome is submitted once the oldest in flight has been merged
+                while (chromosomes.hasNext() && futures.size() < nThreads) {
+                    String chr = chromosomes.next();
+                    int chrLength = (int) Math.min(Integer.MAX_VALUE, sequenceLengths.get(chr));
+                    futures.add(executor.submit(() -> countChromosome(chr, chrLength, writeWig)));
+                }
+
+                ChromosomeCount result = getResult(futures.poll());
+                preprocessor.merge(result.preprocessor);
+                totalCount += result.totalCount;
+                if (result.wigChunk != null) {
+                    wigWriter.append(result.wigChunk);
+                    result.wigChunk.delete();
+                }
+            }
+
+            preprocessor.setAttribute("totalCount", String.valueOf(totalCount));
+            preprocessor.parsingComplete();
+
+        } finally {
+            executor.shutdownNow();
+            for (Future<ChromosomeCount> future : futures) {
+                future.cancel(true);
+            }
+            readerPool.close();
+            if (wigWriter != null) {
+                wigWriter.close();
+            }
+        }
+    }
+
+    private ChromosomeCount countChromosome(String chr, int chrLength, boolean writeWig) throws IOException {
+
+        Preprocessor worker = preprocessor.createChromosomeWorker();
+        File wigChunk = null;
+        if (writeWig) {
+            wigChunk = File.createTempFile("igvtools", ".wig");
+            wigChunk.deleteOnExit();
+        }
+
+        CoverageCounter chrCounter = new CoverageCounter(counter, worker, wigChunk);
+        AlignmentReader reader = readerPool.acquire();
+        try {
+            chrCounter.countChromosome(reader, chr, chrLength);
+        } finally {
+            readerPool.release(reader);
+        }
+        worker.finishChromosomeWorker();
+
+        return new ChromosomeCount(worker, wigChunk, chrCounter.getTotalCount());
+    }
+
+    private static ChromosomeCount getResult(Future<ChromosomeCount> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PreprocessingException("Counting interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static class ChromosomeCount {
+        Preprocessor preprocessor;
+        File wigChunk;
+        int totalCount;
+
+        ChromosomeCount(Preprocessor preprocessor, File wigChunk, int totalCount) {
+            this.preprocessor = preprocessor;
+            this.wigChunk = wigChunk;
+            this.totalCount = totalCount;
+        }
+    }
+}
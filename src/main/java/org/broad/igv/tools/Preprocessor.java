@@ -36,6 +36,7 @@ import org.broad.igv.tools.parsers.ToolsWiggleParser;
 import org.broad.igv.tools.parsers.UnsortedException;
 import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.collections.FloatArrayList;
 import org.broad.igv.util.collections.IntArrayList;
 
@@ -51,6 +52,8 @@ public class Preprocessor implements DataConsumer {
 
     private static Logger log = Logger.getLogger(Preprocessor.class);
 
+    private static final int BINS_PER_TILE = 700;
+
     boolean compressed = true;
     private boolean skipZeroes = false;
     private int nZoom = 7;
@@ -76,6 +79,18 @@ public class Preprocessor implements DataConsumer {
     Set<String> visitedChromosomes = new HashSet();
     Map<String, String> attributes = new HashMap();
 
+    /**
+     * If true only the finest zoom level accumulates data points, and each coarser level is built by merging the
+     * bins of the level below.  See {@link #setPyramid(boolean)}.
+     */
+    boolean pyramid = false;
+
+    /**
+     * Non-null for chromosome workers (see {@link #createChromosomeWorker()}).  Workers encode tiles into this
+     * buffer rather than writing them, and the parent writes them in order with {@link #merge(Preprocessor)}.
+     */
+    DeferredTiles deferredTiles;
+
     List<WindowFunction> allDataFunctions = Arrays.asList(
             WindowFunction.mean,
             WindowFunction.median,
@@ -107,6 +122,32 @@ public class Preprocessor implements DataConsumer {
         }
     }
 
+    /**
+     * Create a worker for processing a single chromosome concurrently with other workers.  The worker builds its
+     * own raw and zoom level tiles, encoding them into memory, and accumulates its share of the whole genome view
+     * and data statistics.  Results are written by passing the worker to {@link #merge(Preprocessor)}, in the
+     * order the chromosomes would have been processed serially.
+     * <p>
+     * Requires {@link #setTrackParameters} to have been called.
+     */
+    public Preprocessor createChromosomeWorker() {
+        Preprocessor worker = new Preprocessor(outputFile, genome, windowFunctions, -1, null);
+        worker.statusMonitor = null;
+        worker.compressed = compressed;
+        worker.skipZeroes = skipZeroes;
+        worker.nZoom = nZoom;
+        worker.maxExtFactor = maxExtFactor;
+        worker.nTracks = nTracks;
+        worker.pyramid = pyramid;
+        if (writer != null) {
+            worker.deferredTiles = new DeferredTiles(compressed);
+        }
+        if (genomeZoom != null) {
+            worker.genomeZoom = worker.new Zoom(genomeZoom);
+        }
+        return worker;
+    }
+
     /**
      * Called to set initial parameters.  It is required that this be called
      * prior to writing the file
@@ -149,7 +190,7 @@ public class Preprocessor implements DataConsumer {
      */
     public void addData(String chr, int start, int end, float[] data, String name) {
 
-        if (writer == null) {
+        if (writer == null && deferredTiles == null) {
             return;
         }
 
@@ -206,8 +247,23 @@ public class Preprocessor implements DataConsumer {
         rawData.addData(start, end, data, name);
 
         // Zoom levels
-        for (Zoom zl : zoomLevels) {
-            zl.addData(start, end, data);
+        if (pyramid) {
+            // Points within a single bin of the finest zoom reach the coarser zooms when its bins are merged.  Points
+            // spanning bins would be counted once per bin, so they are added to every zoom directly.
+            Zoom finest = zoomLevels[zoomLevels.length - 1];
+            boolean spanning = finest.spansBins(start, end);
+            finest.advance(start);
+            finest.addData(start, end, data, spanning);
+            for (int z = zoomLevels.length - 2; z >= 0; z--) {
+                zoomLevels[z].advance(start);
+                if (spanning) {
+                    zoomLevels[z].addData(start, end, data, true);
+                }
+            }
+        } else {
+            for (Zoom zl : zoomLevels) {
+                zl.addData(start, end, data);
+            }
         }
 
         // Whole genome
@@ -254,9 +310,7 @@ public class Preprocessor implements DataConsumer {
 
             log.info("Processing chromosome " + chr);
             if (zoomLevels != null) {
-                for (Zoom zl : zoomLevels) {
-                    zl.close();
-                }
+                closeZoomLevels();
             }
             if (rawData != null) {
                 rawData.close();
@@ -265,8 +319,21 @@ public class Preprocessor implements DataConsumer {
             currentChr = chr;
             currentChrLength = c.getLength();
             zoomLevels = new Zoom[getNZoom() + 1];
-            for (int z = 0; z <= getNZoom(); z++) {
-                zoomLevels[z] = new Zoom(chr, z, currentChrLength);
+            if (pyramid) {
+                // Tile widths are doubled from the finest zoom up, so that every bin is the union of two bins of
+                // the zoom below
+                int finestTileWidth = currentChrLength / (1 << getNZoom()) + 1;
+                for (int z = 0; z <= getNZoom(); z++) {
+                    zoomLevels[z] = new Zoom(chr, z, finestTileWidth << (getNZoom() - z), 1 << z);
+                }
+                for (int z = 0; z < getNZoom(); z++) {
+                    zoomLevels[z + 1].parent = zoomLevels[z];
+                    zoomLevels[z].finishSlack = 1;
+                }
+            } else {
+                for (int z = 0; z <= getNZoom(); z++) {
+                    zoomLevels[z] = new Zoom(chr, z, currentChrLength);
+                }
             }
 
             rawData = new Raw(chr, currentChrLength, 100000);
@@ -314,20 +381,20 @@ public class Preprocessor implements DataConsumer {
         }
 
         if (zoomLevels != null) {
-            for (Zoom zl : zoomLevels) {
-                zl.close();
-            }
+            closeZoomLevels();
         }
 
         if (genomeZoom != null) {
             genomeZoom.close();
         }
 
-        if (rawData == null) {
+        if (chromosomes.isEmpty()) {
             // TODO -- delete .tdf file?
             log.warn("No features were found that matched chromosomes in genome: " + genome.getId());
         } else {
-            rawData.close();
+            if (rawData != null) {
+                rawData.close();
+            }
 
             // Record max/min
             allDataStats.finish();
@@ -345,6 +412,69 @@ public class Preprocessor implements DataConsumer {
     }
 
 
+    /**
+     * Close the tiles of a chromosome worker.  The whole genome tiles remain open, to be merged into the parent.
+     */
+    public void finishChromosomeWorker() {
+        if (zoomLevels != null) {
+            closeZoomLevels();
+            zoomLevels = null;
+        }
+        if (rawData != null) {
+            rawData.close();
+            rawData = null;
+        }
+    }
+
+    /**
+     * Write the tiles of a finished chromosome worker, and merge its whole genome data and statistics.  Workers
+     * must be merged in the order their chromosomes appear in the input.
+     */
+    public void merge(Preprocessor worker) throws IOException {
+
+        if (statusMonitor != null && statusMonitor.isInterrupted()) {
+            throw new PreprocessingException("Preprocessing Halted.");
+        }
+
+        skippedChromosomes.addAll(worker.skippedChromosomes);
+        for (String chr : worker.visitedChromosomes) {
+            if (visitedChromosomes.contains(chr)) {
+                String msg = "Error: Data is not ordered by start position. Chromosome " + chr +
+                        " appears in multiple blocks";
+                PreprocessingException e = new PreprocessingException(msg);
+                log.error(msg, e);
+                throw e;
+            }
+            visitedChromosomes.add(chr);
+        }
+        chromosomes.addAll(worker.chromosomes);
+
+        if (writer != null) {
+            worker.deferredTiles.writeTo(writer);
+        }
+
+        if (genomeZoom != null && worker.genomeZoom != null) {
+            genomeZoom.merge(worker.genomeZoom);
+        }
+        allDataStats.merge(worker.allDataStats);
+        nPtsProcessed += worker.nPtsProcessed;
+
+        if (statusMonitor != null && sizeEstimate > 0) {
+            int p = (int) ((100.0 * nPtsProcessed) / (1.5 * sizeEstimate));
+            if (p > percentComplete) {
+                percentComplete = p;
+                statusMonitor.setPercentComplete(percentComplete);
+            }
+        }
+    }
+
+    private void closeZoomLevels() {
+        // In pyramid mode the bins of coarser zooms are completed by closing the finer ones, so close from the finest
+        for (int i = 0; i < zoomLevels.length; i++) {
+            zoomLevels[pyramid ? zoomLevels.length - 1 - i : i].close();
+        }
+    }
+
     public void setType(String type) {
         //this.type = type;
     }
@@ -368,6 +498,16 @@ public class Preprocessor implements DataConsumer {
         this.skipZeroes = skipZeroes;
     }
 
+    /**
+     * Build zoom levels bottom up.  Each data point is accumulated at the finest zoom level only, unless it spans
+     * more than one of its bins, and coarser levels are built by merging bins.  Tile widths are rounded so that
+     * bins nest, so bin boundaries can differ from those of the default build.  Within a bin, mean, min, max, and
+     * count are exact; percentiles are approximate, as merged quantile sketches are.
+     */
+    public void setPyramid(boolean pyramid) {
+        this.pyramid = pyramid;
+    }
+
     public int getNZoom() {
         return nZoom;
     }
@@ -446,7 +586,7 @@ public class Preprocessor implements DataConsumer {
 
                     String[] n = nameList == null ? null : nameList.toArray(new String[]{});
                     TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
-                    writer.writeTile(dsName, tileNumber, tile);
+                    writeTile(dsName, tileNumber, tile);
                     startArray.clear();
                     endArray.clear();
                     for (int i = 0; i < dataArray.length; i++) {
@@ -477,7 +617,7 @@ public class Preprocessor implements DataConsumer {
             this.tileWidth = tileWidth;
             int nTiles = (int) (chrLength / tileWidth) + 1;
             dsName = "/" + chr + "/raw";
-            dataset = writer.createDataset(dsName, TDFDataset.DataType.FLOAT, tileWidth, nTiles);
+            dataset = createDataset(dsName, TDFDataset.DataType.FLOAT, tileWidth, nTiles);
 
         }
 
@@ -545,27 +685,68 @@ public class Preprocessor implements DataConsumer {
         LinkedHashMap<Integer, Tile> activeTiles = new LinkedHashMap();
         Map<WindowFunction, TDFDataset> datasets = new HashMap();
 
+        /**
+         * If true tiles and bins are never finished early, so they can be merged into another zoom.
+         */
+        boolean deferFinish = false;
+
+        /**
+         * Pyramid mode.  The next coarser zoom, into which bins of this zoom are merged as they are finished, and the
+         * number of bins beyond the sort tolerance to keep open while bins of the next finer zoom are merged in.
+         */
+        Zoom parent;
+        int finishSlack = 0;
+
 
         Zoom(String chr, int level, int chrLength) {
-            int nTiles = (int) Math.pow(2, level);
-            tileWidth = chrLength / nTiles + 1;
+            this(chr, level, chrLength / (int) Math.pow(2, level) + 1, (int) Math.pow(2, level));
+        }
+
+        Zoom(String chr, int level, int tileWidth, int nTiles) {
+            this.tileWidth = tileWidth;
             this.level = level;
 
             // Create datasets -- one for each window function
             for (WindowFunction wf : windowFunctions) {
                 String dsName = "/" + chr + "/z" + level + "/" + wf.toString();
-                datasets.put(wf, writer.createDataset(dsName, TDFDataset.DataType.FLOAT, tileWidth, nTiles));
+                datasets.put(wf, createDataset(dsName, TDFDataset.DataType.FLOAT, tileWidth, nTiles));
             }
         }
 
+        /**
+         * Create a zoom with the same tiling and datasets as {@code parent}, without creating new datasets.  Used by
+         * chromosome workers to accumulate their portion of the whole genome view.
+         */
+        Zoom(Zoom parent) {
+            this.level = parent.level;
+            this.tileWidth = parent.tileWidth;
+            this.datasets = parent.datasets;
+            this.deferFinish = true;
+        }
+
         public void addData(int start, int end, float[] data) {
+            addData(start, end, data, false);
+        }
+
+        /**
+         * @param spanning pyramid mode, true if the point spans more than one bin of the finest zoom
+         */
+        void addData(int start, int end, float[] data, boolean spanning) {
 
             int startTile = start / tileWidth;
             int endTile = end / tileWidth;
 
-            // Check for closed tiles
+            closeTiles(start);
+
+            for (int i = startTile; i <= endTile; i++) {
+                getTile(i).addData(start, end, data, spanning);
+            }
+        }
+
+        // Check for closed tiles
+        private void closeTiles(int start) {
             int tmp = (start - maxExtFactor) / tileWidth;
-            while (!activeTiles.isEmpty()) {
+            while (!deferFinish && !activeTiles.isEmpty()) {
                 Integer tileNumber = activeTiles.keySet().iterator().next();
                 if (tileNumber < tmp) {
                     Tile t = activeTiles.get(tileNumber);
@@ -575,15 +756,62 @@ public class Preprocessor implements DataConsumer {
                     break;
                 }
             }
+        }
 
+        /**
+         * Pyramid mode.  Close the tiles, and finish the bins, that no data point at or after {@code start} can reach.
+         * Bins are merged into the parent zoom as they are finished.
+         */
+        void advance(int start) {
+            closeTiles(start);
+            for (Tile t : activeTiles.values()) {
+                t.finishBins(start);
+            }
+        }
 
-            for (int i = startTile; i <= endTile; i++) {
-                Tile t = activeTiles.get(i);
-                if (t == null) {
-                    t = new Tile(datasets, level, i, 700, tileWidth);
-                    activeTiles.put(i, t);
-                }
-                t.addData(start, end, data);
+        /**
+         * @return true if the interval spans more than one bin of this zoom
+         */
+        boolean spansBins(int start, int end) {
+            int tileNumber = start / tileWidth;
+            if (end / tileWidth != tileNumber) {
+                return true;
+            }
+            // As computed by Tile.addData
+            int tileStart = tileNumber * tileWidth;
+            double binWidth = ((double) tileWidth) / BINS_PER_TILE;
+            int startBin = (int) ((start - tileStart) / binWidth);
+            int endBin = Math.min(BINS_PER_TILE - 1, (int) ((end - tileStart) / binWidth));
+            return endBin > startBin;
+        }
+
+        /**
+         * Pyramid mode.  Merge a bin of the next finer zoom, numbered from the start of the chromosome, into the bin
+         * of this zoom containing it.
+         */
+        void mergeBin(int childBin, int track, ListAccumulator acc) {
+            int bin = childBin / 2;
+            getTile(bin / BINS_PER_TILE).mergeBin(track, bin % BINS_PER_TILE, acc);
+        }
+
+        private Tile getTile(int tileNumber) {
+            Tile t = activeTiles.get(tileNumber);
+            if (t == null) {
+                t = new Tile(datasets, level, tileNumber, BINS_PER_TILE, tileWidth);
+                t.deferFinish = deferFinish;
+                t.parent = parent;
+                t.finishSlack = finishSlack;
+                activeTiles.put(tileNumber, t);
+            }
+            return t;
+        }
+
+        /**
+         * Merge the open tiles of {@code other}, which must have the same tiling, into this zoom.
+         */
+        void merge(Zoom other) {
+            for (Map.Entry<Integer, Tile> entry : other.activeTiles.entrySet()) {
+                getTile(entry.getKey()).merge(entry.getValue());
             }
         }
 
@@ -609,6 +837,13 @@ public class Preprocessor implements DataConsumer {
         int nonEmptyBins;
         ListAccumulator[][] accumulators;
         Map<WindowFunction, TDFDataset> datasets;
+        boolean deferFinish = false;
+
+        // Pyramid mode, see Zoom.  Points spanning bins of the finest zoom are accumulated separately as they are
+        // added to every zoom, and so must not be merged into the parent.
+        Zoom parent;
+        int finishSlack = 0;
+        ListAccumulator[][] spanningAccumulators;
 
         Tile(Map<WindowFunction, TDFDataset> datasets, int zoomLevel, int tileNumber, int nBins, int tileWidth) {
             this.totalCount = 0;
@@ -628,32 +863,97 @@ public class Preprocessor implements DataConsumer {
          * @param end
          * @param data  array of values at this position,  1 value per track
          */
-        void addData(int start, int end, float[] data) {
+        void addData(int start, int end, float[] data, boolean spanning) {
             totalCount++;
 
             int startBin = Math.max(0, (int) ((start - tileStart) / binWidth));
             int endBin = Math.min(nBins - 1, (int) ((end - tileStart) / binWidth));
 
-            int tmp = (int) ((start - tileStart - maxExtFactor) / binWidth);
-
+            finishBins(start);
 
+            ListAccumulator[][] target = accumulators;
+            if (spanning) {
+                if (spanningAccumulators == null) {
+                    spanningAccumulators = new ListAccumulator[nTracks][nBins];
+                }
+                target = spanningAccumulators;
+            }
             for (int t = 0; t < nTracks; t++) {
-                for (int b = lastFinishedBin; b < tmp; b++) {
-                    if (accumulators[t][b] != null) {
-                        accumulators[t][b].finish();
+                for (int b = startBin; b <= endBin; b++) {
+                    if (target[t][b] == null) {
+                        target[t][b] = new ListAccumulator(datasets.keySet());
                     }
+                    target[t][b].add(end - start, data[t]);
                 }
-                lastFinishedBin = Math.max(0, tmp - 1);
+            }
+        }
 
-                for (int b = startBin; b <= endBin; b++) {
-                    if (accumulators[t][b] == null) {
-                        accumulators[t][b] = new ListAccumulator(datasets.keySet());
-                    }
-                    accumulators[t][b].add(end - start, data[t]);
+        /**
+         * Finish the bins that no data point at or after {@code start} can reach
+         */
+        void finishBins(int start) {
+            if (deferFinish) {
+                return;
+            }
+            int tmp = Math.min(nBins, (int) ((start - tileStart - maxExtFactor) / binWidth) - finishSlack);
+            for (int b = lastFinishedBin; b < tmp; b++) {
+                for (int t = 0; t < nTracks; t++) {
+                    finishBin(t, b);
+                }
+            }
+            lastFinishedBin = Math.max(lastFinishedBin, tmp);
+        }
+
+        private void finishBin(int t, int b) {
+            ListAccumulator acc = accumulators[t][b];
+            if (acc != null && acc.isFinished) {
+                return;
+            }
+            if (parent != null && acc != null) {
+                parent.mergeBin(tileNumber * nBins + b, t, acc);
+            }
+            if (spanningAccumulators != null && spanningAccumulators[t][b] != null) {
+                if (acc == null) {
+                    acc = spanningAccumulators[t][b];
+                    accumulators[t][b] = acc;
+                } else {
+                    acc.merge(spanningAccumulators[t][b]);
                 }
+                spanningAccumulators[t][b] = null;
+            }
+            if (acc != null) {
+                acc.finish();
             }
         }
 
+        /**
+         * Pyramid mode.  Merge a bin of the next finer zoom into bin {@code b}.
+         */
+        void mergeBin(int t, int b, ListAccumulator acc) {
+            if (accumulators[t][b] == null) {
+                accumulators[t][b] = new ListAccumulator(datasets.keySet());
+            }
+            accumulators[t][b].merge(acc);
+        }
+
+
+        /**
+         * Merge the (unfinished) bins of {@code other} into this tile
+         */
+        void merge(Tile other) {
+            totalCount += other.totalCount;
+            for (int t = 0; t < nTracks; t++) {
+                for (int b = 0; b < nBins; b++) {
+                    ListAccumulator acc = other.accumulators[t][b];
+                    if (acc != null) {
+                        if (accumulators[t][b] == null) {
+                            accumulators[t][b] = new ListAccumulator(datasets.keySet());
+                        }
+                        accumulators[t][b].merge(acc);
+                    }
+                }
+            }
+        }
 
         /**
          *
@@ -665,11 +965,9 @@ public class Preprocessor implements DataConsumer {
 
             for (int t = 0; t < nTracks; t++) {
                 for (int i = 0; i < nBins; i++) {
-                    if (accumulators[t][i] != null) {
-                        accumulators[t][i].finish();
-                        if (t == 0) {
-                            nonEmptyBins++;
-                        }
+                    finishBin(t, i);
+                    if (t == 0 && accumulators[t][i] != null) {
+                        nonEmptyBins++;
                     }
                 }
             }
@@ -710,7 +1008,7 @@ public class Preprocessor implements DataConsumer {
 
                 String dsName = datasets.get(wf).getName();
                 try {
-                    writer.writeTile(dsName, tileNumber, tile);
+                    writeTile(dsName, tileNumber, tile);
                 } catch (IOException exc) {
                     log.error("Error writing tile: " + dsName + " [" + tileNumber + "]", exc);
                     throw new PreprocessingException(exc.getMessage());
@@ -719,6 +1017,60 @@ public class Preprocessor implements DataConsumer {
         }
     }
 
+    private TDFDataset createDataset(String name, TDFDataset.DataType dataType, int tileWidth, int nTiles) {
+        if (deferredTiles != null) {
+            return deferredTiles.createDataset(name, dataType, tileWidth, nTiles);
+        } else {
+            return writer.createDataset(name, dataType, tileWidth, nTiles);
+        }
+    }
+
+    private void writeTile(String dsName, int tileNumber, TDFTile tile) throws IOException {
+        if (deferredTiles != null) {
+            deferredTiles.addTile(dsName, tileNumber, tile);
+        } else {
+            writer.writeTile(dsName, tileNumber, tile);
+        }
+    }
+
+    /**
+     * Datasets and encoded tiles of a chromosome worker, in creation order.
+     */
+    static class DeferredTiles {
+
+        CompressionUtils compressionUtils;
+        List<TDFDataset> datasets = new ArrayList<>();
+        List<String> tileDatasets = new ArrayList<>();
+        IntArrayList tileNumbers = new IntArrayList();
+        List<byte[]> tileBytes = new ArrayList<>();
+
+        DeferredTiles(boolean compressed) {
+            compressionUtils = compressed ? new CompressionUtils() : null;
+        }
+
+        TDFDataset createDataset(String name, TDFDataset.DataType dataType, int tileWidth, int nTiles) {
+            TDFDataset ds = new TDFDataset(name, dataType, tileWidth, nTiles);
+            datasets.add(ds);
+            return ds;
+        }
+
+        void addTile(String dsName, int tileNumber, TDFTile tile) throws IOException {
+            tileDatasets.add(dsName);
+            tileNumbers.add(tileNumber);
+            tileBytes.add(TDFWriter.encodeTile(tile, compressionUtils));
+        }
+
+        void writeTo(TDFWriter writer) throws IOException {
+            for (TDFDataset ds : datasets) {
+                writer.createDataset(ds.getName(), ds.getDataType(), ds.getTileWidth(), ds.getNTiles());
+            }
+            for (int i = 0; i < tileBytes.size(); i++) {
+                writer.writeTileBytes(tileDatasets.get(i), tileNumbers.get(i), tileBytes.get(i));
+            }
+            tileBytes.clear();
+        }
+    }
+
     public static boolean isAlignmentFile(String ext) {
         return ext.equalsIgnoreCase(".bam") || ext.equalsIgnoreCase(".sam") ||
                 ext.equalsIgnoreCase(".aligned") ||
@@ -35,6 +35,7 @@ package org.broad.igv.track;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.data.ScoreBlock;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.feature.LocusScore;
@@ -216,11 +217,22 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack,
         if (scores.size() > 0) {
             float min = Float.MAX_VALUE;
             float max = -Float.MAX_VALUE;
-            for (LocusScore score : scores) {
-                float value = score.getScore();
-                if (!Float.isNaN(value)) {
-                    min = Math.min(value, min);
-                    max = Math.max(value, max);
+            if (scores instanceof ScoreBlock) {
+                ScoreBlock block = (ScoreBlock) scores;
+                for (int i = 0; i < block.size(); i++) {
+                    float value = block.getValue(i);
+                    if (!Float.isNaN(value)) {
+                        min = Math.min(value, min);
+                        max = Math.max(value, max);
+                    }
+                }
+            } else {
+                for (LocusScore score : scores) {
+                    float value = score.getScore();
+                    if (!Float.isNaN(value)) {
+                        min = Math.min(value, min);
+                        max = Math.max(value, max);
+                    }
                 }
             }
             return new Range(min, max);
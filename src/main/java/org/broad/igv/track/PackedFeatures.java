@@ -28,6 +28,8 @@ package org.broad.igv.track;
 import org.apache.log4j.Logger;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.util.MessageUtils;
+import org.broad.igv.util.collections.IntArrayList;
+import org.broad.igv.util.collections.IntIntHashMap;
 import htsjdk.tribble.Feature;
 
 import java.util.*;
@@ -117,99 +119,127 @@ public class PackedFeatures<T extends Feature>{
      */
     List<FeatureRow> packFeatures(Iterator iter) {
 
-        List<FeatureRow> rows = new ArrayList(10);
         if (iter == null || !iter.hasNext()) {
-            return rows;
+            return new ArrayList(10);
         }
 
         maxFeatureLength = 0;
-        int totalCount = 0;
-
-        LinkedHashMap<Integer, PriorityQueue<T>> bucketArray = new LinkedHashMap();
-        Comparator pqComparator = new Comparator<T>() {
-            public int compare(Feature row1, Feature row2) {
-                return (row2.getEnd() - row2.getStart()) - (row1.getEnd() - row2.getStart());
-            }
-        };
-
-        // Allocate features to buckets,  1 bucket per base position
+        List<T> toPack = new ArrayList<>(1000);
         while (iter.hasNext()) {
             T feature = (T) iter.next();
             maxFeatureLength = Math.max(maxFeatureLength,
                     getFeatureEndForPacking(feature) - getFeatureStartForPacking(feature));
             features.add(feature);
+            toPack.add(feature);
+        }
+
+        // Features with the same start are allocated longest first
+        Comparator<T> lengthComparator = (f1, f2) -> f2.getEnd() - f1.getEnd();
 
-            int bucketNumber = getFeatureStartForPacking(feature);
+        return packRows(toPack, lengthComparator, Integer.MIN_VALUE);
+    }
 
-            PriorityQueue<T> bucket = bucketArray.get(bucketNumber);
-            if (bucket == null) {
-                bucket = new PriorityQueue<T>(5, pqComparator);
-                bucketArray.put(bucketNumber, bucket);
+    /**
+     * Allocate features to rows in a single sweep.  Features are taken in order of start position, or if unsorted
+     * of first appearance of their start position, and those with the same start in the order of
+     * {@code bucketComparator}.  Each is placed in the first row in which it follows the last feature placed by at
+     * least {@link FeatureTrack#MINIMUM_FEATURE_SPACING}, and in which no other feature with the same start has been
+     * placed.
+     * <p>
+     * This is the same allocation as filling one row at a time, taking features left to right, but the first
+     * fitting row is found from an index of row ends in O(log rows) rather than by a scan of all starts per row.
+     *
+     * @param firstRowStart the minimum start of a feature in the first row.  It is 0 for every other row.
+     */
+    protected List<FeatureRow> packRows(List<T> toPack, Comparator<T> bucketComparator, int firstRowStart) {
+
+        int n = toPack.size();
+        int[] starts = new int[n];
+        boolean sorted = true;
+        for (int i = 0; i < n; i++) {
+            starts[i] = getFeatureStartForPacking(toPack.get(i));
+            if (i > 0 && starts[i] < starts[i - 1]) {
+                sorted = false;
             }
-            bucket.add(feature);
-            totalCount++;
+        }
 
+        // Order of allocation, grouping features with the same start.  Unsorted features are ordered by the first
+        // appearance of their start, and otherwise by their position in the input.
+        int[] order = new int[n];
+        if (sorted) {
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+        } else {
+            IntIntHashMap ranks = new IntIntHashMap(n);
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                long rank = ranks.putIfAbsent(starts[i], ranks.size());
+                keys[i] = (rank << 32) | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < n; i++) {
+                order[i] = (int) keys[i];
+            }
         }
 
-        // Allocate features to rows, pulling at most 1 per bucket for each row
-        FeatureRow currentRow = new FeatureRow();
+        List<FeatureRow> rows = new ArrayList(10);
+        RowIndex rowIndex = new RowIndex(firstRowStart, 0);
+        IntArrayList bucketRows = new IntArrayList();
+        PriorityQueue<T> bucket = new PriorityQueue<>(5, bucketComparator);
         int allocatedCount = 0;
-        int nextStart = Integer.MIN_VALUE;
-
-        int lastAllocatedCount = -1;
-        while (allocatedCount < totalCount && rows.size() < maxLevels) {
 
-            // Check to prevent infinite loops
-            if (lastAllocatedCount == allocatedCount) {
+        for (int i = 0; i < n; ) {
 
-                if(IGV.hasInstance()) {
-                    String msg = "Infinite loop detected while packing features for track: " + getTrackName() +
-                            ".<br>Not all features will be shown." +
-                            "<br>Please contact igv-team@broadinstitute.org";
-
-                    log.error(msg);
-                    MessageUtils.showMessage(msg);
-                }
-                break;
+            int bucketStart = starts[order[i]];
+            int j = i;
+            while (j < n && starts[order[j]] == bucketStart) {
+                bucket.add(toPack.get(order[j]));
+                j++;
             }
-            lastAllocatedCount = allocatedCount;
 
-            // Next row Loop through alignments until we reach the end of the interval
-
-            PriorityQueue<T> bucket = null;
-            // Advance to nextLine occupied bucket
-
-            ArrayList<Integer> emptyBucketKeys = new ArrayList();
-            for (Integer key : bucketArray.keySet()) {
-                if (key >= nextStart) {
-                    bucket = bucketArray.get(key);
-
-                    T feature = bucket.poll();
-
-                    if (bucket.isEmpty()) {
-                        emptyBucketKeys.add(key);
-                    }
-                    currentRow.addFeature(feature);
-                    nextStart = currentRow.end + FeatureTrack.MINIMUM_FEATURE_SPACING;
-                    allocatedCount++;
+            // Rows used by a feature in this bucket are closed to the rest of the bucket
+            bucketRows.clear();
+            while (!bucket.isEmpty()) {
+                T feature = bucket.poll();
+                int r = rowIndex.findRow(bucketStart);
+                if (r < 0 || r >= maxLevels) {
+                    continue;
+                }
+                while (rows.size() <= r) {
+                    rows.add(new FeatureRow());
                 }
+                rows.get(r).addFeature(feature);
+                rowIndex.setRowStart(r, Integer.MAX_VALUE);
+                bucketRows.add(r);
+                allocatedCount++;
             }
-            for (Integer key : emptyBucketKeys) {
-                bucketArray.remove(key);
+            for (int k = 0; k < bucketRows.size(); k++) {
+                int r = bucketRows.get(k);
+                rowIndex.setRowStart(r, rows.get(r).end + FeatureTrack.MINIMUM_FEATURE_SPACING);
             }
+            i = j;
+        }
 
-
-            // We've reached the end of the interval,  start a new row
-            if (currentRow.features.size() > 0) {
-                rows.add(currentRow);
-                lastAllocatedCount = 0;
+        // Rows are only filled after the row above them is, so features below an empty row are not shown
+        for (int r = 0; r < rows.size(); r++) {
+            if (rows.get(r).features.isEmpty()) {
+                for (int k = r; k < rows.size(); k++) {
+                    allocatedCount -= rows.get(k).features.size();
+                }
+                rows = new ArrayList<>(rows.subList(0, r));
+                break;
             }
-            currentRow = new FeatureRow();
-            nextStart = 0;
         }
-        // Add the last row
-        if (currentRow.features.size() > 0) {
-            rows.add(currentRow);
+
+        if (allocatedCount < n && rows.size() < maxLevels) {
+            String msg = "Could not pack all features for track: " + getTrackName() +
+                    ".<br>Not all features will be shown." +
+                    "<br>Please contact igv-team@broadinstitute.org";
+            log.error(msg);
+            if (IGV.hasInstance()) {
+                MessageUtils.showMessage(msg);
+            }
         }
 
         return rows;
@@ -243,6 +273,64 @@ public class PackedFeatures<T extends Feature>{
         return maxFeatureLength;
     }
 
+    /**
+     * The minimum start of the next feature in each row, as a tree of minimums over rows, so the first row
+     * accepting a feature can be found in O(log rows).  Rows never used accept features starting at or after
+     * {@code emptyRowStart}.
+     */
+    private static class RowIndex {
+
+        private final int emptyRowStart;
+        private int capacity;
+        private int[] min;
+
+        RowIndex(int firstRowStart, int emptyRowStart) {
+            this.emptyRowStart = emptyRowStart;
+            allocate(16, null);
+            setRowStart(0, firstRowStart);
+        }
+
+        private void allocate(int capacity, int[] leaves) {
+            this.capacity = capacity;
+            min = new int[2 * capacity];
+            Arrays.fill(min, capacity, 2 * capacity, emptyRowStart);
+            if (leaves != null) {
+                System.arraycopy(leaves, 0, min, capacity, leaves.length);
+            }
+            for (int i = capacity - 1; i > 0; i--) {
+                min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+            }
+        }
+
+        /**
+         * @return the first row accepting a feature at {@code start}, or -1 if no row can
+         */
+        int findRow(int start) {
+            if (min[1] > start) {
+                if (start < emptyRowStart) {
+                    return -1;
+                }
+                // Every row is full, add more
+                int row = capacity;
+                allocate(2 * capacity, Arrays.copyOfRange(min, capacity, 2 * capacity));
+                return row;
+            }
+            int i = 1;
+            while (i < capacity) {
+                i = min[2 * i] <= start ? 2 * i : 2 * i + 1;
+            }
+            return i - capacity;
+        }
+
+        void setRowStart(int row, int start) {
+            int i = row + capacity;
+            min[i] = start;
+            for (i >>= 1; i > 0; i >>= 1) {
+                min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+            }
+        }
+    }
+
     public class FeatureRow {
         int start;
         int end;
@@ -32,7 +32,6 @@ import org.broad.igv.feature.IGVFeature;
 import org.broad.igv.feature.SpliceJunctionFeature;
 import org.broad.igv.feature.Strand;
 import org.broad.igv.renderer.SpliceJunctionRenderer;
-import org.broad.igv.ui.util.MessageUtils;
 import htsjdk.tribble.Feature;
 
 import java.util.*;
@@ -143,97 +142,27 @@ public class PackedFeaturesSpliceJunctions<T extends Feature> extends PackedFeat
      * @return
      */
     List<FeatureRow> packFeaturesOneStrand(Iterator iter) {
-        List<FeatureRow> rows = new ArrayList(10);
         if (iter == null || !iter.hasNext()) {
-            return rows;
+            return new ArrayList(10);
         }
 
         maxFeatureLength = 0;
-        int totalCount = 0;
-
-        LinkedHashMap<Integer, PriorityQueue<T>> bucketArray = new LinkedHashMap();
-        Comparator pqComparator = new Comparator<BasicFeature>() {
-            public int compare(BasicFeature row1, BasicFeature row2) {
-                return (int) (((IGVFeature) row2).getScore() - ((IGVFeature) row1).getScore());
-            }
-        };
-
+        List toPack = new ArrayList(1000);
         while (iter.hasNext()) {
             T feature = (T) iter.next();
             maxFeatureLength = Math.max(maxFeatureLength,
                     getFeatureEndForPacking(feature) - getFeatureStartForPacking(feature));
             features.add(feature);
-
-            int bucketNumber = getFeatureStartForPacking(feature);
-
-            PriorityQueue<T> bucket = bucketArray.get(bucketNumber);
-            if (bucket == null) {
-                bucket = new PriorityQueue<T>(5, pqComparator);
-                bucketArray.put(bucketNumber, bucket);
-            }
-            bucket.add(feature);
-            totalCount++;
-
+            toPack.add(feature);
         }
 
-        // Allocate features to rows
-        FeatureRow currentRow = new FeatureRow();
-        int allocatedCount = 0;
-        int nextStart = currentRow.end + FeatureTrack.MINIMUM_FEATURE_SPACING;
-
-        int lastAllocatedCount = -1;
-        while (allocatedCount < totalCount && rows.size() < maxLevels) {
-
-            // Check to prevent infinite loops
-            if (lastAllocatedCount == allocatedCount) {
-                String msg = "Infinite loop detected while packing features for track: " + getTrackName() +
-                        ".<br>Not all features will be shown." +
-                        "<br>Please contact igv-team@broadinstitute.org";
-
-                log.error(msg);
-                MessageUtils.showMessage(msg);
-                break;
-            }
-            lastAllocatedCount = allocatedCount;
-
-            // Loop through alignments until we reach the end of the interval
-
-            PriorityQueue<T> bucket = null;
-
-            ArrayList<Integer> emptyBucketKeys = new ArrayList();
-            for (Integer key : bucketArray.keySet()) {
-                if (key >= nextStart) {
-                    bucket = bucketArray.get(key);
-
-                    T feature = bucket.poll();
-
-                    if (bucket.isEmpty()) {
-                        emptyBucketKeys.add(key);
-                    }
-                    currentRow.addFeature(feature);
-                    nextStart = currentRow.end + FeatureTrack.MINIMUM_FEATURE_SPACING;
-                    allocatedCount++;
-                }
-            }
-            for (Integer key : emptyBucketKeys) {
-                bucketArray.remove(key);
-            }
-
-
-            // We've reached the end of the interval,  start a new row
-            if (currentRow.features.size() > 0) {
-                rows.add(currentRow);
-                lastAllocatedCount = -1;
+        Comparator pqComparator = new Comparator<BasicFeature>() {
+            public int compare(BasicFeature row1, BasicFeature row2) {
+                return (int) (((IGVFeature) row2).getScore() - ((IGVFeature) row1).getScore());
             }
-            currentRow = new FeatureRow();
-            nextStart = 0;
-        }
-        // Add the last row
-        if (currentRow.features.size() > 0) {
-            rows.add(currentRow);
-        }
+        };
 
-        return rows;
+        return packRows(toPack, pqComparator, FeatureTrack.MINIMUM_FEATURE_SPACING);
     }
 
     /**
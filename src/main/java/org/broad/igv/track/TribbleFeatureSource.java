@@ -76,12 +76,18 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
         String idxPath = ResourceLocator.indexFile(locator);
         boolean indexExists = FileUtils.resourceExists(idxPath);
 
+        // An index built by a previous load of this file
+        Index cachedIndex = null;
+        if (!indexExists && ParallelFeatureReader.isSupported(locator, codec)) {
+            cachedIndex = FeatureIndexCache.getIndex(locator.getPath());
+        }
+
         // Optionally let the user create an index.
         final int hundredMB = 100000000;
         final int oneGB = 1000000000;
         long size = FileUtils.getLength(locator.getPath());
         final boolean indexRequired =  size > oneGB;
-        if (!Globals.isHeadless() && locator.isLocal() && !locator.getPath().endsWith(".gz") && !indexExists) {
+        if (!Globals.isHeadless() && locator.isLocal() && !locator.getPath().endsWith(".gz") && !indexExists && cachedIndex == null) {
             if (size > hundredMB) {
                 createIndex(locator, indexRequired);   // Note, might return null.
             }
@@ -89,7 +95,9 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
 
         //We make sure to require and index if one exists, so it gets loaded
         //TODO Temporary, shouldn't be necessary pending a tribble update
-        AbstractFeatureReader basicReader = AbstractFeatureReader.getFeatureReader(locator.getPath(), idxPath, codec, indexRequired || indexExists);
+        AbstractFeatureReader basicReader = cachedIndex != null ?
+                AbstractFeatureReader.getFeatureReader(locator.getPath(), codec, cachedIndex) :
+                AbstractFeatureReader.getFeatureReader(locator.getPath(), idxPath, codec, indexRequired || indexExists);
 
         if (basicReader.hasIndex()) {
             return new IndexedFeatureSource(basicReader, codec, locator, genome, useCache);
@@ -285,6 +293,11 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
          */
         Map<String, List<Feature>> featureMap;
 
+        /**
+         * Compact store for the features of large files, in place of featureMap.  Null if not used.
+         */
+        CompactFeatureStore store;
+
         CoverageDataSource coverageData;
 
         private NonIndexedFeatureSource(AbstractFeatureReader basicReader, FeatureCodec codec, ResourceLocator locator, Genome genome) throws IOException {
@@ -292,33 +305,51 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
             super(locator, basicReader, codec, genome, false);
 
             featureMap = new HashMap<String, List<Feature>>(25);
-            Iterator<Feature> iter = null;
-
-            try {
-                iter = reader.iterator();
-                while (iter.hasNext()) {
-                    Feature f = iter.next();
-                    if (f == null) continue;
-
-                    String seqName = f.getChr();
-                    String igvChr = genome == null ? seqName : genome.getCanonicalChrName(seqName);
 
-                    List<Feature> featureList = featureMap.get(igvChr);
-                    if (featureList == null) {
-                        featureList = new ArrayList();
-                        featureMap.put(igvChr, featureList);
+            if (ParallelFeatureReader.isSupported(locator, codec)) {
+                // Large file, decode in parallel and index it for subsequent loads
+                File file = new File(locator.getPath());
+                FeatureIndexCache.Builder indexBuilder = FeatureIndexCache.isEnabled() ?
+                        new FeatureIndexCache.Builder(file) : null;
+                store = CompactFeatureStore.create(locator, codec, genome);
+                new ParallelFeatureReader(locator, genome).read(chunk -> {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        Feature f = chunk.getFeature(i);
+                        if (store == null) {
+                            addFeature(f);
+                        } else {
+                            addFeature(f, chunk.getPosition(i), chunk.getLength(i));
+                        }
+                        if (indexBuilder != null) indexBuilder.addFeature(f, chunk.getPosition(i));
                     }
-                    featureList.add(f);
-                    if (f instanceof NamedFeature) FeatureDB.addFeature((NamedFeature) f, genome);
+                });
+                if (store == null) {
+                    ParallelFeatureReader.sortFeatureLists(featureMap.values());
+                } else {
+                    store.finish();
                 }
-            } finally {
-                if (iter instanceof CloseableTribbleIterator) {
-                    ((CloseableTribbleIterator) iter).close();
+                Index index = indexBuilder == null ? null : indexBuilder.finish();
+                if (index != null) {
+                    FeatureIndexCache.putIndex(locator.getPath(), index);
+                }
+            } else {
+                Iterator<Feature> iter = null;
+                try {
+                    iter = reader.iterator();
+                    while (iter.hasNext()) {
+                        Feature f = iter.next();
+                        if (f == null) continue;
+                        addFeature(f);
+                    }
+                } finally {
+                    if (iter instanceof CloseableTribbleIterator) {
+                        ((CloseableTribbleIterator) iter).close();
+                    }
                 }
-            }
 
-            for (List<Feature> featureList : featureMap.values()) {
-                FeatureUtils.sortFeatureList(featureList);
+                for (List<Feature> featureList : featureMap.values()) {
+                    FeatureUtils.sortFeatureList(featureList);
+                }
             }
 
             if (genome != null) {
@@ -328,9 +359,36 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
             }
         }
 
+        private void addFeature(Feature f) {
+            String seqName = f.getChr();
+            String igvChr = genome == null ? seqName : genome.getCanonicalChrName(seqName);
+
+            List<Feature> featureList = featureMap.get(igvChr);
+            if (featureList == null) {
+                featureList = new ArrayList();
+                featureMap.put(igvChr, featureList);
+            }
+            featureList.add(f);
+            if (f instanceof NamedFeature) FeatureDB.addFeature((NamedFeature) f, genome);
+        }
+
+        private void addFeature(Feature f, long position, int length) {
+            String seqName = f.getChr();
+            String igvChr = genome == null ? seqName : genome.getCanonicalChrName(seqName);
+            store.add(igvChr, f, position, length);
+            if (f instanceof NamedFeature) {
+                NamedFeature nf = (NamedFeature) f;
+                FeatureDB.addFeature(nf, new CompactFeatureStore.FeatureHandle(store, igvChr, nf), genome);
+            }
+        }
+
         @Override
         public void dispose() {
             super.dispose();
+            if (store != null) {
+                FeatureDB.removeFeatures(f -> f instanceof CompactFeatureStore.FeatureHandle &&
+                        ((CompactFeatureStore.FeatureHandle) f).getStore() == store);
+            }
             for(List<Feature> featureList : featureMap.values()) {
                 for(Feature f : featureList) {
                     if(f instanceof NamedFeature) FeatureDB.removeFeature((NamedFeature) f, genome);
@@ -356,6 +414,9 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
 
         @Override
         public Iterator getFeatures(String chr, int start, int end) throws IOException {
+            if (store != null && !chr.equals(Globals.CHR_ALL)) {
+                return store.getFeatures(chr, start, end).iterator();
+            }
             List<Feature> features = featureMap.get(chr);
             if (features == null) {
                 return Collections.<Feature>emptyList().iterator();
@@ -367,6 +428,11 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
 
         @Override
         protected Collection<String> getSequenceNames() {
+            if (store != null) {
+                Set<String> names = new LinkedHashSet<>(store.getChromosomeNames());
+                names.addAll(featureMap.keySet());
+                return names;
+            }
             return featureMap.keySet();
         }
 
@@ -380,6 +446,26 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
             int sampleLength = (int) ((double) genome.getNominalLength() / (1000 * 700));
             int lastFeaturePosition = -1;
             for (String chr : genome.getLongChromosomeNames()) {
+                if (store != null) {
+                    CompactFeatureStore.ChrFeatures features = store.getFeatures(chr);
+                    if (features != null) {
+                        long offset = genome.getCumulativeOffset(chr);
+                        for (int i = 0; i < features.size(); i++) {
+                            int genStart = (int) ((offset + features.getStart(i)) / 1000);
+                            int genEnd = (int) ((offset + features.getEnd(i)) / 1000);
+                            if (genEnd > lastFeaturePosition + sampleLength) {
+                                BasicFeature f2 = new BasicFeature(Globals.CHR_ALL, genStart, genEnd);
+                                f2.setThickEnd((int) ((offset + features.getThickEnd(i)) / 1000));
+                                f2.setThickStart((int) ((offset + features.getThickStart(i)) / 1000));
+                                f2.setName(features.getName(i));
+                                chrAllFeatures.add(f2);
+
+                                lastFeaturePosition = genEnd;
+                            }
+                        }
+                    }
+                    continue;
+                }
                 List<Feature> features = featureMap.get(chr);
                 if (features != null) {
                     long offset = genome.getCumulativeOffset(chr);
@@ -408,6 +494,33 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
             featureMap.put(Globals.CHR_ALL, chrAllFeatures);
         }
 
+        /**
+         * @return the starts and ends of the features on the chromosome, or null if there are none
+         */
+        private int[][] getIntervals(String chr) {
+            int[] starts;
+            int[] ends;
+            CompactFeatureStore.ChrFeatures chrFeatures = store == null ? null : store.getFeatures(chr);
+            if (chrFeatures != null) {
+                starts = new int[chrFeatures.size()];
+                ends = new int[chrFeatures.size()];
+                for (int i = 0; i < starts.length; i++) {
+                    starts[i] = chrFeatures.getStart(i);
+                    ends[i] = chrFeatures.getEnd(i);
+                }
+            } else {
+                List<Feature> features = featureMap.get(chr);
+                if (features == null) return null;
+                starts = new int[features.size()];
+                ends = new int[features.size()];
+                for (int i = 0; i < starts.length; i++) {
+                    starts[i] = features.get(i).getStart();
+                    ends[i] = features.get(i).getEnd();
+                }
+            }
+            return new int[][]{starts, ends};
+        }
+
         class CoverageDataSource extends AbstractDataSource {
 
             int windowSize = 1000;
@@ -466,11 +579,11 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
                     ends[i] = starts[i] + windowSize;
                 }
                 float[] values = new float[nBins];
-                List<Feature> features = featureMap.get(chr);
-                if (features != null) {
-                    for (Feature f : features) {
-                        int startBin = f.getStart() / windowSize;
-                        int endBin = f.getEnd() / windowSize;
+                int[][] intervals = getIntervals(chr);
+                if (intervals != null) {
+                    for (int j = 0; j < intervals[0].length; j++) {
+                        int startBin = intervals[0][j] / windowSize;
+                        int endBin = intervals[1][j] / windowSize;
                         for (int i = startBin; i < endBin; i++) {
                             values[i] = values[i] + 1;
                             dataMax = Math.max(dataMax, values[i]);
@@ -497,12 +610,12 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
 
 
                 for (String chr : genome.getLongChromosomeNames()) {
-                    List<Feature> features = featureMap.get(chr);
-                    if (features != null) {
+                    int[][] intervals = getIntervals(chr);
+                    if (intervals != null) {
                         long offset = genome.getCumulativeOffset(chr);
-                        for (Feature f : features) {
-                            int genStart = (int) ((offset + f.getStart()) / 1000);
-                            int genEnd = (int) ((offset + f.getEnd()) / 1000);
+                        for (int j = 0; j < intervals[0].length; j++) {
+                            int genStart = (int) ((offset + intervals[0][j]) / 1000);
+                            int genEnd = (int) ((offset + intervals[1][j]) / 1000);
                             int binStart = Math.min(values.length - 1, (int) (genStart / step));
                             int binEnd = Math.min(values.length - 1, (int) (genEnd / step));
                             for (int i = binStart; i <= binEnd; i++) {
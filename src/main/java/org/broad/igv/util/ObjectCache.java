@@ -60,7 +60,7 @@ public class ObjectCache<K, V> {
         map = new LinkedHashMap<K, SoftReference<V>>(maxSize);
     }
 
-    public void put(K key, V image) {
+    public synchronized void put(K key, V image) {
         if (map.size() == maxSize) {
             // Map has reached maximum size.  Remove the first(oldest) entry.
             // 
@@ -73,7 +73,7 @@ public class ObjectCache<K, V> {
         map.put(key, SoftReference);
     }
 
-    public V get(K key) {
+    public synchronized V get(K key) {
 
         V image = null;
         SoftReference<V> SoftReference = map.get(key);
@@ -88,19 +88,19 @@ public class ObjectCache<K, V> {
         return map.keySet();
     }
 
-    public void remove(K key) {
+    public synchronized void remove(K key) {
         map.remove(key);
     }
 
-    public boolean containsKey(K key) {
+    public synchronized boolean containsKey(K key) {
         return map.containsKey(key);
     }
 
-    public void clear() {
+    public synchronized void clear() {
         map.clear();
     }
 
-    public int size() {
+    public synchronized int size() {
         return map.size();
     }
 
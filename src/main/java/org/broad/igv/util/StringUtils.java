@@ -60,7 +60,7 @@ public class StringUtils {
      * @param string
      * @return
      */
-    public static String intern(String string) {
+    public static synchronized String intern(String string) {
         if (!internedStrings.containsKey(string)) {
             internedStrings.put(string, string);
         }
@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.collections;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least-recently-used cache with a maximum size that can be read and written concurrently without locking.
+ * Every access is appended to a queue and stamps its entry.  When the cache grows past its maximum size entries
+ * are evicted from the head of the queue, skipping accesses that a later access to the same entry has superseded,
+ * so eviction takes amortized constant time.  Superseded accesses are compacted from the queue once they
+ * outnumber the entries.  Eviction is approximate under concurrent updates, which may briefly leave the cache a
+ * little over or under its maximum size.  Null keys and values are not permitted.
+ */
+public class ConcurrentLRUCache<K, V> {
+
+    private final Map<K, Entry<V>> map = new ConcurrentHashMap<>();
+    private final Queue<Access<K, V>> accesses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger accessCount = new AtomicInteger();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final AtomicLong clock = new AtomicLong();
+    private volatile int maxEntries;
+
+    public ConcurrentLRUCache(int max) {
+        this.maxEntries = max;
+    }
+
+    public void setMaxEntries(int max) {
+        this.maxEntries = max;
+        trim();
+    }
+
+    public V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        touch(key, entry);
+        return entry.value;
+    }
+
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    public V put(K key, V value) {
+        Entry<V> entry = new Entry<>(value);
+        Entry<V> previous = map.put(key, entry);
+        touch(key, entry);
+        trim();
+        return previous == null ? null : previous.value;
+    }
+
+    /**
+     * Add the mapping unless the key is already mapped.  Callers that load values outside of any lock can use this
+     * to agree on a single value when two threads load the same key at once.
+     *
+     * @return the existing value if the key is already mapped, otherwise {@code value}
+     */
+    public V putIfAbsent(K key, V value) {
+        Entry<V> entry = new Entry<>(value);
+        Entry<V> existing = map.putIfAbsent(key, entry);
+        if (existing != null) {
+            touch(key, existing);
+            return existing.value;
+        }
+        touch(key, entry);
+        trim();
+        return value;
+    }
+
+    public V remove(K key) {
+        Entry<V> entry = map.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public void clear() {
+        map.clear();
+        compact();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * @return a snapshot of the cached values, in no particular order
+     */
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>(map.size());
+        for (Entry<V> entry : map.values()) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    private void touch(K key, Entry<V> entry) {
+        long stamp = clock.incrementAndGet();
+        // Stamps only increase, so the latest access to an entry is never taken as superseded
+        entry.stamp.accumulateAndGet(stamp, Math::max);
+        accesses.add(new Access<>(key, entry, stamp));
+        if (accessCount.incrementAndGet() > 2 * map.size() + 16) {
+            compact();
+        }
+    }
+
+    private void trim() {
+        while (map.size() > maxEntries) {
+            Access<K, V> access = accesses.poll();
+            if (access == null) {
+                return;
+            }
+            accessCount.decrementAndGet();
+            if (access.isCurrent()) {
+                // Only remove the entry that was accessed, it might have been replaced in the meantime
+                map.remove(access.key, access.entry);
+            }
+        }
+    }
+
+    /**
+     * Remove superseded accesses, and accesses to entries no longer in the cache, from the queue
+     */
+    private void compact() {
+        if (compacting.compareAndSet(false, true)) {
+            try {
+                Iterator<Access<K, V>> iter = accesses.iterator();
+                while (iter.hasNext()) {
+                    Access<K, V> access = iter.next();
+                    if (!access.isCurrent() || map.get(access.key) != access.entry) {
+                        iter.remove();
+                        accessCount.decrementAndGet();
+                    }
+                }
+            } finally {
+                compacting.set(false);
+            }
+        }
+    }
+
+    private static class Entry<V> {
+
+        final V value;
+        final AtomicLong stamp = new AtomicLong();
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+
+    private static class Access<K, V> {
+
+        final K key;
+        final Entry<V> entry;
+        final long stamp;
+
+        Access(K key, Entry<V> entry, long stamp) {
+            this.key = key;
+            this.entry = entry;
+            this.stamp = stamp;
+        }
+
+        boolean isCurrent() {
+            return entry.stamp.get() == stamp;
+        }
+    }
+}
@@ -94,6 +94,17 @@ public class FloatArrayList {
         size = 0;
     }
 
+    /**
+     * Ensure {@code minCapacity} elements can be held without growing, for example before adding a known number.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity >= elements.length) {
+            float[] tmp = new float[Math.max(minCapacity + 1, 2 * elements.length)];
+            System.arraycopy(elements, 0, tmp, 0, size);
+            elements = tmp;
+        }
+    }
+
     private void grow() {
         int oldCapacity = elements.length;
         int newCapacity;
@@ -95,6 +95,17 @@ public class IntArrayList {
         size = 0;
     }
 
+    /**
+     * Ensure {@code minCapacity} elements can be held without growing, for example before adding a known number.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity >= elements.length) {
+            int[] tmp = new int[Math.max(minCapacity + 1, 2 * elements.length)];
+            System.arraycopy(elements, 0, tmp, 0, size);
+            elements = tmp;
+        }
+    }
+
     private void grow() {
         int oldCapacity = elements.length;
         int newCapacity;
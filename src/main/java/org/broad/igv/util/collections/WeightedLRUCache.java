@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.collections;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A least-recently-used cache bounded by a byte budget rather than an entry count, for values that vary in size by
+ * orders of magnitude.  Callers supply the size of each value.  The budget is read on every put, so it can follow a
+ * preference.
+ */
+public class WeightedLRUCache<K, V> {
+
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(64, 0.75f, true);
+    private final LongSupplier budget;
+    private long bytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param budget supplies the maximum size of the cache in bytes
+     */
+    public WeightedLRUCache(LongSupplier budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget.getAsLong();
+    }
+
+    /**
+     * @return the value cached for {@code key}, or null
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Cache a value, replacing any value cached for the key, and evict least recently used values until the cache
+     * is within budget.  The value just added is never evicted, so a value larger than the budget is held until
+     * the next put.
+     */
+    public synchronized void put(K key, V value, long bytes) {
+        Entry<V> previous = map.put(key, new Entry<>(value, bytes));
+        if (previous != null) {
+            this.bytes -= previous.bytes;
+        }
+        this.bytes += bytes;
+        trim();
+    }
+
+    /**
+     * Cache a value, unless a value is already cached for the key or the value alone would exceed the budget.
+     *
+     * @return the value now cached for {@code key}, which is {@code value} unless another was already cached
+     */
+    public synchronized V putIfAbsent(K key, V value, long bytes) {
+        Entry<V> existing = map.get(key);
+        if (existing != null) {
+            return existing.value;
+        }
+        if (bytes <= getBudget()) {
+            map.put(key, new Entry<>(value, bytes));
+            this.bytes += bytes;
+            trim();
+        }
+        return value;
+    }
+
+    private void trim() {
+        long budget = getBudget();
+        Iterator<Entry<V>> iter = map.values().iterator();
+        while (bytes > budget && map.size() > 1) {
+            bytes -= iter.next().bytes;
+            iter.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Remove all values whose key matches {@code filter}
+     */
+    public synchronized void removeAll(Predicate<? super K> filter) {
+        Iterator<Map.Entry<K, Entry<V>>> iter = map.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<K, Entry<V>> e = iter.next();
+            if (filter.test(e.getKey())) {
+                iter.remove();
+                bytes -= e.getValue().bytes;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long requests = hitCount + missCount;
+        return "[entries=" + map.size() + ", bytes=" + bytes + ", hits=" + hitCount +
+                ", misses=" + missCount + ", evictions=" + evictionCount +
+                (requests > 0 ? ", hitRate=" + (100 * hitCount / requests) + "%" : "") + "]";
+    }
+
+    private static class Entry<V> {
+
+        final V value;
+        final long bytes;
+
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
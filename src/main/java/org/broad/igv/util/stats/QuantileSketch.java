@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.util.stats;
+
+import org.apache.commons.math.stat.StatUtils;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable sketch of a stream of values for estimating percentiles in bounded memory, after Karnin, Lang and
+ * Liberty, "Optimal Quantile Approximation in Streams" (KLL).  Values are held in a stack of levels, an item at
+ * level h standing for 2^h values.  When a level exceeds its capacity it is sorted and every other item is promoted
+ * to the next level.  Capacities shrink geometrically towards the bottom of the stack, so at most about 3k values
+ * are held however many are added.
+ * <p>
+ * Until more than k values have been added all values are held, and percentiles are computed exactly as by
+ * {@link StatUtils#percentile(double[], double)}.  Compaction alternates between keeping the odd and even items
+ * rather than choosing at random, so results are reproducible.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_K = 256;
+
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 8;
+
+    private final int k;
+    private float[][] levels;
+    private int[] sizes;
+    private boolean[] keepOdd;
+    private int retained;
+    private int maxRetained;
+    private long count;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    public QuantileSketch(int k) {
+        this.k = k;
+        this.levels = new float[1][];
+        this.sizes = new int[1];
+        this.keepOdd = new boolean[1];
+        this.maxRetained = capacity(0);
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return true if all values added are held, in which case percentiles are exact
+     */
+    public boolean isExact() {
+        return levels.length == 1;
+    }
+
+    public void add(float v) {
+        append(0, v);
+        count++;
+        if (retained > maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Add the values of {@code other} to this sketch.  {@code other} is not modified.
+     */
+    public void merge(QuantileSketch other) {
+        while (levels.length < other.levels.length) {
+            grow();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        while (retained > maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * @param p the percentile, in the range (0, 100]
+     * @return an estimate of the {@code p}th percentile of the values added, or NaN if there are none
+     */
+    public double getPercentile(double p) {
+
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        if (isExact()) {
+            int n = sizes[0];
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = levels[0][i];
+            }
+            return StatUtils.percentile(values, p);
+        }
+
+        // Walk the levels in value order, accumulating weights, until the rank of the percentile is reached
+        int nLevels = levels.length;
+        int[] next = new int[nLevels];
+        for (int h = 0; h < nLevels; h++) {
+            if (sizes[h] > 0) {
+                Arrays.sort(levels[h], 0, sizes[h]);
+            }
+        }
+        double rank = p / 100 * count;
+        long weight = 0;
+        float value = Float.NaN;
+        while (true) {
+            int minLevel = -1;
+            for (int h = 0; h < nLevels; h++) {
+                if (next[h] < sizes[h] && (minLevel < 0 || levels[h][next[h]] < levels[minLevel][next[minLevel]])) {
+                    minLevel = h;
+                }
+            }
+            if (minLevel < 0) {
+                return value;
+            }
+            value = levels[minLevel][next[minLevel]++];
+            weight += 1L << minLevel;
+            if (weight >= rank) {
+                return value;
+            }
+        }
+    }
+
+    private int capacity(int h) {
+        int depth = levels.length - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    private void append(int h, float v) {
+        float[] level = levels[h];
+        if (level == null) {
+            level = new float[16];
+            levels[h] = level;
+        } else if (sizes[h] == level.length) {
+            level = Arrays.copyOf(level, 2 * level.length);
+            levels[h] = level;
+        }
+        level[sizes[h]++] = v;
+        retained++;
+    }
+
+    private void grow() {
+        int nLevels = levels.length + 1;
+        levels = Arrays.copyOf(levels, nLevels);
+        sizes = Arrays.copyOf(sizes, nLevels);
+        keepOdd = Arrays.copyOf(keepOdd, nLevels);
+        maxRetained = 0;
+        for (int h = 0; h < nLevels; h++) {
+            maxRetained += capacity(h);
+        }
+    }
+
+    /**
+     * Compact the lowest level over capacity, and any above it as needed to bring the sketch back within bounds
+     */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] > capacity(h)) {
+                if (h + 1 == levels.length) {
+                    grow();
+                }
+                compact(h);
+                if (retained <= maxRetained) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void compact(int h) {
+        float[] level = levels[h];
+        int size = sizes[h];
+        Arrays.sort(level, 0, size);
+
+        // An odd item out stays at this level
+        int n = size & ~1;
+        for (int i = keepOdd[h] ? 1 : 0; i < n; i += 2) {
+            append(h + 1, level[i]);
+        }
+        keepOdd[h] = !keepOdd[h];
+        retained -= n;
+        if (n < size) {
+            level[0] = level[size - 1];
+        }
+        sizes[h] = size - n;
+    }
+}
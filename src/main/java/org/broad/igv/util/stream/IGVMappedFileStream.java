@@ -0,0 +1,231 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.Globals;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.collections.ConcurrentLRUCache;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static org.broad.igv.prefs.Constants.MEMORY_MAPPED_FILES;
+
+/**
+ * A SeekableStream over a memory-mapped local file.  Reads are copies from the page cache, without a system call,
+ * and {@link #slice(long, int)} returns a view of the mapped file without copying at all.
+ * <p>
+ * Mappings are shared by all streams open on a file, and are remapped if the file changes length or modification
+ * time.  The file is mapped in overlapping regions, as a single mapping is limited to 2 GB, so that any slice of
+ * up to {@link #MAX_SLICE} bytes lies within one region.
+ * <p>
+ * Only formats read in many small random slices are mapped, see
+ * {@link IGVSeekableStreamFactory#getMappedStreamFor(String)}.
+ */
+public class IGVMappedFileStream extends SeekableStream {
+
+    static final long REGION_SIZE = 1L << 30;
+    public static final int MAX_SLICE = 1 << 26;
+
+    private static final ConcurrentLRUCache<String, MappedFile> mappedFiles = new ConcurrentLRUCache<>(100);
+
+    private final MappedFile file;
+    private long position;
+
+    public IGVMappedFileStream(File file) throws IOException {
+        this.file = MappedFile.get(file);
+    }
+
+    /**
+     * @return true if local {@code file} should be read through a memory mapping.  Mapping is disabled on Windows,
+     * where a mapped file cannot be replaced or deleted until the mapping is garbage collected.
+     */
+    public static boolean canMap(File file) {
+        return !Globals.IS_WINDOWS &&
+                PreferencesManager.getPreferences().getAsBoolean(MEMORY_MAPPED_FILES) &&
+                file.isFile() && file.length() > 0;
+    }
+
+    /**
+     * Read {@code length} bytes at {@code position} of {@code stream}.  A memory-mapped stream returns a view of the
+     * mapping without copying, other streams read into a new array.  The buffer is positioned at 0, and has the
+     * default (big-endian) byte order.
+     *
+     * @throws EOFException if the file ends before {@code length} bytes
+     */
+    public static ByteBuffer readBuffer(SeekableStream stream, long position, int length) throws IOException {
+        if (stream instanceof IGVMappedFileStream) {
+            return ((IGVMappedFileStream) stream).slice(position, length);
+        }
+        byte[] bytes = new byte[length];
+        stream.seek(position);
+        stream.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Return a read-only view of {@code length} bytes of the file starting at {@code position}.  The view shares the
+     * mapping, so no bytes are copied unless {@code length} exceeds {@link #MAX_SLICE}.  Slices are independent of
+     * the stream position and safe to take from several threads.
+     *
+     * @throws EOFException if the file ends before {@code length} bytes, as {@link #readFully(byte[])} does
+     */
+    public ByteBuffer slice(long position, int length) throws IOException {
+
+        if (position < 0 || length < 0 || position + length > file.length) {
+            throw new EOFException("Range " + position + "-" + (position + length) + " is outside " + file.path);
+        }
+        if (length == 0) {
+            return ByteBuffer.allocate(0);
+        }
+
+        if (length > MAX_SLICE) {
+            byte[] bytes = new byte[length];
+            read(position, bytes, 0, length);
+            return ByteBuffer.wrap(bytes);
+        }
+
+        int r = (int) (position / REGION_SIZE);
+        int offset = (int) (position - r * REGION_SIZE);
+        ByteBuffer region = file.regions[r].duplicate();
+        region.position(offset);
+        region.limit(offset + length);
+        return region.slice();
+    }
+
+    private int read(long position, byte[] b, int off, int len) {
+        int n = (int) Math.min(len, file.length - position);
+        int done = 0;
+        while (done < n) {
+            long p = position + done;
+            int r = (int) (p / REGION_SIZE);
+            ByteBuffer region = file.regions[r].duplicate();
+            region.position((int) (p - r * REGION_SIZE));
+            int count = Math.min(n - done, region.remaining());
+            region.get(b, off + done, count);
+            done += count;
+        }
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return file.length;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= file.length) {
+            return -1;
+        }
+        int n = read(position, b, off, len);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= file.length) {
+            return -1;
+        }
+        int r = (int) (position / REGION_SIZE);
+        int b = file.regions[r].get((int) (position - r * REGION_SIZE)) & 0xFF;
+        position++;
+        return b;
+    }
+
+    @Override
+    public boolean eof() {
+        return position >= file.length;
+    }
+
+    /**
+     * The mapping is shared with other streams and is released when no longer referenced, so there is nothing to
+     * close.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getSource() {
+        return file.path;
+    }
+
+    private static class MappedFile {
+
+        final String path;
+        final long length;
+        final long lastModified;
+        final MappedByteBuffer[] regions;
+
+        private MappedFile(File file) throws IOException {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+
+            int nRegions = (int) ((length + REGION_SIZE - 1) / REGION_SIZE);
+            regions = new MappedByteBuffer[nRegions];
+            // The mapping remains valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                for (int r = 0; r < nRegions; r++) {
+                    long start = r * REGION_SIZE;
+                    long size = Math.min(REGION_SIZE + MAX_SLICE, length - start);
+                    regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                }
+            }
+        }
+
+        static MappedFile get(File file) throws IOException {
+            String key = file.getAbsolutePath();
+            MappedFile mappedFile = mappedFiles.get(key);
+            if (mappedFile == null || mappedFile.length != file.length() || mappedFile.lastModified != file.lastModified()) {
+                mappedFile = new MappedFile(file);
+                mappedFiles.put(key, mappedFile);
+            }
+            return mappedFile;
+        }
+    }
+}
@@ -87,6 +87,23 @@ public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
         }
     }
 
+    /**
+     * Return a stream for {@code path}, memory-mapped if it is a local file that can be mapped, see
+     * {@link IGVMappedFileStream}.  For formats read in small random slices (TDF, bigWig/bigBed, indexed fasta),
+     * other files are read through {@link #getStreamFor(String)}.
+     */
+    public SeekableStream getMappedStreamFor(String path) throws IOException {
+        File file = new File(path);
+        if (IGVMappedFileStream.canMap(file)) {
+            try {
+                return new IGVMappedFileStream(file);
+            } catch (IOException e) {
+                // Mapping can fail, e.g. for lack of address space.  Fall back to ordinary reads.
+            }
+        }
+        return getStreamFor(path);
+    }
+
     public SeekableStream getBufferedStream(SeekableStream stream){
         return getBufferedStream(stream, IGVSeekableBufferedStream.DEFAULT_BUFFER_SIZE);
     }
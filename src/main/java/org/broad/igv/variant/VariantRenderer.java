@@ -25,6 +25,7 @@
 
 package org.broad.igv.variant;
 
+import htsjdk.variant.variantcontext.GenotypeType;
 import org.apache.log4j.Logger;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
@@ -32,9 +33,12 @@ import org.broad.igv.track.RenderContext;
 import org.broad.igv.track.Track;
 import org.broad.igv.ui.FontManager;
 import org.broad.igv.ui.color.ColorUtilities;
+import org.broad.igv.variant.vcf.VCFVariant;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.broad.igv.prefs.Constants.*;
@@ -87,6 +91,11 @@ public class VariantRenderer { //extends FeatureRenderer {
     private Color colorNoCall;
     private Color colorNoCallAlpha;
 
+    // Genotype fills of the current paint, batched by genotype type and filtered state.  Reused across paints.
+    private static final GenotypeType[] GENOTYPE_TYPES = GenotypeType.values();
+    private final Path2D.Float[] genotypePaths = new Path2D.Float[2 * GENOTYPE_TYPES.length];
+    private int genotypeBatchMaxX = Integer.MIN_VALUE;
+
     public VariantRenderer(VariantTrack track) {
         this.track = track;
         updateColors();
@@ -295,6 +304,105 @@ public class VariantRenderer { //extends FeatureRenderer {
         }
     }
 
+    /**
+     * Render the genotype bands, colored by genotype, of samples {@code first} to {@code last} (inclusive) of a list
+     * of samples whose bands are stacked from {@code top}.  The fills are batched, and drawn on the next call to
+     * {@link #flushGenotypes(RenderContext)}.
+     *
+     * @param columns column index of each sample of {@code samples}, see {@link VCFVariant#getSampleIndices()}.  If
+     *                null genotypes are looked up by sample name.
+     */
+    public void renderGenotypeBands(Variant variant, RenderContext context, List<String> samples, int[] columns,
+                                    int first, int last, int top, int bandHeight, int pX0, int dX, boolean hideFiltered) {
+
+        updateColors();
+
+        if (pX0 < genotypeBatchMaxX) {
+            // Overlaps a variant already batched, which must be drawn first
+            flushGenotypes(context);
+        }
+        genotypeBatchMaxX = Math.max(genotypeBatchMaxX, pX0 + dX);
+
+        boolean isFiltered = variant.isFiltered() && hideFiltered;
+        VCFVariant vcfVariant = columns != null ? (VCFVariant) variant : null;
+        boolean expanded = track.getDisplayMode() == Track.DisplayMode.EXPANDED;
+        int inset = expanded ? 1 : 0;
+        int h = Math.max(1, expanded ? bandHeight - 2 : bandHeight);
+
+        // Adjacent bands of the same type are merged into one rectangle
+        int runType = -1;
+        int runTop = 0;
+        int runBottom = 0;
+        for (int i = first; i <= last; i++) {
+            GenotypeType type;
+            if (vcfVariant != null) {
+                type = vcfVariant.getGenotypeType(columns[i]);
+            } else {
+                Genotype genotype = variant.getGenotype(samples.get(i));
+                if (genotype == null) {
+                    log.error("Genotype not found for sample " + samples.get(i));
+                    continue;
+                }
+                type = getColorType(genotype);
+            }
+            int y0 = top + i * bandHeight + inset;
+            int code = 2 * type.ordinal() + (isFiltered ? 1 : 0);
+            if (code != runType || y0 != runBottom) {
+                addGenotypeRect(runType, pX0, runTop, dX, runBottom - runTop);
+                runType = code;
+                runTop = y0;
+            }
+            runBottom = y0 + h;
+        }
+        addGenotypeRect(runType, pX0, runTop, dX, runBottom - runTop);
+    }
+
+    private void addGenotypeRect(int code, int x, int y, int w, int h) {
+        if (code < 0 || h <= 0) {
+            return;
+        }
+        Path2D.Float path = genotypePaths[code];
+        if (path == null) {
+            path = genotypePaths[code] = new Path2D.Float();
+        }
+        path.moveTo(x, y);
+        path.lineTo(x + w, y);
+        path.lineTo(x + w, y + h);
+        path.lineTo(x, y + h);
+        path.closePath();
+    }
+
+    /**
+     * Draw the genotype bands batched by {@link #renderGenotypeBands}
+     */
+    public void flushGenotypes(RenderContext context) {
+        Graphics2D g = null;
+        for (int code = 0; code < genotypePaths.length; code++) {
+            Path2D.Float path = genotypePaths[code];
+            if (path != null && path.getCurrentPoint() != null) {
+                if (g == null) {
+                    g = context.getGraphics2D("GENOTYPE");
+                }
+                g.setColor(getGenotypeColor(GENOTYPE_TYPES[code / 2], (code & 1) != 0));
+                g.fill(path);
+                path.reset();
+            }
+        }
+        genotypeBatchMaxX = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Discard the genotype bands batched by {@link #renderGenotypeBands} without drawing them
+     */
+    public void resetGenotypes() {
+        for (Path2D.Float path : genotypePaths) {
+            if (path != null) {
+                path.reset();
+            }
+        }
+        genotypeBatchMaxX = Integer.MIN_VALUE;
+    }
+
     private Color convertMethylationRateToColor(float mr) {
         Color color;
         /*
@@ -319,16 +427,38 @@ public class VariantRenderer { //extends FeatureRenderer {
     }
 
     public Color getGenotypeColor(Genotype genotype, boolean isFiltered) {
+        return getGenotypeColor(getColorType(genotype), isFiltered);
+    }
+
+    public Color getGenotypeColor(GenotypeType type, boolean isFiltered) {
+        switch (type) {
+            case NO_CALL:
+                return isFiltered ? colorNoCallAlpha : colorNoCall;
+            case HOM_REF:
+                return isFiltered ? colorHomRefAlpha : colorHomRef;
+            case HOM_VAR:
+                return isFiltered ? colorHomVarAlpha : colorHomVar;
+            case HET:
+                return isFiltered ? colorHetAlpha : colorHet;
+            default:
+                return Color.white;
+        }
+    }
+
+    /**
+     * @return the type that determines the color of the genotype, UNAVAILABLE for any without a color of its own
+     */
+    private static GenotypeType getColorType(Genotype genotype) {
         if (genotype.isNoCall()) {
-            return isFiltered ? colorNoCallAlpha : colorNoCall;
+            return GenotypeType.NO_CALL;
         } else if (genotype.isHomRef()) {
-            return isFiltered ? colorHomRefAlpha : colorHomRef;
+            return GenotypeType.HOM_REF;
         } else if (genotype.isHomVar()) {
-            return isFiltered ? colorHomVarAlpha : colorHomVar;
+            return GenotypeType.HOM_VAR;
         } else if (genotype.isHet()) {
-            return isFiltered ? colorHetAlpha : colorHet;
+            return GenotypeType.HET;
         }
-        return Color.white;
+        return GenotypeType.UNAVAILABLE;
     }
 
     private void drawCenteredText(Graphics2D g, char[] chars, int x, int y,
@@ -47,6 +47,7 @@ import org.broad.igv.event.TrackGroupEvent;
 import org.broad.igv.ui.panel.*;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.util.*;
+import org.broad.igv.variant.vcf.VCFVariant;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlType;
@@ -477,6 +478,8 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
 
         int curRowTop = top;
 
+        List<VisibleSamples> visibleSamples = getVisibleSamples(overallSampleRect, visibleRectangle);
+
         if (rows.size() > 0) {
             final double locScale = context.getScale();
             final double origin = context.getOrigin();
@@ -487,60 +490,67 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
 
             int lastEndX = -1;
             int minSpacing = 3;
-            for (PackedFeatures.FeatureRow row : rows) {
-                List<Feature> features = row.getFeatures();
-                for (Feature feature : features) {
-                    Variant variant = (Variant) feature;
+            try {
+                for (PackedFeatures.FeatureRow row : rows) {
+                    List<Feature> features = row.getFeatures();
+                    for (Feature feature : features) {
+                        Variant variant = (Variant) feature;
+
+                        if (hideFiltered && variant.isFiltered()) {
+                            continue;
+                        }
 
-                    if (hideFiltered && variant.isFiltered()) {
-                        continue;
-                    }
+                        int start = variant.getStart();
+                        int end = variant.getEnd();
+                        int pX = (int) ((start - origin) / locScale);
+                        int dX = (int) Math.max(2, (end - start) / locScale);
 
-                    int start = variant.getStart();
-                    int end = variant.getEnd();
-                    int pX = (int) ((start - origin) / locScale);
-                    int dX = (int) Math.max(2, (end - start) / locScale);
+                        if (pX + dX < pXMin) {
+                            continue;
+                        }
+                        if (pX > pXMax) {
+                            break;
+                        }
+                        int w = dX;
+                        int x = pX;
 
-                    if (pX + dX < pXMin) {
-                        continue;
-                    }
-                    if (pX > pXMax) {
-                        break;
-                    }
-                    int w = dX;
-                    int x = pX;
+                        if (w < 3) {
+                            w = 3;
+                            x--;
+                        }
 
-                    if (w < 3) {
-                        w = 3;
-                        x--;
-                    }
+                        //Make sure we have some whitespace between this
+                        //feature and the previous one, but only if they don't
+                        //actually overlap and the current size is reasonably large
+                        int spacing = x - lastEndX;
+                        if (spacing > 0 && spacing < minSpacing && w > 2 * minSpacing) {
+                            x += minSpacing - spacing;
+                        }
 
-                    //Make sure we have some whitespace between this
-                    //feature and the previous one, but only if they don't
-                    //actually overlap and the current size is reasonably large
-                    int spacing = x - lastEndX;
-                    if (spacing > 0 && spacing < minSpacing && w > 2 * minSpacing) {
-                        x += minSpacing - spacing;
-                    }
+                        tmpRect.y = curRowTop;
+                        if (tmpRect.intersects(visibleRectangle)) {
+                            renderer.renderSiteBand(variant, tmpRect, x, w, context);
+                            lastEndX = x + w - 1;
+                        }
 
-                    tmpRect.y = curRowTop;
-                    if (tmpRect.intersects(visibleRectangle)) {
-                        renderer.renderSiteBand(variant, tmpRect, x, w, context);
-                        lastEndX = x + w - 1;
-                    }
+                        renderSamples(visibleSamples, variant, context, overallSampleRect, x, w);
+                        boolean isSelected = selectedVariant != null && selectedVariant == variant;
+                        if (isSelected) {
+                            renderer.flushGenotypes(context);
+                            Graphics2D selectionGraphics = context.getGraphic2DForColor(Color.black);
+                            selectionGraphics.drawRect(x, curRowTop, w, getHeight());
+                        }
 
-                    renderSamples(g2D, visibleRectangle, variant, context, overallSampleRect, x, w);
-                    boolean isSelected = selectedVariant != null && selectedVariant == variant;
-                    if (isSelected) {
-                        Graphics2D selectionGraphics = context.getGraphic2DForColor(Color.black);
-                        selectionGraphics.drawRect(x, curRowTop, w, getHeight());
                     }
-
-                }
-                if (areFeaturesStacked()) {
-                    curRowTop += variantBandHeight;
-                    lastEndX = -1;
+                    if (areFeaturesStacked()) {
+                        curRowTop += variantBandHeight;
+                        lastEndX = -1;
+                    }
                 }
+                renderer.flushGenotypes(context);
+            } finally {
+                // Don't leave the genotypes of a failed paint batched for the next one
+                renderer.resetGenotypes();
             }
         } else {
             tmpRect.height = variantBandHeight;
@@ -566,28 +576,45 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
         }
     }
 
-    private void renderSamples(Graphics2D g2D, Rectangle visibleRectangle, Variant variant, RenderContext context, Rectangle overallSampleRect, int x, int w) {
+    /**
+     * Compute the range of samples of each group, or of the track if not grouped, whose genotype bands intersect
+     * the visible rectangle.  Computed once per paint, so that rendering each variant walks only the samples in view.
+     */
+    private List<VisibleSamples> getVisibleSamples(Rectangle overallSampleRect, Rectangle visibleRectangle) {
 
-        Rectangle tmpRect = new Rectangle(overallSampleRect);
-        tmpRect.height = getGenotypeBandHeight();
-        if (grouped) {
-            for (Map.Entry<String, List<String>> entry : samplesByGroups.entrySet()) {
-                for (String sample : entry.getValue()) {
-                    if (overallSampleRect.intersects(visibleRectangle)) {
-                        renderer.renderGenotypeBandSNP(variant, context, tmpRect, x, w, sample, coloring, hideFiltered);
-                    }
-                    tmpRect.y += tmpRect.height;
-                }
-                tmpRect.y += GROUP_BORDER_WIDTH;
+        List<VisibleSamples> visibleSamples = new ArrayList<>();
+        int bandHeight = getGenotypeBandHeight();
+        if (bandHeight <= 0 || !overallSampleRect.intersects(visibleRectangle)) {
+            return visibleSamples;
+        }
+
+        int visibleTop = visibleRectangle.y;
+        int visibleBottom = visibleRectangle.y + visibleRectangle.height - 1;
+        int groupTop = overallSampleRect.y;
+        Collection<List<String>> groups = grouped ? samplesByGroups.values() : Collections.singletonList(allSamples);
+        for (List<String> samples : groups) {
+            int first = Math.max(0, Math.floorDiv(visibleTop - groupTop, bandHeight));
+            int last = Math.min(samples.size() - 1, Math.floorDiv(visibleBottom - groupTop, bandHeight));
+            if (first <= last) {
+                visibleSamples.add(new VisibleSamples(samples, first, last, groupTop, bandHeight));
             }
-        } else {
+            groupTop += samples.size() * bandHeight + GROUP_BORDER_WIDTH;
+        }
+        return visibleSamples;
+    }
 
-            for (String sample : allSamples) {
+    private void renderSamples(List<VisibleSamples> visibleSamples, Variant variant, RenderContext context, Rectangle overallSampleRect, int x, int w) {
 
-                if (tmpRect.intersects(visibleRectangle)) {
-                    renderer.renderGenotypeBandSNP(variant, context, tmpRect, x, w, sample, coloring, hideFiltered);
+        for (VisibleSamples vs : visibleSamples) {
+            if (coloring == ColorMode.GENOTYPE) {
+                renderer.renderGenotypeBands(variant, context, vs.samples, vs.getColumns(variant),
+                        vs.first, vs.last, vs.top, vs.bandHeight, x, w, hideFiltered);
+            } else {
+                Rectangle tmpRect = new Rectangle(overallSampleRect.x, 0, overallSampleRect.width, vs.bandHeight);
+                for (int i = vs.first; i <= vs.last; i++) {
+                    tmpRect.y = vs.top + i * vs.bandHeight;
+                    renderer.renderGenotypeBandSNP(variant, context, tmpRect, x, w, vs.samples.get(i), coloring, hideFiltered);
                 }
-                tmpRect.y += tmpRect.height;
             }
         }
     }
@@ -1460,6 +1487,54 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
         }
     }
 
+    /**
+     * A range of samples, of a group or of the track if not grouped, whose genotype bands are in view
+     */
+    static class VisibleSamples {
+
+        final List<String> samples;
+        final int first;
+        final int last;
+        final int top;
+        final int bandHeight;
+
+        // Column index of each sample in the variant file, see VCFVariant.getSampleIndices()
+        private Map<String, Integer> sampleIndices;
+        private int[] columns;
+
+        VisibleSamples(List<String> samples, int first, int last, int top, int bandHeight) {
+            this.samples = samples;
+            this.first = first;
+            this.last = last;
+            this.top = top;
+            this.bandHeight = bandHeight;
+        }
+
+        /**
+         * @return the column index of each sample in view, or null if genotypes of the variant must be looked up
+         * by sample name
+         */
+        int[] getColumns(Variant variant) {
+            Map<String, Integer> indices = variant instanceof VCFVariant ? ((VCFVariant) variant).getSampleIndices() : null;
+            if (indices == null) {
+                return null;
+            }
+            if (indices != sampleIndices) {
+                sampleIndices = indices;
+                columns = new int[samples.size()];
+                for (int i = first; i <= last; i++) {
+                    Integer column = indices.get(samples.get(i));
+                    if (column == null) {
+                        columns = null;
+                        break;
+                    }
+                    columns[i] = column;
+                }
+            }
+            return columns;
+        }
+    }
+
     static class SampleBounds {
         int top;
         int bottom;
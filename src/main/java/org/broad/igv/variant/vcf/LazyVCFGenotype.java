@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.variant.vcf;
+
+import htsjdk.variant.variantcontext.GenotypeType;
+import org.broad.igv.variant.Allele;
+import org.broad.igv.variant.Genotype;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A genotype of a {@link VCFVariant} whose genotype fields have not been decoded.  The type, which is all that is
+ * needed to render and sort, is known; anything else decodes the genotypes of the variant.
+ */
+public class LazyVCFGenotype implements Genotype {
+
+    private final VCFVariant variant;
+    private final String sample;
+    private final GenotypeType type;
+
+    LazyVCFGenotype(VCFVariant variant, String sample, GenotypeType type) {
+        this.variant = variant;
+        this.sample = sample;
+        this.type = type;
+    }
+
+    private Genotype getGenotype() {
+        return variant.getDecodedGenotype(sample);
+    }
+
+    public String getTypeString() {
+        return type.toString();
+    }
+
+    public GenotypeType getType() {
+        return type;
+    }
+
+    public boolean isHomVar() {
+        return type == GenotypeType.HOM_VAR;
+    }
+
+    public boolean isHet() {
+        return type == GenotypeType.HET;
+    }
+
+    public boolean isHomRef() {
+        return type == GenotypeType.HOM_REF;
+    }
+
+    public boolean isNoCall() {
+        return type == GenotypeType.NO_CALL;
+    }
+
+    public String getGenotypeString() {
+        Genotype genotype = getGenotype();
+        return genotype == null ? type.toString() : genotype.getGenotypeString();
+    }
+
+    public Map<String, Object> getAttributes() {
+        Genotype genotype = getGenotype();
+        return genotype == null ? Collections.<String, Object>emptyMap() : genotype.getAttributes();
+    }
+
+    public double getAttributeAsDouble(String key) {
+        Genotype genotype = getGenotype();
+        return genotype == null ? Double.NaN : genotype.getAttributeAsDouble(key);
+    }
+
+    public List<Allele> getAlleles() {
+        Genotype genotype = getGenotype();
+        return genotype == null ? Collections.<Allele>emptyList() : genotype.getAlleles();
+    }
+
+    public double getPhredScaledQual() {
+        Genotype genotype = getGenotype();
+        return genotype == null ? -1 : genotype.getPhredScaledQual();
+    }
+}
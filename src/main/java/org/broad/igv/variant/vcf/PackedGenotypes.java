@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.variant.vcf;
+
+import htsjdk.variant.variantcontext.GenotypeType;
+
+/**
+ * Decodes the genotype types of the samples of a VCF record directly from the GT field of the line, one byte per
+ * sample in column order.  The rest of the genotype fields are left to the codec, which decodes them when first
+ * needed.
+ */
+public class PackedGenotypes {
+
+    private static final GenotypeType[] TYPES = GenotypeType.values();
+
+    private PackedGenotypes() {
+    }
+
+    public static GenotypeType getType(byte code) {
+        return TYPES[code];
+    }
+
+    /**
+     * Decode the genotype type of each sample of a VCF line.  Types are classified as by htsjdk, see
+     * {@link htsjdk.variant.variantcontext.Genotype#getType()}.
+     *
+     * @return the type ordinal of each sample, or null if the line has no GT field, a number of sample columns
+     * other than {@code nSamples}, or a GT field that cannot be parsed
+     */
+    public static byte[] parse(String line, int nSamples) {
+
+        // Skip to the FORMAT column, the 9th
+        int pos = 0;
+        for (int i = 0; i < 8; i++) {
+            pos = line.indexOf('\t', pos) + 1;
+            if (pos == 0) return null;
+        }
+        // GT must be the first FORMAT key
+        if (!line.startsWith("GT", pos) || (pos + 2 < line.length() && line.charAt(pos + 2) != ':' &&
+                line.charAt(pos + 2) != '\t')) {
+            return null;
+        }
+        pos = line.indexOf('\t', pos) + 1;
+        if (pos == 0) return null;
+
+        byte[] types = new byte[nSamples];
+        int length = line.length();
+        for (int s = 0; s < nSamples; s++) {
+            if (pos > length) return null;
+
+            int observed = -1;
+            boolean sawNoCall = false;
+            boolean sawMultipleAlleles = false;
+            int nAlleles = 0;
+            int allele = -1;      // Allele being parsed, -1 for none
+            boolean noCall = false;
+            while (true) {
+                char c = pos < length ? line.charAt(pos) : '\t';
+                if (c >= '0' && c <= '9') {
+                    allele = (allele < 0 ? 0 : 10 * allele) + (c - '0');
+                } else if (c == '.' && allele < 0 && !noCall) {
+                    noCall = true;
+                } else if (c == '/' || c == '|' || c == ':' || c == '\t') {
+                    if (noCall) {
+                        sawNoCall = true;
+                    } else if (allele >= 0) {
+                        if (observed < 0) {
+                            observed = allele;
+                        } else if (allele != observed) {
+                            sawMultipleAlleles = true;
+                        }
+                    } else {
+                        return null;
+                    }
+                    nAlleles++;
+                    allele = -1;
+                    noCall = false;
+                    if (c != '/' && c != '|') break;
+                } else {
+                    return null;
+                }
+                pos++;
+            }
+            if (nAlleles == 0) return null;
+
+            GenotypeType type;
+            if (sawNoCall) {
+                type = observed < 0 ? GenotypeType.NO_CALL : GenotypeType.MIXED;
+            } else if (sawMultipleAlleles) {
+                type = GenotypeType.HET;
+            } else {
+                type = observed == 0 ? GenotypeType.HOM_REF : GenotypeType.HOM_VAR;
+            }
+            types[s] = (byte) type.ordinal();
+
+            // Skip the rest of the sample column
+            int next = line.indexOf('\t', pos);
+            if (next < 0) {
+                if (s != nSamples - 1) return null;
+            } else if (s == nSamples - 1) {
+                return null;
+            }
+            pos = next + 1;
+        }
+        return types;
+    }
+}
@@ -30,6 +30,7 @@ import org.broad.igv.variant.Allele;
 import org.broad.igv.variant.Genotype;
 import org.broad.igv.variant.Variant;
 import org.broad.igv.variant.VariantTrack;
+import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 
@@ -55,6 +56,16 @@ public class VCFVariant implements Variant {
 
     Map<String, VCFGenotype> genotypeMap;
 
+    /**
+     * Column index of each sample, and the type of its genotype, when the genotypes are decoded lazily.  Null
+     * otherwise.
+     */
+    private Map<String, Integer> sampleIndices;
+    private byte[] genotypeTypes;
+
+    // Lock held while the genotypes are decoded lazily, shared with the codec that created the variant context
+    private Object decodeLock;
+
     private int start = -1;
     private int totalAlleleCount = 0;
 
@@ -64,14 +75,30 @@ public class VCFVariant implements Variant {
         init();
     }
 
+    /**
+     * Create a variant whose genotypes are decoded only when needed.  Until then only the genotype types, see
+     * {@link PackedGenotypes}, are known.
+     *
+     * @param sampleIndices column index of each sample, in column order.  Shared by all variants of a file.
+     * @param genotypeTypes genotype type of each sample, by column index
+     * @param decodeLock    lock held while decoding the genotypes.  htsjdk decodes lazy genotypes with the codec that
+     *                      created the variant context, which is not thread safe, so the codec must hold the same
+     *                      lock while decoding.
+     */
+    public VCFVariant(VariantContext variantContext, String chr, Map<String, Integer> sampleIndices, byte[] genotypeTypes,
+                      Object decodeLock) {
+        this.variantContext = variantContext;
+        this.chr = chr;
+        this.sampleIndices = sampleIndices;
+        this.genotypeTypes = genotypeTypes;
+        this.decodeLock = decodeLock;
+        init();
+    }
+
     private void init() {
 
-        // Copy the genotype map.  Calls to variantContext.getGenotype() are expensive
-        genotypeMap = new HashMap<String, VCFGenotype>();
-        for (String sample : getSampleNames()) {
-            htsjdk.variant.variantcontext.Genotype genotype = variantContext.getGenotype(sample);
-            VCFGenotype vcfGenotype = genotype == null ? null : new VCFGenotype(genotype);
-            genotypeMap.put(sample, vcfGenotype);
+        if (genotypeTypes == null) {
+            decodeGenotypes();
         }
 
 //        zygosityCount = new ZygosityCount();
@@ -116,6 +143,35 @@ public class VCFVariant implements Variant {
 
     }
 
+    /**
+     * Copy the genotype map.  Calls to variantContext.getGenotype() are expensive
+     */
+    private void decodeGenotypes() {
+        genotypeMap = new HashMap<String, VCFGenotype>();
+        for (String sample : getSampleNames()) {
+            htsjdk.variant.variantcontext.Genotype genotype = variantContext.getGenotype(sample);
+            VCFGenotype vcfGenotype = genotype == null ? null : new VCFGenotype(genotype);
+            genotypeMap.put(sample, vcfGenotype);
+        }
+    }
+
+    /**
+     * @return the fully decoded genotype of the sample, decoding the genotypes of this variant if needed
+     */
+    synchronized VCFGenotype getDecodedGenotype(String sample) {
+        if (genotypeMap == null) {
+            try {
+                synchronized (decodeLock) {
+                    decodeGenotypes();
+                }
+            } catch (NumberFormatException e) {
+                log.warn("Error decoding genotypes of " + this + ": " + e.getMessage());
+                genotypeMap = Collections.emptyMap();
+            }
+        }
+        return genotypeMap.get(sample);
+    }
+
     /**
      * Allele frequency is a comma separated list of doubles
      * We strip away brackets and parentheses
@@ -267,15 +323,35 @@ public class VCFVariant implements Variant {
     }
 
     public Collection<String> getSampleNames() {
-        return variantContext.getSampleNames();
+        return sampleIndices != null ? sampleIndices.keySet() : variantContext.getSampleNames();
     }
 
     public Map<String, Object> getAttributes() {
         return variantContext.getAttributes();
     }
 
+    /**
+     * @return the column index of each sample if the genotypes are decoded lazily, otherwise null.  The map is
+     * shared by all variants of a file.
+     */
+    public Map<String, Integer> getSampleIndices() {
+        return genotypeTypes == null ? null : sampleIndices;
+    }
+
+    /**
+     * @param index column index of the sample, see {@link #getSampleIndices()}
+     * @return the genotype type of the sample
+     */
+    public GenotypeType getGenotypeType(int index) {
+        return PackedGenotypes.getType(genotypeTypes[index]);
+    }
+
     @Override
     public Genotype getGenotype(String sample) {
+        if (genotypeTypes != null) {
+            Integer index = sampleIndices.get(sample);
+            return index == null ? null : new LazyVCFGenotype(this, sample, PackedGenotypes.getType(genotypeTypes[index]));
+        }
         return genotypeMap.get(sample);
     }
 
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DirectoryManagerTest {
+
+    @Test
+    public void testPruneCacheDirectory() throws Exception {
+
+        File dir = Files.createTempDirectory("cache").toFile();
+        long now = System.currentTimeMillis();
+        long day = 24 * 60 * 60 * 1000L;
+        File[] files = new File[5];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(dir, "file" + i);
+            files[i].createNewFile();
+            files[i].setLastModified(now - i * day);
+        }
+
+        // Keep the 3 most recently used files, not older than 3.5 days
+        DirectoryManager.pruneCacheDirectory(dir, 3, 3 * day + day / 2);
+        assertTrue(files[0].exists() && files[1].exists() && files[2].exists());
+        assertFalse(files[3].exists() || files[4].exists());
+
+        // Remove files older than 1.5 days
+        DirectoryManager.pruneCacheDirectory(dir, 3, day + day / 2);
+        assertTrue(files[0].exists() && files[1].exists());
+        assertFalse(files[2].exists());
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
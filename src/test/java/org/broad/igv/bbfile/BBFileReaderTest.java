@@ -26,9 +26,12 @@
 package org.broad.igv.bbfile;
 
 import org.broad.igv.util.TestUtils;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -73,4 +76,91 @@ public class BBFileReaderTest {
     }
 
 
+    @Test
+    public void testReadBigBedFeatures() throws IOException {
+
+        String path = TestUtils.DATA_DIR + "bb/chr21.refseq.bb";
+        BBFileReader reader = new BBFileReader(path);
+        String chr = "chr21";
+        int[][] ranges = {{0, Integer.MAX_VALUE}, {26490012, 42182827}, {33000000, 33100000}};
+        for (int[] range : ranges) {
+            List<BedFeature> features = reader.readBigBedFeatures(chr, range[0], chr, range[1], false);
+            BigBedIterator iter = reader.getBigBedIterator(chr, range[0], chr, range[1], false);
+            int i = 0;
+            while (iter.hasNext()) {
+                BedFeature expected = iter.next();
+                BedFeature actual = features.get(i++);
+                assertEquals(expected.getChromosome(), actual.getChromosome());
+                assertEquals(expected.getStartBase(), actual.getStartBase());
+                assertEquals(expected.getEndBase(), actual.getEndBase());
+                assertArrayEquals(expected.getRestOfFields(), actual.getRestOfFields());
+            }
+            assertEquals(i, features.size());
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testReadBigWigData() throws IOException {
+        for (String file : new String[]{"wig/dummy_var_sample.bigwig", "wig/test_fixedStep.bigwig"}) {
+            BBFileReader reader = new BBFileReader(TestUtils.DATA_DIR + file);
+            List<String> chrNames = reader.getChromosomeNames();
+            // All chromosomes, more blocks than are read sequentially
+            String firstChr = reader.getChromsomeFromId(0);
+            String lastChr = reader.getChromsomeFromId(chrNames.size() - 1);
+            tstReadBigWigData(reader, firstChr, 0, lastChr, Integer.MAX_VALUE);
+            for (String chr : chrNames) {
+                tstReadBigWigData(reader, chr, 0, chr, Integer.MAX_VALUE);
+                tstReadBigWigData(reader, chr, 100, chr, 1000);
+                tstReadZoomLevelData(reader, chr, 0, Integer.MAX_VALUE);
+                tstReadZoomLevelData(reader, chr, 100, 1000);
+            }
+            reader.close();
+        }
+    }
+
+    private void tstReadBigWigData(BBFileReader reader, String startChr, int start, String endChr, int end) {
+
+        IntArrayList starts = new IntArrayList();
+        IntArrayList ends = new IntArrayList();
+        FloatArrayList values = new FloatArrayList();
+        int count = reader.readBigWigData(startChr, start, endChr, end, false, starts, ends, values);
+        assertEquals(count, starts.size());
+
+        BigWigIterator iter = reader.getBigWigIterator(startChr, start, endChr, end, false);
+        int i = 0;
+        while (iter.hasNext()) {
+            WigItem item = iter.next();
+            assertEquals(item.getStartBase(), starts.get(i));
+            assertEquals(item.getEndBase(), ends.get(i));
+            assertEquals(item.getWigValue(), values.get(i), 0);
+            i++;
+        }
+        assertEquals(i, count);
+    }
+
+    private void tstReadZoomLevelData(BBFileReader reader, String chr, int start, int end) {
+
+        for (BBZoomLevelHeader header : reader.getZoomLevels().getZoomLevelHeaders()) {
+            int level = header.getZoomLevel();
+            ZoomDataArrays data = new ZoomDataArrays();
+            int count = reader.readZoomLevelData(level, chr, start, chr, end, false, data);
+            assertEquals(count, data.size());
+
+            ZoomLevelIterator iter = reader.getZoomLevelIterator(level, chr, start, chr, end, false);
+            int i = 0;
+            while (iter.hasNext()) {
+                ZoomDataRecord rec = iter.next();
+                assertEquals(rec.getChromId(), data.getChromId(i));
+                assertEquals(rec.getChromStart(), data.getStart(i));
+                assertEquals(rec.getChromEnd(), data.getEnd(i));
+                assertEquals(rec.getMinVal(), data.getMinVal(i), 0);
+                assertEquals(rec.getMaxVal(), data.getMaxVal(i), 0);
+                assertEquals(rec.getMeanVal(), data.getMeanVal(i), 0);
+                i++;
+            }
+            assertEquals(i, count);
+        }
+    }
+
 }
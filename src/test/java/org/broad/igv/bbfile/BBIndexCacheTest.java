@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import org.broad.igv.util.TestUtils;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BBIndexCacheTest {
+
+    @Test
+    public void testSharedIndex() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "wig/dummy_var_sample.bigwig";
+        BBIndexCache.clear();
+
+        BBFileReader reader1 = new BBFileReader(path);
+        BBIndexCache.FileIndex index = reader1.getFileIndex();
+        assertTrue(index.size() > 0);
+        float[] expected = readAll(reader1);
+        reader1.close();
+
+        // A second reader of the file uses the nodes cached by the first
+        BBFileReader reader2 = new BBFileReader(path);
+        assertSame(index, reader2.getFileIndex());
+        int size = index.size();
+        assertArrayEquals(expected, readAll(reader2), 0);
+        assertEquals(size, index.size());
+        reader2.close();
+    }
+
+    @Test
+    public void testSidecar() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "wig/dummy_var_sample.bigwig";
+        BBFileReader reader = new BBFileReader(path);
+        readAll(reader);
+        BBIndexCache.FileIndex index = reader.getFileIndex();
+        reader.close();
+
+        File file = File.createTempFile("test", ".bbi");
+        file.deleteOnExit();
+        BBIndexCache.write(index, file);
+
+        // The source itself is not stored
+        String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(contents.contains(index.source));
+
+        BBIndexCache.FileIndex loaded = BBIndexCache.load(file, index.source, index.header);
+        assertNotNull(loaded);
+        assertEquals(index.nodes.keySet(), loaded.nodes.keySet());
+        for (Long offset : index.nodes.keySet()) {
+            assertArrayEquals(index.nodes.get(offset), loaded.nodes.get(offset));
+        }
+
+        // A changed file header invalidates the sidecar
+        byte[] header = Arrays.copyOf(index.header, index.header.length);
+        header[header.length - 1]++;
+        assertNull(BBIndexCache.load(file, index.source, header));
+        assertNull(BBIndexCache.load(file, index.source + "x", index.header));
+    }
+
+    private static float[] readAll(BBFileReader reader) {
+        IntArrayList starts = new IntArrayList();
+        IntArrayList ends = new IntArrayList();
+        FloatArrayList values = new FloatArrayList();
+        for (String chr : reader.getChromosomeNames()) {
+            reader.readBigWigData(chr, 0, chr, Integer.MAX_VALUE, false, starts, ends, values);
+        }
+        return values.toArray();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.bbfile.BBFileReader;
+import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.bigwig.BigWigDataSource;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DecodedTileCacheTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testByteBudget() {
+
+        DecodedTileCache cache = new DecodedTileCache(1000);
+
+        assertNull(cache.get(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 0)));
+        assertEquals("t0", cache.put(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 0), "t0", 400));
+        assertEquals("t0", cache.get(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 0)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // An existing tile is kept
+        assertEquals("t0", cache.put(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 0), "other", 400));
+
+        cache.put(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 1), "t1", 400);
+        cache.get(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 0));
+        cache.put(DecodedTileCache.key("a.tdf", "/chr1/z1/mean", 0), "t2", 400);
+
+        // Tile 1 was least recently used
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.getBytes());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 1)));
+        assertNotNull(cache.get(DecodedTileCache.key("a.tdf", "/chr1/z0/mean", 0)));
+
+        // A tile larger than the budget is returned, but not cached
+        assertEquals("big", cache.put(DecodedTileCache.key("b.tdf", "/chr1/z0/mean", 0), "big", 2000));
+        assertEquals(2, cache.size());
+
+        cache.removeAll(DecodedTileCache.prefix("a.tdf", "/chr1/z0/mean"));
+        assertEquals(1, cache.size());
+        assertEquals(400, cache.getBytes());
+        cache.removeAll(DecodedTileCache.prefix("a.tdf", null));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testBigWigRawBlocks() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "wig/dummy_var_sample.bigwig";
+        BBFileReader reader = new BBFileReader(path);
+        AbstractDataSource source = new BigWigDataSource(reader, null);
+        String chr = reader.getChromosomeNames().get(0);
+
+        int count = 0;
+        int[][] ranges = {{0, 1000}, {16000, 17000}, {16383, 16385}, {100, 40000}, {5000, 200000}, {0, 1}};
+        for (int[] range : ranges) {
+            int start = range[0];
+            int end = range[1];
+            List<String> expected = new ArrayList<>();
+            Iterator<WigItem> iter = reader.getBigWigIterator(chr, start, chr, end, false);
+            while (iter.hasNext()) {
+                WigItem item = iter.next();
+                expected.add(item.getStartBase() + "-" + item.getEndBase() + ":" + item.getWigValue());
+            }
+            count += expected.size();
+
+            // Twice, the second time from the cache
+            for (int i = 0; i < 2; i++) {
+                DataTile tile = source.getRawData(chr, start, end);
+                List<String> actual = new ArrayList<>();
+                for (int j = 0; j < tile.getStartLocations().length; j++) {
+                    int s = tile.getStartLocations()[j];
+                    int e = tile.getEndLocations()[j];
+                    if (e > start && s < end) {
+                        actual.add(s + "-" + e + ":" + tile.getValues()[j]);
+                    }
+                }
+                assertEquals(expected, actual);
+            }
+        }
+        assertTrue(count > 0);
+        source.dispose();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.data;
+
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScoreBlockTest {
+
+    @Test
+    public void testAddAndGet() {
+
+        List<LocusScore> expected = new ArrayList<>();
+        ScoreBlock block = new ScoreBlock(1);
+        for (int i = 0; i < 100; i++) {
+            LocusScore score = i % 10 == 0 ?
+                    new NamedScore(i * 10, i * 10 + 5, i, "probe" + i) :
+                    new BasicScore(i * 10, i * 10 + 5, i);
+            expected.add(score);
+            block.add(score);
+        }
+
+        assertEquals(expected.size(), block.size());
+        for (int i = 0; i < expected.size(); i++) {
+            LocusScore e = expected.get(i);
+            LocusScore a = block.get(i);
+            assertEquals(e.getClass(), a.getClass());
+            assertEquals(e.getStart(), block.getStart(i));
+            assertEquals(e.getEnd(), block.getEnd(i));
+            assertEquals(e.getScore(), block.getValue(i), 0);
+            assertEquals(e.getStart(), a.getStart());
+            assertEquals(e.getValueString(e.getStart(), 0, WindowFunction.mean),
+                    a.getValueString(a.getStart(), 0, WindowFunction.mean));
+        }
+
+        // Detail objects are returned as added
+        assertSame(expected.get(20), block.get(20));
+        assertSame(block, ScoreBlock.of(block));
+    }
+
+    @Test
+    public void testSubList() {
+
+        ScoreBlock block = new ScoreBlock(10, true);
+        for (int i = 0; i < 20; i++) {
+            block.add(i, i + 1, i, i == 7 ? new NamedScore(i, i + 1, i, "probe") : null);
+        }
+
+        ScoreBlock view = block.subList(5, 10);
+        assertEquals(5, view.size());
+        assertEquals(5, view.getStart(0));
+        assertEquals(9, view.getEnd(3));
+        assertTrue(view.get(0) instanceof NamedScore);
+        assertSame(block.get(7), view.get(2));
+
+        try {
+            view.add(0, 1, 0);
+            fail("Expected views to be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // Appending a named block to a basic one keeps the named scores
+        ScoreBlock basic = new ScoreBlock(10);
+        basic.addAll(view, 0, view.size());
+        assertEquals(view.size(), basic.size());
+        for (int i = 0; i < view.size(); i++) {
+            assertEquals(view.get(i).getValueString(0, 0, null), basic.get(i).getValueString(0, 0, null));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.genome;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PackedSequenceTest {
+
+    @Test
+    public void testRoundTrip() {
+
+        byte[] alphabet = "ACGTacgtNnRYK-~\0".getBytes();
+        Random random = new Random(1);
+        byte[] bases = new byte[10003];
+        for (int i = 0; i < bases.length; ) {
+            // Runs of a single symbol mixed with random sequence, to exercise both runs and packing
+            byte b = alphabet[random.nextInt(alphabet.length)];
+            int n = random.nextInt(10) == 0 ? random.nextInt(50) : 1;
+            for (int j = 0; j < n && i < bases.length; j++) {
+                bases[i++] = b;
+            }
+        }
+
+        PackedSequence packed = PackedSequence.pack(bases);
+        assertEquals(bases.length, packed.getLength());
+        assertArrayEquals(bases, packed.getBases(0, bases.length));
+        for (int i = 0; i < bases.length; i++) {
+            assertEquals(bases[i], packed.getBase(i));
+        }
+
+        for (int k = 0; k < 200; k++) {
+            int start = random.nextInt(bases.length);
+            int end = start + random.nextInt(bases.length - start + 1);
+            byte[] dest = new byte[end - start + 3];
+            packed.unpack(start, end, dest, 3, false);
+            for (int i = start; i < end; i++) {
+                assertEquals(bases[i], dest[i - start + 3]);
+            }
+            packed.unpack(start, end, dest, 3, true);
+            for (int i = start; i < end; i++) {
+                byte b = bases[i];
+                assertEquals(b >= 'a' && b <= 'z' ? b - 32 : b, dest[i - start + 3]);
+            }
+        }
+    }
+
+    @Test
+    public void testPackSubRange() {
+        byte[] bases = "xxACGTNNacgtnnGx".getBytes();
+        PackedSequence packed = PackedSequence.pack(bases, 2, 13);
+        assertEquals("ACGTNNacgtnnG", new String(packed.getBases(0, 13)));
+        assertEquals("GTNNac", new String(packed.getBases(2, 8)));
+    }
+}
@@ -40,8 +40,10 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
@@ -100,6 +102,35 @@ public class SequenceWrapperTest extends AbstractHeadlessTest{
 
     }
 
+    /**
+     * Test sequence read through packed tiles, spanning several tiles, against the wrapped sequence.
+     */
+    @Test
+    public void testPackedTiles() {
+        byte[] alphabet = "ACGTacgtNnR".getBytes();
+        byte[] bases = new byte[2550];
+        Random random = new Random(1);
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        InMemorySequence inMemorySequence = new InMemorySequence("chr1", bases);
+        SequenceWrapper wrapper = new SequenceWrapper(inMemorySequence);
+        wrapper.setTileSize(100);
+        try {
+            for (int k = 0; k < 100; k++) {
+                int start = random.nextInt(bases.length);
+                int end = start + 1 + random.nextInt(bases.length - start);
+                assertArrayEquals(inMemorySequence.getSequence("chr1", start, end, false),
+                        wrapper.getSequence("chr1", start, end, true));
+                if (start % 100 != 0) {
+                    assertEquals(bases[start], wrapper.getBase("chr1", start));
+                }
+            }
+        } finally {
+            wrapper.setTileSize(1000000);
+        }
+    }
+
     @Test
     public void testNonCloudGenome() throws IOException {
 
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.feature.genome.fasta;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link FastaIndexedSequence} on local files, see {@link FastaIndexedSequenceTest} for remote files.
+ */
+public class FastaIndexedSequenceLocalTest extends AbstractHeadlessTest {
+
+    /**
+     * Compare sequence read through the index, with line endings stripped, to the sequence parsed directly from the
+     * file, for ranges starting and ending in and across lines.
+     */
+    @Test
+    public void testLineStripping() throws Exception {
+
+        String fasta = TestUtils.DATA_DIR + "fasta/ecoli_out.padded.fasta";
+        String chr = "NC_000913_bb";
+        List<String> lines = Files.readAllLines(Paths.get(fasta));
+        StringBuilder buffer = new StringBuilder();
+        for (String line : lines.subList(1, lines.size())) {
+            buffer.append(line);
+        }
+        String expected = buffer.toString();
+        assertEquals(5081, expected.length());
+
+        FastaIndexedSequence sequence = new FastaIndexedSequence(fasta);
+        Random random = new Random(1234);
+        for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(expected.length());
+            int end = Math.min(expected.length(), start + 1 + random.nextInt(300));
+            assertEquals(expected.substring(start, end), new String(sequence.getSequence(chr, start, end, true)));
+        }
+        assertEquals(expected, new String(sequence.getSequence(chr, 0, expected.length(), true)));
+        assertEquals(expected.substring(60, 120), new String(sequence.getSequence(chr, 60, 120, true)));
+    }
+}
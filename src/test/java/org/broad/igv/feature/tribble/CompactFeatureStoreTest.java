@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.tribble;
+
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.CloseableTribbleIterator;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.FeatureCodec;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.Exon;
+import org.broad.igv.feature.FeatureUtils;
+import org.broad.igv.feature.IGVFeature;
+import org.broad.igv.feature.NamedFeature;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompactFeatureStoreTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testQuery() throws Exception {
+        tstQuery(TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed");
+        tstQuery(TestUtils.DATA_DIR + "bed/Unigene.unsorted.bed");
+        tstQuery(TestUtils.DATA_DIR + "gff/aliased.unsorted.gff");
+    }
+
+    private void tstQuery(String path) throws Exception {
+
+        ResourceLocator locator = new ResourceLocator(path);
+        FeatureCodec codec = CodecFactory.getCodec(locator, genome);
+        CompactFeatureStore store;
+        long minSize = ParallelFeatureReader.minSize;
+        try {
+            ParallelFeatureReader.minSize = 0;
+            store = CompactFeatureStore.create(locator, codec, genome);
+        } finally {
+            ParallelFeatureReader.minSize = minSize;
+        }
+        assertNotNull(store);
+
+        List<CompactFeatureStore.FeatureHandle> handles = new ArrayList<>();
+        List<CompactFeatureStore.FeatureHandle> exonHandles = new ArrayList<>();
+        new ParallelFeatureReader(locator, genome, 1000).read(chunk -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                Feature f = chunk.getFeature(i);
+                store.add(f.getChr(), f, chunk.getPosition(i), chunk.getLength(i));
+                if (f instanceof NamedFeature && handles.size() < 20) {
+                    CompactFeatureStore.FeatureHandle handle = new CompactFeatureStore.FeatureHandle(store, f.getChr(), (NamedFeature) f);
+                    handles.add(handle);
+                    List<Exon> exons = f instanceof IGVFeature ? ((IGVFeature) f).getExons() : null;
+                    if (exons != null && exons.size() > 1) {
+                        exonHandles.add(handle.getExonHandle(exons.get(1)));
+                    }
+                }
+            }
+        });
+        store.finish();
+
+        // Expected features, sorted by start as by a non-indexed source
+        Map<String, List<Feature>> expected = new HashMap<>();
+        AbstractFeatureReader<Feature, ?> reader = AbstractFeatureReader.getFeatureReader(path, codec, false);
+        CloseableTribbleIterator<Feature> iter = reader.iterator();
+        while (iter.hasNext()) {
+            Feature f = iter.next();
+            expected.computeIfAbsent(f.getChr(), k -> new ArrayList<>()).add(f);
+        }
+        iter.close();
+        reader.close();
+
+        assertEquals(expected.keySet(), store.getChromosomeNames());
+        for (Map.Entry<String, List<Feature>> entry : expected.entrySet()) {
+            String chr = entry.getKey();
+            List<Feature> features = entry.getValue();
+            FeatureUtils.sortFeatureList(features);
+            assertEquals(features.size(), store.getFeatures(chr).size());
+
+            int min = features.get(0).getStart();
+            int max = features.get(features.size() - 1).getEnd();
+            int[][] queries = {{min, max}, {(min + max) / 2, (min + max) / 2 + 100000}, {min + 1000, min + 1001}};
+            for (int[] q : queries) {
+                List<Feature> actual = store.getFeatures(chr, q[0], q[1]);
+                List<Feature> overlapping = new ArrayList<>();
+                for (Feature f : features) {
+                    if (f.getStart() <= q[1] && f.getEnd() > q[0]) overlapping.add(f);
+                }
+                assertEquals(overlapping.size(), actual.size());
+                for (int i = 0; i < overlapping.size(); i++) {
+                    Feature e = overlapping.get(i);
+                    Feature a = actual.get(i);
+                    assertEquals(e.getClass(), a.getClass());
+                    assertEquals(e.getStart(), a.getStart());
+                    assertEquals(e.getEnd(), a.getEnd());
+                    if (e instanceof NamedFeature) {
+                        assertEquals(((NamedFeature) e).getName(), ((NamedFeature) a).getName());
+                    }
+                }
+            }
+        }
+
+        for (CompactFeatureStore.FeatureHandle handle : handles) {
+            Feature f = handle.getFeature();
+            assertNotNull(f);
+            assertEquals(handle.getStart(), f.getStart());
+            assertEquals(handle.getName(), ((NamedFeature) f).getName());
+        }
+        for (CompactFeatureStore.FeatureHandle handle : exonHandles) {
+            Feature f = handle.getFeature();
+            assertTrue(f instanceof Exon);
+            assertEquals(handle.getStart(), f.getStart());
+            assertEquals(handle.getEnd(), f.getEnd());
+        }
+    }
+}
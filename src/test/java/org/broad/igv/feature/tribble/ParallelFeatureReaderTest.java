@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.feature.tribble;
+
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.CloseableTribbleIterator;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.FeatureCodec;
+import htsjdk.tribble.index.Index;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParallelFeatureReaderTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testRead() throws Exception {
+        tstRead(TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed");
+        tstRead(TestUtils.DATA_DIR + "bed/Unigene.weirdheader.sorted.bed");
+        tstRead(TestUtils.DATA_DIR + "gff/aliased.sorted.gff");
+    }
+
+    @Test
+    public void testGffWithFasta() throws Exception {
+        // Ranges after the ##FASTA line hold sequence, not features
+        tstRead(TestUtils.DATA_DIR + "gff/gffWithFasta.gff", 200);
+    }
+
+    private void tstRead(String path) throws Exception {
+        tstRead(path, 1000);
+    }
+
+    private void tstRead(String path, long chunkSize) throws Exception {
+
+        List<Feature> expected = readAll(path, null, null);
+        assertTrue(expected.size() > 0);
+
+        ResourceLocator locator = new ResourceLocator(path);
+        // Ranges are handed over in file order, however far decoding runs ahead
+        for (int maxChunksAhead : new int[]{1, 3, 100}) {
+            List<ParallelFeatureReader.Chunk> chunks = new ArrayList<>();
+            new ParallelFeatureReader(locator, genome, chunkSize, maxChunksAhead).read(chunks::add);
+            assertTrue(chunks.size() > 1);
+
+            int n = 0;
+            for (ParallelFeatureReader.Chunk chunk : chunks) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    Feature e = expected.get(n++);
+                    Feature a = chunk.getFeature(i);
+                    assertEquals(e.getContig(), a.getContig());
+                    assertEquals(e.getStart(), a.getStart());
+                    assertEquals(e.getEnd(), a.getEnd());
+                }
+            }
+            assertEquals(expected.size(), n);
+        }
+    }
+
+    @Test
+    public void testCachedIndex() throws Exception {
+
+        File file = unnamedCopy(TestUtils.DATA_DIR + "bed/Unigene.weirdheader.sorted.bed");
+        String path = file.getAbsolutePath();
+        ResourceLocator locator = new ResourceLocator(path);
+
+        FeatureIndexCache.Builder builder = new FeatureIndexCache.Builder(file);
+        new ParallelFeatureReader(locator, genome, 1000).read(chunk -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                builder.addFeature(chunk.getFeature(i), chunk.getPosition(i));
+            }
+        });
+        Index index = builder.finish();
+        assertNotNull(index);
+
+        try {
+            FeatureIndexCache.putIndex(path, index);
+            Index cached = FeatureIndexCache.getIndex(path);
+            assertNotNull(cached);
+
+            // Queries using the index return the same features as a scan of the file
+            List<Feature> all = readAll(path, null, null);
+            String chr = all.get(all.size() / 2).getContig();
+            int start = all.get(all.size() / 2).getStart();
+            int end = start + 1000000;
+            List<Feature> expected = new ArrayList<>();
+            for (Feature f : all) {
+                if (f.getContig().equals(chr) && f.getEnd() >= start && f.getStart() <= end) {
+                    expected.add(f);
+                }
+            }
+            List<Feature> actual = readAll(path, cached, chr + ":" + start + "-" + end);
+            assertTrue(expected.size() > 0);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getStart(), actual.get(i).getStart());
+            }
+
+            // A modified file invalidates the index
+            file.setLastModified(file.lastModified() - 10000);
+            assertNull(FeatureIndexCache.getIndex(path));
+            assertFalse(FeatureIndexCache.getIndexFile(path).exists());
+        } finally {
+            FeatureIndexCache.getIndexFile(path).delete();
+        }
+    }
+
+    @Test
+    public void testSearchableNotIndexed() throws Exception {
+        File file = new File(TestUtils.DATA_DIR + "bed/Unigene.weirdheader.sorted.bed");
+        FeatureIndexCache.Builder builder = new FeatureIndexCache.Builder(file);
+        new ParallelFeatureReader(new ResourceLocator(file.getPath()), genome, 1000).read(chunk -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                builder.addFeature(chunk.getFeature(i), chunk.getPosition(i));
+            }
+        });
+        assertNull(builder.finish());
+    }
+
+    @Test
+    public void testUnsorted() throws Exception {
+        File file = unnamedCopy(TestUtils.DATA_DIR + "bed/Unigene.unsorted.bed");
+        FeatureIndexCache.Builder builder = new FeatureIndexCache.Builder(file);
+        new ParallelFeatureReader(new ResourceLocator(file.getPath()), genome, 1000).read(chunk -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                builder.addFeature(chunk.getFeature(i), chunk.getPosition(i));
+            }
+        });
+        assertNull(builder.finish());
+    }
+
+    /**
+     * @return a copy of a bed file without feature names, as only files that need not be searched are indexed
+     */
+    private File unnamedCopy(String path) throws Exception {
+        File file = File.createTempFile("features", ".bed");
+        file.deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
+            for (String line : Files.readAllLines(new File(path).toPath())) {
+                String[] tokens = line.split("\t");
+                if (tokens.length > 3 && !line.startsWith("#") && !line.startsWith("track")) {
+                    pw.println(tokens[0] + "\t" + tokens[1] + "\t" + tokens[2]);
+                }
+            }
+        }
+        return file;
+    }
+
+    private List<Feature> readAll(String path, Index index, String locus) throws Exception {
+        FeatureCodec codec = CodecFactory.getCodec(path, genome);
+        AbstractFeatureReader<Feature, ?> reader = index == null ?
+                AbstractFeatureReader.getFeatureReader(path, codec, false) :
+                AbstractFeatureReader.getFeatureReader(path, codec, index);
+        List<Feature> features = new ArrayList<>();
+        CloseableTribbleIterator<Feature> iter;
+        if (locus == null) {
+            iter = reader.iterator();
+        } else {
+            String[] tokens = locus.split("[:-]");
+            iter = reader.query(tokens[0], Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+        }
+        while (iter.hasNext()) {
+            features.add(iter.next());
+        }
+        iter.close();
+        reader.close();
+        return features;
+    }
+}
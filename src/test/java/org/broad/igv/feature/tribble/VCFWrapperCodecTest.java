@@ -25,14 +25,27 @@
 
 package org.broad.igv.feature.tribble;
 
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.CloseableTribbleIterator;
+import htsjdk.tribble.FeatureReader;
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.track.TribbleFeatureSource;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
+import org.broad.igv.variant.Genotype;
+import org.broad.igv.variant.vcf.LazyVCFGenotype;
 import org.broad.igv.variant.vcf.VCFVariant;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -79,4 +92,80 @@ public class VCFWrapperCodecTest extends AbstractHeadlessTest {
 
 
     }
+
+    @Test
+    public void testLazyGenotypes() throws Exception {
+        tstLazyGenotypes(TestUtils.DATA_DIR + "vcf/SRP32_v4.0.vcf");
+        tstLazyGenotypes(TestUtils.DATA_DIR + "vcf/missingFields.vcf");
+        tstLazyGenotypes(TestUtils.DATA_DIR + "vcf/ex2.vcf");
+        tstLazyGenotypes(TestUtils.DATA_DIR + "vcf/hc_mod.vcf");
+    }
+
+    /**
+     * Genotype fields with missing elements are repaired as the line is decoded, so they must not be left to
+     * lazy decoding
+     */
+    @Test
+    public void testLazyMissingFieldInCommaSeparated() throws Exception {
+
+        File file = File.createTempFile("missingGenotypeFields", ".vcf");
+        file.deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
+            pw.println("##fileformat=VCFv4.1");
+            pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+            pw.println("##FORMAT=<ID=GL,Number=G,Type=Float,Description=\"Genotype likelihoods\">");
+            pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2");
+            pw.println("chr1\t100\t.\tA\tG\t10\t.\t.\tGT:GL\t0/1:-1.0,.,-2.0\t0/0:-0.1,-1.0,-2.0");
+        }
+
+        PreferencesManager.getPreferences().put(Constants.VCF_LAZY_GENOTYPES, "true");
+        List<VCFVariant> variants = readVariants(file.getAbsolutePath());
+        assertEquals(1, variants.size());
+        assertEquals("10,0,20", variants.get(0).getGenotype("S1").getAttributes().get("PL"));
+        assertEquals("HET", variants.get(0).getGenotype("S1").getTypeString());
+    }
+
+    private void tstLazyGenotypes(String path) throws Exception {
+
+        List<VCFVariant> expected;
+        PreferencesManager.getPreferences().put(Constants.VCF_LAZY_GENOTYPES, "false");
+        try {
+            expected = readVariants(path);
+        } finally {
+            PreferencesManager.getPreferences().put(Constants.VCF_LAZY_GENOTYPES, "true");
+        }
+        List<VCFVariant> actual = readVariants(path);
+
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), actual.size());
+        boolean lazy = false;
+        for (int i = 0; i < expected.size(); i++) {
+            VCFVariant e = expected.get(i);
+            VCFVariant a = actual.get(i);
+            assertEquals(new HashSet<>(e.getSampleNames()), new HashSet<>(a.getSampleNames()));
+            for (String sample : e.getSampleNames()) {
+                Genotype eg = e.getGenotype(sample);
+                Genotype ag = a.getGenotype(sample);
+                lazy |= ag instanceof LazyVCFGenotype;
+                assertEquals(eg.getType(), ag.getType());
+                assertEquals(eg.getGenotypeString(), ag.getGenotypeString());
+                assertEquals(eg.getAttributes(), ag.getAttributes());
+                assertEquals(eg.getAlleles().size(), ag.getAlleles().size());
+                assertEquals(eg.getPhredScaledQual(), ag.getPhredScaledQual(), 0);
+            }
+        }
+        assertTrue(lazy);
+    }
+
+    private List<VCFVariant> readVariants(String path) throws Exception {
+        VCFWrapperCodec codec = (VCFWrapperCodec) CodecFactory.getCodec(new ResourceLocator(path), genome);
+        List<VCFVariant> variants = new ArrayList<>();
+        try (FeatureReader<VCFVariant> reader = AbstractFeatureReader.getFeatureReader(path, codec, false);
+             CloseableTribbleIterator<VCFVariant> iter = reader.iterator()) {
+            while (iter.hasNext()) {
+                variants.add(iter.next());
+            }
+        }
+        return variants;
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlignmentColumnStoreTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        tstRoundTrip(TestUtils.DATA_DIR + "bam/gstt1_sample.bam");
+        tstRoundTrip(TestUtils.DATA_DIR + "bam/yc_tags.bam");
+        tstRoundTrip(TestUtils.DATA_DIR + "bam/sam_spec_example.bam");
+    }
+
+    @Test
+    public void testHeapFallback() throws Exception {
+        PreferencesManager.getPreferences().put(Constants.SAM_COLUMNAR_STORE_MAX_MB, "0");
+        try {
+            tstRoundTrip(TestUtils.DATA_DIR + "bam/sam_spec_example.bam");
+        } finally {
+            PreferencesManager.getPreferences().remove(Constants.SAM_COLUMNAR_STORE_MAX_MB);
+        }
+    }
+
+    @Test
+    public void testInsertionPixelRange() throws Exception {
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(new ResourceLocator(TestUtils.DATA_DIR + "bam/sam_spec_example.bam"));
+        CloseableIterator<Alignment> iter = reader.iterator();
+        Alignment withInsertion = null;
+        while (iter.hasNext() && withInsertion == null) {
+            Alignment alignment = iter.next();
+            if (alignment.getCigarString().contains("I")) {
+                withInsertion = alignment;
+            }
+        }
+        iter.close();
+        reader.close();
+        assertNotNull(withInsertion);
+
+        AlignmentColumnStore store = new AlignmentColumnStore();
+        Alignment a = store.add(withInsertion);
+        AlignmentBlock insertion = a.getInsertions()[0];
+        insertion.setPixelRange(100, 110);
+
+        // Evict the alignment's decoded blocks from the store's cache
+        for (int i = 0; i < 6000; i++) {
+            store.add(withInsertion).getAlignmentBlocks();
+        }
+
+        assertTrue(a.getInsertions()[0].containsPixel(105));
+    }
+
+    @Test
+    public void testLoadTile() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = "chr22";
+        int start = 24370000;
+        int end = 24390000;
+
+        List<Alignment> expected = loadTile(path, chr, start, end, false, false);
+        assertTrue(expected.size() > 0);
+        PreferencesManager.getPreferences().put(Constants.SAM_COLUMNAR_STORE, "true");
+        try {
+            for (boolean downsample : new boolean[]{false, true}) {
+                List<Alignment> actual = loadTile(path, chr, start, end, downsample, true);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertTrue(actual.get(i) instanceof ColumnarAlignment);
+                    assertEquals(expected.get(i).getStart(), actual.get(i).getStart());
+                }
+            }
+        } finally {
+            PreferencesManager.getPreferences().put(Constants.SAM_COLUMNAR_STORE, "false");
+        }
+    }
+
+    private List<Alignment> loadTile(String path, String chr, int start, int end, boolean downsample, boolean columnar) throws Exception {
+        AlignmentReader reader = AlignmentReaderFactory.getReader(new ResourceLocator(path));
+        AlignmentTileLoader loader = new AlignmentTileLoader(reader);
+        // Sampling depth is well above the coverage of this file, so downsampling keeps every alignment
+        AlignmentDataManager.DownsampleOptions downsampleOptions = new AlignmentDataManager.DownsampleOptions(downsample, 50, 10000);
+        AlignmentTileLoader.AlignmentTile tile = loader.loadTile(chr, start, end, null, downsampleOptions, null, null, null);
+        reader.close();
+        return tile.getAlignments();
+    }
+
+    private void tstRoundTrip(String path) throws Exception {
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(new ResourceLocator(path));
+        CloseableIterator<Alignment> iter = reader.iterator();
+        List<Alignment> expected = new ArrayList<>();
+        List<Alignment> actual = new ArrayList<>();
+        AlignmentColumnStore store = new AlignmentColumnStore();
+        while (iter.hasNext()) {
+            Alignment alignment = iter.next();
+            expected.add(alignment);
+            actual.add(store.add(alignment));
+        }
+        iter.close();
+        reader.close();
+
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), store.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            Alignment e = expected.get(i);
+            Alignment a = actual.get(i);
+            assertTrue(a instanceof ColumnarAlignment);
+
+            assertEquals(e.toString(), a.toString());
+            assertEquals(e.getReadName(), a.getReadName());
+            assertEquals(e.getChr(), a.getChr());
+            assertEquals(e.getStart(), a.getStart());
+            assertEquals(e.getEnd(), a.getEnd());
+            assertEquals(e.getAlignmentStart(), a.getAlignmentStart());
+            assertEquals(e.getAlignmentEnd(), a.getAlignmentEnd());
+            assertEquals(e.getCigarString(), a.getCigarString());
+            assertEquals(e.getReadSequence(), a.getReadSequence());
+            assertEquals(e.getMappingQuality(), a.getMappingQuality());
+            assertEquals(e.getInferredInsertSize(), a.getInferredInsertSize());
+            assertEquals(e.isNegativeStrand(), a.isNegativeStrand());
+            assertEquals(e.isPaired(), a.isPaired());
+            assertEquals(e.isProperPair(), a.isProperPair());
+            assertEquals(e.isFirstOfPair(), a.isFirstOfPair());
+            assertEquals(e.getPairOrientation(), a.getPairOrientation());
+            assertEquals(e.getFirstOfPairStrand(), a.getFirstOfPairStrand());
+            assertEquals(e.getSecondOfPairStrand(), a.getSecondOfPairStrand());
+            assertEquals(e.getYcColor(), a.getYcColor());
+            assertEquals(e.getSample(), a.getSample());
+            assertEquals(e.getReadGroup(), a.getReadGroup());
+            assertEquals(e.getAttribute("NM"), a.getAttribute("NM"));
+            assertEquals(e.getAttribute("RG"), a.getAttribute("RG"));
+            assertEquals(e.getValueString(e.getStart(), 0, null), a.getValueString(a.getStart(), 0, null));
+
+            ReadMate em = e.getMate();
+            ReadMate am = a.getMate();
+            assertEquals(em == null, am == null);
+            if (em != null) {
+                assertEquals(em.positionString(), am.positionString());
+                assertEquals(em.isMapped(), am.isMapped());
+            }
+
+            AlignmentBlock[] eb = e.getAlignmentBlocks();
+            AlignmentBlock[] ab = a.getAlignmentBlocks();
+            assertEquals(eb.length, ab.length);
+            for (int j = 0; j < eb.length; j++) {
+                assertEquals(eb[j].getStart(), ab[j].getStart());
+                assertArrayEquals(eb[j].getBases(), ab[j].getBases());
+                assertArrayEquals(eb[j].getQualities(), ab[j].getQualities());
+            }
+            AlignmentBlock[] ei = e.getInsertions();
+            AlignmentBlock[] ai = a.getInsertions();
+            assertEquals(ei == null ? 0 : ei.length, ai == null ? 0 : ai.length);
+            assertEquals(e.getGaps() == null ? 0 : e.getGaps().size(), a.getGaps() == null ? 0 : a.getGaps().size());
+        }
+    }
+}
@@ -27,11 +27,13 @@ package org.broad.igv.sam;
 
 import htsjdk.samtools.util.CloseableIterator;
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.Range;
 import org.broad.igv.prefs.Constants;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.sam.reader.ReadGroupFilter;
+import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
@@ -44,7 +46,10 @@ import org.junit.rules.Timeout;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
@@ -115,6 +120,85 @@ public class AlignmentDataManagerTest extends AbstractHeadlessTest {
 
 
 
+    @Test
+    public void testIntervalCache() throws Exception {
+
+        // With no alignments the memory estimate of an interval is proportional to its length
+        long bytes = interval(0, 1000).getMemoryEstimate();
+        AlignmentDataManager.IntervalCache cache = new AlignmentDataManager.IntervalCache(3 * bytes);
+
+        Range r1 = new Range("chr1", 100, 200);
+        Range r2 = new Range("chr1", 1100, 1200);
+        Range r3 = new Range("chr1", 2100, 2200);
+        Range r4 = new Range("chr1", 3100, 3200);
+        List<Range> noneInView = Collections.emptyList();
+
+        cache.add(interval(0, 1000), "a", noneInView);
+        cache.add(interval(1000, 2000), "a", noneInView);
+        cache.add(interval(2000, 3000), "a", noneInView);
+        assertEquals(3, cache.size());
+
+        // Loaded with other settings
+        Assert.assertNull(cache.get(r1, "b"));
+
+        // Use the first interval, the second is now least recently used and evicted when over budget
+        assertNotNull(cache.get(r1, "a"));
+        cache.add(interval(3000, 4000), "a", noneInView);
+        assertEquals(3, cache.size());
+        Assert.assertNull(cache.peek(r2, "a"));
+        assertNotNull(cache.peek(r1, "a"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3 * bytes, cache.getTotalBytes());
+
+        // Intervals in view are not evicted, even if over budget
+        cache.evict(Arrays.asList(r3, r4), 0);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.peek(r3, "a"));
+        assertNotNull(cache.peek(r4, "a"));
+        assertEquals(2, cache.inView(Arrays.asList(r3)).size() + cache.inView(Arrays.asList(r4)).size());
+    }
+
+    private static AlignmentInterval interval(int start, int end) {
+        return new AlignmentInterval("chr1", start, end, new ArrayList<Alignment>(), null, null, null);
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+
+        PreferencesManager.getPreferences().put(Constants.SAM_PREFETCH, "true");
+        try {
+            String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+            AlignmentDataManager manager = new AlignmentDataManager(new ResourceLocator(path), genome);
+            AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+
+            ReferenceFrame frame = FrameManager.getDefaultFrame();
+            frame.setBounds(0, 1000);
+            frame.jumpTo("chr22", 24375000, 24376000);
+            manager.load(frame, renderOptions, true);
+            AlignmentInterval initial = manager.getLoadedInterval(frame);
+            assertNotNull(initial);
+
+            // Pan right, towards the end of the loaded interval.  The next window should be loaded in the background.
+            int start = initial.getEnd() - 1500;
+            frame.jumpTo("chr22", start, start + 1000);
+            manager.load(frame, renderOptions, true);
+
+            Future<?> pending = manager.getPrefetcher().getPending();
+            assertNotNull(pending);
+            pending.get(10, TimeUnit.SECONDS);
+            Range ahead = new Range("chr22", initial.getEnd(), initial.getEnd() + 1000);
+            assertNotNull(manager.getLoadedInterval(ahead));
+
+            // Moving into the prefetched window needs no load
+            frame.jumpTo("chr22", ahead.getStart(), ahead.getEnd());
+            assertTrue(manager.isLoaded(frame));
+        } finally {
+            PreferencesManager.getPreferences().put(Constants.SAM_PREFETCH, "false");
+        }
+    }
+
     @Test
     public void testQuery() throws IOException {
         String testFile = "http://data.broadinstitute.org/igvdata/BodyMap/hg18/50bp/FCA/s_1_1_sequence.bam";
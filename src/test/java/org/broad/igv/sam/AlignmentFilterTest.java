@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlignmentFilterTest extends AbstractHeadlessTest {
+
+    String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+    String chr = "chr22";
+    int start = 24370000;
+    int end = 24390000;
+
+    @Test
+    public void testFilterAlignment() throws Exception {
+
+        List<Alignment> alignments = query(null);
+        assertTrue(alignments.size() > 0);
+
+        for (int quality : new int[]{0, 20}) {
+            for (boolean showDuplicates : new boolean[]{false, true}) {
+                for (boolean filterSecondary : new boolean[]{false, true}) {
+                    AlignmentFilter filter = new AlignmentFilter(showDuplicates, true, filterSecondary, true, quality, null);
+                    for (Alignment al : alignments) {
+                        boolean expected = !al.isMapped() || (!showDuplicates && al.isDuplicate()) ||
+                                al.isVendorFailedRead() ||
+                                (filterSecondary && !al.isPrimary()) ||
+                                al.isSupplementary() ||
+                                al.getMappingQuality() < quality;
+                        assertEquals(expected, filter.filterAlignment(al));
+
+                        // The prefilter never rejects an alignment that passes the full filter
+                        int flags = ((PicardAlignment) al).getRecord().getFlags();
+                        if (filter.filterRecord(flags, al.getMappingQuality())) {
+                            assertTrue(filter.filterAlignment(al));
+                            assertTrue(al.isMapped());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPrefilterQuery() throws Exception {
+
+        AlignmentFilter filter = new AlignmentFilter(false, true, true, true, 20, null);
+        assertTrue(filter.hasRecordFilter());
+
+        List<Alignment> expected = new ArrayList<>();
+        for (Alignment al : query(null)) {
+            if (!filter.filterAlignment(al)) {
+                expected.add(al);
+            }
+        }
+        List<Alignment> actual = new ArrayList<>();
+        for (Alignment al : query(filter)) {
+            if (!filter.filterAlignment(al)) {
+                actual.add(al);
+            }
+        }
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getReadName(), actual.get(i).getReadName());
+            assertEquals(expected.get(i).getStart(), actual.get(i).getStart());
+        }
+    }
+
+    private List<Alignment> query(AlignmentFilter prefilter) throws Exception {
+        AlignmentReader reader = AlignmentReaderFactory.getReader(new ResourceLocator(path));
+        CloseableIterator<Alignment> iter = reader.query(chr, start, end, false, prefilter);
+        List<Alignment> alignments = new ArrayList<>();
+        while (iter.hasNext()) {
+            alignments.add(iter.next());
+        }
+        iter.close();
+        reader.close();
+        return alignments;
+    }
+}
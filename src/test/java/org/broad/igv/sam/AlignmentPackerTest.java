@@ -117,5 +117,66 @@ public class AlignmentPackerTest extends AbstractHeadlessTest {
 
     }
 
+    @Test
+    public void testPackMinimizesRows() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        AlignmentReader reader = AlignmentReaderFactory.getReader(new ResourceLocator(path));
+        CloseableIterator<Alignment> iter = reader.query("chr22", 24370000, 24390000, false);
+        List<Alignment> list = new ArrayList<Alignment>();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        reader.close();
+        AlignmentInterval interval = new AlignmentInterval("chr22", 24370000, 24390000, list, null, null, null);
+
+        // Reuse one packer to check that its row index is reset between packings
+        AlignmentPacker packer = new AlignmentPacker();
+        for (boolean viewPairs : new boolean[]{false, true, false}) {
+            AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+            renderOptions.setViewPairs(viewPairs);
+            List<Row> rows = packer.packAlignments(interval, renderOptions).get("");
+
+            List<Alignment> packed = new ArrayList<Alignment>();
+            for (Row row : rows) {
+                List<Alignment> alignments = row.alignments;
+                for (int ii = 1; ii < alignments.size(); ii++) {
+                    assertTrue(alignments.get(ii).getStart() - alignments.get(ii - 1).getEnd() >= AlignmentPacker.MIN_ALIGNMENT_SPACING);
+                }
+                packed.addAll(alignments);
+            }
 
+            // The minimum number of rows is the maximum number of alignments, including spacing, covering any position
+            TreeMap<Integer, Integer> events = new TreeMap<Integer, Integer>();
+            for (Alignment al : packed) {
+                events.merge(al.getStart(), 1, Integer::sum);
+                events.merge(al.getEnd() + AlignmentPacker.MIN_ALIGNMENT_SPACING, -1, Integer::sum);
+            }
+            int depth = 0;
+            int maxDepth = 0;
+            for (int delta : events.values()) {
+                depth += delta;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+            assertEquals(maxDepth, rows.size());
+        }
+    }
+
+    @Test
+    public void testRowIndex() {
+        AlignmentPacker.RowIndex rowIndex = new AlignmentPacker.RowIndex();
+        assertEquals(-1, rowIndex.findRow(100));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, rowIndex.addRow(1000 - i));
+        }
+        assertEquals(100, rowIndex.getRowCount());
+        assertEquals(-1, rowIndex.findRow(900));
+        assertEquals(99, rowIndex.findRow(901));
+        assertEquals(50, rowIndex.findRow(950));
+        rowIndex.setEnd(10, 0);
+        assertEquals(10, rowIndex.findRow(901));
+        rowIndex.clear();
+        assertEquals(0, rowIndex.getRowCount());
+        assertEquals(-1, rowIndex.findRow(Integer.MAX_VALUE - 1));
+    }
 }
@@ -29,6 +29,11 @@
  */
 package org.broad.igv.sam;
 
+import htsjdk.samtools.BAMRecord;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
 import org.broad.igv.AbstractHeadlessTest;
 import org.broad.igv.prefs.Constants;
 import org.broad.igv.prefs.PreferencesManager;
@@ -38,6 +43,8 @@ import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -156,4 +163,46 @@ public class AlignmentTileLoaderTest extends AbstractHeadlessTest {
 
     }
 
+
+    /**
+     * Tags are found in the binary form of BAM records, whatever the types of the tags before them
+     */
+    @Test
+    public void testScanTags() throws Exception {
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 1000000));
+
+        assertEquals(0, scanTags(header));
+        assertEquals(AlignmentTileLoader.YC_TAG, scanTags(header, "YC", "0,0,255"));
+        assertEquals(AlignmentTileLoader.BX_TAG | AlignmentTileLoader.HP_TAG,
+                scanTags(header, "XA", 'c', "XB", (short) 1000, "XC", 100000, "XD", 1.5f, "XE", "text",
+                        "XF", new byte[]{1, 2, 3}, "XG", new int[]{1, 2, 3}, "XH", new float[]{1, 2},
+                        "BX", "ACGT-1", "HP", 1));
+        assertEquals(AlignmentTileLoader.YC_TAG | AlignmentTileLoader.BX_TAG,
+                scanTags(header, "XZ", new short[]{1, 2, 3}, "BX", "ACGT-1", "YC", "0,0,255"));
+    }
+
+    private static int scanTags(SAMFileHeader header, Object... tags) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName("read");
+        record.setReferenceName("chr1");
+        record.setAlignmentStart(100);
+        record.setCigarString("4M");
+        record.setReadString("ACGT");
+        record.setBaseQualityString("IIII");
+        for (int i = 0; i < tags.length; i += 2) {
+            record.setAttribute((String) tags[i], tags[i + 1]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setOutputStream(bytes);
+        codec.encode(record);
+        codec.setInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        BAMRecord bamRecord = (BAMRecord) codec.decode();
+
+        byte[] data = bamRecord.getVariableBinaryRepresentation();
+        return AlignmentTileLoader.scanTags(data, data.length - bamRecord.getAttributesBinarySize());
+    }
 }
@@ -25,9 +25,18 @@
 
 package org.broad.igv.sam;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.TextCigarCodec;
 import org.broad.igv.AbstractHeadlessTest;
 import org.junit.Test;
 
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author jacob
  * @date 2013-Oct-31
@@ -70,4 +79,214 @@ public class DenseAlignmentCountsTest extends AbstractHeadlessTest {
         }
 
     }
+
+    /**
+     * Compare counts with a straightforward implementation, with enough alignments that the counts of one base on
+     * one strand pass the capacity of a char
+     */
+    @Test
+    public void testCountsMatchReference() throws Exception {
+
+        int start = 50;
+        int end = 400;
+        DenseAlignmentCounts counts = new DenseAlignmentCounts(start, end, null);
+        ReferenceCounts reference = new ReferenceCounts(start, end);
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 10000));
+        String[] cigars = {"20M", "8M2D12M", "6M1I13M", "3S17M", "10M50N10M"};
+        String bases = "ACGTNacgtR";
+        Random random = new Random(1);
+        int nAlignments = 75000;
+        for (int i = 0; i < nAlignments; i++) {
+            SAMRecord record = new SAMRecord(header);
+            record.setReadName("read" + i);
+            record.setReferenceName("chr1");
+            // Most alignments start at the same position, with an "A" on the positive strand
+            record.setAlignmentStart(i % 10 == 0 ? 100 + random.nextInt(200) : 100);
+            record.setReadNegativeStrandFlag(i % 10 == 0);
+            record.setCigar(TextCigarCodec.decode(cigars[random.nextInt(cigars.length)]));
+            byte[] readBases = new byte[20];
+            byte[] qualities = new byte[20];
+            for (int j = 0; j < readBases.length; j++) {
+                readBases[j] = (byte) (j < 10 ? 'A' : bases.charAt(random.nextInt(bases.length())));
+                qualities[j] = (byte) random.nextInt(41);
+            }
+            record.setReadBases(readBases);
+            record.setBaseQualities(qualities);
+
+            Alignment alignment = new PicardAlignment(record);
+            counts.incCounts(alignment);
+            reference.incCounts(alignment);
+        }
+
+        assertTrue(counts.getPosCount(105, (byte) 'A') > Character.MAX_VALUE);
+        for (int pos = start - 5; pos < end + 5; pos++) {
+            assertEquals(reference.getTotalCount(pos), counts.getTotalCount(pos));
+            assertEquals(reference.getTotalQuality(pos), counts.getTotalQuality(pos));
+            assertEquals(reference.getDelCount(pos), counts.getDelCount(pos));
+            assertEquals(reference.getInsCount(pos), counts.getInsCount(pos));
+            for (byte b : "ACGTNacgtn".getBytes()) {
+                assertEquals(reference.getCount(pos, b), counts.getCount(pos, b));
+                assertEquals(reference.getPosCount(pos, b), counts.getPosCount(pos, b));
+                assertEquals(reference.getNegCount(pos, b), counts.getNegCount(pos, b));
+                if (pos >= start && pos < end) {
+                    assertEquals(reference.getQuality(pos, b), counts.getQuality(pos, b));
+                }
+            }
+        }
+        for (int pos = start; pos < end; pos += 10) {
+            assertEquals(reference.getMaxCount(pos, pos + 150), counts.getMaxCount(pos, pos + 150));
+        }
+    }
+
+    /**
+     * Counts held in one int array per base and strand, as DenseAlignmentCounts did before its counts were packed
+     */
+    private static class ReferenceCounts extends BaseAlignmentCounts {
+
+        private static final String BASES = "acgtn";
+
+        final int[][] posCounts = new int[5][];
+        final int[][] negCounts = new int[5][];
+        final int[][] qualities = new int[5][];
+        final int[] posTotal;
+        final int[] negTotal;
+        final int[] totalQ;
+        final int[] del;
+        final int[] ins;
+        final int[] maxCounts;
+
+        ReferenceCounts(int start, int end) {
+            super(start, end, null);
+            int nPts = end - start;
+            for (int i = 0; i < 5; i++) {
+                posCounts[i] = new int[nPts];
+                negCounts[i] = new int[nPts];
+                qualities[i] = new int[nPts];
+            }
+            posTotal = new int[nPts];
+            negTotal = new int[nPts];
+            totalQ = new int[nPts];
+            del = new int[nPts];
+            ins = new int[nPts];
+            maxCounts = new int[(nPts / DenseAlignmentCounts.MAX_COUNT_INTERVAL) + 1];
+        }
+
+        private int offset(int pos) {
+            int offset = pos - start;
+            return offset >= 0 && offset < posTotal.length ? offset : -1;
+        }
+
+        private static int column(byte b) {
+            int column = BASES.indexOf(Character.toLowerCase((char) b));
+            return column < 0 ? 4 : column;
+        }
+
+        public int getTotalCount(int pos) {
+            int offset = offset(pos);
+            return offset < 0 ? 0 : posTotal[offset] + negTotal[offset];
+        }
+
+        public int getTotalQuality(int pos) {
+            int offset = offset(pos);
+            return offset < 0 ? 0 : totalQ[offset];
+        }
+
+        public int getCount(int pos, byte b) {
+            return getPosCount(pos, b) + getNegCount(pos, b);
+        }
+
+        public int getNegCount(int pos, byte b) {
+            int offset = offset(pos);
+            return offset < 0 ? 0 : negCounts[column(b)][offset];
+        }
+
+        public int getPosCount(int pos, byte b) {
+            int offset = offset(pos);
+            return offset < 0 ? 0 : posCounts[column(b)][offset];
+        }
+
+        public int getDelCount(int pos) {
+            int offset = offset(pos);
+            return offset < 0 ? 0 : del[offset];
+        }
+
+        public int getInsCount(int pos) {
+            int offset = offset(pos);
+            return offset < 0 ? 0 : ins[offset];
+        }
+
+        public int getQuality(int pos, byte b) {
+            int offset = offset(pos);
+            return offset < 0 ? 0 : qualities[column(b)][offset];
+        }
+
+        public int getNumberOfPoints() {
+            return end - start;
+        }
+
+        public int getMaxCount(int strt, int end) {
+            strt = Math.max(0, strt);
+            end = Math.min(getEnd(), end);
+            int startMCI = Math.max(0, (strt - this.start) / DenseAlignmentCounts.MAX_COUNT_INTERVAL);
+            int endMCI = Math.min(Math.max(0, (end - this.start) / DenseAlignmentCounts.MAX_COUNT_INTERVAL), maxCounts.length - 1);
+            int max = 1;
+            for (int mci = startMCI; mci <= endMCI; mci++) {
+                max = Math.max(max, maxCounts[mci]);
+            }
+            return max;
+        }
+
+        public void finish() {
+        }
+
+        protected void incrementDeletion(int pos, boolean negativeStrand) {
+            int offset = offset(pos);
+            if (offset >= 0) {
+                del[offset]++;
+                if (countDeletedBasesCovered) {
+                    if (negativeStrand) {
+                        negTotal[offset]++;
+                    } else {
+                        posTotal[offset]++;
+                    }
+                }
+            }
+        }
+
+        protected void incrementInsertion(AlignmentBlock insBlock) {
+            int offset = offset(insBlock.getStart());
+            if (offset >= 0) {
+                ins[offset]++;
+            }
+        }
+
+        protected void incBlockCounts(AlignmentBlock block, boolean isNegativeStrand) {
+            byte[] bases = block.getBases();
+            if (bases != null) {
+                for (int i = 0; i < bases.length; i++) {
+                    incPositionCount(block.getStart() + i, bases[i], block.getQuality(i), isNegativeStrand);
+                }
+            }
+        }
+
+        protected void incPositionCount(int pos, byte b, byte q, boolean isNegativeStrand) {
+            int offset = offset(pos);
+            if (offset >= 0) {
+                int column = column(b);
+                if (isNegativeStrand) {
+                    negCounts[column][offset]++;
+                    negTotal[offset]++;
+                } else {
+                    posCounts[column][offset]++;
+                    posTotal[offset]++;
+                }
+                qualities[column][offset] += q;
+                totalQ[offset] += q;
+                int maxCountInt = offset / DenseAlignmentCounts.MAX_COUNT_INTERVAL;
+                maxCounts[maxCountInt] = Math.max(maxCounts[maxCountInt], posTotal[offset] + negTotal[offset]);
+            }
+        }
+    }
 }
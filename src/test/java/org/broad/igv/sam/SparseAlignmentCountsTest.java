@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SparseAlignmentCountsTest extends AbstractHeadlessTest {
+
+    /**
+     * Sparse counts should agree with dense counts at every position
+     */
+    @Test
+    public void testMatchesDenseCounts() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = "chr22";
+        int start = 24370000;
+        int end = 24390000;
+
+        SparseAlignmentCounts sparse = new SparseAlignmentCounts(start, end, null, 10);
+        DenseAlignmentCounts dense = new DenseAlignmentCounts(start, end, null);
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(new ResourceLocator(path));
+        CloseableIterator<Alignment> iter = reader.query(chr, start, end, false);
+        while (iter.hasNext()) {
+            Alignment alignment = iter.next();
+            if (alignment.isMapped()) {
+                sparse.incCounts(alignment);
+                dense.incCounts(alignment);
+            }
+        }
+        iter.close();
+        reader.close();
+        sparse.finish();
+        dense.finish();
+
+        assertTrue(sparse.getNumberOfPoints() > 0);
+        for (int i = 1; i < sparse.getNumberOfPoints(); i++) {
+            assertTrue(sparse.getPosition(i) > sparse.getPosition(i - 1));
+        }
+
+        int covered = 0;
+        for (int pos = start; pos < end; pos++) {
+            assertEquals(dense.getTotalCount(pos), sparse.getTotalCount(pos));
+            assertEquals(dense.getTotalQuality(pos), sparse.getTotalQuality(pos));
+            assertEquals(dense.getDelCount(pos), sparse.getDelCount(pos));
+            assertEquals(dense.getInsCount(pos), sparse.getInsCount(pos));
+            for (char c : BaseAlignmentCounts.nucleotides) {
+                assertEquals(dense.getPosCount(pos, (byte) c), sparse.getPosCount(pos, (byte) c));
+                assertEquals(dense.getNegCount(pos, (byte) c), sparse.getNegCount(pos, (byte) c));
+                assertEquals(dense.getQuality(pos, (byte) c), sparse.getQuality(pos, (byte) c));
+            }
+            if (sparse.getTotalCount(pos) > 0) covered++;
+        }
+        assertTrue(covered > 0);
+        assertTrue(covered <= sparse.getNumberOfPoints());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.sam.Alignment;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ShardedQueryIteratorTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testComputeBoundaries() throws Exception {
+
+        int w = ShardedQueryIterator.INDEX_WINDOW;
+
+        int[] bounds = ShardedQueryIterator.computeBoundaries(100, 10 * w + 5, 4);
+        assertEquals(5, bounds.length);
+        assertEquals(100, bounds[0]);
+        assertEquals(10 * w + 5, bounds[4]);
+        for (int i = 1; i < bounds.length - 1; i++) {
+            assertEquals(0, bounds[i] % w);
+            assertTrue(bounds[i] > bounds[i - 1]);
+        }
+
+        // A range within a single index window cannot be split
+        bounds = ShardedQueryIterator.computeBoundaries(w + 10, w + 1000, 8);
+        assertArrayEquals(new int[]{w + 10, w + 1000}, bounds);
+    }
+
+    @Test
+    public void testMatchesSerialQuery() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        ResourceLocator locator = new ResourceLocator(path);
+        AlignmentReader reader = AlignmentReaderFactory.getReader(locator);
+        assertTrue(AlignmentReaderPool.supportsSharding(locator, reader));
+
+        // Use the extent of the file so the query is not empty
+        CloseableIterator<Alignment> all = reader.iterator();
+        Alignment first = all.next();
+        String chr = first.getChr();
+        int start = first.getAlignmentStart();
+        int end = start;
+        while (all.hasNext()) {
+            Alignment a = all.next();
+            if (a.getChr().equals(chr)) end = Math.max(end, a.getAlignmentEnd());
+        }
+        all.close();
+
+        List<String> expected = new ArrayList<>();
+        CloseableIterator<Alignment> iter = reader.query(chr, start, end, false);
+        while (iter.hasNext()) {
+            Alignment a = iter.next();
+            expected.add(a.getReadName() + ":" + a.getAlignmentStart() + ":" + a.getCigarString());
+        }
+        iter.close();
+        assertTrue(expected.size() > 0);
+
+        AlignmentReaderPool pool = new AlignmentReaderPool(locator);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int nShards : new int[]{2, 4, 16}) {
+                for (int maxInFlight : new int[]{1, 3, nShards}) {
+                    List<String> actual = new ArrayList<>();
+                    iter = new ShardedQueryIterator(pool, executor, chr, start, end, nShards, maxInFlight);
+                    while (iter.hasNext()) {
+                        Alignment a = iter.next();
+                        actual.add(a.getReadName() + ":" + a.getAlignmentStart() + ":" + a.getCigarString());
+                    }
+                    iter.close();
+                    assertEquals(expected, actual);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            pool.close();
+            reader.close();
+        }
+    }
+}
@@ -26,12 +26,20 @@
 package org.broad.igv.tdf;
 
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 
 /**
@@ -70,4 +78,45 @@ public class TDFReaderTest {
         assertNotNull(tile);
 
     }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "tdf/NA12878.SLX.egfr.sam.tdf";
+
+        // Tiles read one at a time by a separate reader are the reference
+        TDFReader expectedReader = new TDFReader(new ResourceLocator(path));
+        List<float[]> expected = new ArrayList<>();
+        List<String[]> keys = new ArrayList<>();
+        for (String dsName : expectedReader.getDatasetNames()) {
+            TDFDataset ds = expectedReader.getDataset(dsName);
+            for (int t = 0; t < ds.getNTiles(); t++) {
+                TDFTile tile = expectedReader.readTile(ds, t);
+                if (tile != null) {
+                    keys.add(new String[]{dsName, String.valueOf(t)});
+                    expected.add(tile.getData(0));
+                }
+            }
+        }
+        expectedReader.close();
+        assertTrue(expected.size() > 0);
+
+        TDFReader reader = new TDFReader(new ResourceLocator(path));
+        assertNull(reader.getDataset("/noSuchChr/z0/mean"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int pass = 0; pass < 4; pass++) {
+                List<Future<float[]>> futures = new ArrayList<>();
+                for (String[] key : keys) {
+                    futures.add(executor.submit(() -> reader.getDataset(key[0]).getTile(Integer.parseInt(key[1])).getData(0)));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    assertTrue(Arrays.equals(expected.get(i), futures.get(i).get()));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            reader.close();
+        }
+    }
 }
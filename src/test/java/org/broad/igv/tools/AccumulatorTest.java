@@ -30,6 +30,7 @@
 package org.broad.igv.tools;
 
 import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.stats.QuantileSketch;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -181,20 +182,22 @@ public class AccumulatorTest {
 
 
     /**
-     * Pathological case,  # of data points exactly equals percentile chunk size
+     * Pathological case,  # of data points exactly equals a multiple of the percentile sketch capacity
      */
     @Test
     public void testChunkSize() {
 
+        int chunkSize = 400 * QuantileSketch.DEFAULT_K;
+
         ListAccumulator accum = new ListAccumulator(wfs);
-        for (int i = 0; i < ListAccumulator.MAX_VALUE_COUNT; i++) {
+        for (int i = 0; i < chunkSize; i++) {
             accum.add(1, (float) Math.random());
         }
         accum.finish();
         for (WindowFunction wf : wfs) {
             double v = accum.getValue(wf);
             if (wf == WindowFunction.count) {
-                assertEquals(wf.getValue(), ListAccumulator.MAX_VALUE_COUNT, v, 1.0e-2);
+                assertEquals(wf.getValue(), chunkSize, v, 1.0e-2);
             } else {
                 assertEquals(wf.getValue(), values.get(wf), v, 1.0e-2);
             }
@@ -202,14 +205,14 @@ public class AccumulatorTest {
         }
 
         accum = new ListAccumulator(wfs);
-        for (int i = 0; i < ListAccumulator.MAX_VALUE_COUNT - 1; i++) {
+        for (int i = 0; i < chunkSize - 1; i++) {
             accum.add(1, (float) Math.random());
         }
         accum.finish();
         for (WindowFunction wf : wfs) {
             double v = accum.getValue(wf);
             if (wf == WindowFunction.count) {
-                assertEquals(wf.getValue(), ListAccumulator.MAX_VALUE_COUNT - 1, v, 1.0e-2);
+                assertEquals(wf.getValue(), chunkSize - 1, v, 1.0e-2);
             } else {
                 assertEquals(wf.getValue(), values.get(wf), v, 1.0e-2);
             }
@@ -217,14 +220,14 @@ public class AccumulatorTest {
         }
 
         accum = new ListAccumulator(wfs);
-        for (int i = 0; i < ListAccumulator.MAX_VALUE_COUNT + 1; i++) {
+        for (int i = 0; i < chunkSize + 1; i++) {
             accum.add(1, (float) Math.random());
         }
         accum.finish();
         for (WindowFunction wf : wfs) {
             double v = accum.getValue(wf);
             if (wf == WindowFunction.count) {
-                assertEquals(wf.getValue(), ListAccumulator.MAX_VALUE_COUNT + 1, v, 1.0e-2);
+                assertEquals(wf.getValue(), chunkSize + 1, v, 1.0e-2);
             } else {
                 assertEquals(wf.getValue(), values.get(wf), v, 1.0e-2);
             }
@@ -406,6 +406,51 @@ public class IGVToolsCountTest extends AbstractHeadlessTest {
 
     }
 
+    /**
+     * Counting chromosomes on multiple threads should produce the same output as a single thread
+     */
+    @Test
+    public void testCountBAMThreads() throws Exception {
+        String inputFile = TestUtils.DATA_DIR + "bam/chr1_chr2.hg18.bam";
+        String serialBase = TestUtils.TMP_OUTPUT_DIR + "count_serial";
+        String threadedBase = TestUtils.TMP_OUTPUT_DIR + "count_threaded";
+
+        String cmd = "count --bases -w 5 " + inputFile + " " + serialBase + ".wig," + serialBase + ".tdf " + hg18id;
+        igvTools.run(cmd.split("\\s+"));
+        cmd = "count --threads 4 --bases -w 5 " + inputFile + " " + threadedBase + ".wig," + threadedBase + ".tdf " + hg18id;
+        igvTools.run(cmd.split("\\s+"));
+
+        assertEquals(java.nio.file.Files.readAllLines(new File(serialBase + ".wig").toPath()),
+                java.nio.file.Files.readAllLines(new File(threadedBase + ".wig").toPath()));
+
+        TDFReader serialReader = TDFReader.getReader(serialBase + ".tdf");
+        TDFReader threadedReader = TDFReader.getReader(threadedBase + ".tdf");
+        assertEquals(new HashSet<>(serialReader.getDatasetNames()), new HashSet<>(threadedReader.getDatasetNames()));
+        assertEquals(serialReader.getGroup("/").getAttribute("totalCount"),
+                threadedReader.getGroup("/").getAttribute("totalCount"));
+
+        int nTracks = serialReader.getTrackNames().length;
+        for (String dsName : serialReader.getDatasetNames()) {
+            TDFDataset serialDataset = serialReader.getDataset(dsName);
+            TDFDataset threadedDataset = threadedReader.getDataset(dsName);
+            for (int t = 0; t < serialDataset.getNTiles(); t++) {
+                TDFTile expected = serialReader.readTile(serialDataset, t);
+                TDFTile actual = threadedReader.readTile(threadedDataset, t);
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+                assertEquals(expected.getSize(), actual.getSize());
+                for (int i = 0; i < expected.getSize(); i++) {
+                    assertEquals(expected.getStartPosition(i), actual.getStartPosition(i));
+                    for (int row = 0; row < nTracks; row++) {
+                        assertEquals(dsName, expected.getValue(row, i), actual.getValue(row, i), 1.0e-4);
+                    }
+                }
+            }
+        }
+    }
+
     private float getCount(String filename, String chr, int zoom, int pos, Genome genome) {
         TDFReader reader = TDFReader.getReader(filename);
         TDFDataset ds = reader.getDataset(chr, zoom, WindowFunction.mean);
@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.tools;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.tdf.TDFDataset;
+import org.broad.igv.tdf.TDFReader;
+import org.broad.igv.tdf.TDFTile;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PreprocessorTest extends AbstractHeadlessTest {
+
+    /**
+     * Zoom levels built by merging bins should match those accumulated directly.  The chromosome length is chosen
+     * so that tile widths are the same in both modes.
+     */
+    @Test
+    public void testPyramid() throws Exception {
+
+        int maxZoom = 4;
+        int chrLength = 700 * 4 * (1 << maxZoom) - 1;
+
+        File sizesFile = new File(TestUtils.TMP_OUTPUT_DIR, "pyramid.chrom.sizes");
+        try (PrintWriter pw = new PrintWriter(sizesFile)) {
+            pw.println("chr1\t" + chrLength);
+        }
+        Genome genome = GenomeManager.getInstance().loadGenome(sizesFile.getAbsolutePath(), null);
+
+        // Mostly single base points, with some spanning several bins of the finest zoom
+        File dataFile = new File(TestUtils.TMP_OUTPUT_DIR, "pyramid.bedgraph");
+        Random random = new Random(1);
+        try (PrintWriter pw = new PrintWriter(dataFile)) {
+            int start = 0;
+            while (start < chrLength - 100) {
+                int end = start + (random.nextInt(10) == 0 ? 1 + random.nextInt(50) : 1);
+                pw.println("chr1\t" + start + "\t" + end + "\t" + random.nextInt(100));
+                start = end + random.nextInt(3);
+            }
+        }
+
+        List<WindowFunction> wfs = Arrays.asList(WindowFunction.mean, WindowFunction.min, WindowFunction.max);
+        File expectedFile = new File(TestUtils.TMP_OUTPUT_DIR, "pyramid_expected.tdf");
+        File actualFile = new File(TestUtils.TMP_OUTPUT_DIR, "pyramid_actual.tdf");
+        for (boolean pyramid : new boolean[]{false, true}) {
+            Preprocessor p = new Preprocessor(pyramid ? actualFile : expectedFile, genome, wfs, 0, null);
+            p.setPyramid(pyramid);
+            p.preprocess(dataFile, maxZoom, "bedgraph");
+            p.finish();
+        }
+
+        TDFReader expectedReader = TDFReader.getReader(expectedFile.getAbsolutePath());
+        TDFReader actualReader = TDFReader.getReader(actualFile.getAbsolutePath());
+        for (int z = 0; z <= maxZoom; z++) {
+            for (WindowFunction wf : wfs) {
+                TDFDataset expected = expectedReader.getDataset("chr1", z, wf);
+                TDFDataset actual = actualReader.getDataset("chr1", z, wf);
+                assertEquals(expected.getTileWidth(), actual.getTileWidth());
+                List<TDFTile> expectedTiles = expected.getTiles(0, chrLength);
+                List<TDFTile> actualTiles = actual.getTiles(0, chrLength);
+                assertEquals(expectedTiles.size(), actualTiles.size());
+                for (int t = 0; t < expectedTiles.size(); t++) {
+                    TDFTile et = expectedTiles.get(t);
+                    TDFTile at = actualTiles.get(t);
+                    assertEquals(et.getSize(), at.getSize());
+                    for (int i = 0; i < et.getSize(); i++) {
+                        assertEquals(et.getStartPosition(i), at.getStartPosition(i));
+                        assertEquals(et.getValue(0, i), at.getValue(0, i), 1.0e-3);
+                    }
+                }
+            }
+        }
+
+        expectedReader.close();
+        actualReader.close();
+        expectedFile.delete();
+        actualFile.delete();
+        dataFile.delete();
+        sizesFile.delete();
+    }
+}
@@ -33,10 +33,10 @@ import htsjdk.tribble.Feature;
 import htsjdk.tribble.FeatureCodec;
 import org.junit.Test;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -66,6 +66,66 @@ public class PackedFeaturesTest extends AbstractHeadlessTest {
     }
 
 
+    /**
+     * Rows should be the same as filling one row at a time, left to right, taking at most one feature per start
+     * position per row, longest first.
+     */
+    @Test
+    public void testRowAssignment() throws Exception {
+
+        Random random = new Random(1);
+        for (boolean sorted : new boolean[]{true, false}) {
+            List<TestFeature> features = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                int start = random.nextInt(20000);
+                features.add(new TestFeature("chr1", start, start + 1 + random.nextInt(random.nextInt(10) == 0 ? 2000 : 50)));
+            }
+            if (sorted) {
+                features.sort(Comparator.comparingInt(TestFeature::getStart));
+            }
+
+            PackedFeatures<TestFeature> pf = new PackedFeatures("chr1", 0, 30000, features.iterator(), "");
+            List<List<TestFeature>> expected = packOneRowAtATime(features);
+
+            assertEquals(expected.size(), pf.getRowCount());
+            for (int r = 0; r < expected.size(); r++) {
+                List<TestFeature> actualRow = pf.getRows().get(r).getFeatures();
+                assertEquals(expected.get(r).size(), actualRow.size());
+                for (int i = 0; i < actualRow.size(); i++) {
+                    assertSame(expected.get(r).get(i), actualRow.get(i));
+                }
+            }
+        }
+    }
+
+    private static List<List<TestFeature>> packOneRowAtATime(List<TestFeature> features) {
+
+        LinkedHashMap<Integer, PriorityQueue<TestFeature>> buckets = new LinkedHashMap<>();
+        for (TestFeature f : features) {
+            buckets.computeIfAbsent(f.getStart(), k -> new PriorityQueue<>(5, (f1, f2) -> f2.getEnd() - f1.getEnd())).add(f);
+        }
+
+        List<List<TestFeature>> rows = new ArrayList<>();
+        while (!buckets.isEmpty()) {
+            List<TestFeature> row = new ArrayList<>();
+            int nextStart = rows.isEmpty() ? Integer.MIN_VALUE : 0;
+            Iterator<PriorityQueue<TestFeature>> iter = buckets.values().iterator();
+            while (iter.hasNext()) {
+                PriorityQueue<TestFeature> bucket = iter.next();
+                if (bucket.peek().getStart() >= nextStart) {
+                    TestFeature f = bucket.poll();
+                    row.add(f);
+                    nextStart = f.getEnd() + FeatureTrack.MINIMUM_FEATURE_SPACING;
+                    if (bucket.isEmpty()) {
+                        iter.remove();
+                    }
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
     private void assertPackedFeaturesEqual(PackedFeatures<? extends Feature> expected, PackedFeatures<? extends Feature> actual) {
 
         TestUtils.assertFeatureListsEqual(expected.getFeatures().iterator(), actual.getFeatures().iterator());
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.collections;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLRUCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(1, (int) cache.get("a"));
+
+        cache.put("d", 4);
+        assertEquals(3, cache.size());
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("a"));
+
+        assertEquals(3, (int) cache.putIfAbsent("c", 30));
+        cache.put("e", 5);
+        assertFalse(cache.containsKey("a"));
+        assertEquals(3, (int) cache.get("c"));
+
+        cache.setMaxEntries(1);
+        assertEquals(1, cache.size());
+        assertEquals(3, (int) cache.get("c"));
+    }
+
+    @Test
+    public void testEvictionOrderAfterManyReads() {
+
+        ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+        // Read in reverse order many times, superseded accesses are compacted along the way
+        for (int pass = 0; pass < 1000; pass++) {
+            for (int i = 9; i >= 0; i--) {
+                cache.get(i);
+            }
+        }
+        for (int i = 10; i < 15; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(10, cache.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cache.containsKey(i));
+        }
+        for (int i = 5; i < 10; i++) {
+            assertFalse(cache.containsKey(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+
+        ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    int key = (i * 31 + seed) % 200;
+                    Integer value = cache.get(key);
+                    if (value == null) {
+                        value = cache.putIfAbsent(key, key * 2);
+                    }
+                    assertEquals(key * 2, (int) value);
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+        assertTrue(cache.size() <= 50 + 8);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WeightedLRUCacheTest {
+
+    @Test
+    public void testPut() {
+
+        WeightedLRUCache<String, String> cache = new WeightedLRUCache<>(() -> 1000);
+        cache.put("a", "a", 400);
+        cache.put("b", "b", 400);
+        cache.get("a");
+        cache.put("c", "c", 400);
+
+        // b was least recently used
+        assertFalse(cache.containsKey("b"));
+        assertEquals(800, cache.getBytes());
+        assertEquals(1, cache.getEvictionCount());
+
+        // A put replaces the cached value
+        cache.put("a", "a2", 100);
+        assertEquals("a2", cache.get("a"));
+        assertEquals(500, cache.getBytes());
+
+        // The value just added is held even if it alone exceeds the budget
+        cache.put("d", "d", 2000);
+        assertEquals(1, cache.size());
+        assertEquals("d", cache.get("d"));
+        assertEquals(2000, cache.getBytes());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+
+        WeightedLRUCache<String, String> cache = new WeightedLRUCache<>(() -> 1000);
+        assertEquals("a", cache.putIfAbsent("a", "a", 400));
+        assertEquals("a", cache.putIfAbsent("a", "other", 400));
+        assertEquals(400, cache.getBytes());
+
+        // A value larger than the budget is returned, but not cached
+        assertEquals("big", cache.putIfAbsent("big", "big", 2000));
+        assertFalse(cache.containsKey("big"));
+        assertEquals(1, cache.size());
+
+        cache.removeAll(key -> key.startsWith("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broad.igv.util.stats;
+
+import org.apache.commons.math.stat.StatUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+
+    private static final double[] PERCENTILES = {2, 10, 50, 90, 98};
+
+    @Test
+    public void testExact() {
+
+        Random random = new Random(1);
+        QuantileSketch sketch = new QuantileSketch();
+        double[] values = new double[QuantileSketch.DEFAULT_K];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) random.nextGaussian();
+            sketch.add((float) values[i]);
+        }
+
+        assertTrue(sketch.isExact());
+        for (double p : PERCENTILES) {
+            assertEquals(StatUtils.percentile(values, p), sketch.getPercentile(p), 0);
+        }
+
+        sketch.add(0);
+        assertFalse(sketch.isExact());
+        assertTrue(Double.isNaN(new QuantileSketch().getPercentile(50)));
+    }
+
+    @Test
+    public void testEstimate() {
+
+        int n = 1000000;
+        Random random = new Random(2);
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < n; i++) {
+            sketch.add(random.nextFloat());
+        }
+        assertEquals(n, sketch.getCount());
+        for (double p : PERCENTILES) {
+            assertEquals(p / 100, sketch.getPercentile(p), 5.0e-3);
+        }
+
+        // Sorted input
+        sketch = new QuantileSketch();
+        for (int i = 0; i < n; i++) {
+            sketch.add((float) i / n);
+        }
+        for (double p : PERCENTILES) {
+            assertEquals(p / 100, sketch.getPercentile(p), 5.0e-3);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+
+        // Merge sketches of consecutive ranges, as when combining bins of a finer zoom level
+        int n = 100000;
+        QuantileSketch merged = new QuantileSketch();
+        for (int b = 0; b < 10; b++) {
+            QuantileSketch bin = new QuantileSketch();
+            for (int i = b * n; i < (b + 1) * n; i++) {
+                bin.add((float) i / (10 * n));
+            }
+            merged.merge(bin);
+            assertEquals((b + 1) * (long) n, merged.getCount());
+        }
+        for (double p : PERCENTILES) {
+            assertEquals(p / 100, merged.getPercentile(p), 5.0e-3);
+        }
+
+        // Merging small sketches stays exact
+        QuantileSketch a = new QuantileSketch();
+        QuantileSketch b = new QuantileSketch();
+        double[] values = new double[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+            (i % 2 == 0 ? a : b).add(i);
+        }
+        a.merge(b);
+        assertTrue(a.isExact());
+        assertEquals(StatUtils.percentile(values, 50), a.getPercentile(50), 0);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2018 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IGVMappedFileStreamTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testMatchesFileStream() throws Exception {
+
+        File file = new File(TestUtils.DATA_DIR + "samtools/index_test.bam");
+        SeekableStream expected = new SeekableFileStream(file);
+        IGVMappedFileStream actual = new IGVMappedFileStream(file);
+        long length = file.length();
+        assertEquals(length, actual.length());
+
+        Random random = new Random(1234);
+        for (int i = 0; i < 200; i++) {
+            long position = (long) (random.nextDouble() * length);
+            int n = random.nextInt(5000) + 1;
+            byte[] e = new byte[n];
+            byte[] a = new byte[n];
+
+            expected.seek(position);
+            actual.seek(position);
+            int ne = expected.read(e, 0, n);
+            int na = actual.read(a, 0, n);
+            assertEquals(ne, na);
+            assertArrayEquals(e, a);
+            assertEquals(expected.position(), actual.position());
+
+            // A slice past the end of the file fails, as readFully does
+            if (ne < n) {
+                try {
+                    actual.slice(position, n);
+                    fail("Expected EOFException");
+                } catch (EOFException ex) {
+                    // expected
+                }
+                continue;
+            }
+            ByteBuffer slice = actual.slice(position, n);
+            assertEquals(n, slice.remaining());
+            byte[] s = new byte[slice.remaining()];
+            slice.get(s);
+            assertArrayEquals(e, s);
+        }
+
+        assertEquals(0, actual.slice(length, 0).remaining());
+        assertEquals(1, actual.slice(length - 1, 1).remaining());
+
+        actual.seek(length - 1);
+        assertFalse(actual.eof());
+        expected.seek(length - 1);
+        assertEquals(expected.read(), actual.read());
+        assertTrue(actual.eof());
+        assertEquals(-1, actual.read());
+        assertEquals(-1, actual.read(new byte[10], 0, 10));
+
+        expected.close();
+        actual.close();
+    }
+
+    @Test
+    public void testFactory() throws Exception {
+        String path = TestUtils.DATA_DIR + "samtools/index_test.bam";
+
+        // Only formats read in slices are mapped
+        SeekableStream stream = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
+        assertFalse(stream instanceof IGVMappedFileStream);
+        stream.close();
+
+        stream = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+        assertTrue(stream instanceof IGVMappedFileStream);
+        stream.close();
+    }
+}
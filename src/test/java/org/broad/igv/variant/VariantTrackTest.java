@@ -26,6 +26,7 @@
 package org.broad.igv.variant;
 
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.track.RenderContext;
 import org.broad.igv.track.Track;
 import org.broad.igv.track.TrackLoader;
 import org.broad.igv.util.ResourceLocator;
@@ -35,6 +36,10 @@ import htsjdk.tribble.Feature;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
@@ -65,4 +70,67 @@ public class VariantTrackTest extends AbstractHeadlessTest {
         }
     }
 
+    /**
+     * Test that genotype bands batched by type render as those rendered one sample at a time
+     */
+    @Test
+    public void testRenderGenotypeBands() throws Exception {
+        String filePath = TestUtils.DATA_DIR + "vcf/missingFields.vcf";
+        TestUtils.createIndex(filePath);
+
+        VariantTrack variantTrack = (VariantTrack) (new TrackLoader()).load(new ResourceLocator(filePath), genome).get(0);
+        List<Feature> features = variantTrack.getFeatures("chr2", 3321000, 13346000);
+        List<String> samples = new ArrayList<>(variantTrack.getAllSamples());
+        // Display order differs from file order
+        Collections.reverse(samples);
+
+        for (Track.DisplayMode displayMode : new Track.DisplayMode[]{Track.DisplayMode.EXPANDED, Track.DisplayMode.SQUISHED}) {
+            variantTrack.setDisplayMode(displayMode);
+            int bandHeight = variantTrack.getGenotypeBandHeight();
+            VariantTrack.VisibleSamples visibleSamples =
+                    new VariantTrack.VisibleSamples(samples, 0, samples.size() - 1, 0, bandHeight);
+            int width = 10 * features.size();
+            int height = samples.size() * bandHeight;
+
+            BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            VariantRenderer renderer = new VariantRenderer(variantTrack);
+            RenderContext context = new RenderContext(null, expected.createGraphics(), null, new Rectangle(0, 0, width, height));
+            for (int i = 0; i < features.size(); i++) {
+                Rectangle bandRect = new Rectangle(0, 0, width, bandHeight);
+                for (String sample : samples) {
+                    renderer.renderGenotypeBandSNP((Variant) features.get(i), context, bandRect, 10 * i, 8, sample,
+                            VariantTrack.ColorMode.GENOTYPE, false);
+                    bandRect.y += bandHeight;
+                }
+            }
+
+            BufferedImage actual = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            context = new RenderContext(null, actual.createGraphics(), null, new Rectangle(0, 0, width, height));
+            for (int i = 0; i < features.size(); i++) {
+                Variant variant = (Variant) features.get(i);
+                renderer.renderGenotypeBands(variant, context, samples, visibleSamples.getColumns(variant),
+                        0, samples.size() - 1, 0, bandHeight, 10 * i, 8, false);
+            }
+            renderer.flushGenotypes(context);
+
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+
+            // Bands batched by a paint that fails are discarded, not drawn by the next paint
+            Variant variant = (Variant) features.get(0);
+            renderer.renderGenotypeBands(variant, context, samples, visibleSamples.getColumns(variant),
+                    0, samples.size() - 1, 0, bandHeight, 0, 8, false);
+            renderer.resetGenotypes();
+            BufferedImage blank = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            renderer.flushGenotypes(new RenderContext(null, blank.createGraphics(), null, new Rectangle(0, 0, width, height)));
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    assertEquals(0xff000000, blank.getRGB(x, y));
+                }
+            }
+        }
+    }
 }